@@ -0,0 +1,218 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The names of the chado cvterms, read in one scan of the cvterm table and kept in an
+ * open-addressing map from cvterm_id to the interned name. Ids missing from the scan are
+ * queried one by one and kept in a small LRU cache, with the ids that have no cvterm.
+ *
+ * Read only once loaded, the phases share it, each one counting its lookups in a Lookups
+ * that queries the missing ids on the connection of the phase: the connection it was loaded
+ * with may be closed with the phase that loaded it.
+ */
+final class CvtermDictionary
+{
+    private static final int MISS_CACHE_SIZE = 1000;
+    // cvterm ids are never negative
+    private static final int FREE = -1;
+    private static final String NO_CVTERM = new String("");
+    private static final String CVTERM_QUERY = "SELECT c.name from cvterm c where c.cvterm_id=?";
+
+    private final int[] ids;
+    private final String[] names;
+    private final int size;
+    private final Map<Integer, String> misses =
+            new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                    return size() > MISS_CACHE_SIZE;
+                }
+            };
+
+    private CvtermDictionary(int[] ids, String[] names, int size) {
+        this.ids = ids;
+        this.names = names;
+        this.size = size;
+    }
+
+    /**
+     * Read all the cvterms.
+     * @param connection the chado connection
+     * @return the dictionary
+     * @throws SQLException if a database problem occurs
+     */
+    static CvtermDictionary load(Connection connection) throws SQLException {
+        int[] ids = new int[1024];
+        String[] names = new String[1024];
+        Arrays.fill(ids, FREE);
+        int size = 0;
+        Map<String, String> interned = new HashMap<String, String>();
+        Statement stmt = connection.createStatement();
+        try {
+            ResultSet res = stmt.executeQuery("SELECT c.cvterm_id, c.name from cvterm c");
+            while (res.next()) {
+                if ((size + 1) * 2 > ids.length) {
+                    int[] oldIds = ids;
+                    String[] oldNames = names;
+                    ids = new int[oldIds.length * 2];
+                    names = new String[oldIds.length * 2];
+                    Arrays.fill(ids, FREE);
+                    for (int i = 0; i < oldIds.length; i++) {
+                        if (oldIds[i] != FREE) {
+                            put(ids, names, oldIds[i], oldNames[i]);
+                        }
+                    }
+                }
+                String name = res.getString("name");
+                if (name != null) {
+                    String same = interned.get(name);
+                    if (same == null) {
+                        interned.put(name, name);
+                    } else {
+                        name = same;
+                    }
+                }
+                if (put(ids, names, res.getInt("cvterm_id"), name)) {
+                    size++;
+                }
+            }
+            res.close();
+        } finally {
+            stmt.close();
+        }
+        return new CvtermDictionary(ids, names, size);
+    }
+
+    private static boolean put(int[] ids, String[] names, int id, String name) {
+        int mask = ids.length - 1;
+        int slot = hash(id) & mask;
+        while (ids[slot] != FREE) {
+            if (ids[slot] == id) {
+                names[slot] = name;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        ids[slot] = id;
+        names[slot] = name;
+        return true;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param phase the name of the processing phase, for the log
+     * @param connection the chado connection of the phase, for the ids missing from the scan
+     * @return lookups counting their hits and time
+     */
+    Lookups lookups(String phase, Connection connection) {
+        return new Lookups(phase, connection);
+    }
+
+    private int slotOf(int id) {
+        int mask = ids.length - 1;
+        for (int slot = hash(id) & mask; ids[slot] != FREE; slot = (slot + 1) & mask) {
+            if (ids[slot] == id) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private String query(Connection connection, int id) throws SQLException {
+        synchronized (misses) {
+            String name = misses.get(id);
+            if (name == null) {
+                name = NO_CVTERM;
+                PreparedStatement stmt = connection.prepareStatement(CVTERM_QUERY);
+                try {
+                    stmt.setInt(1, id);
+                    ResultSet res = stmt.executeQuery();
+                    while (res.next()) {
+                        name = res.getString("name");
+                    }
+                    res.close();
+                } finally {
+                    stmt.close();
+                }
+                misses.put(id, name);
+            }
+            return name == NO_CVTERM ? null : name;
+        }
+    }
+
+    /**
+     * The lookups of one phase.
+     */
+    final class Lookups
+    {
+        private final String phase;
+        private final Connection connection;
+        private long hits;
+        private long missed;
+        private long nanos;
+
+        private Lookups(String phase, Connection connection) {
+            this.phase = phase;
+            this.connection = connection;
+        }
+
+        /**
+         * @param cvtermId internal chado id for a cvterm, as read from a result set
+         * @return the cvterm name or null if not found
+         * @throws SQLException if a database problem occurs for an id missing from the scan
+         */
+        String get(String cvtermId) throws SQLException {
+            if (cvtermId == null) {
+                return null;
+            }
+            long start = System.nanoTime();
+            try {
+                int id = Integer.parseInt(cvtermId);
+                int slot = slotOf(id);
+                if (slot >= 0) {
+                    hits++;
+                    return names[slot];
+                }
+                missed++;
+                return query(connection, id);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public String toString() {
+            long lookups = hits + missed;
+            return "cvterm lookups " + phase + ": " + lookups + ", hit rate "
+                    + (lookups == 0 ? 100 : hits * 100 / lookups) + "%, "
+                    + nanos / 1000000 + " ms";
+        }
+    }
+}
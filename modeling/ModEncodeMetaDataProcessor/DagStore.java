@@ -0,0 +1,368 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * The DAG of applied protocols and applied data of the modENCODE submissions,
+ * kept in primitive arrays: chado ids are mapped to dense indexes by
+ * open-addressing int maps, and every node has int arrays of neighbours.
+ * It replaces the Integer lists and maps holding the DAG, tens of millions
+ * of boxed Integers on a full modENCODE load.
+ *
+ * Not thread safe: it is filled by processDag, once compacted the DAG traversal
+ * threads can read it as long as nothing is added.
+ */
+final class DagStore
+{
+    private static final int[] NONE = new int[0];
+
+    private final IntIndex protocols = new IntIndex();
+    private final Adjacency inputs = new Adjacency();
+    private final Adjacency outputs = new Adjacency();
+
+    private final IntIndex data = new IntIndex();
+    private final Adjacency nextProtocols = new Adjacency();
+    private final Adjacency previousProtocols = new Adjacency();
+
+    private final IntIntMap dataSubmission = new IntIntMap();
+    private final IntIndex submissions = new IntIndex();
+    private final Adjacency submissionData = new Adjacency();
+
+    /**
+     * @param appliedProtocolId the applied protocol
+     * @param dataId one of its input data
+     */
+    void addInput(int appliedProtocolId, int dataId) {
+        inputs.add(protocols.indexOf(appliedProtocolId), dataId);
+    }
+
+    /**
+     * @param appliedProtocolId the applied protocol
+     * @param dataId one of its output data
+     */
+    void addOutput(int appliedProtocolId, int dataId) {
+        outputs.add(protocols.indexOf(appliedProtocolId), dataId);
+    }
+
+    /**
+     * @param dataId the data
+     * @param appliedProtocolId an applied protocol taking the data as input
+     */
+    void addNextAppliedProtocol(int dataId, int appliedProtocolId) {
+        // every applied protocol reached in a traversal has an index
+        protocols.indexOf(appliedProtocolId);
+        nextProtocols.add(data.indexOf(dataId), appliedProtocolId);
+    }
+
+    /**
+     * @param dataId the data
+     * @param appliedProtocolId an applied protocol producing the data
+     */
+    void addPreviousAppliedProtocol(int dataId, int appliedProtocolId) {
+        previousProtocols.add(data.indexOf(dataId), appliedProtocolId);
+    }
+
+    /**
+     * Map a data to a submission, a data belongs to the last submission it is mapped to.
+     * Mapping a data again to its submission does nothing.
+     * @param submissionId the submission
+     * @param dataId the data
+     */
+    void mapSubmissionAndData(int submissionId, int dataId) {
+        if (dataSubmission.get(dataId) == submissionId) {
+            return;
+        }
+        submissionData.add(submissions.indexOf(submissionId), dataId);
+        dataSubmission.put(dataId, submissionId);
+    }
+
+    int[] getInputs(int appliedProtocolId) {
+        return listOf(inputs, protocols, appliedProtocolId);
+    }
+
+    int[] getOutputs(int appliedProtocolId) {
+        return listOf(outputs, protocols, appliedProtocolId);
+    }
+
+    int[] getNextAppliedProtocols(int dataId) {
+        return listOf(nextProtocols, data, dataId);
+    }
+
+    int[] getPreviousAppliedProtocols(int dataId) {
+        return listOf(previousProtocols, data, dataId);
+    }
+
+    /**
+     * @param dataId the data
+     * @return the submission of the data, null if the data is in no submission
+     */
+    Integer getSubmissionId(int dataId) {
+        int submissionId = dataSubmission.get(dataId);
+        return submissionId == IntIntMap.MISSING ? null : submissionId;
+    }
+
+    /**
+     * @return the submissions having data, in the order they were first mapped
+     */
+    int[] getSubmissionIds() {
+        return submissions.ids();
+    }
+
+    /**
+     * @param submissionId the submission
+     * @return the data of the submission, in the order they were mapped
+     */
+    int[] getSubmissionData(int submissionId) {
+        return listOf(submissionData, submissions, submissionId);
+    }
+
+    /**
+     * Trim the arrays once the DAG is built, the getters then return them without copying.
+     */
+    void compact() {
+        protocols.compact();
+        inputs.compact();
+        outputs.compact();
+        data.compact();
+        nextProtocols.compact();
+        previousProtocols.compact();
+        submissions.compact();
+        submissionData.compact();
+    }
+
+    /**
+     * @return the approximate heap size of the store
+     */
+    long sizeInBytes() {
+        return protocols.sizeInBytes() + inputs.sizeInBytes() + outputs.sizeInBytes()
+                + data.sizeInBytes() + nextProtocols.sizeInBytes() + previousProtocols.sizeInBytes()
+                + dataSubmission.sizeInBytes() + submissions.sizeInBytes()
+                + submissionData.sizeInBytes();
+    }
+
+    /**
+     * Approximate heap size of the same DAG in HashMap<Integer, ...> and ArrayList<Integer>:
+     * 32 bytes per map entry, 16 per Integer, 4 per table slot or list reference and 40 per list.
+     * @return the estimated size in bytes
+     */
+    long boxedSizeInBytes() {
+        long edges = inputs.count + outputs.count + nextProtocols.count + previousProtocols.count
+                + submissionData.count;
+        long lists = protocols.size() * 2L + data.size() * 2L + submissions.size();
+        long entries = protocols.size() + data.size() + dataSubmission.size() * 2L
+                + submissions.size();
+        return edges * (16 + 4) + lists * 40 + entries * (32 + 16 + 4 * 2);
+    }
+
+    /**
+     * @param appliedProtocolId the applied protocol
+     * @return its dense index, from 0 to getAppliedProtocolCount() - 1, or -1 if unknown
+     */
+    int findAppliedProtocol(int appliedProtocolId) {
+        return protocols.find(appliedProtocolId);
+    }
+
+    /**
+     * @return the applied protocols, by dense index
+     */
+    int[] getAppliedProtocolIds() {
+        return protocols.ids();
+    }
+
+    int getAppliedProtocolCount() {
+        return protocols.size();
+    }
+
+    int getDataCount() {
+        return data.size();
+    }
+
+    private static int[] listOf(Adjacency adjacency, IntIndex index, int id) {
+        int i = index.find(id);
+        return i < 0 ? NONE : adjacency.get(i);
+    }
+
+    /**
+     * Open-addressing map from int to int, linear probing.
+     */
+    static final class IntIntMap
+    {
+        static final int MISSING = Integer.MIN_VALUE;
+        // chado ids are never negative, MIN_VALUE marks a free slot
+        private static final int FREE = Integer.MIN_VALUE;
+
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        IntIntMap() {
+            keys = new int[16];
+            values = new int[16];
+            Arrays.fill(keys, FREE);
+        }
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return MISSING;
+        }
+
+        void put(int key, int value) {
+            if (key == FREE) {
+                throw new IllegalArgumentException("Invalid key: " + key);
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != FREE) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 3 > keys.length * 2) {
+                rehash(keys.length * 2);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long sizeInBytes() {
+            return 8L * keys.length;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Dense indexes of chado ids, in the order they were first seen.
+     */
+    static final class IntIndex
+    {
+        private final IntIntMap indexes = new IntIntMap();
+        private int[] ids = new int[16];
+
+        int indexOf(int id) {
+            int index = indexes.get(id);
+            if (index == IntIntMap.MISSING) {
+                index = indexes.size();
+                if (index == ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(16, index * 2));
+                }
+                ids[index] = id;
+                indexes.put(id, index);
+            }
+            return index;
+        }
+
+        int find(int id) {
+            int index = indexes.get(id);
+            return index == IntIntMap.MISSING ? -1 : index;
+        }
+
+        int size() {
+            return indexes.size();
+        }
+
+        int[] ids() {
+            return Arrays.copyOf(ids, size());
+        }
+
+        void compact() {
+            ids = Arrays.copyOf(ids, size());
+        }
+
+        long sizeInBytes() {
+            return indexes.sizeInBytes() + 4L * ids.length;
+        }
+    }
+
+    /**
+     * Int array of neighbours per dense index.
+     */
+    static final class Adjacency
+    {
+        private int[][] lists = new int[16][];
+        private int[] sizes = new int[16];
+        private long count;
+
+        void add(int index, int value) {
+            if (index >= lists.length) {
+                int capacity = Math.max(lists.length * 2, index + 1);
+                lists = Arrays.copyOf(lists, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+            }
+            int[] list = lists[index];
+            if (list == null) {
+                list = new int[2];
+                lists[index] = list;
+            } else if (sizes[index] == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                lists[index] = list;
+            }
+            list[sizes[index]++] = value;
+            count++;
+        }
+
+        int[] get(int index) {
+            if (index >= lists.length || lists[index] == null) {
+                return NONE;
+            }
+            int[] list = lists[index];
+            return list.length == sizes[index] ? list : Arrays.copyOf(list, sizes[index]);
+        }
+
+        void compact() {
+            for (int i = 0; i < lists.length; i++) {
+                if (lists[i] != null && lists[i].length != sizes[i]) {
+                    lists[i] = Arrays.copyOf(lists[i], sizes[i]);
+                }
+            }
+        }
+
+        long sizeInBytes() {
+            long bytes = 8L * lists.length;
+            for (int[] list : lists) {
+                if (list != null) {
+                    bytes += 16 + 4L * list.length;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.intermine.metadata.Util;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * The traversal of a compacted DagStore from the first applied protocols, level by level,
+ * mapping the data to the submission of the applied protocols reaching them.
+ * An applied protocol is visited once per level, even when it is reached from several
+ * parents: the same child used to be queued once per parent edge, and on diamond shaped
+ * DAGs shared descendants were visited an exponential number of times.
+ * With more than one thread the sub-DAGs sharing no applied protocol are traversed in
+ * parallel, the data are then mapped to their submission in the order of the sequential
+ * traversal.
+ */
+final class DagTraversal
+{
+    /**
+     * What the traversal reads and sets on the applied protocols and data outside the DAG.
+     */
+    interface Nodes
+    {
+        /**
+         * @param appliedProtocolId an applied protocol
+         * @return its submission
+         */
+        int getSubmissionId(int appliedProtocolId);
+
+        /**
+         * @param appliedProtocolId a first applied protocol, at the first level of the DAG
+         */
+        void setFirstLevel(int appliedProtocolId);
+
+        /**
+         * @param dataId a data
+         * @return true if the traversal goes on to the applied protocols taking it as input
+         */
+        boolean isAppliedData(int dataId);
+
+        /**
+         * Set the submission of an applied protocol, called once per level it is reached at
+         * with the submission of its last parent: the last call wins. With more than one
+         * thread it is called by the traversing threads, the calls on one applied protocol
+         * coming from the same thread.
+         * @param appliedProtocolId the applied protocol
+         * @param submissionId the submission
+         * @throws ObjectStoreException if it cannot be stored
+         */
+        void setSubmission(int appliedProtocolId, int submissionId) throws ObjectStoreException;
+    }
+
+    private final DagStore dag;
+    private final Nodes nodes;
+    private int partitions;
+    private int levels;
+    private long visits;
+
+    /**
+     * @param dag the DAG, compacted: nothing is added during the traversal
+     * @param nodes the applied protocols and data
+     */
+    DagTraversal(DagStore dag, Nodes nodes) {
+        this.dag = dag;
+        this.nodes = nodes;
+    }
+
+    /**
+     * @param firstAppliedProtocols the first applied protocols, in the order of the submissions
+     * @param threads the threads traversing the sub-DAGs, 1 or less for a sequential traversal
+     * @throws ObjectStoreException if setting a submission fails or the traversal is interrupted
+     */
+    void traverse(int[] firstAppliedProtocols, int threads) throws ObjectStoreException {
+        final int size = dag.getAppliedProtocolCount();
+        // scratch space of the thread traversing a partition, by applied protocol dense index
+        ThreadLocal<BitSet> queued = new ThreadLocal<BitSet>() {
+            @Override
+            protected BitSet initialValue() {
+                return new BitSet(size);
+            }
+        };
+        ThreadLocal<int[]> parentSubmissions = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[size];
+            }
+        };
+
+        if (threads <= 1) {
+            Partition all = new Partition(firstAppliedProtocols, null, queued, parentSubmissions);
+            all.call();
+            partitions = 1;
+            levels = all.levels;
+            visits = all.visits;
+            return;
+        }
+
+        // the roots of each sub-DAG in the order of firstAppliedProtocols, by position
+        int[] components = connectAppliedProtocols();
+        Map<Integer, List<Integer>> rootsByComponent = new LinkedHashMap<Integer, List<Integer>>();
+        for (int i = 0; i < firstAppliedProtocols.length; i++) {
+            int index = dag.findAppliedProtocol(firstAppliedProtocols[i]);
+            Util.addToListMap(rootsByComponent, index < 0 ? -1 : components[index], i);
+        }
+        List<Partition> traversals = new ArrayList<Partition>();
+        for (List<Integer> positions : rootsByComponent.values()) {
+            int[] rootPositions = new int[positions.size()];
+            int[] roots = new int[rootPositions.length];
+            for (int i = 0; i < roots.length; i++) {
+                rootPositions[i] = positions.get(i);
+                roots[i] = firstAppliedProtocols[rootPositions[i]];
+            }
+            traversals.add(new Partition(roots, rootPositions, queued, parentSubmissions));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Partition> traversed : pool.invokeAll(traversals)) {
+                traversed.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException("DAG traversal interrupted", e);
+        } catch (ExecutionException e) {
+            throw new ObjectStoreException("DAG traversal failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        partitions = traversals.size();
+        levels = mergePartitions(traversals);
+        visits = 0;
+        for (Partition partition : traversals) {
+            visits += partition.visits;
+        }
+    }
+
+    /**
+     * @return the number of sub-DAGs of the last traversal, 1 if it was sequential
+     */
+    int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return the number of levels of the last traversal
+     */
+    int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return the applied protocol visits of the last traversal
+     */
+    long getVisits() {
+        return visits;
+    }
+
+    /**
+     * Union-find of the applied protocols linked by a data, output of one and input of the
+     * other: the traversals from roots in different sets share no applied protocol.
+     * @return the representative of the set of each applied protocol, by dense index
+     */
+    private int[] connectAppliedProtocols() {
+        int[] sets = new int[dag.getAppliedProtocolCount()];
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = i;
+        }
+        for (int appliedProtocolId : dag.getAppliedProtocolIds()) {
+            int set = findSet(sets, dag.findAppliedProtocol(appliedProtocolId));
+            for (int dataId : dag.getOutputs(appliedProtocolId)) {
+                for (int nextId : dag.getNextAppliedProtocols(dataId)) {
+                    int other = findSet(sets, dag.findAppliedProtocol(nextId));
+                    if (other != set) {
+                        sets[other] = set;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = findSet(sets, i);
+        }
+        return sets;
+    }
+
+    private static int findSet(int[] sets, int index) {
+        while (sets[index] != index) {
+            sets[index] = sets[sets[index]];
+            index = sets[index];
+        }
+        return index;
+    }
+
+    /**
+     * Map the data of the partitions to their submission in the order of the sequential
+     * traversal: level by level and, in a level, in the order the applied protocols were
+     * queued, the roots in the order of firstAppliedProtocols. The partitions share no applied
+     * protocol but can share data, which end up mapped to the same submission.
+     * @param partitions the traversed partitions
+     * @return the number of levels
+     */
+    private int mergePartitions(List<Partition> partitions) {
+        int levels = 0;
+        for (Partition partition : partitions) {
+            levels = Math.max(levels, partition.levels);
+        }
+        // position in the sequential level of the applied protocols of each partition
+        int[][] positions = new int[partitions.size()][];
+        for (int level = 0; level < levels; level++) {
+            int[][] levelPositions = new int[partitions.size()][];
+            int[] cursors = new int[partitions.size()];
+            // the next applied protocol of each partition: {queued at, partition}
+            PriorityQueue<int[]> heads = new PriorityQueue<int[]>(Math.max(1, partitions.size()),
+                    (a, b) -> Integer.compare(a[0], b[0]));
+            for (int p = 0; p < partitions.size(); p++) {
+                Partition partition = partitions.get(p);
+                if (level < partition.levels) {
+                    levelPositions[p] = new int[partition.size(level)];
+                    heads.add(new int[] {partition.queuedAt(level, 0, positions[p]), p});
+                }
+            }
+            int position = 0;
+            while (!heads.isEmpty()) {
+                int[] head = heads.poll();
+                int p = head[1];
+                Partition partition = partitions.get(p);
+                int i = cursors[p]++;
+                levelPositions[p][i] = position++;
+                partition.mergeProtocol(level, i);
+                if (cursors[p] < partition.size(level)) {
+                    head[0] = partition.queuedAt(level, cursors[p], positions[p]);
+                    heads.add(head);
+                }
+            }
+            positions = levelPositions;
+        }
+        return levels;
+    }
+
+    /**
+     * The applied protocols reachable from some first applied protocols, traversed level by
+     * level. In a sequential traversal the data are mapped to their submission at once,
+     * otherwise the submission-data pairs are kept, with the order the applied protocols were
+     * queued in, until all the partitions are done.
+     */
+    private final class Partition implements Callable<Partition>
+    {
+        private final int[] roots;
+        private final int[] rootPositions;
+        private final ThreadLocal<BitSet> queued;
+        private final ThreadLocal<int[]> parentSubmissions;
+        // submission, data pairs
+        private int[] mapped = new int[16];
+        private int mappedCount;
+        // per level, for each applied protocol: the index in the level before of the applied
+        // protocol that queued it (for the roots, their position in firstAppliedProtocols),
+        // and where its pairs end
+        private int[][] levelQueuedBy = new int[4][];
+        private int[][] levelPairEnds = new int[4][];
+        private int[] nextQueuedBy;
+        private int levels;
+        private long visits;
+
+        /**
+         * @param roots the first applied protocols of the partition
+         * @param rootPositions their position in firstAppliedProtocols, null for a sequential
+         *        traversal of all of them
+         */
+        private Partition(int[] roots, int[] rootPositions, ThreadLocal<BitSet> queued,
+                ThreadLocal<int[]> parentSubmissions) {
+            this.roots = roots;
+            this.rootPositions = rootPositions;
+            this.queued = queued;
+            this.parentSubmissions = parentSubmissions;
+        }
+
+        @Override
+        public Partition call() throws ObjectStoreException {
+            BitSet queuedAP = queued.get();
+            int[] currentIterationAP = new int[roots.length];
+            int[] queuedBy = new int[roots.length];
+            int count = 0;
+            for (int i = 0; i < roots.length; i++) {
+                int index = dag.findAppliedProtocol(roots[i]);
+                if (index < 0 || !queuedAP.get(index)) {
+                    if (index >= 0) {
+                        queuedAP.set(index);
+                    }
+                    queuedBy[count] = rootPositions == null ? i : rootPositions[i];
+                    currentIterationAP[count++] = roots[i];
+                }
+            }
+            currentIterationAP = Arrays.copyOf(currentIterationAP, count);
+            queuedBy = Arrays.copyOf(queuedBy, count);
+            int step = 1;     // DAG level
+
+            while (currentIterationAP.length > 0) {
+                visits += currentIterationAP.length;
+                // an applied protocol can be in the next level too
+                for (int appliedProtocolId : currentIterationAP) {
+                    int index = dag.findAppliedProtocol(appliedProtocolId);
+                    if (index >= 0) {
+                        queuedAP.clear(index);
+                    }
+                }
+                int[] pairEnds = new int[currentIterationAP.length];
+                currentIterationAP = buildADagLevel(currentIterationAP, step, queuedAP,
+                        parentSubmissions.get(), pairEnds);
+                if (levels == levelPairEnds.length) {
+                    levelQueuedBy = Arrays.copyOf(levelQueuedBy, levels * 2);
+                    levelPairEnds = Arrays.copyOf(levelPairEnds, levels * 2);
+                }
+                levelQueuedBy[levels] = queuedBy;
+                levelPairEnds[levels++] = pairEnds;
+                queuedBy = nextQueuedBy;
+                step++;
+            }
+            return this;
+        }
+
+        /**
+         * This method is given a set of applied protocols (already associated with a submission)
+         * and produces the next set of applied protocols. The latter are the protocols attached
+         * to the output data of the starting set (output data for a applied protocol is the input
+         * data for the next one).
+         * It also fills the map linking directly results ('leaf' output data) with submission
+         *
+         * @param previousAppliedProtocols
+         * @param step the DAG level of previousAppliedProtocols
+         * @param queuedAP the applied protocols already in the next level, by dense index
+         * @param submissions the submission of the last parent, by dense index
+         * @param pairEnds filled with where the pairs of each previous applied protocol end,
+         *        nextQueuedBy is set to the index of the one queuing each returned one
+         * @return the next batch of appliedProtocolId, each one once
+         * @throws ObjectStoreException
+         */
+        private int[] buildADagLevel(int[] previousAppliedProtocols, int step, BitSet queuedAP,
+                int[] submissions, int[] pairEnds)
+            throws ObjectStoreException {
+            int[] nextIterationProtocols = new int[previousAppliedProtocols.length];
+            int[] queuedBy = new int[previousAppliedProtocols.length];
+            int count = 0;
+            for (int i = 0; i < previousAppliedProtocols.length; i++) {
+                int currentId = previousAppliedProtocols[i];
+                // add the DAG level here only if these are the first AP
+                if (step == 1) {
+                    nodes.setFirstLevel(currentId);
+                }
+                int[] outputs = dag.getOutputs(currentId);
+                int submissionId = nodes.getSubmissionId(currentId);
+                for (int currentOD : outputs) {
+                    // build map submission-data
+                    map(submissionId, currentOD);
+                    if (!nodes.isAppliedData(currentOD)) {
+                        continue;
+                    }
+                    // fill the list of next (children) protocols
+                    int[] nextProtocols = dag.getNextAppliedProtocols(currentOD);
+
+                    // build the list of children applied protocols chado identifiers
+                    // as input for the next iteration
+                    for (int currentAPId : nextProtocols) {
+                        int index = dag.findAppliedProtocol(currentAPId);
+                        if (!queuedAP.get(index)) {
+                            queuedAP.set(index);
+                            if (count == nextIterationProtocols.length) {
+                                nextIterationProtocols = Arrays.copyOf(nextIterationProtocols,
+                                        count * 2 + 1);
+                                queuedBy = Arrays.copyOf(queuedBy, count * 2 + 1);
+                            }
+                            queuedBy[count] = i;
+                            nextIterationProtocols[count++] = currentAPId;
+                        }
+                        submissions[index] = submissionId;
+                    }
+                }
+
+                // to fill submission-dataId map
+                // this is needed, otherwise inputs to AP that are not outputs
+                // of a previous protocol are not considered
+                if (outputs.length > 0) {
+                    for (int currentIn : dag.getInputs(currentId)) {
+                        // build map submission-data
+                        map(submissionId, currentIn);
+                    }
+                }
+                pairEnds[i] = mappedCount;
+            }
+            nextQueuedBy = Arrays.copyOf(queuedBy, count);
+
+            // and set the submission of the applied protocols, once per level, to the
+            // submission of the last parent as when it was set once per parent
+            for (int i = 0; i < count; i++) {
+                int currentAPId = nextIterationProtocols[i];
+                nodes.setSubmission(currentAPId, submissions[dag.findAppliedProtocol(currentAPId)]);
+            }
+            return Arrays.copyOf(nextIterationProtocols, count);
+        }
+
+        private void map(int submissionId, int dataId) {
+            if (rootPositions == null) {
+                dag.mapSubmissionAndData(submissionId, dataId);
+                return;
+            }
+            if (mappedCount + 2 > mapped.length) {
+                mapped = Arrays.copyOf(mapped, mapped.length * 2);
+            }
+            mapped[mappedCount++] = submissionId;
+            mapped[mappedCount++] = dataId;
+        }
+
+        private int size(int level) {
+            return levelPairEnds[level].length;
+        }
+
+        /**
+         * @param level the level
+         * @param i the applied protocol in the level
+         * @param previousPositions the sequential positions of the level before
+         * @return the sequential position of the applied protocol that queued it, or of the root
+         */
+        private int queuedAt(int level, int i, int[] previousPositions) {
+            int queuedBy = levelQueuedBy[level][i];
+            return level == 0 ? queuedBy : previousPositions[queuedBy];
+        }
+
+        private void mergeProtocol(int level, int i) {
+            int start;
+            if (i > 0) {
+                start = levelPairEnds[level][i - 1];
+            } else {
+                start = level == 0 ? 0 : levelPairEnds[level - 1][size(level - 1) - 1];
+            }
+            for (int pair = start; pair < levelPairEnds[level][i]; pair += 2) {
+                dag.mapSubmissionAndData(mapped[pair], mapped[pair + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * The DAG traversed by sub-DAGs on several threads, then merged, maps the data to the
+ * submissions and sets the submission of the applied protocols as the sequential traversal.
+ */
+public class DagTraversalTest
+{
+    @Test
+    public void testPartitionedSameAsSequential() throws Exception {
+        for (long seed = 0; seed < 3000; seed++) {
+            assertEquals("DAG " + seed, traverse(seed, 1), traverse(seed, 4));
+        }
+    }
+
+    /**
+     * Traverse a random DAG: the applied protocols only take as input the initial data, shared
+     * by the submissions, and the outputs of the applied protocols before them.
+     * @return the submission of each data, the data of each submission and the submission of
+     * each applied protocol
+     */
+    private String traverse(long seed, int threads) throws Exception {
+        Random random = new Random(seed);
+        int submissions = 1 + random.nextInt(6);
+        int appliedProtocols = 5 + random.nextInt(40);
+        int roots = 1 + random.nextInt(Math.min(appliedProtocols, submissions * 2));
+        int initialData = 1 + random.nextInt(5);
+        DagStore dag = new DagStore();
+        TestNodes nodes = new TestNodes();
+        int[] firstAppliedProtocols = new int[roots];
+        List<Integer> produced = new ArrayList<Integer>();
+        int nextData = initialData + 1;
+        for (int ap = 1; ap <= appliedProtocols; ap++) {
+            nodes.submissions.put(ap, 1 + random.nextInt(submissions));
+            if (ap <= roots) {
+                firstAppliedProtocols[ap - 1] = ap;
+            }
+            for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                int dataId;
+                if (ap <= roots || produced.isEmpty() || random.nextInt(4) == 0) {
+                    dataId = 1 + random.nextInt(initialData);
+                } else {
+                    dataId = produced.get(random.nextInt(produced.size()));
+                }
+                dag.addInput(ap, dataId);
+                if (ap > roots && dataId > initialData) {
+                    dag.addNextAppliedProtocol(dataId, ap);
+                }
+                nodes.appliedData.add(dataId);
+            }
+            for (int i = random.nextInt(3); i > 0; i--) {
+                int dataId = nextData++;
+                dag.addOutput(ap, dataId);
+                produced.add(dataId);
+                // some outputs are not applied data, the traversal stops there
+                if (random.nextInt(4) > 0) {
+                    nodes.appliedData.add(dataId);
+                }
+            }
+        }
+        dag.compact();
+
+        new DagTraversal(dag, nodes).traverse(firstAppliedProtocols, threads);
+
+        StringBuilder result = new StringBuilder();
+        for (int dataId = 1; dataId < nextData; dataId++) {
+            result.append(dataId).append("->").append(dag.getSubmissionId(dataId)).append(' ');
+        }
+        for (int submissionId : dag.getSubmissionIds()) {
+            result.append('\n').append(submissionId)
+                .append(Arrays.toString(dag.getSubmissionData(submissionId)));
+        }
+        result.append('\n').append(nodes.stored).append('\n').append(nodes.firstLevel);
+        return result.toString();
+    }
+
+    private static class TestNodes implements DagTraversal.Nodes
+    {
+        private final Map<Integer, Integer> submissions = new HashMap<Integer, Integer>();
+        private final Set<Integer> appliedData = new HashSet<Integer>();
+        // the last submission set on each applied protocol
+        private final Map<Integer, Integer> stored = new TreeMap<Integer, Integer>();
+        private final Map<Integer, Integer> firstLevel = new TreeMap<Integer, Integer>();
+
+        @Override
+        public int getSubmissionId(int appliedProtocolId) {
+            return submissions.get(appliedProtocolId);
+        }
+
+        @Override
+        public synchronized void setFirstLevel(int appliedProtocolId) {
+            firstLevel.put(appliedProtocolId, 1);
+        }
+
+        @Override
+        public boolean isAppliedData(int dataId) {
+            return appliedData.contains(dataId);
+        }
+
+        @Override
+        public synchronized void setSubmission(int appliedProtocolId, int submissionId) {
+            stored.put(appliedProtocolId, submissionId);
+        }
+    }
+}
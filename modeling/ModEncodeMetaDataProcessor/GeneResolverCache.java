@@ -0,0 +1,71 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The resolutions of gene ids by an IdResolver, one resolveId call per (taxonId, originalId).
+ * Ids resolving to no gene are remembered as well, as an empty set.
+ */
+final class GeneResolverCache
+{
+    private final IdResolver resolver;
+    private final Map<String, Set<String>> resolutions = new HashMap<String, Set<String>>();
+    private long hits;
+    private long misses;
+    private long unresolved;
+    private long nanos;
+
+    /**
+     * @param resolver the resolver to call on a miss
+     */
+    GeneResolverCache(IdResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param taxonId the organism
+     * @param originalId the gene id to resolve
+     * @return the primary identifiers of the genes, empty if none, not to be changed
+     */
+    synchronized Set<String> resolve(String taxonId, String originalId) {
+        String key = taxonId + '\t' + originalId;
+        Set<String> ids = resolutions.get(key);
+        if (ids != null) {
+            hits++;
+            return ids;
+        }
+        misses++;
+        long start = System.nanoTime();
+        ids = resolver.resolveId(taxonId, originalId);
+        nanos += System.nanoTime() - start;
+        if (ids == null || ids.isEmpty()) {
+            ids = Collections.emptySet();
+            unresolved++;
+        } else {
+            ids = Collections.unmodifiableSet(ids);
+        }
+        resolutions.put(key, ids);
+        return ids;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return "gene resolutions: " + lookups + ", hit rate "
+                + (lookups == 0 ? 100 : hits * 100 / lookups) + "%, " + misses + " resolved in "
+                + nanos / 1000000 + " ms, " + unresolved + " to no gene";
+    }
+}
@@ -11,7 +11,6 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -24,9 +23,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -66,6 +69,26 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     // preferred synonyms
     private static final String STRAIN = "strain";
     private static final String DEVSTAGE = "developmental stage";
+    private static final int STORE_QUEUE_SIZE = 10000;
+    private static final PendingStore END_OF_STORES = new PendingStore(null, null);
+
+    // applied protocol and data links, and submission <-> data, in int arrays
+    private final DagStore dag = new DagStore();
+    // threads traversing the DAG, sub-DAGs sharing no applied protocol are independent
+    private final int dagThreads = Integer.getInteger("modencode.dag.threads",
+            Runtime.getRuntime().availableProcessors());
+    // all the cvterm names, read once, see getCvterms
+    private CvtermDictionary cvterms;
+    // gene target resolutions, see getGeneResolver
+    private GeneResolverCache geneResolver;
+    // DCC id -> submission, the reverse of dccIdMap, see putDccId
+    private final Map<String, Integer> dccIdSubmissionMap = new HashMap<String, Integer>();
+    // all the converter calls, the phases can run in parallel
+    private final OrderedWriter orderedWriter = new OrderedWriter();
+    // reference, collection and attribute stores of the DAG and submission references
+    private final StoreBuffer storeBuffer = new StoreBuffer(
+            Integer.getInteger("modencode.store.batch.size", 10000),
+            Long.getLong("modencode.store.batch.ms", 5000L));
 
     /**
      * Return the rows needed to construct the DAG of the data/protocols.
@@ -90,6 +113,87 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         return doQuery(connection, query, "getDAG");
     }
 
+    /**
+     * Run the phases reading chado, independent ones in parallel on their own connection,
+     * with -Dmodencode.phase.threads threads (1, the default, runs them in this order on the
+     * given connection). The reads and writes declare what each phase needs from the others,
+     * all the converter calls go through orderedWriter.
+     * To call from process(), after the deleted submissions, projects, labs, organisms and
+     * experiments are read: the phases need deletedSubMap, submissionOrganismMap and
+     * labIdRefMap. With more than one thread the items are created and stored in the order
+     * the phases reach the converter, their identifiers change from one run to the next.
+     *
+     * @param connection the chado connection
+     * @throws Exception if a phase fails
+     */
+    protected void processChadoPhases(Connection connection) throws Exception {
+        // the stores a phase left in storeBuffer are flushed when it ends, the time based
+        // flush only happens on the next store
+        PhaseScheduler phases = new PhaseScheduler(getChadoDBConverter().getDatabase(),
+                c -> storeBuffer.flush());
+        phases.add("submissions", new String[] {"deleted", "projects", "labs", "organisms"},
+                new String[] {"submissions", "debug"}, this::processSubmission);
+        phases.add("submission attributes", new String[] {"deleted", "submissions"},
+                new String[] {"dccIds", "publications", "experimentCategories"},
+                this::processSubmissionAttributes);
+        phases.add("protocols", new String[] {}, new String[] {"protocols"},
+                this::processProtocolTable);
+        // the protocol items are created along the applied protocols
+        phases.add("applied protocols", new String[] {"deleted", "protocols", "submissions"},
+                new String[] {"appliedProtocolIds", "protocolItems"},
+                this::processAppliedProtocolTable);
+        phases.add("protocol attributes", new String[] {"protocolItems"},
+                new String[] {"protocolTypes"}, this::processProtocolAttributes);
+        phases.add("DAG",
+                new String[] {"deleted", "submissions", "appliedProtocolIds", "dccIds"},
+                new String[] {"dag", "appliedProtocols", "appliedData"}, this::processDag);
+        phases.add("experimental factors", new String[] {"deleted", "dccIds"},
+                new String[] {"experimentalFactors"}, this::processEFactor);
+        phases.add("applied data", new String[] {"deleted", "dag", "appliedData"},
+                new String[] {"appliedData"}, this::processAppliedData);
+        phases.add("applied data attributes", new String[] {"deleted", "dag", "appliedData"},
+                new String[] {}, this::processAppliedDataAttributes);
+        phases.add("submission properties",
+                new String[] {"deleted", "dag", "appliedData", "appliedProtocols", "dccIds",
+                    "submissions", "experimentalFactors", "organisms"},
+                new String[] {"submissionRefs", "experimentalFactorItems", "properties"},
+                this::processSubmissionProperties);
+        phases.add("related submissions", new String[] {"submissions", "submissionRefs"},
+                new String[] {}, this::createRelatedSubmissions);
+        phases.add("submission data references",
+                new String[] {"dag", "appliedData", "submissions"}, new String[] {},
+                this::setSubmissionRefs);
+        phases.add("database records",
+                new String[] {"dag", "appliedData", "dccIds", "submissions"},
+                new String[] {"databaseRecords"}, this::createDatabaseRecords);
+        phases.add("result files", new String[] {"dag", "appliedData", "dccIds", "submissions"},
+                new String[] {}, this::createResultFiles);
+        phases.add("submission protocol references",
+                new String[] {"appliedProtocols", "protocolItems", "protocolTypes", "projects",
+                    "dccIds", "submissions", "submissionRefs"},
+                new String[] {}, this::setSubmissionProtocolsRefs);
+        phases.add("submission experiment references",
+                new String[] {"submissions", "experiments"}, new String[] {},
+                this::setSubmissionExperimentRefs);
+        phases.add("submission factor references",
+                new String[] {"submissions", "experimentalFactorItems"}, new String[] {},
+                this::setSubmissionEFactorsRefs);
+        phases.add("submission publication references",
+                new String[] {"submissions", "publications"}, new String[] {},
+                this::setSubmissionPublicationRefs);
+        phases.add("DAG references",
+                new String[] {"appliedData", "appliedProtocols", "appliedProtocolIds"},
+                new String[] {}, this::setDAGRefs);
+        int threads = Integer.getInteger("modencode.phase.threads", 1);
+        orderedWriter.concurrent = threads > 1;
+        try {
+            phases.run(connection, threads);
+        } finally {
+            orderedWriter.concurrent = false;
+        }
+        LOG.info(storeBuffer);
+    }
+
     /**
      *
      * ====================
@@ -173,7 +277,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 // used to fetch features
                 if (res.isLast()) {
                     if ("output".equalsIgnoreCase(direction)) {
-                        node.outputs.add(dataId);
+                        dag.addOutput(previousAppliedProtocolId, dataId);
                         mapSubmissionAndData(submissionId, dataId);
                     }
                 }
@@ -188,21 +292,28 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 newNode.protocolId = protocolId;
                 newNode.submissionId = submissionId;
 
+                // on the last row the new node is not stored, keep the data of this
+                // applied protocol only once
+                boolean isNewNode = !appliedProtocolId.equals(previousAppliedProtocolId);
                 if (direction.startsWith("in")) {
                     // add this applied protocol to the list of nextAppliedProtocols
-                    branch.nextAppliedProtocols.add(appliedProtocolId);
+                    dag.addNextAppliedProtocol(dataId, appliedProtocolId);
                     // ..and update the map
                     updateAppliedDataMap(branch, dataId);
                     // .. and add the dataId to the list of input Data for this applied protocol
-                    newNode.inputs.add(dataId);
+                    if (isNewNode) {
+                        dag.addInput(appliedProtocolId, dataId);
+                    }
                     mapSubmissionAndData(submissionId, dataId); //***
 
                 } else if (direction.startsWith("out")) {
                     // add the dataId to the list of output Data for this applied protocol:
                     // it will be used to link to the next set of applied protocols
-                    newNode.outputs.add(dataId);
+                    if (isNewNode) {
+                        dag.addOutput(appliedProtocolId, dataId);
+                    }
                     if (previousAppliedProtocolId > 0) {
-                        branch.previousAppliedProtocols.add(previousAppliedProtocolId);
+                        dag.addPreviousAppliedProtocol(dataId, previousAppliedProtocolId);
                         updateAppliedDataMap(branch, dataId); //***
                         mapSubmissionAndData(submissionId, dataId); //****
                     }
@@ -218,17 +329,17 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             } else {
                 // keep feeding IN et OUT
                 if (direction.startsWith("in")) {
-                    node.inputs.add(dataId);
+                    dag.addInput(appliedProtocolId, dataId);
                     if (submissionId > 0) {
                         // initial data
                         mapSubmissionAndData(submissionId, dataId);
                     }
                     // as above
-                    branch.nextAppliedProtocols.add(appliedProtocolId);
+                    dag.addNextAppliedProtocol(dataId, appliedProtocolId);
                     updateAppliedDataMap(branch, dataId);
                 } else if (direction.startsWith("out")) {
-                    node.outputs.add(dataId);
-                    branch.previousAppliedProtocols.add(appliedProtocolId);
+                    dag.addOutput(appliedProtocolId, dataId);
+                    dag.addPreviousAppliedProtocol(dataId, appliedProtocolId);
                     updateAppliedDataMap(branch, dataId); //***
                 } else {
                     throw new IllegalArgumentException("Data direction not valid for dataId: "
@@ -243,7 +354,14 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         res.close();
 
         // now traverse the DAG, and associate submission with all the applied protocols
+        dag.compact();
         traverseDag();
+        dag.compact();
+        Runtime runtime = Runtime.getRuntime();
+        LOG.info("DAG store: " + dag.getAppliedProtocolCount() + " applied protocols, "
+                + dag.getDataCount() + " data, " + dag.sizeInBytes() / 1024 + " KB (~"
+                + dag.boxedSizeInBytes() / 1024 + " KB in Integer maps and lists), heap used "
+                + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB");
         // set the dag level as an attribute to applied protocol
         setAppliedProtocolSteps(connection);
         LOG.info("PROCESS TIME DAG: " + (System.currentTimeMillis() - bT) + " ms");
@@ -276,14 +394,16 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             Integer step = appliedProtocolMap.get(appliedProtocolId).step;
             if (step != null) {
                 Attribute attr = new Attribute("step", step.toString());
-                getChadoDBConverter().store(attr, appliedProtocolIdMap.get(appliedProtocolId));
+                storeBuffer.store(attr, appliedProtocolIdMap.get(appliedProtocolId));
             } else {
                 AppliedProtocol ap = appliedProtocolMap.get(appliedProtocolId);
                 LOG.warn("AppliedProtocol.step not set for chado id: " + appliedProtocolId
-                        + " sub " + dccIdMap.get(ap.submissionId) + " inputs " + ap.inputs
-                        + " outputs " + ap.outputs);
+                        + " sub " + dccIdMap.get(ap.submissionId)
+                        + " inputs " + Arrays.toString(dag.getInputs(appliedProtocolId))
+                        + " outputs " + Arrays.toString(dag.getOutputs(appliedProtocolId)));
             }
         }
+        storeBuffer.flush();
     }
 
     // Look for protocols that were used to generated GFF files, these are passed to the feature
@@ -292,93 +412,342 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
 
     /**
-     * Applies iteratively buildADaglevel
+     * Traverse the DAG from the first applied protocols, see DagTraversal, mapping the data to
+     * their submission and storing the submission reference of the applied protocols.
+     * With more than one thread the sub-DAGs are traversed in parallel and the references
+     * stored by a single writer thread.
      *
-     * @throws SQLException
      * @throws ObjectStoreException
      */
     private void traverseDag()
         throws ObjectStoreException {
-        List<Integer> currentIterationAP = firstAppliedProtocols;
-        List<Integer> nextIterationAP = new ArrayList<Integer>();
-        Integer step = 1;     // DAG level
+        long bT = System.currentTimeMillis();
+        final QueuedStoreWriter writer = dagThreads <= 1 ? null : new QueuedStoreWriter();
+        DagTraversal traversal = new DagTraversal(dag, new DagTraversal.Nodes() {
+            @Override
+            public int getSubmissionId(int appliedProtocolId) {
+                return appliedProtocolMap.get(appliedProtocolId).submissionId;
+            }
+
+            @Override
+            public void setFirstLevel(int appliedProtocolId) {
+                appliedProtocolMap.get(appliedProtocolId).step = 1;
+            }
+
+            @Override
+            public boolean isAppliedData(int dataId) {
+                return appliedDataMap.containsKey(dataId);
+            }
+
+            @Override
+            public void setSubmission(int appliedProtocolId, int submissionId)
+                throws ObjectStoreException {
+                Reference reference = new Reference();
+                reference.setName("submission");
+                reference.setRefId(submissionMap.get(submissionId).itemIdentifier);
+                if (writer == null) {
+                    storeBuffer.store(reference, appliedProtocolIdMap.get(appliedProtocolId));
+                } else {
+                    writer.store(reference, appliedProtocolIdMap.get(appliedProtocolId));
+                }
+            }
+        });
+        if (writer != null) {
+            writer.start();
+        }
+        ObjectStoreException failure = null;
+        try {
+            traversal.traverse(toIntArray(firstAppliedProtocols), dagThreads);
+        } catch (ObjectStoreException e) {
+            failure = e;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (ObjectStoreException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        storeBuffer.flush();
+        LOG.info("DAG traversal: " + traversal.getPartitions() + " sub-DAGs on " + dagThreads
+                + " threads, " + traversal.getLevels() + " levels, " + traversal.getVisits()
+                + " applied protocol visits in " + (System.currentTimeMillis() - bT) + " ms");
+    }
 
-        while (currentIterationAP.size() > 0) {
-            nextIterationAP = buildADagLevel (currentIterationAP, step);
-            currentIterationAP = nextIterationAP;
-            step++;
+    private static int[] toIntArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
         }
+        return array;
     }
 
     /**
-     * This method is given a set of applied protocols (already associated with a submission)
-     * and produces the next set of applied protocols. The latter are the protocols attached to the
-     * output data of the starting set (output data for a applied protocol is the input data for the
-     * next one).
-     * It also fills the map linking directly results ('leaf' output data) with submission
-     *
-     * @param previousAppliedProtocols
-     * @return the next batch of appliedProtocolId
-     * @throws SQLException
-     * @throws ObjectStoreException
+     * The store calls of several threads, made one after the other by a single thread in the
+     * order they were queued: the converter is not thread safe. They go through the
+     * StoreBuffer.
      */
-    private List<Integer> buildADagLevel(List<Integer> previousAppliedProtocols, Integer step)
-        throws ObjectStoreException {
-        List<Integer> nextIterationProtocols = new ArrayList<Integer>();
-        Iterator<Integer> pap = previousAppliedProtocols.iterator();
-        while (pap.hasNext()) {
-            List<Integer> outputs = new ArrayList<Integer>();
-            List<Integer> inputs = new ArrayList<Integer>();
-            Integer currentId = pap.next();
-            // add the DAG level here only if these are the first AP
-            if (step == 1) {
-                AppliedProtocol ap = appliedProtocolMap.get(currentId);
-                ap.step = step;
-            }
-            outputs.addAll(appliedProtocolMap.get(currentId).outputs);
-            Integer submissionId = appliedProtocolMap.get(currentId).submissionId;
-            Iterator<Integer> od = outputs.iterator();
-            while (od.hasNext()) {
-                Integer currentOD = od.next();
-                List<Integer> nextProtocols = new ArrayList<Integer>();
-                // build map submission-data
-                mapSubmissionAndData(submissionId, currentOD);
-                if (appliedDataMap.containsKey(currentOD)) {
-                    // fill the list of next (children) protocols
-                    nextProtocols.addAll(appliedDataMap.get(currentOD).nextAppliedProtocols);
-                    if (appliedDataMap.get(currentOD).nextAppliedProtocols.isEmpty()) {
-                        // this is a leaf!!
-                        LOG.debug("DAG leaf: " + submissionId + " dataId: " + currentOD);
+    private final class QueuedStoreWriter implements Runnable
+    {
+        private final BlockingQueue<PendingStore> queue =
+                new ArrayBlockingQueue<PendingStore>(STORE_QUEUE_SIZE);
+        private final Thread thread = new Thread(this, "modencode-store-writer");
+        private volatile ObjectStoreException failure;
+
+        private void start() {
+            thread.start();
+        }
+
+        private void store(Reference reference, Integer id) throws ObjectStoreException {
+            if (failure != null) {
+                throw new ObjectStoreException("Store failed", failure);
+            }
+            put(new PendingStore(reference, id));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PendingStore pending = queue.take();
+                    if (pending == END_OF_STORES) {
+                        return;
+                    }
+                    // after a failure, keep emptying the queue so that no thread blocks
+                    if (failure == null) {
+                        try {
+                            storeBuffer.store(pending.value, pending.id);
+                        } catch (ObjectStoreException e) {
+                            failure = e;
+                        }
                     }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
 
-                // to fill submission-dataId map
-                // this is needed, otherwise inputs to AP that are not outputs
-                // of a previous protocol are not considered
-                inputs.addAll(appliedProtocolMap.get(currentId).inputs);
-                Iterator<Integer> in = inputs.iterator();
-                while (in.hasNext()) {
-                    Integer currentIn = in.next();
-                    // build map submission-data
-                    mapSubmissionAndData(submissionId, currentIn);
-                }
+        /**
+         * Wait for the queued stores.
+         * @throws ObjectStoreException if one of them failed
+         */
+        private void close() throws ObjectStoreException {
+            put(END_OF_STORES);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ObjectStoreException("Interrupted waiting for the store writer", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void put(PendingStore pending) throws ObjectStoreException {
+            try {
+                queue.put(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ObjectStoreException("Interrupted queueing a store", e);
+            }
+        }
+    }
+
+    /**
+     * Buffers Reference, ReferenceList and Attribute stores on stored objects and makes them
+     * when there are batchSize of them, or on the next store once the oldest waited batchMillis,
+     * or on flush(), at the end of each phase at the latest.
+     * Nothing reads them back before the end of the load, and a reference or attribute stored
+     * again on the same object before the flush replaces the pending one: the DAG references
+     * used to be stored once per parent edge and per level.
+     * The converter writes the items through the COPY based Batch of its ObjectStoreWriter, so
+     * the flushed stores reach it back to back instead of interleaved with the phase queries.
+     */
+    private final class StoreBuffer
+    {
+        private final int batchSize;
+        private final long batchMillis;
+        private final Map<String, PendingStore> pending = new LinkedHashMap<String, PendingStore>();
+        private long oldest;
+        private long collections;
+        private long queued;
+        private long replaced;
+        private long flushes;
+        private long flushMillis;
+
+        private StoreBuffer(int batchSize, long batchMillis) {
+            this.batchSize = batchSize;
+            this.batchMillis = batchMillis;
+        }
 
-                // build the list of children applied protocols chado identifiers
-                // as input for the next iteration
-                Iterator<Integer> nap = nextProtocols.iterator();
-                while (nap.hasNext()) {
-                    // and fill the map with the chado experiment_id and the DAG level
-                    Integer currentAPId = nap.next();
-                    nextIterationProtocols.add(currentAPId);
-                    // and set the reference from applied protocol to the submission
-                    Reference reference = new Reference();
-                    reference.setName("submission");
-                    reference.setRefId(submissionMap.get(submissionId).itemIdentifier);
-                    getChadoDBConverter().store(reference, appliedProtocolIdMap.get(currentAPId));
+        /**
+         * @param value a Reference, ReferenceList or Attribute
+         * @param id the intermine object id to store it on, not null
+         * @throws ObjectStoreException if a flush fails
+         */
+        private synchronized void store(Object value, Integer id) throws ObjectStoreException {
+            if (id == null) {
+                throw new IllegalArgumentException("Cannot store " + value + " on a null id");
+            }
+            String key;
+            if (value instanceof Reference) {
+                key = "R" + id + "." + ((Reference) value).getName();
+            } else if (value instanceof Attribute) {
+                key = "A" + id + "." + ((Attribute) value).getName();
+            } else if (value instanceof ReferenceList) {
+                // collections are never replaced
+                key = "C" + collections++;
+            } else {
+                throw new IllegalArgumentException("Cannot store " + value + " on " + id);
+            }
+            if (pending.isEmpty()) {
+                oldest = System.currentTimeMillis();
+            }
+            queued++;
+            if (pending.put(key, new PendingStore(value, id)) != null) {
+                replaced++;
+            }
+            if (pending.size() >= batchSize
+                    || System.currentTimeMillis() - oldest >= batchMillis) {
+                flush();
+            }
+        }
+
+        private synchronized void flush() throws ObjectStoreException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long bT = System.currentTimeMillis();
+            for (PendingStore store : pending.values()) {
+                if (store.value instanceof Reference) {
+                    orderedWriter.store((Reference) store.value, store.id);
+                } else if (store.value instanceof Attribute) {
+                    orderedWriter.store((Attribute) store.value, store.id);
+                } else {
+                    orderedWriter.store((ReferenceList) store.value, store.id);
                 }
             }
+            pending.clear();
+            flushes++;
+            flushMillis += System.currentTimeMillis() - bT;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "stores: " + queued + " queued, " + replaced + " replaced before storing, "
+                    + flushes + " flushes in " + flushMillis + " ms";
+        }
+    }
+
+    private static final class PendingStore
+    {
+        private final Object value;
+        private final Integer id;
+
+        private PendingStore(Object value, Integer id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The converter calls of all the phases, one at a time when the phases run in parallel
+     * (see processChadoPhases): the converter is not thread safe. The fair lock only serves
+     * the waiting threads first come, first served, the interleaving of the phases is not
+     * deterministic.
+     */
+    private final class OrderedWriter
+    {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        // set by processChadoPhases while no phase runs, the lock is only taken when phases
+        // run in parallel
+        private boolean concurrent;
+
+        private void lock() {
+            if (concurrent) {
+                lock.lock();
+            }
+        }
+
+        private void unlock() {
+            if (concurrent) {
+                lock.unlock();
+            }
+        }
+
+        private Item createItem(String className) {
+            lock();
+            try {
+                return getChadoDBConverter().createItem(className);
+            } finally {
+                unlock();
+            }
+        }
+
+        private Item getOrganismItem(int taxonId) {
+            lock();
+            try {
+                return getChadoDBConverter().getOrganismItem(taxonId);
+            } finally {
+                unlock();
+            }
+        }
+
+        private Integer store(Item item) throws ObjectStoreException {
+            lock();
+            try {
+                return getChadoDBConverter().store(item);
+            } finally {
+                unlock();
+            }
+        }
+
+        private void store(Reference reference, Integer id) throws ObjectStoreException {
+            lock();
+            try {
+                getChadoDBConverter().store(reference, id);
+            } finally {
+                unlock();
+            }
+        }
+
+        private void store(ReferenceList collection, Integer id) throws ObjectStoreException {
+            lock();
+            try {
+                getChadoDBConverter().store(collection, id);
+            } finally {
+                unlock();
+            }
+        }
+
+        private void store(Attribute attribute, Integer id) throws ObjectStoreException {
+            lock();
+            try {
+                getChadoDBConverter().store(attribute, id);
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * The ChadoProcessor setAttribute, through this writer.
+         */
+        private void setAttribute(Integer intermineObjectId, String attributeName, String value)
+            throws ObjectStoreException {
+            Attribute attribute = new Attribute();
+            attribute.setName(attributeName);
+            attribute.setValue(value);
+            store(attribute, intermineObjectId);
         }
-        return nextIterationProtocols;
     }
 
 
@@ -399,7 +768,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 continue;
             }
             String name = res.getString("uniquename");
-            Item submission = getChadoDBConverter().createItem("Submission");
+            Item submission = orderedWriter.createItem("Submission");
             submission.setAttribute("title", name);
 
             String project = submissionProjectMap.get(submissionId);
@@ -421,11 +790,11 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             Integer taxId = Integer.valueOf(
                     or.getOrganismDataByGenusSpecies(genus, species).getTaxonId());
             LOG.debug("SPECIES: " + organismName + "|" + taxId);
-            String organismItemIdentifier = getChadoDBConverter().getOrganismItem(
+            String organismItemIdentifier = orderedWriter.getOrganismItem(
                     or.getOrganismDataByGenusSpecies(genus, species).getTaxonId()).getIdentifier();
             submission.setReference("organism", organismItemIdentifier);
             // ..store all
-            Integer intermineObjectId = getChadoDBConverter().store(submission);
+            Integer intermineObjectId = orderedWriter.store(submission);
             // ..and fill the SubmissionDetails object
             SubmissionDetails details = new SubmissionDetails();
             details.interMineObjectId = intermineObjectId;
@@ -494,7 +863,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             if ("DCCid".equals(fieldName)) {
                 value = DCC_PREFIX + value;
                 LOG.debug("DCC: " + submissionId + ", " + value);
-                dccIdMap.put(submissionId, value);
+                putDccId(submissionId, value);
             }
 
             if ("category".equals(fieldName)) {
@@ -505,14 +874,14 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
             if (fieldName.endsWith("Read Count")) {
                 // all read counts are considered a collection for submission
-                Item readCount = getChadoDBConverter().createItem("ReadCount");
+                Item readCount = orderedWriter.createItem("ReadCount");
                 readCount.setAttribute("name", fieldName);
                 readCount.setAttribute("value", value);
 
                 // setting references to SubmissionData
                 readCount.setReference("submission",
                         submissionMap.get(submissionId).itemIdentifier);
-                getChadoDBConverter().store(readCount);
+                orderedWriter.store(readCount);
                 continue;
             }
 
@@ -527,16 +896,17 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                     value = value.substring(value.indexOf(':') + 1);
                 }
 
-                Item pub = getChadoDBConverter().createItem("Publication");
+                Item pub = orderedWriter.createItem("Publication");
                 pub.setAttribute(fieldName, value);
-                Integer intermineObjectId = getChadoDBConverter().store(pub);
+                Integer intermineObjectId = orderedWriter.store(pub);
 
                 publicationIdMap.put(submissionId, intermineObjectId);
                 publicationIdRefMap.put(submissionId, pub.getIdentifier());
                 continue;
             }
 
-            setAttribute(submissionMap.get(submissionId).interMineObjectId, fieldName, value);
+            orderedWriter.setAttribute(submissionMap.get(submissionId).interMineObjectId,
+                    fieldName, value);
             count++;
         }
         LOG.info("created " + count + " submissions attributes");
@@ -720,7 +1090,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 continue;
             }
             if (getProtocolInterMineId(protocolId) != null) {     // in case of deleted sub
-                setAttribute(getProtocolInterMineId(protocolId), fieldName, value);
+                orderedWriter.setAttribute(getProtocolInterMineId(protocolId), fieldName, value);
                 if ("type".equals(fieldName)) {
                     protocolTypesMap.put(protocolId, value);
                 }
@@ -781,7 +1151,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 }
             }
 
-            Item appliedProtocol = getChadoDBConverter().createItem("AppliedProtocol");
+            Item appliedProtocol = orderedWriter.createItem("AppliedProtocol");
 
             // creating and setting references to protocols
             //            String protocolItemId = protocolItemIds.get(protocolId);
@@ -797,7 +1167,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                         submissionMap.get(submissionId).itemIdentifier);
             }
             // store it and add to maps
-            Integer intermineObjectId = getChadoDBConverter().store(appliedProtocol);
+            Integer intermineObjectId = orderedWriter.store(appliedProtocol);
             appliedProtocolIdMap .put(appliedProtocolId, intermineObjectId);
             appliedProtocolIdRefMap .put(appliedProtocolId, appliedProtocol.getIdentifier());
             count++;
@@ -810,12 +1180,12 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws ObjectStoreException {
         String protocolItemId = protocolsMap.get(p.wikiLink);     // rename map?
         if (protocolItemId == null) {
-            Item protocol = getChadoDBConverter().createItem("Protocol");
+            Item protocol = orderedWriter.createItem("Protocol");
             protocol.setAttribute("name", p.name);
             protocol.setAttribute("description", p.description);
             protocol.setAttribute("wikiLink", p.wikiLink);
             protocol.setAttribute("version", "" + p.version);
-            Integer intermineObjectId = getChadoDBConverter().store(protocol);
+            Integer intermineObjectId = orderedWriter.store(protocol);
             protocolItemId = protocol.getIdentifier();
             protocolItemToObjectId.put(protocolItemId, intermineObjectId);
             protocolsMap.put(p.wikiLink, protocolItemId);
@@ -851,12 +1221,20 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws SQLException, ObjectStoreException {
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
+        CvtermDictionary.Lookups cvtermLookups = getCvterms(connection).lookups("submission data",
+                connection);
         ResultSet res = getAppliedData(connection);
+        // both ordered by data_id, the official names are read along the data
+        OfficialNameCursor officialNames = new OfficialNameCursor(getOfficialNames(connection));
         int count = 0;
         while (res.next()) {
             Integer dataId = new Integer(res.getInt("data_id"));
+
+            // check if this datum has an official name:
+            String officialName = officialNames.get(dataId);
+
             // check if not belonging to a deleted sub
-            Integer submissionId = dataSubmissionMap.get(dataId);
+            Integer submissionId = dag.getSubmissionId(dataId);
             if (submissionId == null || deletedSubMap.containsKey(submissionId)) {
                 continue;
             }
@@ -866,27 +1244,20 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             String typeId = res.getString("type_id");
             String url = res.getString("url");
 
-            // check if this datum has an official name:
-            ResultSet oName = getOfficialName(connection, dataId);
-            String officialName = null;
-            while (oName.next()) {
-                officialName = oName.getString(1);
-            }
-
             // if there is one, use it instead of the value
-            String datumType = getCvterm(connection, typeId);
-            name = getCvterm(connection, typeId);
+            String datumType = cvtermLookups.get(typeId);
+            name = datumType;
             if (!StringUtils.isEmpty(officialName)
                     && doReplaceWithOfficialName(heading, datumType)) {
                 value = officialName;
             }
-            Item submissionData = getChadoDBConverter().createItem("SubmissionData");
+            Item submissionData = orderedWriter.createItem("SubmissionData");
             if (name != null && !"".equals(name)) {
                 submissionData.setAttribute("name", name);
             }
             // if no name for attribute fetch the cvterm of the type
             if ((name == null || "".equals(name)) && typeId != null) {
-                name = getCvterm(connection, typeId);
+                name = cvtermLookups.get(typeId);
                 submissionData.setAttribute("name", name);
             }
 
@@ -896,7 +1267,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             submissionData.setAttribute("type", heading);
 
             // store it and add to object and maps
-            Integer intermineObjectId = getChadoDBConverter().store(submissionData);
+            Integer intermineObjectId = orderedWriter.store(submissionData);
 
             AppliedData aData = new AppliedData();
             aData.intermineObjectId = intermineObjectId;
@@ -913,6 +1284,8 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         }
         LOG.info("created " + count + " SubmissionData");
         res.close();
+        officialNames.close();
+        LOG.info(cvtermLookups);
         LOG.info("PROCESS TIME submission data: " + (System.currentTimeMillis() - bT) + " ms");
     }
 
@@ -943,18 +1316,41 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                         + " d.heading, d.name, d.value, d.type_id, z.url"
                         + " FROM data d"
                         + " LEFT JOIN dbxref as y ON (d.dbxref_id = y.dbxref_id)"
-                        + " LEFT JOIN db as z ON (y.db_id = z.db_id)";
+                        + " LEFT JOIN db as z ON (y.db_id = z.db_id)"
+                        + " ORDER BY d.data_id";
         return doQuery(connection, query, "getAppliedData");
     }
 
     /**
-     * Return the rows needed for data from the applied_protocol_data table.
+     * Return the official names of all the data, in one query instead of one per datum.
+     * Ordered as getAppliedData, by data_id.
+     *
+     * @param connection the db connection
+     * @return the SQL result set
+     * @throws SQLException if a database problem occurs
+     */
+    protected ResultSet getOfficialNames(Connection connection)
+        throws SQLException {
+        String query =
+                "SELECT da.data_id, a.value "
+                        + " from attribute a, data_attribute da "
+                        + " where a.attribute_id=da.attribute_id "
+                        + " and a.heading='official name'"
+                        + " ORDER BY da.data_id, a.attribute_id";
+        return doQuery(connection, query, "getOfficialNames");
+    }
+
+    /**
+     * Return the official name of a datum.
      *
      * @param connection the db connection
      * @param dataId the dataId
      * @return the SQL result set
      * @throws SQLException if a database problem occurs
+     * @deprecated processAppliedData reads the official names of all the data along them with
+     *             getOfficialNames, override that one instead
      */
+    @Deprecated
     protected ResultSet getOfficialName(Connection connection, Integer dataId)
         throws SQLException {
         String query =
@@ -967,28 +1363,20 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     }
 
     /**
-     * Fetch a cvterm by id and cache results in cvtermCache.  Returns null if the cv terms isn't
-     * found.
+     * The cvterm names, read in one scan the first time they are needed and then shared by
+     * all the phases. A cvterm used to be queried one by one, up to three times per datum.
      * @param connection to chado database
-     * @param cvtermId internal chado id for a cvterm
-     * @return the cvterm name or null if not found
+     * @return the dictionary of cvterm names
      * @throws SQLException if database access problem
      */
-    private String getCvterm(Connection connection, String cvtermId) throws SQLException {
-        String cvTerm = cvtermCache.get(cvtermId);
-        if (cvTerm == null) {
-            String query =
-                    "SELECT c.name "
-                            + " from cvterm c"
-                            + " where c.cvterm_id=" + cvtermId;
-            Statement stmt = connection.createStatement();
-            ResultSet res = stmt.executeQuery(query);
-            while (res.next()) {
-                cvTerm = res.getString("name");
-            }
-            cvtermCache.put(cvtermId, cvTerm);
+    private synchronized CvtermDictionary getCvterms(Connection connection) throws SQLException {
+        if (cvterms == null) {
+            long bT = System.currentTimeMillis();
+            cvterms = CvtermDictionary.load(connection);
+            LOG.info("PROCESS TIME cvterms: " + cvterms.size() + " read in "
+                    + (System.currentTimeMillis() - bT) + " ms");
         }
-        return cvTerm;
+        return cvterms;
     }
 
     /**
@@ -1013,7 +1401,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             Integer dataId = new Integer(res.getInt("data_id"));
             // check if not belonging to a deleted sub
             // better way?
-            Integer submissionId = dataSubmissionMap.get(dataId);
+            Integer submissionId = dag.getSubmissionId(dataId);
             if (submissionId == null || deletedSubMap.containsKey(submissionId)) {
                 continue;
             }
@@ -1070,7 +1458,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
      */
     private Item storeDataAttribute(String value, String type, Integer dataId,
             String name) throws ObjectStoreException {
-        Item dataAttribute = getChadoDBConverter().createItem("SubmissionDataAttribute");
+        Item dataAttribute = orderedWriter.createItem("SubmissionDataAttribute");
         if (name != null && !"".equals(name)) {
             dataAttribute.setAttribute("name", name);
         }
@@ -1082,7 +1470,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         }
         // setting references to SubmissionData
         dataAttribute.setReference("submissionData", appliedDataMap.get(dataId).itemIdentifier);
-        getChadoDBConverter().store(dataAttribute);
+        orderedWriter.store(dataAttribute);
         return dataAttribute;
     }
 
@@ -1097,7 +1485,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
             // check if not belonging to a deleted sub
             // better way?
-            Integer submissionId = dataSubmissionMap.get(dataId);
+            Integer submissionId = dag.getSubmissionId(dataId);
             if (submissionId == null || deletedSubMap.containsKey(submissionId)) {
                 continue;
             }
@@ -1169,12 +1557,8 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
         ResultSet res = getAppliedDataAll(connection);
-        final String comma = ",";
         String reportName = "build/"
                 + getChadoDBConverter().getDatabase().getName() + "_subs_report.csv";
-        File f = new File(reportName);
-        FileWriter writer = new FileWriter(f);
-        writeHeader(comma, writer);
 
         SubmissionProperty buildSubProperty = null;
         Integer lastDataId = new Integer(-1);
@@ -1185,59 +1569,66 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
         submissionRefs = new HashMap<Integer, List<SubmissionReference>>();
 
-        while (res.next()) {
-            Integer dataId = new Integer(res.getInt("data_id"));
-            String dataHeading  = res.getString("data_heading");
-            String dataName = res.getString("data_name");
-            String wikiPageUrl  = res.getString("data_value");
-            String cvTerm = res.getString("cv_term");
-            String attHeading = res.getString("att_heading");
-            String attName = res.getString("att_name");
-            String attValue = res.getString("att_value");
-            String attDbxref = res.getString("att_dbxref");
-            int attRank = res.getInt("att_rank");
+        // -Dmodencode.report.gzip=true writes _subs_report.csv.gz, -Dmodencode.report.async=true
+        // writes it on a background thread
+        try (SubmissionsReport report = new SubmissionsReport(new File(reportName),
+                Boolean.getBoolean("modencode.report.gzip"),
+                Boolean.getBoolean("modencode.report.async"))) {
+            report.write("submission", "data_heading", "data_name", "data_value", "cv_term",
+                    "att_heading", "att_name", "att_value", "att_dbxref");
 
-            Integer submissionId = dataSubmissionMap.get(dataId);
-            String dccId = dccIdMap.get(submissionId);
-
-            writer.write(dccId + comma + dataHeading + comma + dataName + comma
-                    + wikiPageUrl + comma + cvTerm + comma + attHeading + comma + attName
-                    + comma + attValue + comma + attDbxref + System.getProperty("line.separator"));
+            while (res.next()) {
+                Integer dataId = new Integer(res.getInt("data_id"));
+                String dataHeading  = res.getString("data_heading");
+                String dataName = res.getString("data_name");
+                String wikiPageUrl  = res.getString("data_value");
+                String cvTerm = res.getString("cv_term");
+                String attHeading = res.getString("att_heading");
+                String attName = res.getString("att_name");
+                String attValue = res.getString("att_value");
+                String attDbxref = res.getString("att_dbxref");
+                int attRank = res.getInt("att_rank");
+
+                Integer submissionId = dag.getSubmissionId(dataId);
+                String dccId = dccIdMap.get(submissionId);
+
+                if (submissionId == null) {
+                    LOG.warn("Failed to find a submission id for data id " + dataId
+                            + " - this probably means there is a problem with the"
+                            + " applied_protocol DAG strucuture.");
+                    continue;
+                }
 
-            if (submissionId == null) {
-                LOG.warn("Failed to find a submission id for data id " + dataId + " - this probably"
-                        + " means there is a problem with the applied_protocol DAG strucuture.");
-                continue;
-            }
+                report.write(dccId, dataHeading, dataName, wikiPageUrl, cvTerm, attHeading,
+                        attName, attValue, attDbxref);
 
-            // Currently using attValue for referenced submission DCC id, should be dbUrl but seems
-            // to be filled in incorrectly
-            if (attHeading != null && attHeading.startsWith("modENCODE Reference")) {
-                attValue = checkRefSub(wikiPageUrl, attValue, submissionId, dccId);
-            }
+                // Currently using attValue for referenced submission DCC id, should be dbUrl but
+                // seems to be filled in incorrectly
+                if (attHeading != null && attHeading.startsWith("modENCODE Reference")) {
+                    attValue = checkRefSub(wikiPageUrl, attValue, submissionId, dccId);
+                }
 
-            // we are starting a new data row
-            if (dataId.intValue() != lastDataId.intValue()) {
-                // have we seen this modencodewiki entry before?
-                if (props.containsKey(wikiPageUrl)) {
-                    buildSubProperty = null;
-                } else {
-                    buildSubProperty =
-                            new SubmissionProperty(getPreferredSynonym(dataName), wikiPageUrl);
-                    props.put(wikiPageUrl, buildSubProperty);
+                // we are starting a new data row
+                if (dataId.intValue() != lastDataId.intValue()) {
+                    // have we seen this modencodewiki entry before?
+                    if (props.containsKey(wikiPageUrl)) {
+                        buildSubProperty = null;
+                    } else {
+                        buildSubProperty =
+                                new SubmissionProperty(getPreferredSynonym(dataName), wikiPageUrl);
+                        props.put(wikiPageUrl, buildSubProperty);
+                    }
+                    // submissionId -> [type -> SubmissionProperty]
+                    addToSubToTypes(subToTypes, submissionId, props.get(wikiPageUrl));
                 }
-                // submissionId -> [type -> SubmissionProperty]
-                addToSubToTypes(subToTypes, submissionId, props.get(wikiPageUrl));
-            }
-            if (buildSubProperty != null) {
-                // we are building a new submission attribute, this is the first time we have
-                // seen a data.value that points to modencodewiki
-                buildSubProperty.addDetail(attHeading, attValue, attRank);
+                if (buildSubProperty != null) {
+                    // we are building a new submission attribute, this is the first time we have
+                    // seen a data.value that points to modencodewiki
+                    buildSubProperty.addDetail(attHeading, attValue, attRank);
+                }
+                lastDataId = dataId;
             }
-            lastDataId = dataId;
         }
-        writer.flush();
-        writer.close();
 
         // Characteristics are modelled differently to protocol inputs/outputs, read in extra
         // properties here
@@ -1249,6 +1640,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
         // create and store properties of submission
         storeSubProperties(subToTypes);
+        LOG.info(getGeneResolver());
         LOG.info("PROCESS TIME submission properties: "
                 + (System.currentTimeMillis() - bT) + " ms");
     }
@@ -1459,24 +1851,6 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         return attValue;
     }
 
-    /**
-     * @param comma
-     * @param writer
-     * @throws IOException
-     */
-    private void writeHeader(final String comma, FileWriter writer)
-        throws IOException {
-        writer.write("submission" + comma);
-        writer.write("data_heading" + comma);
-        writer.write("data_name" + comma);
-        writer.write("data_value" + comma);
-        writer.write("cv_term" + comma);
-        writer.write("att_heading" + comma);
-        writer.write("att_name" + comma);
-        writer.write("att_value" + comma);
-        writer.write(System.getProperty("line.separator"));
-    }
-
     //    /**
     //     * @param submissionId
     //     * @param exFactorNames
@@ -1508,10 +1882,10 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
     private void addNotApplicable(String clsName, String propName)
         throws ObjectStoreException {
-        Item subProperty = getChadoDBConverter().createItem(clsName);
+        Item subProperty = orderedWriter.createItem(clsName);
         subProperty.setAttribute("type", propName);
         subProperty.setAttribute("name", NA_PROP);
-        getChadoDBConverter().store(subProperty);
+        orderedWriter.store(subProperty);
     }
 
 
@@ -1525,12 +1899,12 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             foundAppliedData.add(aData);
         }
 
-        for (Integer previousAppliedProtocolId : aData.previousAppliedProtocols) {
+        for (int previousAppliedProtocolId : dag.getPreviousAppliedProtocols(startDataId)) {
             AppliedProtocol ap = appliedProtocolMap.get(previousAppliedProtocolId);
             if (foundAppliedProtocols != null) {
                 foundAppliedProtocols.add(ap);
             }
-            for (Integer previousDataId : ap.inputs) {
+            for (int previousDataId : dag.getInputs(previousAppliedProtocolId)) {
                 findAppliedProtocolsAndDataFromEarlierInDag(previousDataId, foundAppliedData,
                         foundAppliedProtocols);
             }
@@ -1559,7 +1933,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
         // create the EF, if not there already
         if (!eFactorIdMap.containsKey(key)) {
-            Item ef = getChadoDBConverter().createItem("ExperimentalFactor");
+            Item ef = orderedWriter.createItem("ExperimentalFactor");
             ef.setAttribute ("type", preferredType);
             ef.setAttribute ("name", efName);
             if (propertyIdentifier != null) {
@@ -1568,7 +1942,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             LOG.info("ExFactor created for sub " + dccIdMap.get(current) + ":" + efName
                     + "|" + type);
 
-            Integer intermineObjectId = getChadoDBConverter().store(ef);
+            Integer intermineObjectId = orderedWriter.store(ef);
             eFactorIdMap.put(key, intermineObjectId);
             eFactorIdRefMap.put(key, ef.getIdentifier());
         }
@@ -1584,7 +1958,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         }
         // create the EF, if not there already
         if (!eFactorIdMap.containsKey(efName)) {
-            Item ef = getChadoDBConverter().createItem("ExperimentalFactor");
+            Item ef = orderedWriter.createItem("ExperimentalFactor");
             String preferredType = getPreferredSynonym(type);
             ef.setAttribute ("type", preferredType);
             ef.setAttribute ("name", efName);
@@ -1593,7 +1967,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             }
             LOG.info("ExFactor created for sub " + current + ":" + efName + "|" + type);
 
-            Integer intermineObjectId = getChadoDBConverter().store(ef);
+            Integer intermineObjectId = orderedWriter.store(ef);
             eFactorIdMap.put(efName, intermineObjectId);
             eFactorIdRefMap.put(efName, ef.getIdentifier());
         }
@@ -1649,7 +2023,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             Integer attDbxref = new Integer(res.getInt("att_dbxref"));
             int attRank = res.getInt("att_rank");
 
-            currentSubId = dataSubmissionMap.get(dataId);
+            currentSubId = dag.getSubmissionId(dataId);
 
             if (currentSubId == null) {
                 LOG.info("DSM failing dataId: " + dataId + " - " + attHeading + "|" + attName
@@ -1815,7 +2189,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
         for (AppliedData aData : appliedDataMap.values()) {
             String currentDataValue = aData.value;
-            Integer currentDataSubId = dataSubmissionMap.get(aData.dataId);
+            Integer currentDataSubId = dag.getSubmissionId(aData.dataId);
             // added check that referenced and referring are not the same.
             if (refDataValue.equals(currentDataValue)
                     && refSubId.equals(currentDataSubId)) {
@@ -1849,7 +2223,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws ObjectStoreException {
         if (!items.isEmpty()) {
             ReferenceList refList = new ReferenceList(name, getIdentifiersFromItems(items));
-            getChadoDBConverter().store(refList, storedSubmissionId);
+            orderedWriter.store(refList, storedSubmissionId);
         }
     }
 
@@ -1946,7 +2320,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                     setAttributeOnProp(prop, propItem, "sex", "sex");
                     setAttributeOnProp(prop, propItem, "organismPart", "organismPart");
                 }
-                getChadoDBConverter().store(propItem);
+                orderedWriter.store(propItem);
             }
             subItemsMap.put(prop.wikiPageUrl, propItem);
         }
@@ -2035,28 +2409,33 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         }
     }
 
-    private String getTargetGeneItemIdentfier(String geneTargetIdText, String dccId)
-        throws ObjectStoreException {
+    /**
+     * @param geneTargetIdText a "target id", with a fly_genes: or worm_genes: prefix or not
+     * @param dccId the submission, giving the organism of ids without prefix
+     * @return the taxon id and the gene id
+     */
+    private String[] getGeneTarget(String geneTargetIdText, String dccId) {
         // TODO check: why not using only the else?
 
-        String taxonId = "";
-        String originalId = null;
-
         String flyPrefix = "fly_genes:";
         String wormPrefix = "worm_genes:";
 
         if (geneTargetIdText.startsWith(flyPrefix)) {
-            originalId = geneTargetIdText.substring(flyPrefix.length());
-            taxonId = "7227";
+            return new String[] {"7227", geneTargetIdText.substring(flyPrefix.length())};
         } else if (geneTargetIdText.startsWith(wormPrefix)) {
-            originalId = geneTargetIdText.substring(wormPrefix.length());
-            taxonId = "6239";
-        } else {
-            // attempt to work out the organism from the submission
-            taxonId = getTaxonIdForSubmission(dccId);
-            originalId = geneTargetIdText;
-            LOG.debug("RESOLVER: found taxon " + taxonId + " for submission " + dccId);
+            return new String[] {"6239", geneTargetIdText.substring(wormPrefix.length())};
         }
+        // attempt to work out the organism from the submission
+        String taxonId = getTaxonIdForSubmission(dccId);
+        LOG.debug("RESOLVER: found taxon " + taxonId + " for submission " + dccId);
+        return new String[] {taxonId, geneTargetIdText};
+    }
+
+    private String getTargetGeneItemIdentfier(String geneTargetIdText, String dccId)
+        throws ObjectStoreException {
+        String[] target = getGeneTarget(geneTargetIdText, dccId);
+        String taxonId = target[0];
+        String originalId = target[1];
 
         if (!"7227".equals(taxonId) && !"6239".equals(taxonId)) {
             LOG.info("RESOLVER: unable to work out organism for target id text: "
@@ -2069,10 +2448,10 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         if (primaryIdentifier != null) {
             geneItemId = geneToItemIdentifier.get(primaryIdentifier);
             if (geneItemId == null) {
-                Item gene = getChadoDBConverter().createItem("Gene");
+                Item gene = orderedWriter.createItem("Gene");
                 geneItemId = gene.getIdentifier();
                 gene.setAttribute("primaryIdentifier", primaryIdentifier);
-                getChadoDBConverter().store(gene);
+                orderedWriter.store(gene);
                 geneToItemIdentifier.put(primaryIdentifier, geneItemId);
             } else {
                 LOG.info("RESOLVER fetched gene from cache: " + primaryIdentifier);
@@ -2081,16 +2460,23 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         return geneItemId;
     }
 
+    private synchronized GeneResolverCache getGeneResolver() {
+        if (geneResolver == null) {
+            geneResolver = new GeneResolverCache(rslv);
+        }
+        return geneResolver;
+    }
+
     private String resolveGene(String originalId, String taxonId) {
         String primaryIdentifier = null;
-        int resCount = rslv.countResolutions(taxonId, originalId);
+        Set<String> resolutions = getGeneResolver().resolve(taxonId, originalId);
+        int resCount = resolutions.size();
         if (resCount != 1) {
             LOG.info("RESOLVER: failed to resolve gene to one identifier, ignoring "
                     + "gene: " + originalId + " for organism " + taxonId + " count: " + resCount
-                    + " found ids: " + rslv.resolveId(taxonId, originalId) + ".");
+                    + " found ids: " + resolutions + ".");
         } else {
-            primaryIdentifier =
-                    rslv.resolveId(taxonId, originalId).iterator().next();
+            primaryIdentifier = resolutions.iterator().next();
             LOG.info("RESOLVER found gene " + primaryIdentifier
                     + " for original id: " + originalId);
         }
@@ -2174,7 +2560,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 String ontologyTermId = getDevStageTerm(name, dccId);
                 item.addToCollection("ontologyTerms", ontologyTermId);
             }
-            getChadoDBConverter().store(item);
+            orderedWriter.store(item);
 
             nonWikiSubmissionProperties.put(name, item);
         }
@@ -2182,7 +2568,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     }
 
     private Item createSubmissionProperty(String clsName, String name) {
-        Item subProp = getChadoDBConverter().createItem(clsName);
+        Item subProp = orderedWriter.createItem(clsName);
         if (name != null) {
             subProp.setAttribute("name", name);
         }
@@ -2262,13 +2648,13 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         String key = value + "_" + genus;
         String identifier = devStageTerms.get(key);
         if (identifier == null) {
-            Item term = getChadoDBConverter().createItem("OntologyTerm");
+            Item term = orderedWriter.createItem("OntologyTerm");
             term.setAttribute("name", value);
             String ontologyRef = getDevelopmentOntologyByTaxon(taxonId);
             if (ontologyRef != null) {
                 term.setReference("ontology", ontologyRef);
             }
-            getChadoDBConverter().store(term);
+            orderedWriter.store(term);
             devStageTerms.put(key, term.getIdentifier());
             identifier = term.getIdentifier();
         }
@@ -2306,22 +2692,35 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
         String ontologyId = devOntologies.get(ontologyName);
         if (ontologyId == null) {
-            Item ontology = getChadoDBConverter().createItem("Ontology");
+            Item ontology = orderedWriter.createItem("Ontology");
             ontology.setAttribute("name", ontologyName);
-            getChadoDBConverter().store(ontology);
+            orderedWriter.store(ontology);
             ontologyId = ontology.getIdentifier();
             devOntologies.put(ontologyName, ontologyId);
         }
         return ontologyId;
     }
 
-    private Integer getSubmissionIdFromDccId(String dccId) {
-        for (Map.Entry<Integer, String> entry : dccIdMap.entrySet()) {
-            if (entry.getValue().equals(dccId)) {
-                return entry.getKey();
-            }
+    /**
+     * Map a submission to its DCC id both ways, dccIdMap and dccIdSubmissionMap are only
+     * changed here.
+     * @param submissionId the chado experiment id
+     * @param dccId the DCC id, with DCC_PREFIX
+     */
+    void putDccId(Integer submissionId, String dccId) {
+        String previous = dccIdMap.put(submissionId, dccId);
+        if (previous != null && submissionId.equals(dccIdSubmissionMap.get(previous))) {
+            dccIdSubmissionMap.remove(previous);
         }
-        return null;
+        dccIdSubmissionMap.put(dccId, submissionId);
+    }
+
+    /**
+     * @param dccId the DCC id, with DCC_PREFIX
+     * @return the chado experiment id of the last submission given this DCC id, or null
+     */
+    Integer getSubmissionIdFromDccId(String dccId) {
+        return dccIdSubmissionMap.get(dccId);
     }
 
     /**
@@ -2492,8 +2891,8 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws ObjectStoreException {
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
         // note: the map should contain only live submissions
-        for (Integer submissionId : submissionDataMap.keySet()) {
-            for (Integer dataId : submissionDataMap.get(submissionId)) {
+        for (int submissionId : dag.getSubmissionIds()) {
+            for (int dataId : dag.getSubmissionData(submissionId)) {
                 LOG.debug("DAG subRef subid: " + submissionId + " dataId: " + dataId);
                 if (appliedDataMap.get(dataId).intermineObjectId == null) {
                     continue;
@@ -2502,10 +2901,11 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 reference.setName("submission");
                 reference.setRefId(submissionMap.get(submissionId).itemIdentifier);
 
-                getChadoDBConverter().store(reference,
-                        appliedDataMap.get(dataId).intermineObjectId);
+                storeBuffer.store(reference, appliedDataMap.get(dataId).intermineObjectId);
             }
         }
+        storeBuffer.flush();
+        LOG.info(storeBuffer);
         LOG.info("TIME setting submission-data references: "
                 + (System.currentTimeMillis() - bT) + " ms");
     }
@@ -2522,10 +2922,10 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
         Set<DatabaseRecordConfig> configs = initDatabaseRecordConfigs();
 
-        for (Integer submissionId : submissionDataMap.keySet()) {
+        for (int submissionId : dag.getSubmissionIds()) {
             LOG.info("DB RECORD for sub " + dccIdMap.get(submissionId) + "...");
             List<Integer> submissionDbRecords = new ArrayList<Integer>();
-            for (Integer dataId : submissionDataMap.get(submissionId)) {
+            for (int dataId : dag.getSubmissionData(submissionId)) {
                 AppliedData ad = appliedDataMap.get(dataId);
                 if (ad.type.equalsIgnoreCase("Result Value")) {
                     for (DatabaseRecordConfig conf : configs) {
@@ -2555,7 +2955,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         for (Integer dbRecordId : dbRecordIdSubItems.keySet()) {
             ReferenceList col = new ReferenceList("submissions",
                     dbRecordIdSubItems.get(dbRecordId));
-            getChadoDBConverter().store(col, dbRecordId);
+            orderedWriter.store(col, dbRecordId);
         }
 
         LOG.info("TIME creating refs DatabaseRecord objects: "
@@ -2603,7 +3003,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         DatabaseRecordKey key = new DatabaseRecordKey(config.dbName, accession);
         Integer dbRecordId = dbRecords.get(key);
         if (dbRecordId == null) {
-            Item dbRecord = getChadoDBConverter().createItem("DatabaseRecord");
+            Item dbRecord = orderedWriter.createItem("DatabaseRecord");
             dbRecord.setAttribute("database", config.dbName);
             dbRecord.setAttribute("description", config.dbDescrition);
             if (StringUtils.isEmpty(accession)) {
@@ -2612,7 +3012,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 dbRecord.setAttribute("url", config.dbURL + accession);
                 dbRecord.setAttribute("accession", accession);
             }
-            dbRecordId = getChadoDBConverter().store(dbRecord);
+            dbRecordId = orderedWriter.store(dbRecord);
             dbRecords.put(key, dbRecordId);
         }
         return dbRecordId;
@@ -2666,11 +3066,11 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws ObjectStoreException {
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
-        for (Integer submissionId : submissionDataMap.keySet()) {
+        for (int submissionId : dag.getSubmissionIds()) {
             // the applied data is repeated for each protocol
             // so we want to uniquefy the created object
             Set<String> subFiles = new HashSet<String>();
-            for (Integer dataId : submissionDataMap.get(submissionId)) {
+            for (int dataId : dag.getSubmissionData(submissionId)) {
                 AppliedData ad = appliedDataMap.get(dataId);
                 // now checking only for 'file', not 'result file'
                 if (StringUtils.containsIgnoreCase(ad.type, "file")) {
@@ -2695,7 +3095,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     private void createResultFile(String fileName, String type, String relDccId, String direction,
             Integer submissionId)
         throws ObjectStoreException {
-        Item resultFile = getChadoDBConverter().createItem("ResultFile");
+        Item resultFile = orderedWriter.createItem("ResultFile");
         resultFile.setAttribute("name", unversionName(fileName));
         String url = null;
         if (fileName.startsWith("http") || fileName.startsWith("ftp")) {
@@ -2714,7 +3114,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         resultFile.setAttribute("type", type);
         resultFile.setAttribute("direction", direction);
         resultFile.setReference("submission", submissionMap.get(submissionId).itemIdentifier);
-        getChadoDBConverter().store(resultFile);
+        orderedWriter.store(resultFile);
     }
 
     /**
@@ -2747,7 +3147,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         for (Map.Entry<Integer, Set<String>> entry : relatedSubs.entrySet()) {
             ReferenceList related = new ReferenceList("relatedSubmissions",
                     new ArrayList<String>(entry.getValue()));
-            getChadoDBConverter().store(related, entry.getKey());
+            orderedWriter.store(related, entry.getKey());
         }
     }
 
@@ -2787,7 +3187,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 collection.addRefId(protocolItemIds.get(protocolChadoId));
             }
             Integer storedSubmissionId = submissionMap.get(thisSubmissionId).interMineObjectId;
-            getChadoDBConverter().store(collection, storedSubmissionId);
+            storeBuffer.store(collection, storedSubmissionId);
 
             // TODO use Item?
             // if the experiment type is not set in the db, check protocols
@@ -2804,6 +3204,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 setSubmissionExperimentType(storedSubmissionId, protocolChadoIds, piName);
             }
         }
+        storeBuffer.flush();
         LOG.info("TIME setting submission-protocol references: "
                 + (System.currentTimeMillis() - bT) + " ms");
     }
@@ -2819,7 +3220,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         String experimentType = inferExperimentType(protocolTypes, piName);
         if (experimentType != null) {
             Attribute expTypeAtt = new Attribute("experimentType", experimentType);
-            getChadoDBConverter().store(expTypeAtt, storedSubId);
+            orderedWriter.store(expTypeAtt, storedSubId);
         }
     }
 
@@ -2946,7 +3347,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 Reference reference = new Reference();
                 reference.setName("experiment");
                 reference.setRefId(experimentIdRefMap.get(thisExp));
-                getChadoDBConverter().store(reference,
+                orderedWriter.store(reference,
                         submissionMap.get(thisSubId).interMineObjectId);
             }
         }
@@ -2980,7 +3381,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             if (null != collection) {
                 LOG.info("EF REFS: ->" + thisSubmissionId + "|"
                         + submissionMap.get(thisSubmissionId).interMineObjectId);
-                getChadoDBConverter().store(collection,
+                orderedWriter.store(collection,
                         submissionMap.get(thisSubmissionId).interMineObjectId);
             }
         }
@@ -3010,7 +3411,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             if (null != collection) {
                 LOG.info("EF REFS: ->" + thisSubmissionId + "|"
                         + submissionMap.get(thisSubmissionId).interMineObjectId);
-                getChadoDBConverter().store(collection,
+                orderedWriter.store(collection,
                         submissionMap.get(thisSubmissionId).interMineObjectId);
             }
         }
@@ -3029,7 +3430,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             Reference reference = new Reference();
             reference.setName("publication");
             reference.setRefId(publicationIdRefMap.get(thisSubmissionId));
-            getChadoDBConverter().store(reference,
+            orderedWriter.store(reference,
                     submissionMap.get(thisSubmissionId).interMineObjectId);
         }
         LOG.info("TIME setting submission-publication references: "
@@ -3048,11 +3449,10 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
         for (Integer thisAP : appliedProtocolMap.keySet()) {
-            AppliedProtocol ap = appliedProtocolMap.get(thisAP);
-
-            if (!ap.inputs.isEmpty()) {
+            int[] inputs = dag.getInputs(thisAP);
+            if (inputs.length > 0) {
                 ReferenceList collection = new ReferenceList("inputs");
-                for (Integer inputId : ap.inputs) {
+                for (int inputId : inputs) {
                     collection.addRefId(appliedDataMap.get(inputId).itemIdentifier);
                     //if (collection.getRefIds().contains(null)) {
                     //  LOG.info("Applied Protocol " + thisAP + " of protocol " + ap.protocolId
@@ -3065,19 +3465,20 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                             + " and cannot be linked in the DAG.");
                     continue;
                 }
-                getChadoDBConverter().store(collection, appliedProtocolIdMap.get(thisAP));
+                orderedWriter.store(collection, appliedProtocolIdMap.get(thisAP));
             }
 
-            if (!ap.outputs.isEmpty()) {
+            int[] outputs = dag.getOutputs(thisAP);
+            if (outputs.length > 0) {
                 ReferenceList collection = new ReferenceList("outputs");
-                for (Integer outputId : ap.outputs) {
+                for (int outputId : outputs) {
                     collection.addRefId(appliedDataMap.get(outputId).itemIdentifier);
                 }
                 if (collection.getRefIds().contains(null)) {
                     LOG.warn("Applied Protocol " + thisAP + " has null AD.itemidentifiers");
                     continue;
                 }
-                getChadoDBConverter().store(collection, appliedProtocolIdMap.get(thisAP));
+                orderedWriter.store(collection, appliedProtocolIdMap.get(thisAP));
 
             }
         }
@@ -3193,8 +3594,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         debugMap .put(i.getIdentifier(), i.getClassName());
     }
 
-    private void mapSubmissionAndData(Integer submissionId, Integer dataId) {
-        Util.addToListMap(submissionDataMap, submissionId, dataId);
-        dataSubmissionMap.put(dataId, submissionId);
+    private void mapSubmissionAndData(int submissionId, int dataId) {
+        dag.mapSubmissionAndData(submissionId, dataId);
     }
 
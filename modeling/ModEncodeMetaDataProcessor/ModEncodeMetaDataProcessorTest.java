@@ -0,0 +1,53 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * The submissions found by DCC id, through the reverse map kept by putDccId.
+ */
+public class ModEncodeMetaDataProcessorTest
+{
+    @Test
+    public void testSubmissionIdFromDccId() {
+        ModEncodeMetaDataProcessor processor = new ModEncodeMetaDataProcessor(null);
+        processor.putDccId(1, "modENCODE_100");
+        processor.putDccId(2, "modENCODE_200");
+        assertEquals(Integer.valueOf(1), processor.getSubmissionIdFromDccId("modENCODE_100"));
+        assertEquals(Integer.valueOf(2), processor.getSubmissionIdFromDccId("modENCODE_200"));
+        assertNull(processor.getSubmissionIdFromDccId("modENCODE_300"));
+    }
+
+    @Test
+    public void testRemappedSubmissionDropsOldDccId() {
+        ModEncodeMetaDataProcessor processor = new ModEncodeMetaDataProcessor(null);
+        processor.putDccId(1, "modENCODE_100");
+        processor.putDccId(1, "modENCODE_101");
+        assertNull(processor.getSubmissionIdFromDccId("modENCODE_100"));
+        assertEquals(Integer.valueOf(1), processor.getSubmissionIdFromDccId("modENCODE_101"));
+    }
+
+    @Test
+    public void testDuplicateDccIdResolvesToLatestSubmission() {
+        ModEncodeMetaDataProcessor processor = new ModEncodeMetaDataProcessor(null);
+        processor.putDccId(1, "modENCODE_100");
+        processor.putDccId(2, "modENCODE_100");
+        assertEquals(Integer.valueOf(2), processor.getSubmissionIdFromDccId("modENCODE_100"));
+        // remapping the earlier submission leaves the DCC id to the latest one
+        processor.putDccId(1, "modENCODE_101");
+        assertEquals(Integer.valueOf(2), processor.getSubmissionIdFromDccId("modENCODE_100"));
+        assertEquals(Integer.valueOf(1), processor.getSubmissionIdFromDccId("modENCODE_101"));
+    }
+}
@@ -0,0 +1,54 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The official names of the data, read along the data from one result set ordered by data_id
+ * (see ModEncodeMetaDataProcessor.getOfficialNames) instead of one query per datum. As with
+ * the query per datum, the last name of a datum having several is kept.
+ */
+final class OfficialNameCursor
+{
+    private final ResultSet names;
+    private boolean more;
+
+    /**
+     * @param names data_id and value rows, ordered by data_id
+     * @throws SQLException if a database problem occurs
+     */
+    OfficialNameCursor(ResultSet names) throws SQLException {
+        this.names = names;
+        more = names.next();
+    }
+
+    /**
+     * @param dataId the datum, not lower than the one of the previous call
+     * @return its official name, null if it has none
+     * @throws SQLException if a database problem occurs
+     */
+    String get(int dataId) throws SQLException {
+        String officialName = null;
+        while (more && names.getInt("data_id") <= dataId) {
+            if (names.getInt("data_id") == dataId) {
+                officialName = names.getString("value");
+            }
+            more = names.next();
+        }
+        return officialName;
+    }
+
+    void close() throws SQLException {
+        names.close();
+    }
+}
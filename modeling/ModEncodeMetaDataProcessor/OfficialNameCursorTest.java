@@ -0,0 +1,101 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * The official names read along the data by OfficialNameCursor are the ones the query per
+ * datum (getOfficialName) returned.
+ */
+public class OfficialNameCursorTest
+{
+    @Test
+    public void testSameAsQueryPerDatum() throws Exception {
+        Random random = new Random(44);
+        for (int run = 0; run < 500; run++) {
+            // data_id, attribute_id, value, as in data_attribute and attribute
+            List<Object[]> attributes = new ArrayList<Object[]>();
+            TreeSet<Integer> data = new TreeSet<Integer>();
+            int attributeId = 0;
+            for (int i = random.nextInt(30); i > 0; i--) {
+                data.add(random.nextInt(50));
+            }
+            for (int i = random.nextInt(30); i > 0; i--) {
+                // some names are on data not read, some data have several names
+                attributes.add(new Object[] {random.nextInt(60), attributeId++, "n" + i});
+            }
+
+            List<Object[]> ordered = new ArrayList<Object[]>(attributes);
+            Collections.sort(ordered, new Comparator<Object[]>() {
+                @Override
+                public int compare(Object[] a, Object[] b) {
+                    int byData = ((Integer) a[0]).compareTo((Integer) b[0]);
+                    return byData != 0 ? byData : ((Integer) a[1]).compareTo((Integer) b[1]);
+                }
+            });
+            OfficialNameCursor cursor = new OfficialNameCursor(resultSet(ordered));
+            for (Integer dataId : data) {
+                assertEquals("data " + dataId + " in " + ordered.size() + " names",
+                        queryPerDatum(attributes, dataId), cursor.get(dataId));
+            }
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testNoNames() throws Exception {
+        OfficialNameCursor cursor = new OfficialNameCursor(resultSet(new ArrayList<Object[]>()));
+        assertEquals(null, cursor.get(1));
+        assertEquals(null, cursor.get(2));
+    }
+
+    // the last value read by processAppliedData from getOfficialName, in attribute_id order
+    private static String queryPerDatum(List<Object[]> attributes, int dataId) {
+        String officialName = null;
+        for (Object[] attribute : attributes) {
+            if (((Integer) attribute[0]).intValue() == dataId) {
+                officialName = (String) attribute[2];
+            }
+        }
+        return officialName;
+    }
+
+    private static ResultSet resultSet(final List<Object[]> rows) {
+        final int[] row = {-1};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "next":
+                        return ++row[0] < rows.size();
+                    case "getInt":
+                        return rows.get(row[0])[0];
+                    case "getString":
+                        return rows.get(row[0])[2];
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,216 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+
+/**
+ * Runs the phases of a chado processor, in parallel when they do not depend on each other.
+ * Each phase declares the data it reads and writes (maps of the processor, named freely).
+ * A phase waits for the phases declared before it that write what it reads, read what it
+ * writes or write the same thing, so the result is the one of running them in the
+ * declared order. With more than one thread every phase reads chado on its own connection.
+ * The times of the phases are logged as a Gantt chart.
+ */
+final class PhaseScheduler
+{
+    private static final Logger LOG = Logger.getLogger(PhaseScheduler.class);
+    private static final int CHART_WIDTH = 60;
+
+    /**
+     * A phase of the processor.
+     */
+    interface Phase
+    {
+        /**
+         * @param connection the chado connection of the phase
+         * @throws Exception if the phase fails
+         */
+        void run(Connection connection) throws Exception;
+    }
+
+    private final Database database;
+    private final Phase afterEach;
+    private final List<Step> steps = new ArrayList<Step>();
+
+    /**
+     * @param database the chado database, to open a connection per phase
+     * @param afterEach run at the end of each phase, in its thread, or null
+     */
+    PhaseScheduler(Database database, Phase afterEach) {
+        this.database = database;
+        this.afterEach = afterEach;
+    }
+
+    /**
+     * @param name the name of the phase, for the report
+     * @param reads what the phase reads
+     * @param writes what the phase writes
+     * @param phase the phase
+     */
+    void add(String name, String[] reads, String[] writes, Phase phase) {
+        Step step = new Step(name, reads, writes, phase);
+        for (Step earlier : steps) {
+            if (intersects(earlier.writes, step.reads) || intersects(earlier.writes, step.writes)
+                    || intersects(earlier.reads, step.writes)) {
+                earlier.dependents.add(step);
+                step.waitingFor++;
+            }
+        }
+        steps.add(step);
+    }
+
+    private static boolean intersects(Set<String> a, Set<String> b) {
+        for (String resource : a) {
+            if (b.contains(resource)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the phases.
+     * @param connection the connection used when there is one thread
+     * @param threads the number of phases running at the same time
+     * @throws Exception the exception of the first phase failing, the others are not started
+     */
+    void run(Connection connection, int threads) throws Exception {
+        long start = System.currentTimeMillis();
+        if (threads <= 1) {
+            for (Step step : steps) {
+                step.run(connection, start);
+            }
+        } else {
+            runInParallel(threads, start);
+        }
+        LOG.info(chart(System.currentTimeMillis() - start));
+    }
+
+    private void runInParallel(int threads, final long start) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Step> done = new ExecutorCompletionService<Step>(pool);
+        int running = 0;
+        try {
+            for (Step step : steps) {
+                if (step.waitingFor == 0) {
+                    submit(done, step, start);
+                    running++;
+                }
+            }
+            while (running > 0) {
+                Future<Step> finished = done.take();
+                running--;
+                Step step;
+                try {
+                    step = finished.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                for (Step dependent : step.dependents) {
+                    if (--dependent.waitingFor == 0) {
+                        submit(done, dependent, start);
+                        running++;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void submit(CompletionService<Step> done, final Step step, final long start) {
+        done.submit(() -> {
+            Connection connection = database.getConnection();
+            try {
+                step.run(connection, start);
+            } finally {
+                connection.close();
+            }
+            return step;
+        });
+    }
+
+    /**
+     * @param total the time of all the phases
+     * @return one line per phase, in the order they started, with a bar from start to end
+     */
+    private String chart(long total) {
+        List<Step> started = new ArrayList<Step>(steps);
+        started.sort((a, b) -> Long.compare(a.begin, b.begin));
+        int nameWidth = 0;
+        for (Step step : started) {
+            nameWidth = Math.max(nameWidth, step.name.length());
+        }
+        StringBuilder chart = new StringBuilder("PROCESS TIME phases: " + total + " ms");
+        for (Step step : started) {
+            int from = (int) (step.begin * CHART_WIDTH / Math.max(total, 1));
+            int to = (int) Math.max(from + 1, step.end * CHART_WIDTH / Math.max(total, 1));
+            char[] bar = new char[CHART_WIDTH + 1];
+            Arrays.fill(bar, ' ');
+            Arrays.fill(bar, from, Math.min(to, bar.length), '#');
+            chart.append('\n').append(String.format("%-" + nameWidth + "s |%s| %6d ms  %s",
+                    step.name, new String(bar), step.end - step.begin, step.thread));
+        }
+        return chart.toString();
+    }
+
+    private final class Step
+    {
+        private final String name;
+        private final Set<String> reads;
+        private final Set<String> writes;
+        private final Phase phase;
+        private final List<Step> dependents = new ArrayList<Step>();
+        private int waitingFor;
+        // from the start of the run, in ms
+        private volatile long begin;
+        private volatile long end;
+        private volatile String thread;
+
+        private Step(String name, String[] reads, String[] writes, Phase phase) {
+            this.name = name;
+            this.reads = new HashSet<String>(Arrays.asList(reads));
+            this.writes = new HashSet<String>(Arrays.asList(writes));
+            this.phase = phase;
+        }
+
+        private void run(Connection connection, long start) throws Exception {
+            thread = Thread.currentThread().getName();
+            begin = System.currentTimeMillis() - start;
+            try {
+                phase.run(connection);
+                if (afterEach != null) {
+                    afterEach.run(connection);
+                }
+            } finally {
+                end = System.currentTimeMillis() - start;
+            }
+        }
+    }
+}
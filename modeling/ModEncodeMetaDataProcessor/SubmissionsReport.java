@@ -0,0 +1,215 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the rows of the submissions CSV report to a file channel through one reused
+ * character buffer, encoder and byte buffer, optionally gzipped. Fields are written as they
+ * are, separated by commas, null fields as "null".
+ *
+ * Asynchronous, the rows are queued to a background daemon thread writing them, the caller
+ * only blocks when the bounded queue is full. The thread ends on close(), which must be
+ * called whether the rows could all be written or not.
+ */
+final class SubmissionsReport implements Closeable
+{
+    private static final Logger LOG = Logger.getLogger(SubmissionsReport.class);
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int QUEUE_SIZE = 10000;
+    private static final String[] END_OF_ROWS = new String[0];
+
+    private final File file;
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 4);
+    private final BlockingQueue<String[]> queue;
+    private final Thread thread;
+    private volatile IOException failure;
+    private long rows;
+
+    /**
+     * @param file the report file, ".gz" is appended if gzipped
+     * @param gzip true to gzip the report
+     * @param async true to write the rows on a background thread
+     * @throws IOException if the file cannot be created
+     */
+    SubmissionsReport(File file, boolean gzip, boolean async) throws IOException {
+        this.file = gzip ? new File(file.getPath() + ".gz") : file;
+        FileOutputStream out = new FileOutputStream(this.file);
+        if (gzip) {
+            channel = Channels.newChannel(new GZIPOutputStream(out, BUFFER_SIZE));
+        } else {
+            channel = out.getChannel();
+        }
+        if (async) {
+            queue = new ArrayBlockingQueue<String[]>(QUEUE_SIZE);
+            thread = new Thread(this::drain, "modencode-report-writer");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            queue = null;
+            thread = null;
+        }
+    }
+
+    /**
+     * @param fields the fields of the row, the array must not be changed afterwards
+     * @throws IOException if writing failed, asynchronously or not
+     */
+    void write(String... fields) throws IOException {
+        if (queue == null) {
+            append(fields);
+            return;
+        }
+        if (failure != null) {
+            throw new IOException("Writing " + file + " failed", failure);
+        }
+        put(fields);
+    }
+
+    /**
+     * Write the remaining rows, stop the background thread and close the file.
+     * @throws IOException if writing failed, asynchronously or not
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (queue != null) {
+                try {
+                    put(END_OF_ROWS);
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the report writer", e);
+                } finally {
+                    thread.interrupt();
+                }
+            }
+            if (failure == null) {
+                encode(true);
+                flushBytes();
+            }
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        LOG.info("Submissions report: " + this);
+    }
+
+    @Override
+    public String toString() {
+        return rows + " rows in " + file;
+    }
+
+    private void put(String[] fields) throws IOException {
+        try {
+            queue.put(fields);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted queueing a report row", e);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                String[] fields = queue.take();
+                if (fields == END_OF_ROWS) {
+                    return;
+                }
+                // after a failure, keep emptying the queue so that the scan does not block
+                if (failure == null) {
+                    try {
+                        append(fields);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                append(",");
+            }
+            append(String.valueOf(fields[i]));
+        }
+        append(LINE_SEPARATOR);
+        rows++;
+    }
+
+    private void append(String s) throws IOException {
+        int start = 0;
+        while (start < s.length()) {
+            int end = Math.min(s.length(), start + chars.remaining());
+            chars.append(s, start, end);
+            start = end;
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                flushBytes();
+            } else {
+                break;
+            }
+        }
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                flushBytes();
+            }
+        }
+        // a surrogate pair cut at the end of the buffer is kept for the next round
+        chars.compact();
+    }
+
+    private void flushBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,226 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import spoon.Launcher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtComment;
+import spoon.reflect.code.CtLambda;
+import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtModule;
+import spoon.reflect.declaration.CtNamedElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtReference;
+import spoon.reflect.visitor.CtScanner;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Build profile for analyses that only need names, types, invocations and
+ * valid positions, like {@link MethodInvocationSearch}. Call
+ * {@link #configure(Launcher)} before building the model and
+ * {@link #compact(CtModel)} right after. The profile
+ * <ul>
+ * <li>does not build comments and javadoc,</li>
+ * <li>replaces source positions by {@link CompactSourcePosition},</li>
+ * <li>shares one String instance per distinct identifier,</li>
+ * <li>optionally drops the bodies of executables outside the analysed types.
+ * A dropped body is parsed again by {@link #loadBody(CtExecutable)} the first
+ * time it is needed.</li>
+ * </ul>
+ * Only comments are skipped while building. The other reductions are done by
+ * {@link #compact(CtModel)} on the built model: they lower the heap retained
+ * by the model afterwards (e.g. by a long running analysis), not the peak heap
+ * of {@link Launcher#buildModel()}, which still holds the full JDT and Spoon
+ * trees. A compacted model is meant for analysis only, it should not be
+ * printed.
+ */
+public class AnalysisBuildProfile {
+	private Predicate<CtType<?>> bodyScope = type -> true;
+	private final Set<CtExecutable<?>> droppedBodies = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * Only the executables of top level types accepted by the predicate keep
+	 * their body. By default every body is kept.
+	 *
+	 * @param bodyScope accepts the types whose bodies are analysed.
+	 */
+	public void setBodyScope(Predicate<CtType<?>> bodyScope) {
+		this.bodyScope = bodyScope;
+	}
+
+	/**
+	 * Sets the environment options of the profile. Must be called before
+	 * {@link Launcher#buildModel()}.
+	 *
+	 * @param launcher the launcher going to build the model.
+	 */
+	public void configure(Launcher launcher) {
+		Environment environment = launcher.getEnvironment();
+		environment.setCommentEnabled(false);
+		environment.setShouldCompile(false);
+	}
+
+	/**
+	 * Shrinks the freshly built model in place. The peak heap of the build is
+	 * already reached at this point.
+	 *
+	 * @param model built with a launcher configured by this profile.
+	 */
+	public void compact(CtModel model) {
+		Map<String, String> identifiers = new HashMap<>();
+		for (CtType<?> type : model.getAllTypes()) {
+			if (!bodyScope.test(type)) {
+				dropBodies(type);
+			}
+		}
+		new CompactingScanner(identifiers).scan(model.getRootPackage());
+	}
+
+	/**
+	 * @param executable of the compacted model.
+	 * @return true if the body was dropped and was not loaded again yet.
+	 */
+	public boolean isBodyDropped(CtExecutable<?> executable) {
+		return droppedBodies.contains(executable);
+	}
+
+	/**
+	 * Returns the body of the executable, parsing its compilation unit again if
+	 * the body was dropped by {@link #compact(CtModel)}. The loaded body is
+	 * attached to the executable, so it is parsed at most once.
+	 *
+	 * <p>The file is parsed alone, in noclasspath mode, with the source
+	 * classpath, compliance level and encoding of the model. Types of the
+	 * other source files resolve only if they are on that classpath, otherwise
+	 * their references are built without declarations (unknown members,
+	 * guessed packages), unlike in the model. Keep the bodies an analysis
+	 * relies on in the body scope instead of loading them.
+	 *
+	 * @param executable of the compacted model.
+	 * @return the body, null if the executable has none.
+	 */
+	public CtBlock<?> loadBody(CtExecutable<?> executable) {
+		if (!droppedBodies.remove(executable)) {
+			return executable.getBody();
+		}
+		CtType<?> declaringType = executable.getParent(CtType.class);
+		File file = executable.getPosition().getFile();
+		if (declaringType == null || file == null) {
+			return null;
+		}
+		Environment original = executable.getFactory().getEnvironment();
+		Launcher launcher = new Launcher();
+		launcher.addInputResource(file.getPath());
+		Environment environment = launcher.getEnvironment();
+		environment.setNoClasspath(true);
+		environment.setCommentEnabled(false);
+		environment.setComplianceLevel(original.getComplianceLevel());
+		if (original.getSourceClasspath() != null) {
+			environment.setSourceClasspath(original.getSourceClasspath());
+		}
+		if (original.getEncoding() != null) {
+			environment.setEncoding(original.getEncoding());
+		}
+		launcher.buildModel();
+		CtType<?> parsedType = launcher.getFactory().Type().get(declaringType.getQualifiedName());
+		if (parsedType == null) {
+			return null;
+		}
+		String signature = executable.getSignature();
+		for (CtExecutable<?> parsed : parsedType.getElements(new TypeFilter<>(CtExecutable.class))) {
+			if (parsed.getParent(CtType.class) == parsedType && signature.equals(parsed.getSignature())
+					&& parsed.getBody() != null) {
+				CtBlock<?> body = parsed.getBody().clone();
+				moveToFactory(body, executable.getFactory());
+				executable.setBody(body);
+				return body;
+			}
+		}
+		return null;
+	}
+
+	private void dropBodies(CtType<?> type) {
+		for (CtExecutable<?> executable : type.getElements(new TypeFilter<>(CtExecutable.class))) {
+			// lambda bodies go away with the body of their enclosing executable
+			if (executable.getBody() != null && !(executable instanceof CtLambda)
+					&& executable.getParent(CtType.class) == type) {
+				executable.setBody(null);
+				droppedBodies.add(executable);
+			}
+		}
+	}
+
+	private static void moveToFactory(CtElement element, Factory factory) {
+		new CtScanner() {
+			@Override
+			public void scan(CtElement e) {
+				if (e != null) {
+					e.setFactory(factory);
+				}
+				super.scan(e);
+			}
+		}.scan(element);
+	}
+
+	/**
+	 * Replaces positions, deduplicates identifiers and removes comments that
+	 * were attached anyway, e.g. by a launcher built before {@link #configure(Launcher)}.
+	 */
+	private static class CompactingScanner extends CtScanner {
+		private final Map<String, String> identifiers;
+
+		CompactingScanner(Map<String, String> identifiers) {
+			this.identifiers = identifiers;
+		}
+
+		@Override
+		protected void enter(CtElement e) {
+			SourcePosition position = e.getPosition();
+			if (position.isValidPosition() && !(position instanceof CompactSourcePosition)) {
+				e.setPosition(new CompactSourcePosition(position.getCompilationUnit(),
+						position.getSourceStart(), position.getSourceEnd()));
+			}
+			if (!e.getComments().isEmpty()) {
+				for (CtComment comment : e.getComments().toArray(new CtComment[0])) {
+					e.removeComment(comment);
+				}
+			}
+			// renaming types and packages would update the parent's lookup maps, skip them
+			if (e instanceof CtNamedElement && !(e instanceof CtType) && !(e instanceof CtPackage)
+					&& !(e instanceof CtModule)) {
+				CtNamedElement named = (CtNamedElement) e;
+				named.setSimpleName(share(named.getSimpleName()));
+			}
+			super.enter(e);
+		}
+
+		@Override
+		public void scan(CtElement element) {
+			if (element instanceof CtReference) {
+				CtReference reference = (CtReference) element;
+				reference.setSimpleName(share(reference.getSimpleName()));
+			}
+			super.scan(element);
+		}
+
+		private String share(String identifier) {
+			if (identifier == null) {
+				return null;
+			}
+			String shared = identifiers.putIfAbsent(identifier, identifier);
+			return shared == null ? identifier : shared;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import spoon.reflect.code.CtAbstractInvocation;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.declaration.CtConstructor;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.CtScanner;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Call graph keyed by strings instead of model elements, like the mapping of
+ * {@link MethodInvocationSearch} but detached from the model. Calls are keyed
+ * by their reference, so calls to executables of other models (e.g. other
+ * modules) are kept and can be matched later with {@link #merge(CallGraphSummary)}.
+ * A key is the qualified name of the declaring type, '#' and the signature.
+ */
+public class CallGraphSummary extends CtScanner {
+	private final Map<String, Set<String>> callees = new HashMap<>();
+	private final Set<String> declared = new HashSet<>();
+
+	@Override
+	public <T> void visitCtMethod(CtMethod<T> method) {
+		addCalls(method);
+		super.visitCtMethod(method);
+	}
+
+	@Override
+	public <T> void visitCtConstructor(CtConstructor<T> constructor) {
+		addCalls(constructor);
+		super.visitCtConstructor(constructor);
+	}
+
+	private void addCalls(CtExecutable<?> executable) {
+		if (executable.isImplicit()) {
+			return;
+		}
+		String caller = key(executable);
+		declared.add(caller);
+		Set<String> calls = callees.computeIfAbsent(caller, k -> new HashSet<>());
+		for (CtAbstractInvocation<?> call : executable.getElements(new TypeFilter<>(CtAbstractInvocation.class))) {
+			if ((call instanceof CtInvocation || call instanceof CtConstructorCall) && !call.isImplicit()) {
+				calls.add(key(call.getExecutable()));
+			}
+		}
+	}
+
+	/**
+	 * @param executable declared executable.
+	 * @return key of the executable.
+	 */
+	public static String key(CtExecutable<?> executable) {
+		CtType<?> type = executable.getParent(CtType.class);
+		return (type == null ? "?" : type.getQualifiedName()) + "#" + executable.getSignature();
+	}
+
+	/**
+	 * @param reference executable reference of a call.
+	 * @return key of the called executable, matches {@link #key(CtExecutable)} of its declaration.
+	 */
+	public static String key(CtExecutableReference<?> reference) {
+		CtTypeReference<?> type = reference.getDeclaringType();
+		return (type == null ? "?" : type.getQualifiedName()) + "#" + reference.getSignature();
+	}
+
+	/**
+	 * Adds all executables and calls of the other summary to this one.
+	 *
+	 * @param other summary, e.g. of another module.
+	 */
+	public void merge(CallGraphSummary other) {
+		declared.addAll(other.declared);
+		other.callees.forEach((caller, calls) -> callees.computeIfAbsent(caller, k -> new HashSet<>()).addAll(calls));
+	}
+
+	/**
+	 * @return keys of the executables declared in the scanned elements.
+	 */
+	public Set<String> getDeclared() {
+		return Collections.unmodifiableSet(declared);
+	}
+
+	/**
+	 * @param caller key of a declared executable.
+	 * @return keys of all executables called by the caller.
+	 */
+	public Set<String> getCallees(String caller) {
+		return callees.getOrDefault(caller, Collections.emptySet());
+	}
+
+	/**
+	 * @return caller to callees mapping, including calls to undeclared executables.
+	 */
+	public Map<String, Set<String>> getEdges() {
+		return Collections.unmodifiableMap(callees);
+	}
+
+	/**
+	 * @return number of distinct caller to callee edges.
+	 */
+	public int getEdgeCount() {
+		return callees.values().stream().mapToInt(Set::size).sum();
+	}
+
+	/**
+	 * @param seeds keys of executables.
+	 * @return the seeds and every executable called by one of them, directly or not.
+	 */
+	public Set<String> calleesOf(Set<String> seeds) {
+		Set<String> reached = new HashSet<>(seeds);
+		Deque<String> work = new ArrayDeque<>(seeds);
+		while (!work.isEmpty()) {
+			for (String callee : callees.getOrDefault(work.pop(), Collections.emptySet())) {
+				if (reached.add(callee)) {
+					work.push(callee);
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * @param seeds keys of executables.
+	 * @return the seeds and every executable calling one of them, directly or not.
+	 */
+	public Set<String> callersOf(Set<String> seeds) {
+		Map<String, Set<String>> callers = new HashMap<>();
+		callees.forEach((caller, calls) -> calls.forEach(c -> callers.computeIfAbsent(c, k -> new HashSet<>()).add(caller)));
+		Set<String> reached = new HashSet<>(seeds);
+		Deque<String> work = new ArrayDeque<>(seeds);
+		while (!work.isEmpty()) {
+			for (String caller : callers.getOrDefault(work.pop(), Collections.emptySet())) {
+				if (reached.add(caller)) {
+					work.push(caller);
+				}
+			}
+		}
+		return reached;
+	}
+}
@@ -0,0 +1,59 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import spoon.Launcher;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+
+/*
+    call 연결 방식 비교 (MethodInvocationSearch.ResolutionMode)
+        (1) STATIC : 선언된 method 만
+        (2) CHA : 하위 타입의 override 까지
+        (3) RTA : CHA 중 new 로 생성되는 타입만
+    타겟 디렉터리를 1, 2, 4, 8 번 복사해서 시간 / edge 수 출력
+        ms / 1000 methods 값이 비슷하면 선형
+*/
+
+
+public class CallResolutionBenchTest {
+    private static final int[] COPIES = {1, 2, 4, 8};
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        for (int copies : COPIES) {
+            Path corpus = CorpusScaler.scale(Paths.get("./src/test/resources/project/src/main/java/"), copies);
+            Launcher launcher = new Launcher();
+            launcher.addInputResource(corpus.toString());
+            launcher.getEnvironment().setNoClasspath(true);
+            launcher.getEnvironment().setCommentEnabled(false);
+            CtModel model = launcher.buildModel();
+            int methods = model.getElements(new TypeFilter<>(CtMethod.class)).size();
+
+            for (MethodInvocationSearch.ResolutionMode mode : MethodInvocationSearch.ResolutionMode.values()) {
+                // warm up once, then measure with a fresh index
+                search(model, mode);
+                SubtypeIndex.invalidate(model);
+                long start = System.currentTimeMillis();
+                int edges = search(model, mode);
+                long time = System.currentTimeMillis() - start;
+                System.out.println(String.format("x%d %-6s %6d methods %7d edges %6d ms %8.2f ms / 1000 methods",
+                        copies, mode, methods, edges, time, time * 1000.0 / Math.max(1, methods)));
+            }
+        }
+    }
+
+    private int search(CtModel model, MethodInvocationSearch.ResolutionMode mode) {
+        MethodInvocationSearch search = mode == MethodInvocationSearch.ResolutionMode.STATIC
+                ? new MethodInvocationSearch()
+                : new MethodInvocationSearch(mode, SubtypeIndex.of(model));
+        search.scan(model.getRootPackage());
+        return search.getInvocationsOfMethod().stream()
+                .mapToInt(s -> s.getCallerMethods().size() + s.getCallerFields().size()).sum();
+    }
+}
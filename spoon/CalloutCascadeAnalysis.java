@@ -0,0 +1,470 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtCase;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtReturn;
+import spoon.reflect.code.CtStatement;
+import spoon.reflect.code.CtSwitch;
+import spoon.reflect.code.CtTry;
+import spoon.reflect.code.CtTypeAccess;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.ModifierKind;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Builds the cascade graph of ADempiere callouts: a callout runs when its
+ * field changes, and each {@code mTab.setValue("Column", value)} it does
+ * changes another field, which runs that field's callouts. Fields are bound
+ * to callouts by {@link #bind(String, String)}, as in the AD_Column.Callout
+ * of the dictionary. Without bindings, they are read from the source: the
+ * "called from" list of the callout Javadoc, the columns compared to
+ * {@code mField.getColumnName()}, and the column named like the callout
+ * ({@code bPartner} for {@code C_BPartner_ID}).
+ *
+ * <p>Each callout weighs its database round trips on its worst path: one
+ * per query, {@link #setCost(String, int)} for helpers known to query
+ * ({@code Tax.get}, {@code new MProductPricing}...), plus the methods of
+ * the model it calls. The worst case of an edit adds up the callouts of
+ * the field and of the fields they set, each callout once per edit.
+ * Callouts starting with {@code isCalloutActive()} do not run in a cascade,
+ * and setting a field to {@code null} is not followed, the callouts
+ * return at once. {@link #instrument} records the real cascades at run
+ * time with {@link CalloutRecorder}, to check the estimates.
+ */
+public class CalloutCascadeAnalysis {
+	private static final String RECORDER = "fr.inria.gforge.spoon.transformation.CalloutRecorder";
+	private static final Pattern CALLED_FROM = Pattern.compile("(?i)called from ([\\w ,]+)");
+	private static final Pattern COLUMN = Pattern.compile("[A-Z][A-Za-z0-9]*(_[A-Za-z0-9]+)*");
+
+	private final Map<String, Integer> costs = new HashMap<>();
+	private final Map<String, Set<String>> bindings = new LinkedHashMap<>();
+	private final Map<String, Callout> callouts = new LinkedHashMap<>();
+
+	public CalloutCascadeAnalysis() {
+		setCost("new MProductPricing", 3);
+		setCost("Tax.get", 3);
+		setCost("new MPaymentTerm", 1);
+		setCost("MPaymentTerm.apply", 2);
+		setCost("MPriceList.getStandardPrecision", 1);
+		setCost("MProduct.get", 1);
+		setCost("MUOM.getPrecision", 1);
+		setCost("MUOMConversion.convertFromProductUOM", 1);
+		setCost("MUOMConversion.convertToProductUOM", 1);
+	}
+
+	/**
+	 * @param call "Type.method" or "new Type".
+	 * @param roundTrips database round trips of one call, 0 for cached helpers.
+	 */
+	public void setCost(String call, int roundTrips) {
+		costs.put(call, roundTrips);
+	}
+
+	/**
+	 * @param column column whose changes run the callout.
+	 * @param callout "CalloutType.method", the package is ignored.
+	 */
+	public void bind(String column, String callout) {
+		String[] parts = callout.split("\\.");
+		String key = parts.length < 2 ? callout : parts[parts.length - 2] + "." + parts[parts.length - 1];
+		bindings.computeIfAbsent(column, c -> new LinkedHashSet<>()).add(key);
+	}
+
+	/**
+	 * @param root element holding callout classes.
+	 * @return the callouts by "CalloutType.method".
+	 */
+	public Map<String, Callout> analyse(CtElement root) {
+		callouts.clear();
+		Set<String> columns = new HashSet<>();
+		List<CtMethod<?>> methods = new ArrayList<>();
+		for (CtMethod<?> method : root.getElements(new TypeFilter<>(CtMethod.class))) {
+			if (isCallout(method)) {
+				methods.add(method);
+				columns.addAll(writes(method, new HashSet<>()));
+				for (CtLiteral<?> literal : method.getElements(new TypeFilter<>(CtLiteral.class))) {
+					if (literal.getValue() instanceof String && COLUMN.matcher((String) literal.getValue()).matches()) {
+						columns.add((String) literal.getValue());
+					}
+				}
+			}
+		}
+		for (CtMethod<?> method : methods) {
+			Callout callout = new Callout(key(method));
+			callout.roundTrips = cost(method.getBody(), new ArrayDeque<>());
+			callout.writes.addAll(writes(method, new HashSet<>()));
+			callout.guarded = isGuarded(method);
+			callout.triggers.addAll(inferredColumns(method, columns));
+			callouts.put(callout.name, callout);
+		}
+		if (!bindings.isEmpty()) {
+			callouts.values().forEach(c -> c.triggers.clear());
+			bindings.forEach((column, names) -> names.stream().map(callouts::get).filter(c -> c != null)
+					.forEach(c -> c.triggers.add(column)));
+		}
+		return callouts;
+	}
+
+	/**
+	 * @return the worst case round trips of an edit of each bound column, heaviest first.
+	 */
+	public Map<String, Integer> worstCasePerEdit() {
+		Map<String, Integer> worst = new LinkedHashMap<>();
+		Set<String> columns = new LinkedHashSet<>();
+		callouts.values().forEach(c -> columns.addAll(c.triggers));
+		columns.stream().map(c -> new Object[] {c, roundTrips(c, new HashSet<>(), false)})
+				.sorted((a, b) -> Integer.compare((Integer) b[1], (Integer) a[1]))
+				.forEach(e -> worst.put((String) e[0], (Integer) e[1]));
+		return worst;
+	}
+
+	private int roundTrips(String column, Set<String> fired, boolean cascade) {
+		int total = 0;
+		for (Callout callout : calloutsOf(column)) {
+			if (fired.contains(callout.name) || cascade && callout.guarded) {
+				continue;
+			}
+			fired.add(callout.name);
+			total += callout.roundTrips;
+			for (String written : callout.writes) {
+				total += roundTrips(written, fired, true);
+			}
+		}
+		return total;
+	}
+
+	private List<Callout> calloutsOf(String column) {
+		List<Callout> result = new ArrayList<>();
+		callouts.values().stream().filter(c -> c.triggers.contains(column)).forEach(result::add);
+		return result;
+	}
+
+	/**
+	 * @param column edited column.
+	 * @return the cascade as an indented tree, one callout per line with its round trips.
+	 */
+	public String cascade(String column) {
+		StringBuilder tree = new StringBuilder();
+		cascade(column, new HashSet<>(), false, "", tree);
+		return tree.toString();
+	}
+
+	private void cascade(String column, Set<String> fired, boolean nested, String indent, StringBuilder tree) {
+		for (Callout callout : calloutsOf(column)) {
+			if (fired.contains(callout.name) || nested && callout.guarded) {
+				continue;
+			}
+			fired.add(callout.name);
+			tree.append(indent).append(column).append(" -> ").append(callout.name).append(" (")
+					.append(callout.roundTrips).append(")\n");
+			for (String written : callout.writes) {
+				cascade(written, fired, true, indent + "    ", tree);
+			}
+		}
+	}
+
+	/**
+	 * @return the graph in dot: columns to the callouts they run, callouts to the columns they set.
+	 */
+	public String toDot() {
+		StringBuilder dot = new StringBuilder("digraph callouts {\n");
+		for (Callout callout : callouts.values()) {
+			dot.append(String.format("  \"%s\" [shape=box, label=\"%s\\n%d round trips%s\"];%n", callout.name,
+					callout.name, callout.roundTrips, callout.guarded ? ", not in cascades" : ""));
+			callout.triggers.forEach(c -> dot.append(String.format("  \"%s\" -> \"%s\";%n", c, callout.name)));
+			callout.writes.forEach(c -> dot.append(String.format("  \"%s\" -> \"%s\" [style=dashed];%n", callout.name, c)));
+		}
+		return dot.append("}\n").toString();
+	}
+
+	/**
+	 * @param edits recorded by the instrumented callouts.
+	 * @return the edits with more round trips than the worst case of their column, or of a column not bound.
+	 */
+	public List<String> compare(List<CalloutRecorder.Edit> edits) {
+		Map<String, Integer> worst = worstCasePerEdit();
+		List<String> exceeded = new ArrayList<>();
+		for (CalloutRecorder.Edit edit : edits) {
+			Integer expected = edit.getColumn() == null ? null : worst.get(edit.getColumn());
+			if (expected == null || edit.getRoundTrips() > expected) {
+				exceeded.add(edit + " expected at most " + expected);
+			}
+		}
+		return exceeded;
+	}
+
+	/**
+	 * Records the callouts and their database calls with {@link CalloutRecorder}.
+	 *
+	 * @param root element holding callout classes.
+	 * @return the number of instrumented callouts.
+	 */
+	public int instrument(CtElement root) {
+		int instrumented = 0;
+		for (CtMethod<?> method : root.getElements(new TypeFilter<>(CtMethod.class))) {
+			if (!isCallout(method)) {
+				continue;
+			}
+			Factory factory = method.getFactory();
+			for (CtStatement statement : method.getBody().getElements(new TypeFilter<>(CtStatement.class))) {
+				// compound statements are counted through their own statements
+				if (statement.getParent() instanceof CtBlock
+						&& statement.getElements(new TypeFilter<>(CtBlock.class)).isEmpty()) {
+					int roundTrips = ownCost(statement);
+					if (roundTrips > 0) {
+						statement.insertBefore(factory.Code().createCodeSnippetStatement(
+								RECORDER + ".dbCall(" + roundTrips + ")"));
+					}
+				}
+			}
+			String field = method.getParameters().get(3).getSimpleName();
+			CtTry recorded = factory.Core().createTry();
+			recorded.setBody(method.getBody().clone());
+			recorded.setFinalizer(factory.Code().createCtBlock(factory.Code().createCodeSnippetStatement(RECORDER + ".exit()")));
+			CtBlock<?> body = factory.Code().createCtBlock(factory.Code().createCodeSnippetStatement(RECORDER + ".enter(\""
+					+ key(method) + "\", " + field + " == null ? null : " + field + ".getColumnName())"));
+			body.addStatement(recorded);
+			method.setBody(body);
+			instrumented++;
+		}
+		return instrumented;
+	}
+
+	/**
+	 * @return true for {@code public String name(Properties, int, GridTab, GridField, Object)}.
+	 */
+	static boolean isCallout(CtMethod<?> method) {
+		List<CtParameter<?>> parameters = method.getParameters();
+		return method.hasModifier(ModifierKind.PUBLIC) && method.getBody() != null
+				&& "String".equals(method.getType().getSimpleName()) && parameters.size() == 5
+				&& "GridTab".equals(parameters.get(2).getType().getSimpleName())
+				&& "GridField".equals(parameters.get(3).getType().getSimpleName());
+	}
+
+	private static String key(CtMethod<?> method) {
+		return method.getDeclaringType().getSimpleName() + "." + method.getSimpleName();
+	}
+
+	/**
+	 * @return true if the callout returns at once when another callout is active.
+	 */
+	private static boolean isGuarded(CtMethod<?> method) {
+		List<CtStatement> statements = method.getBody().getStatements();
+		if (statements.isEmpty() || !(statements.get(0) instanceof CtIf)) {
+			return false;
+		}
+		CtIf check = (CtIf) statements.get(0);
+		return check.getCondition().getElements(new TypeFilter<>(CtInvocation.class)).stream()
+				.anyMatch(i -> "isCalloutActive".equals(i.getExecutable().getSimpleName()))
+				&& !check.getThenStatement().getElements(new TypeFilter<>(CtReturn.class)).isEmpty();
+	}
+
+	/**
+	 * @return columns set to a non null value by the method or the methods of the model it calls.
+	 */
+	private static Set<String> writes(CtExecutable<?> executable, Set<CtExecutable<?>> visited) {
+		Set<String> columns = new LinkedHashSet<>();
+		if (!visited.add(executable) || executable.getBody() == null) {
+			return columns;
+		}
+		for (CtInvocation<?> invocation : executable.getBody().getElements(new TypeFilter<>(CtInvocation.class))) {
+			if ("setValue".equals(invocation.getExecutable().getSimpleName()) && invocation.getArguments().size() == 2
+					&& invocation.getArguments().get(0) instanceof CtLiteral
+					&& !(invocation.getArguments().get(1) instanceof CtLiteral
+							&& ((CtLiteral<?>) invocation.getArguments().get(1)).getValue() == null)) {
+				columns.add(String.valueOf(((CtLiteral<?>) invocation.getArguments().get(0)).getValue()));
+			}
+			CtExecutable<?> callee = invocation.getExecutable().getExecutableDeclaration();
+			if (callee != null) {
+				columns.addAll(writes(callee, visited));
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * @return the columns of the Javadoc "called from" list, of the column name checks and of the callout name.
+	 */
+	private static Set<String> inferredColumns(CtMethod<?> method, Set<String> known) {
+		Set<String> triggers = new LinkedHashSet<>();
+		String doc = method.getDocComment() == null ? "" : method.getDocComment();
+		Matcher calledFrom = CALLED_FROM.matcher(doc);
+		while (calledFrom.find()) {
+			for (String column : calledFrom.group(1).split("[ ,]+")) {
+				if (COLUMN.matcher(column).matches() && known.contains(column)) {
+					triggers.add(column);
+				}
+			}
+		}
+		String field = method.getParameters().get(3).getSimpleName();
+		Set<String> names = new HashSet<>();
+		for (CtLocalVariable<?> local : method.getElements(new TypeFilter<>(CtLocalVariable.class))) {
+			if (local.getDefaultExpression() != null && isColumnName(local.getDefaultExpression(), field, names)) {
+				names.add(local.getSimpleName());
+			}
+		}
+		for (CtInvocation<?> check : method.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if ("equals".equals(check.getExecutable().getSimpleName()) && check.getArguments().size() == 1
+					&& check.getArguments().get(0) instanceof CtLiteral && check.getTarget() != null
+					&& isColumnName(check.getTarget(), field, names)) {
+				triggers.add(String.valueOf(((CtLiteral<?>) check.getArguments().get(0)).getValue()));
+			}
+		}
+		String name = method.getSimpleName().toLowerCase(Locale.ROOT);
+		for (String column : known) {
+			String bare = column.replaceAll("^[A-Z]{1,2}_", "").replaceAll("_ID$", "").replace("_", "").toLowerCase(Locale.ROOT);
+			if (bare.equals(name)) {
+				triggers.add(column);
+			}
+		}
+		return triggers;
+	}
+
+	private static boolean isColumnName(CtExpression<?> expression, String field, Set<String> names) {
+		if (expression instanceof CtVariableRead) {
+			return names.contains(((CtVariableRead<?>) expression).getVariable().getSimpleName());
+		}
+		return expression instanceof CtInvocation
+				&& "getColumnName".equals(((CtInvocation<?>) expression).getExecutable().getSimpleName())
+				&& ((CtInvocation<?>) expression).getTarget() instanceof CtVariableRead
+				&& field.equals(((CtVariableRead<?>) ((CtInvocation<?>) expression).getTarget()).getVariable().getSimpleName());
+	}
+
+	/**
+	 * @return round trips of the worst path through the element, following the methods of the model.
+	 */
+	private int cost(CtElement element, Deque<CtExecutable<?>> stack) {
+		if (element == null) {
+			return 0;
+		}
+		if (element instanceof CtBlock) {
+			int total = 0;
+			for (CtStatement statement : ((CtBlock<?>) element).getStatements()) {
+				total += cost(statement, stack);
+			}
+			return total;
+		}
+		if (element instanceof CtIf) {
+			CtIf branch = (CtIf) element;
+			return cost(branch.getCondition(), stack)
+					+ Math.max(cost(branch.getThenStatement(), stack), cost(branch.getElseStatement(), stack));
+		}
+		if (element instanceof CtSwitch) {
+			int worst = 0;
+			for (CtCase<?> branch : ((CtSwitch<?>) element).getCases()) {
+				int path = 0;
+				for (CtStatement statement : branch.getStatements()) {
+					path += cost(statement, stack);
+				}
+				worst = Math.max(worst, path);
+			}
+			return cost(((CtSwitch<?>) element).getSelector(), stack) + worst;
+		}
+		if (element instanceof CtTry) {
+			// exceptional paths are not counted
+			return cost(((CtTry) element).getBody(), stack) + cost(((CtTry) element).getFinalizer(), stack);
+		}
+		int total = ownCost(element);
+		for (CtInvocation<?> invocation : element.getElements(new TypeFilter<>(CtInvocation.class))) {
+			CtExecutable<?> callee = invocation.getExecutable().getExecutableDeclaration();
+			if (callee != null && callee.getBody() != null && !stack.contains(callee)) {
+				stack.push(callee);
+				total += cost(callee.getBody(), stack);
+				stack.pop();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return round trips of the queries and helpers called in the element, not following the model.
+	 */
+	private int ownCost(CtElement element) {
+		int total = 0;
+		for (CtInvocation<?> invocation : element.getElements(new TypeFilter<>(CtInvocation.class))) {
+			String name = invocation.getExecutable().getSimpleName();
+			if ("executeQuery".equals(name) || name.startsWith("getSQLValue") || "executeUpdate".equals(name)) {
+				total++;
+			} else if (invocation.getTarget() instanceof CtTypeAccess) {
+				total += costs.getOrDefault(((CtTypeAccess<?>) invocation.getTarget()).getAccessedType().getSimpleName()
+						+ "." + name, 0);
+			} else if (invocation.getTarget() != null && invocation.getTarget().getType() != null) {
+				total += costs.getOrDefault(invocation.getTarget().getType().getSimpleName() + "." + name, 0);
+			}
+		}
+		for (CtConstructorCall<?> creation : element.getElements(new TypeFilter<>(CtConstructorCall.class))) {
+			total += costs.getOrDefault("new " + creation.getType().getSimpleName(), 0);
+		}
+		return total;
+	}
+
+	/**
+	 * One callout: round trips of its worst path, columns it sets, columns running it.
+	 */
+	public static class Callout {
+		private final String name;
+		private final Set<String> triggers = new LinkedHashSet<>();
+		private final Set<String> writes = new LinkedHashSet<>();
+		private int roundTrips;
+		private boolean guarded;
+
+		Callout(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Set<String> getTriggers() {
+			return triggers;
+		}
+
+		public Set<String> getWrites() {
+			return writes;
+		}
+
+		public int getRoundTrips() {
+			return roundTrips;
+		}
+
+		/**
+		 * @return true if the callout does not run when set by another callout.
+		 */
+		public boolean isGuarded() {
+			return guarded;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + roundTrips + " round trips, run by " + triggers + ", sets " + writes
+					+ (guarded ? ", not in cascades" : "");
+		}
+	}
+}
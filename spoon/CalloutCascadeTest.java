@@ -0,0 +1,100 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+import spoon.Launcher;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+/*
+    callout 연쇄 분석 (CalloutCascadeAnalysis), GridTab 필드 변경 callout
+        (1) callout 별 최악 경로 DB 왕복 수 (query 1 번, Tax.get / new MProductPricing 등 query 하는 helper, 부르는 model method 포함)
+        (2) mTab.setValue("X", ...) 로 다른 필드 callout 을 부르는 연쇄 그래프, 필드 수정 한 번 당 최악 DB 왕복 수, dot 출력
+        (3) callout 에 CalloutRecorder 기록 코드 넣은 결과 출력 (실제 연쇄와 DB 호출 기록)
+        (4) -Dcallout.recorded 기록 파일 (CalloutRecorder.Edit 한 줄씩) 이 예측보다 큰 수정 출력
+    옵션 : -Dcallout.corpus=../modeling (maven 프로젝트 아닌 소스 디렉터리 분석, 패키지 필터 없음)
+          -Dcallout.bindings=bindings.txt (AD_Column 의 "C_BPartner_ID=CalloutInvoice.bPartner" 줄, 없으면 소스에서 추정)
+          -Dcallout.recorded=edits.txt
+*/
+
+
+public class CalloutCascadeTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() throws IOException {
+        String corpus = System.getProperty("callout.corpus");
+        Launcher launcher;
+        if (corpus == null) {
+            launcher = new MavenLauncher(
+                    "./src/test/resources/project/",
+                    MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        } else {
+            launcher = new Launcher();
+            launcher.addInputResource(corpus);
+            launcher.getEnvironment().setNoClasspath(true);
+        }
+        launcher.addInputResource("./src/main/java/fr/inria/gforge/spoon/transformation/CalloutRecorder.java");
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        CalloutCascadeAnalysis analysis = new CalloutCascadeAnalysis();
+        String bindings = System.getProperty("callout.bindings");
+        if (bindings != null) {
+            for (String line : Files.readAllLines(Paths.get(bindings))) {
+                String[] binding = line.trim().split("=");
+                if (binding.length == 2) {
+                    analysis.bind(binding[0].trim(), binding[1].trim());
+                }
+            }
+        }
+        Iterable<? extends CtElement> roots = corpus == null
+                ? model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))
+                : model.getAllModules();
+        for (CtElement root : roots) {
+            System.out.println("@ callouts:");
+            Map<String, CalloutCascadeAnalysis.Callout> callouts = analysis.analyse(root);
+            callouts.values().forEach(c -> System.out.println("\t" + c));
+            System.out.println("@ worst round trips per edit:");
+            Map<String, Integer> worst = analysis.worstCasePerEdit();
+            worst.forEach((column, roundTrips) -> {
+                System.out.println("\t" + roundTrips + "\t" + column);
+                System.out.print(analysis.cascade(column).replaceAll("(?m)^", "\t\t"));
+            });
+            System.out.println("@ dot:");
+            System.out.print(analysis.toDot());
+
+            String recorded = System.getProperty("callout.recorded");
+            if (recorded != null) {
+                List<CalloutRecorder.Edit> edits = Files.readAllLines(Paths.get(recorded)).stream()
+                        .filter(l -> !l.trim().isEmpty()).map(CalloutRecorder.Edit::parse).collect(Collectors.toList());
+                System.out.println("@ recorded edits over the estimate:");
+                analysis.compare(edits).forEach(e -> System.out.println("\t" + e));
+            }
+            // an edit costs at least each callout it runs directly
+            for (CalloutCascadeAnalysis.Callout callout : callouts.values()) {
+                for (String column : callout.getTriggers()) {
+                    assertTrue(callout + " on " + column, worst.get(column) >= callout.getRoundTrips());
+                }
+            }
+            int instrumented = analysis.instrument(root);
+            System.out.println("@ instrumented " + instrumented + " callouts");
+            assertTrue(instrumented == 0 || !printer.getModifiedTypes(model).isEmpty());
+        }
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+    }
+}
@@ -0,0 +1,119 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the callouts fired by each field edit and their database calls,
+ * generated at the start of callouts and before their database calls by
+ * {@link CalloutCascadeAnalysis#instrument}. An edit starts with the first
+ * callout of a thread and ends when it returns, the callouts it cascades
+ * into are recorded with it. Database calls are weighed like in the
+ * analysis: one per query, more for helpers known to query.
+ *
+ * <p>This class is copied with the rewritten sources, it only depends on the JDK.
+ */
+public final class CalloutRecorder {
+	private static final int MAX_EDITS = 10000;
+	private static final List<Edit> EDITS = new CopyOnWriteArrayList<>();
+	private static final ThreadLocal<Edit> CURRENT = new ThreadLocal<>();
+	private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+	private CalloutRecorder() {
+	}
+
+	/**
+	 * @param callout class and method of the callout.
+	 * @param column column of the changed field, null if unknown.
+	 */
+	public static void enter(String callout, String column) {
+		int[] depth = DEPTH.get();
+		if (depth[0]++ == 0) {
+			CURRENT.set(new Edit(column));
+		}
+		CURRENT.get().callouts.add(callout);
+	}
+
+	public static void exit() {
+		int[] depth = DEPTH.get();
+		if (--depth[0] == 0) {
+			Edit edit = CURRENT.get();
+			CURRENT.remove();
+			if (EDITS.size() < MAX_EDITS) {
+				EDITS.add(edit);
+			}
+		}
+	}
+
+	/**
+	 * @param roundTrips estimated round trips of the call about to run.
+	 */
+	public static void dbCall(int roundTrips) {
+		Edit edit = CURRENT.get();
+		if (edit != null) {
+			edit.roundTrips += roundTrips;
+		}
+	}
+
+	/**
+	 * @return the recorded edits, oldest first, at most 10000.
+	 */
+	public static List<Edit> edits() {
+		return Collections.unmodifiableList(EDITS);
+	}
+
+	public static void clear() {
+		EDITS.clear();
+	}
+
+	/**
+	 * Callouts and database calls of one field edit.
+	 */
+	public static final class Edit {
+		private final String column;
+		private final List<String> callouts = new ArrayList<>();
+		private int roundTrips;
+
+		Edit(String column) {
+			this.column = column;
+		}
+
+		/**
+		 * @param line written by {@link #toString()}.
+		 * @return the edit.
+		 */
+		public static Edit parse(String line) {
+			String[] parts = line.split(";", -1);
+			Edit edit = new Edit(parts[0].isEmpty() ? null : parts[0]);
+			for (String callout : parts[1].split(",")) {
+				if (!callout.isEmpty()) {
+					edit.callouts.add(callout);
+				}
+			}
+			edit.roundTrips = Integer.parseInt(parts[2]);
+			return edit;
+		}
+
+		public String getColumn() {
+			return column;
+		}
+
+		public List<String> getCallouts() {
+			return callouts;
+		}
+
+		public int getRoundTrips() {
+			return roundTrips;
+		}
+
+		/**
+		 * @return column;callout,callout;roundTrips
+		 */
+		@Override
+		public String toString() {
+			return (column == null ? "" : column) + ";" + String.join(",", callouts) + ";" + roundTrips;
+		}
+	}
+}
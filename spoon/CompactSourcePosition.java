@@ -0,0 +1,83 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.File;
+
+import spoon.reflect.cu.CompilationUnit;
+import spoon.reflect.cu.SourcePosition;
+import spoon.support.reflect.cu.position.SourcePositionImpl;
+
+/**
+ * Source position keeping only the compilation unit and the character range.
+ * Lines and columns are computed on demand from the line separator positions
+ * of the compilation unit, which are shared by all positions of a file. The
+ * declaration and body ranges of the default positions are not kept, so models
+ * using this position can be analysed but should not be printed with the
+ * sniper printer.
+ */
+public class CompactSourcePosition implements SourcePosition {
+	private final CompilationUnit compilationUnit;
+	private final int sourceStart;
+	private final int sourceEnd;
+
+	/**
+	 * @param compilationUnit containing the element.
+	 * @param sourceStart index of the first character of the element.
+	 * @param sourceEnd index of the last character of the element.
+	 */
+	public CompactSourcePosition(CompilationUnit compilationUnit, int sourceStart, int sourceEnd) {
+		this.compilationUnit = compilationUnit;
+		this.sourceStart = sourceStart;
+		this.sourceEnd = sourceEnd;
+	}
+
+	@Override
+	public boolean isValidPosition() {
+		return true;
+	}
+
+	@Override
+	public File getFile() {
+		return compilationUnit.getFile();
+	}
+
+	@Override
+	public CompilationUnit getCompilationUnit() {
+		return compilationUnit;
+	}
+
+	@Override
+	public int getLine() {
+		return SourcePositionImpl.searchLineNumber(compilationUnit.getLineSeparatorPositions(), sourceStart);
+	}
+
+	@Override
+	public int getEndLine() {
+		return SourcePositionImpl.searchLineNumber(compilationUnit.getLineSeparatorPositions(), sourceEnd);
+	}
+
+	@Override
+	public int getColumn() {
+		return SourcePositionImpl.searchColumnNumber(compilationUnit.getLineSeparatorPositions(), sourceStart);
+	}
+
+	@Override
+	public int getEndColumn() {
+		return SourcePositionImpl.searchColumnNumber(compilationUnit.getLineSeparatorPositions(), sourceEnd);
+	}
+
+	@Override
+	public int getSourceStart() {
+		return sourceStart;
+	}
+
+	@Override
+	public int getSourceEnd() {
+		return sourceEnd;
+	}
+
+	@Override
+	public String toString() {
+		File file = getFile();
+		return "(" + (file == null ? "unknown file" : file.getAbsolutePath()) + ":" + getLine() + ")";
+	}
+}
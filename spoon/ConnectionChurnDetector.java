@@ -0,0 +1,411 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import spoon.reflect.code.CtAbstractInvocation;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtReturn;
+import spoon.reflect.code.CtStatement;
+import spoon.reflect.code.CtTry;
+import spoon.reflect.code.CtTypeAccess;
+import spoon.reflect.code.CtVariableAccess;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtField;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.ModifierKind;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtFieldReference;
+import spoon.reflect.reference.CtParameterReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.reference.CtVariableReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds connections opened in loops or in frequently called executables, and
+ * rewrites them:
+ * <ul>
+ * <li>physical connections ({@code DriverManager.getConnection(...)},
+ * {@code new Connection(...)} of a {@code java.sql.Connection}) opened in a
+ * loop or a frequently called executable are borrowed from a
+ * {@code DataSource} field instead, injected with a generated
+ * {@code setDataSource} setter;</li>
+ * <li>a frequently called method borrowing a connection on every call gets an
+ * overload taking the connection from its caller, the method itself only
+ * borrows the connection and delegates to it, so callers can pass one
+ * connection for many calls.</li>
+ * </ul>
+ * Other physical connections are only reported. Connections borrowed in a
+ * loop are only reported too, the acquisition should move before the loop. An executable is frequently called if it is called in a
+ * loop, directly or not, or if it is given as hot (e.g. called by a framework
+ * once per row). The report also estimates the connections opened per call
+ * of each entry point, counting {@link #setLoopCardinality(int)} iterations
+ * per loop.
+ */
+public class ConnectionChurnDetector {
+	/** Connection opened once per iteration or per call of a frequently called executable. */
+	public static final String KIND = "connection-churn";
+	private static final String DATA_SOURCE_TYPE = "javax.sql.DataSource";
+	private static final String CONNECTION_TYPE = "java.sql.Connection";
+
+	private int loopCardinality = 100;
+	private final Set<String> hotExecutables = new HashSet<>();
+
+	/**
+	 * @param loopCardinality iterations assumed per loop for the estimates, 100 by default.
+	 */
+	public void setLoopCardinality(int loopCardinality) {
+		this.loopCardinality = loopCardinality;
+	}
+
+	/**
+	 * @param key executable called often from outside the analysed code, see
+	 *        {@link CallGraphSummary#key(CtExecutable)}.
+	 */
+	public void addHotExecutable(String key) {
+		hotExecutables.add(key);
+	}
+
+	/**
+	 * @param root element to analyse.
+	 * @return findings for the churning acquisitions and estimates per entry point.
+	 */
+	public Report analyse(CtElement root) {
+		CallGraphSummary graph = new CallGraphSummary();
+		graph.scan(root);
+		Map<String, List<CtElement>> acquisitions = new HashMap<>();
+		Map<String, List<String>> calls = new HashMap<>();
+		Map<String, List<Integer>> depths = new HashMap<>();
+		Set<String> calledInLoop = new HashSet<>(hotExecutables);
+		for (CtAbstractInvocation<?> call : root.getElements(new TypeFilter<>(CtAbstractInvocation.class))) {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(call);
+			if (executable == null || call.isImplicit()) {
+				continue;
+			}
+			String caller = CallGraphSummary.key(executable);
+			if (JdbcPatterns.isConnectionAcquisition(call)) {
+				acquisitions.computeIfAbsent(caller, k -> new ArrayList<>()).add(call);
+			} else if (call instanceof CtInvocation || call instanceof CtConstructorCall) {
+				String callee = CallGraphSummary.key(call.getExecutable());
+				int depth = JdbcPatterns.loopDepth(call);
+				calls.computeIfAbsent(caller, k -> new ArrayList<>()).add(callee);
+				depths.computeIfAbsent(caller, k -> new ArrayList<>()).add(depth);
+				if (depth > 0) {
+					calledInLoop.add(callee);
+				}
+			}
+		}
+		Set<String> hot = graph.calleesOf(calledInLoop);
+
+		List<Site> sites = new ArrayList<>();
+		acquisitions.forEach((executable, elements) -> {
+			for (CtElement acquisition : elements) {
+				boolean inLoop = JdbcPatterns.enclosingLoop(acquisition) != null;
+				if (inLoop || hot.contains(executable) || isPhysical(acquisition)) {
+					sites.add(new Site(acquisition, inLoop, hot.contains(executable)));
+				}
+			}
+		});
+
+		Set<String> called = new HashSet<>();
+		calls.values().forEach(called::addAll);
+		Map<String, Double> estimates = new HashMap<>();
+		Map<String, Double> memo = new HashMap<>();
+		for (String executable : graph.getDeclared()) {
+			double estimate = estimate(executable, acquisitions, calls, depths, memo, new HashSet<>());
+			if (estimate > 0 && (!called.contains(executable) || hotExecutables.contains(executable))) {
+				estimates.put(executable, estimate);
+			}
+		}
+		return new Report(sites, estimates);
+	}
+
+	/**
+	 * Analyses and rewrites the rewritable sites.
+	 *
+	 * @param root element to analyse and rewrite.
+	 * @return the report of the code before the rewrite.
+	 */
+	public Report rewrite(CtElement root) {
+		Report report = analyse(root);
+		for (Site site : report.getSites()) {
+			if (site.isPhysical()) {
+				if ((site.isInLoop() || site.isHot()) && isSqlConnection(site.getAcquisition())) {
+					borrowFromDataSource(site.getAcquisition());
+					site.rewritten = true;
+				}
+			} else if (!site.isInLoop()) {
+				site.rewritten = takeFromCaller(site.getAcquisition());
+			}
+		}
+		return report;
+	}
+
+	private double estimate(String executable, Map<String, List<CtElement>> acquisitions,
+			Map<String, List<String>> calls, Map<String, List<Integer>> depths, Map<String, Double> memo,
+			Set<String> visiting) {
+		if (memo.containsKey(executable)) {
+			return memo.get(executable);
+		}
+		if (!visiting.add(executable)) {
+			// recursion, counted once
+			return 0;
+		}
+		double total = 0;
+		for (CtElement acquisition : acquisitions.getOrDefault(executable, new ArrayList<>())) {
+			total += Math.pow(loopCardinality, JdbcPatterns.loopDepth(acquisition));
+		}
+		List<String> callees = calls.getOrDefault(executable, new ArrayList<>());
+		for (int i = 0; i < callees.size(); i++) {
+			double callee = estimate(callees.get(i), acquisitions, calls, depths, memo, visiting);
+			total += Math.pow(loopCardinality, depths.get(executable).get(i)) * callee;
+		}
+		visiting.remove(executable);
+		memo.put(executable, total);
+		return total;
+	}
+
+	private static boolean isPhysical(CtElement acquisition) {
+		if (acquisition instanceof CtConstructorCall) {
+			return true;
+		}
+		CtExpression<?> target = ((CtInvocation<?>) acquisition).getTarget();
+		return target instanceof CtTypeAccess && "DriverManager".equals(((CtTypeAccess<?>) target).getAccessedType().getSimpleName());
+	}
+
+	/**
+	 * @return false for a constructed connection that is not a {@code java.sql.Connection},
+	 *         {@code DataSource.getConnection()} cannot replace it.
+	 */
+	private static boolean isSqlConnection(CtElement acquisition) {
+		if (!(acquisition instanceof CtConstructorCall)) {
+			return true;
+		}
+		CtTypeReference<?> type = ((CtConstructorCall<?>) acquisition).getType();
+		return type != null && type.isSubtypeOf(acquisition.getFactory().Type().createReference(CONNECTION_TYPE));
+	}
+
+	private void borrowFromDataSource(CtElement acquisition) {
+		Factory factory = acquisition.getFactory();
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(acquisition);
+		boolean isStatic = executable instanceof CtMethod && ((CtMethod<?>) executable).isStatic();
+		CtField<?> dataSource = dataSourceField(acquisition.getParent(CtType.class), isStatic);
+		CtTypeReference<Object> connection = factory.Type().createReference(CONNECTION_TYPE);
+		CtInvocation<Object> borrow = factory.Code().createInvocation(
+				factory.Code().createVariableRead(dataSource.getReference(), isStatic),
+				factory.Executable().createReference(dataSource.getType(), connection, "getConnection"));
+		acquisition.replace(borrow);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private CtField<?> dataSourceField(CtType<?> owner, boolean isStatic) {
+		CtField<?> existing = owner.getField("dataSource");
+		if (existing != null) {
+			return existing;
+		}
+		Factory factory = owner.getFactory();
+		CtTypeReference<Object> type = factory.Type().createReference(DATA_SOURCE_TYPE);
+		Set<ModifierKind> fieldModifiers = isStatic ? EnumSet.of(ModifierKind.PRIVATE, ModifierKind.STATIC)
+				: EnumSet.of(ModifierKind.PRIVATE);
+		CtField<Object> field = factory.Field().create(owner, fieldModifiers, type, "dataSource");
+
+		Set<ModifierKind> setterModifiers = isStatic ? EnumSet.of(ModifierKind.PUBLIC, ModifierKind.STATIC)
+				: EnumSet.of(ModifierKind.PUBLIC);
+		CtMethod<Void> setter = factory.Method().create(owner, setterModifiers, factory.Type().voidPrimitiveType(),
+				"setDataSource", new ArrayList<>(), new HashSet<>());
+		factory.Executable().createParameter(setter, type, "pool");
+		setter.setBody(factory.Code().createCtBlock((CtStatement) factory.Code().createVariableAssignment(
+				field.getReference(), isStatic, factory.Code().createVariableRead(setter.getParameters().get(0).getReference(), false))));
+		return field;
+	}
+
+	/**
+	 * Moves the body of the method to an overload with the connection as last
+	 * parameter, the close calls of the connection are removed from it. The
+	 * method keeps only the acquisition and the delegation, so the statements
+	 * before the acquisition (argument checks, logging) run once, in the
+	 * overload, after the connection is borrowed. Only done for a connection
+	 * declared in the method body itself and only read from parameters never
+	 * reassigned and from fields.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private boolean takeFromCaller(CtElement acquisition) {
+		if (!(acquisition.getParent() instanceof CtLocalVariable)
+				|| !(JdbcPatterns.enclosingExecutable(acquisition) instanceof CtMethod)) {
+			return false;
+		}
+		CtLocalVariable<?> local = (CtLocalVariable<?>) acquisition.getParent();
+		CtMethod<?> method = (CtMethod<?>) JdbcPatterns.enclosingExecutable(acquisition);
+		if (local.getParent() != method.getBody() || !isMovableToTop(local.getDefaultExpression(), method)) {
+			return false;
+		}
+		Factory factory = method.getFactory();
+		String name = local.getSimpleName();
+
+		CtMethod<?> overload = method.clone();
+		overload.setComments(new ArrayList<>());
+		overload.setAnnotations(new ArrayList<>());
+		factory.Executable().createParameter(overload, local.getType().clone(), name);
+		for (CtLocalVariable<?> copy : overload.getElements(new TypeFilter<>(CtLocalVariable.class))) {
+			if (copy.getSimpleName().equals(name) && JdbcPatterns.isConnectionAcquisition(copy.getDefaultExpression())) {
+				copy.delete();
+			}
+		}
+		for (CtInvocation<?> close : overload.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (isCloseOf(close, name)) {
+				removeClose(close);
+			}
+		}
+		method.getDeclaringType().addMethod(overload);
+
+		List<CtExpression<?>> arguments = method.getParameters().stream()
+				.map(p -> factory.Code().createVariableRead(p.getReference(), false)).collect(Collectors.toList());
+		arguments.add(factory.Code().createVariableRead(local.getReference(), false));
+		CtInvocation<?> delegate = factory.Code().createInvocation(null, overload.getReference(), arguments);
+		CtStatement call = delegate;
+		if (!"void".equals(method.getType().getSimpleName())) {
+			CtReturn result = factory.Core().createReturn();
+			result.setReturnedExpression(delegate);
+			call = result;
+		}
+		CtTry release = factory.Core().createTry();
+		release.setBody(factory.Code().createCtBlock(call));
+		release.setFinalizer(factory.Code().createCtBlock(factory.Code().createInvocation(
+				factory.Code().createVariableRead(local.getReference(), false),
+				factory.Executable().createReference(local.getType().clone(), factory.Type().voidPrimitiveType(), "close"))));
+		CtBlock body = factory.Code().createCtBlock(local.clone());
+		body.addStatement(release);
+		method.setBody(body);
+		return true;
+	}
+
+	/**
+	 * @return true if the acquisition gives the same connection when run first in the method.
+	 */
+	private static boolean isMovableToTop(CtExpression<?> acquisition, CtMethod<?> method) {
+		for (CtVariableAccess<?> access : acquisition.getElements(new TypeFilter<>(CtVariableAccess.class))) {
+			CtVariableReference<?> variable = access.getVariable();
+			if (variable instanceof CtFieldReference) {
+				continue;
+			}
+			if (!(variable instanceof CtParameterReference) || method.getElements(new TypeFilter<>(CtVariableWrite.class))
+					.stream().anyMatch(w -> variable.equals(w.getVariable()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isCloseOf(CtInvocation<?> invocation, String variable) {
+		return "close".equals(invocation.getExecutable().getSimpleName()) && invocation.getTarget() instanceof CtVariableRead
+				&& variable.equals(((CtVariableRead<?>) invocation.getTarget()).getVariable().getSimpleName());
+	}
+
+	private static void removeClose(CtInvocation<?> close) {
+		CtElement parent = close.getParent();
+		close.delete();
+		// if (c != null) { c.close(); } and try { ... } finally { } are left empty
+		CtIf guard = parent instanceof CtBlock && parent.getParent() instanceof CtIf ? (CtIf) parent.getParent() : null;
+		if (guard != null && ((CtBlock<?>) parent).getStatements().isEmpty() && guard.getElseStatement() == null) {
+			parent = guard.getParent();
+			guard.delete();
+		}
+		if (parent instanceof CtBlock && parent.getParent() instanceof CtTry) {
+			CtTry block = (CtTry) parent.getParent();
+			if (block.getFinalizer() == parent && block.getCatchers().isEmpty()
+					&& ((CtBlock<?>) parent).getStatements().isEmpty()) {
+				block.replace(new ArrayList<>(block.getBody().getStatements()));
+			}
+		}
+	}
+
+	/**
+	 * A connection acquisition opening too many connections.
+	 */
+	public static class Site {
+		private final CtElement acquisition;
+		private final boolean inLoop;
+		private final boolean hot;
+		private final Finding finding;
+		private boolean rewritten;
+
+		Site(CtElement acquisition, boolean inLoop, boolean hot) {
+			this.acquisition = acquisition;
+			this.inLoop = inLoop;
+			this.hot = hot;
+			String what = isPhysical() ? "opens a physical connection" : "borrows a connection";
+			this.finding = Finding.at(KIND, acquisition, null, what + (inLoop ? " once per iteration"
+					: hot ? " on every call of a frequently called executable" : ", it is not pooled"));
+		}
+
+		public CtElement getAcquisition() {
+			return acquisition;
+		}
+
+		public boolean isInLoop() {
+			return inLoop;
+		}
+
+		public boolean isHot() {
+			return hot;
+		}
+
+		public boolean isPhysical() {
+			return ConnectionChurnDetector.isPhysical(acquisition);
+		}
+
+		/**
+		 * @return true once {@link #rewrite(CtElement)} changed the site.
+		 */
+		public boolean isRewritten() {
+			return rewritten;
+		}
+
+		/**
+		 * @return the finding, located before any rewrite.
+		 */
+		public Finding getFinding() {
+			return finding;
+		}
+	}
+
+	/**
+	 * Result of an analysis.
+	 */
+	public static class Report {
+		private final List<Site> sites;
+		private final Map<String, Double> estimates;
+
+		Report(List<Site> sites, Map<String, Double> estimates) {
+			this.sites = sites;
+			this.estimates = estimates;
+		}
+
+		public List<Site> getSites() {
+			return sites;
+		}
+
+		/**
+		 * @return estimated connections opened per call of each entry point
+		 *         (executables not called in the analysed code, or hot ones).
+		 */
+		public Map<String, Double> getEstimates() {
+			return estimates;
+		}
+	}
+}
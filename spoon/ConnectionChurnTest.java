@@ -0,0 +1,64 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+
+/*
+    connection 을 너무 자주 여는 곳 찾기 (ConnectionChurnDetector)
+        (1) loop 안, 또는 loop 에서 (간접) 호출되는 method 안에서 getConnection / new Connection
+        (2) DriverManager.getConnection, new Connection -> dataSource.getConnection() (setDataSource 로 주입)
+            매번 getConnection 하는 method -> connection 을 받는 overload 추가, 원래 method 는 위임
+        (3) entry point 별 호출 1번당 여는 connection 수 추정 (loop 1개 = churn.loop 번 반복)
+    옵션 : -Dchurn.loop=100 -Dchurn.hot=타입#signature,... (밖에서 자주 불리는 method)
+*/
+
+
+public class ConnectionChurnTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        ConnectionChurnDetector detector = new ConnectionChurnDetector();
+        detector.setLoopCardinality(Integer.getInteger("churn.loop", 100));
+        String hot = System.getProperty("churn.hot", "");
+        for (String key : hot.split(",")) {
+            if (!key.trim().isEmpty()) {
+                detector.addHotExecutable(key.trim());
+            }
+        }
+
+        for (CtElement root : model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))) {
+            ConnectionChurnDetector.Report report = detector.rewrite(root);
+            for (ConnectionChurnDetector.Site site : report.getSites()) {
+                System.out.println(site.getFinding() + (site.isRewritten() ? " (rewritten)" : ""));
+            }
+            System.out.println("@ connections per call:");
+            report.getEstimates().forEach((key, estimate) -> System.out.println(String.format("\t%s ~ %.0f", key, estimate)));
+
+            // only connections opened in a loop or a frequently called executable are rewritten
+            for (ConnectionChurnDetector.Site site : report.getSites()) {
+                assertTrue(site.getFinding().toString(), !site.isRewritten() || site.isInLoop() || site.isHot());
+            }
+            boolean rewritten = report.getSites().stream().anyMatch(ConnectionChurnDetector.Site::isRewritten);
+            assertTrue(!rewritten || !printer.getModifiedTypes(model).isEmpty());
+        }
+
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+    }
+}
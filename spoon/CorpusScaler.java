@@ -0,0 +1,61 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Copies a directory of java sources several times into one directory to get
+ * a bigger corpus for measurements. Every copy gets its own package (the
+ * original package with a {@code copyN} suffix, or {@code copyN} for the
+ * default package), so the copies do not clash when built into one model.
+ */
+public class CorpusScaler {
+	private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+	private CorpusScaler() {
+	}
+
+	/**
+	 * @param source directory containing the original java files.
+	 * @param copies number of copies, 1 copies the corpus once.
+	 * @return a new temporary directory containing the scaled corpus.
+	 */
+	public static Path scale(Path source, int copies) {
+		try {
+			Path target = Files.createTempDirectory("scaled-corpus-");
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(source)) {
+				files = walk.filter(p -> p.toString().endsWith(".java")).collect(Collectors.toList());
+			}
+			for (int i = 0; i < copies; i++) {
+				Path copyDirectory = target.resolve("copy" + i);
+				for (Path file : files) {
+					Path copy = copyDirectory.resolve(source.relativize(file).toString());
+					Files.createDirectories(copy.getParent());
+					String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+					Files.write(copy, renamePackage(content, "copy" + i).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			return target;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String renamePackage(String content, String suffix) {
+		Matcher matcher = PACKAGE.matcher(content);
+		if (matcher.find()) {
+			return content.substring(0, matcher.start(1)) + matcher.group(1) + "." + suffix
+					+ content.substring(matcher.end(1));
+		}
+		return "package " + suffix + ";\n" + content;
+	}
+}
@@ -0,0 +1,103 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.File;
+import java.util.Objects;
+
+import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+
+/**
+ * One result of an analysis: what was found, in which executable and where.
+ * Findings only keep strings, so they stay valid after the model is dropped
+ * and findings of different models can be compared.
+ */
+public class Finding {
+	private final String kind;
+	private final String executable;
+	private final String target;
+	private final String location;
+	private final String message;
+
+	/**
+	 * @param kind of the analysis result, e.g. {@link QueryInLoopDetector#KIND}.
+	 * @param executable key of the executable containing the finding, see {@link CallGraphSummary#key(CtExecutable)}.
+	 * @param target key of the called executable, null if the finding is not about a call.
+	 * @param location file name and line.
+	 * @param message human readable description.
+	 */
+	public Finding(String kind, String executable, String target, String location, String message) {
+		this.kind = kind;
+		this.executable = executable;
+		this.target = target;
+		this.location = location;
+		this.message = message;
+	}
+
+	/**
+	 * @param kind of the analysis result.
+	 * @param element the element the finding is about.
+	 * @param target key of the called executable, may be null.
+	 * @param message human readable description.
+	 * @return finding located at the element.
+	 */
+	public static Finding at(String kind, CtElement element, String target, String message) {
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(element);
+		return new Finding(kind, executable == null ? null : CallGraphSummary.key(executable), target,
+				location(element), message);
+	}
+
+	/**
+	 * @param element any element.
+	 * @return file name and line of the element, "unknown" without position.
+	 */
+	public static String location(CtElement element) {
+		SourcePosition position = element.getPosition();
+		if (!position.isValidPosition()) {
+			return "unknown";
+		}
+		File file = position.getFile();
+		return (file == null ? "unknown" : file.getName()) + ":" + position.getLine();
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public String getExecutable() {
+		return executable;
+	}
+
+	public String getTarget() {
+		return target;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Finding)) {
+			return false;
+		}
+		Finding other = (Finding) o;
+		return kind.equals(other.kind) && Objects.equals(executable, other.executable)
+				&& Objects.equals(target, other.target) && location.equals(other.location)
+				&& message.equals(other.message);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(kind, executable, target, location, message);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + kind + "] " + location + " in " + executable + ": " + message;
+	}
+}
@@ -0,0 +1,418 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import spoon.Launcher;
+import spoon.reflect.CtModel;
+import spoon.reflect.cu.CompilationUnit;
+import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.factory.Factory;
+import spoon.support.compiler.FileSystemFile;
+import spoon.support.compiler.jdt.JDTBasedSpoonCompiler;
+
+/**
+ * Keeps a model resident and re-analyses it while its sources are edited.
+ * The source tree is watched with a {@link WatchService}; when files change,
+ * only their types are removed from the model and rebuilt into the same
+ * factory, so references from unchanged files resolve to the new
+ * declarations. The call graph and findings are kept per file, only the
+ * changed files are scanned again and the interprocedural part (which
+ * executables reach a query) is recomputed from the string based summaries.
+ * Listeners receive the added and removed findings of each update. A file
+ * that cannot be rebuilt (e.g. saved in the middle of an edit) keeps its
+ * previous types and analysis until the next save, the delta reports it.
+ */
+public class IncrementalAnalysisDaemon implements Closeable {
+	private final Launcher launcher;
+	private final Path sourceRoot;
+	private final QueryInLoopDetector queryDetector = new QueryInLoopDetector();
+	private final ResourceLeakDetector leakDetector = new ResourceLeakDetector();
+	private final Map<Path, FileAnalysis> files = new HashMap<>();
+	private final Map<WatchKey, Path> directories = new HashMap<>();
+	private final List<Consumer<Delta>> listeners = new CopyOnWriteArrayList<>();
+	private final List<Consumer<RuntimeException>> errorListeners = new CopyOnWriteArrayList<>();
+	private final List<Long> latencies = new ArrayList<>();
+	private long debounceMillis = 50;
+	private CtModel model;
+	private CallGraphSummary graph = new CallGraphSummary();
+	private Set<Finding> findings = new LinkedHashSet<>();
+	private WatchService watcher;
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * @param launcher configured with the inputs to analyse, its model is built by {@link #start()}.
+	 * @param sourceRoot directory to watch, containing the inputs.
+	 */
+	public IncrementalAnalysisDaemon(Launcher launcher, Path sourceRoot) {
+		this.launcher = launcher;
+		this.sourceRoot = sourceRoot.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * @param listener called on the watching thread after each update.
+	 */
+	public void addListener(Consumer<Delta> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener called on the watching thread when an update fails as a
+	 *        whole, the thread goes on watching.
+	 */
+	public void addErrorListener(Consumer<RuntimeException> listener) {
+		errorListeners.add(listener);
+	}
+
+	/**
+	 * @param debounceMillis time to wait for more events before updating, 50 by
+	 *        default, editors often write a file in several steps.
+	 */
+	public void setDebounceMillis(long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Builds and analyses the whole model, then starts watching the source tree.
+	 *
+	 * @return the initial findings.
+	 * @throws IOException if the source tree cannot be watched.
+	 */
+	public synchronized Set<Finding> start() throws IOException {
+		model = launcher.buildModel();
+		for (Map.Entry<Path, List<CtType<?>>> file : typesByFile().entrySet()) {
+			files.put(file.getKey(), analyse(file.getValue()));
+		}
+		derive();
+
+		watcher = sourceRoot.getFileSystem().newWatchService();
+		register(sourceRoot);
+		running = true;
+		thread = new Thread(this::watch, "incremental-analysis");
+		thread.setDaemon(true);
+		thread.start();
+		return getFindings();
+	}
+
+	/**
+	 * Rebuilds and re-analyses the given files, deleted files are removed from
+	 * the model. Called by the watching thread, can also be called directly,
+	 * e.g. from an editor save hook.
+	 *
+	 * @param changed java files below the source root.
+	 * @return the changes of the findings, also sent to the listeners.
+	 */
+	public Delta update(Collection<Path> changed) {
+		return update(changed, System.nanoTime());
+	}
+
+	private synchronized Delta update(Collection<Path> changed, long startNanos) {
+		Factory factory = model.getRootPackage().getFactory();
+		Set<Path> paths = changed.stream().map(p -> p.toAbsolutePath().normalize()).collect(Collectors.toSet());
+		Map<Path, String> failures = new HashMap<>();
+		for (Path file : paths) {
+			Map<CtType<?>, CtPackage> oldTypes = new LinkedHashMap<>();
+			for (CtType<?> type : typesOf(file)) {
+				oldTypes.put(type, type.getPackage());
+				type.delete();
+			}
+			// the compilation unit cache would give the old unit back to the builder
+			Map<String, CompilationUnit> units = factory.CompilationUnit().getMap();
+			Map<String, CompilationUnit> oldUnits = new HashMap<>();
+			units.forEach((name, cu) -> {
+				if (isUnitOf(cu, file)) {
+					oldUnits.put(name, cu);
+				}
+			});
+			units.keySet().removeAll(oldUnits.keySet());
+			if (!Files.exists(file)) {
+				files.remove(file);
+				continue;
+			}
+			try {
+				JDTBasedSpoonCompiler compiler = new JDTBasedSpoonCompiler(factory);
+				compiler.addInputSource(new FileSystemFile(file.toFile()));
+				compiler.build();
+				files.put(file, analyse(typesOf(file)));
+			} catch (RuntimeException e) {
+				// put the old types back, so that the model matches the analysis kept for the file
+				typesOf(file).forEach(CtType::delete);
+				units.values().removeIf(cu -> isUnitOf(cu, file));
+				units.putAll(oldUnits);
+				oldTypes.forEach((type, pkg) -> pkg.addType(type));
+				failures.put(file, e.toString());
+			}
+		}
+		Set<Finding> before = findings;
+		derive();
+
+		Set<Finding> added = new LinkedHashSet<>(findings);
+		added.removeAll(before);
+		Set<Finding> removed = new LinkedHashSet<>(before);
+		removed.removeAll(findings);
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		latencies.add(elapsedMillis);
+		Delta delta = new Delta(paths, added, removed, failures, elapsedMillis);
+		listeners.forEach(l -> l.accept(delta));
+		return delta;
+	}
+
+	private FileAnalysis analyse(List<CtType<?>> types) {
+		FileAnalysis analysis = new FileAnalysis();
+		for (CtType<?> type : types) {
+			analysis.graph.scan(type);
+			analysis.querying.addAll(queryDetector.findQueryingExecutables(type));
+			analysis.direct.addAll(queryDetector.detect(type, Collections.emptySet()));
+			analysis.direct.addAll(leakDetector.detect(type));
+			analysis.loopCalls.addAll(queryDetector.loopCalls(type));
+		}
+		return analysis;
+	}
+
+	/**
+	 * Recomputes the merged call graph and the findings from the per file results.
+	 */
+	private void derive() {
+		CallGraphSummary merged = new CallGraphSummary();
+		Set<String> querying = new HashSet<>();
+		for (FileAnalysis analysis : files.values()) {
+			merged.merge(analysis.graph);
+			querying.addAll(analysis.querying);
+		}
+		Set<String> reaching = merged.callersOf(querying);
+		Set<Finding> derived = new LinkedHashSet<>();
+		for (FileAnalysis analysis : files.values()) {
+			derived.addAll(analysis.direct);
+			analysis.loopCalls.stream().filter(c -> reaching.contains(c.getTarget())).forEach(derived::add);
+		}
+		graph = merged;
+		findings = derived;
+	}
+
+	private void watch() {
+		while (running) {
+			try {
+				WatchKey key = watcher.take();
+				long received = System.nanoTime();
+				Set<Path> changed = new LinkedHashSet<>();
+				collect(key, changed);
+				for (WatchKey more = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS); more != null;
+						more = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS)) {
+					collect(more, changed);
+				}
+				if (!changed.isEmpty()) {
+					update(changed, received);
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			} catch (RuntimeException e) {
+				errorListeners.forEach(l -> l.accept(e));
+			}
+		}
+	}
+
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path directory = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, check every known and new file
+				changed.addAll(files.keySet());
+				changed.addAll(javaFiles(sourceRoot));
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				register(path);
+				changed.addAll(javaFiles(path));
+			} else if (path.toString().endsWith(".java")) {
+				changed.add(path);
+			}
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	private void register(Path root) {
+		try (Stream<Path> walk = Files.walk(root)) {
+			for (Path directory : (Iterable<Path>) walk.filter(Files::isDirectory)::iterator) {
+				directories.put(directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), directory);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static List<Path> javaFiles(Path root) {
+		try (Stream<Path> walk = Files.walk(root)) {
+			return walk.filter(p -> p.toString().endsWith(".java")).collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Map<Path, List<CtType<?>>> typesByFile() {
+		Map<Path, List<CtType<?>>> types = new HashMap<>();
+		for (CtType<?> type : model.getAllTypes()) {
+			Path file = fileOf(type.getPosition());
+			if (file != null) {
+				types.computeIfAbsent(file, k -> new ArrayList<>()).add(type);
+			}
+		}
+		return types;
+	}
+
+	private List<CtType<?>> typesOf(Path file) {
+		return model.getAllTypes().stream().filter(t -> file.equals(fileOf(t.getPosition()))).collect(Collectors.toList());
+	}
+
+	private static boolean isUnitOf(CompilationUnit cu, Path file) {
+		return cu.getFile() != null && file.equals(cu.getFile().toPath().toAbsolutePath().normalize());
+	}
+
+	private static Path fileOf(SourcePosition position) {
+		return position == null || position.getFile() == null ? null
+				: position.getFile().toPath().toAbsolutePath().normalize();
+	}
+
+	/**
+	 * @return current findings of the whole model.
+	 */
+	public synchronized Set<Finding> getFindings() {
+		return Collections.unmodifiableSet(findings);
+	}
+
+	/**
+	 * @return current call graph of the whole model.
+	 */
+	public synchronized CallGraphSummary getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return the resident model, only to be read while no update runs.
+	 */
+	public CtModel getModel() {
+		return model;
+	}
+
+	public synchronized int getUpdateCount() {
+		return latencies.size();
+	}
+
+	/**
+	 * @return median time from the first file event to the pushed delta, 0 before the first update.
+	 */
+	public synchronized long getMedianLatencyMillis() {
+		if (latencies.isEmpty()) {
+			return 0;
+		}
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		return sorted.get(sorted.size() / 2);
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		if (watcher != null) {
+			watcher.close();
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Per file results, detached from the model.
+	 */
+	private static class FileAnalysis {
+		final CallGraphSummary graph = new CallGraphSummary();
+		final Set<String> querying = new HashSet<>();
+		final List<Finding> direct = new ArrayList<>();
+		final List<Finding> loopCalls = new ArrayList<>();
+	}
+
+	/**
+	 * Changes of the findings after an update.
+	 */
+	public static class Delta {
+		private final Set<Path> files;
+		private final Set<Finding> added;
+		private final Set<Finding> removed;
+		private final Map<Path, String> failures;
+		private final long elapsedMillis;
+
+		Delta(Set<Path> files, Set<Finding> added, Set<Finding> removed, Map<Path, String> failures,
+				long elapsedMillis) {
+			this.files = files;
+			this.added = added;
+			this.removed = removed;
+			this.failures = failures;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		/**
+		 * @return the rebuilt or deleted files, failed ones included.
+		 */
+		public Set<Path> getFiles() {
+			return files;
+		}
+
+		/**
+		 * @return the files that could not be rebuilt, with the error, their previous analysis is kept.
+		 */
+		public Map<Path, String> getFailures() {
+			return failures;
+		}
+
+		public Set<Finding> getAdded() {
+			return added;
+		}
+
+		public Set<Finding> getRemoved() {
+			return removed;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return files.size() + " file(s) in " + elapsedMillis + " ms: +" + added.size() + " -" + removed.size()
+					+ (failures.isEmpty() ? "" : ", " + failures.size() + " failed");
+		}
+	}
+}
@@ -0,0 +1,476 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Recommends composite indexes from the SQL of every query call site. The
+ * SQL text is folded as in {@link JdbcPatterns#sqlArgument}, its tables and
+ * aliases are read from the FROM, JOIN and UPDATE clauses, and its
+ * predicates are classified: equality ({@code =}, {@code IN}, join columns)
+ * and range ({@code <}, {@code >}, {@code BETWEEN}, prefix {@code LIKE}).
+ * This is a pattern based reading of the SQL, not a parser: expressions
+ * around columns are ignored.
+ *
+ * <p>Each query execution weighs the estimated number of executions of its
+ * site: {@link #setLoopCardinality(int)} per enclosing loop, times the
+ * executions of the calling methods, 1 for methods not called in the model.
+ * A table use gives one candidate index, its equality columns ordered by
+ * weight then its heaviest range column. Candidates that are a prefix of
+ * another one are merged into it, single primary key columns ({@code id},
+ * {@code <table>_ID}) are dropped.
+ */
+public class IndexAdvisor {
+	private static final int MAX_COLUMNS = 4;
+	private static final String IDENTIFIER = "[A-Za-z_][\\w$]*";
+	private static final Pattern LITERAL = Pattern.compile("'([^']*)'");
+	private static final Pattern TABLE = Pattern.compile("(?i)\\b(?:FROM|JOIN|UPDATE)\\s+(" + IDENTIFIER
+			+ "(?:\\." + IDENTIFIER + ")?)(?:\\s+(?:AS\\s+)?(" + IDENTIFIER + "))?");
+	private static final Pattern NEXT_TABLE = Pattern.compile("(?i)\\G\\s*,\\s*(" + IDENTIFIER + "(?:\\." + IDENTIFIER
+			+ ")?)(?:\\s+(?:AS\\s+)?(" + IDENTIFIER + "))?");
+	private static final Pattern ON_CLAUSE = Pattern.compile("(?i)\\G\\s+ON\\s*(?:\\([^()]*\\)|(?:" + IDENTIFIER + "\\.)?"
+			+ IDENTIFIER + "\\s*=\\s*(?:" + IDENTIFIER + "\\.)?" + IDENTIFIER + ")");
+	private static final Pattern PREDICATE = Pattern.compile("(?i)(?<![\\w.$'])((?:" + IDENTIFIER + "\\.)?" + IDENTIFIER
+			+ ")(\\s*(?:<=|>=|<>|!=|=|<|>)\\s*|\\s+(?:NOT\\s+)?(?:LIKE|BETWEEN|IN)\\b\\s*)(\\(|\\?|'%'|-?\\d+(?:\\.\\d+)?|(?:"
+			+ IDENTIFIER + "\\.)?" + IDENTIFIER + ")");
+	private static final Pattern SET_CLAUSE = Pattern.compile("(?is)\\bSET\\b.*?(\\bWHERE\\b|$)");
+	private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+			"where", "inner", "left", "right", "outer", "full", "cross", "join", "on", "group", "order", "having",
+			"union", "limit", "offset", "for", "natural", "using", "set", "values", "select", "and", "or", "not",
+			"exists", "as", "null", "true", "false", "is", "when", "then", "else", "end", "case", "fetch", "window"));
+
+	private int loopCardinality = 100;
+
+	/**
+	 * @param loopCardinality iterations assumed per loop for the weights, 100 by default.
+	 */
+	public void setLoopCardinality(int loopCardinality) {
+		this.loopCardinality = loopCardinality;
+	}
+
+	/**
+	 * @param root element whose query call sites are read.
+	 * @return the recommendations, heaviest first.
+	 */
+	public List<Recommendation> advise(CtElement root) {
+		Map<String, List<CtInvocation<?>>> callSites = new HashMap<>();
+		List<CtInvocation<?>> queries = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			CtExecutable<?> callee = invocation.getExecutable().getExecutableDeclaration();
+			if (callee != null && callee.hasParent(root)) {
+				callSites.computeIfAbsent(CallGraphSummary.key(callee), k -> new ArrayList<>()).add(invocation);
+			}
+			if ((JdbcPatterns.isQueryExecution(invocation) || JdbcPatterns.isStatementCreation(invocation))
+					&& JdbcPatterns.sqlArgument(invocation) != null) {
+				queries.add(invocation);
+			}
+		}
+
+		Map<String, Double> frequencies = new HashMap<>();
+		List<TableUse> uses = new ArrayList<>();
+		for (CtInvocation<?> query : queries) {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(query);
+			double weight = Math.pow(loopCardinality, JdbcPatterns.loopDepth(query))
+					* (executable == null ? 1 : frequency(executable, callSites, frequencies, new HashSet<>()));
+			String sql = JdbcPatterns.sqlArgument(query);
+			for (TableUse use : parse(sql)) {
+				use.weight = weight;
+				use.site = Finding.location(query);
+				use.sql = sql;
+				uses.add(use);
+			}
+		}
+		return recommend(uses);
+	}
+
+	/**
+	 * @return estimated executions of the executable per execution of the methods not called in the model.
+	 */
+	private double frequency(CtExecutable<?> executable, Map<String, List<CtInvocation<?>>> callSites,
+			Map<String, Double> memo, Set<String> visiting) {
+		String key = CallGraphSummary.key(executable);
+		if (memo.containsKey(key)) {
+			return memo.get(key);
+		}
+		List<CtInvocation<?>> sites = callSites.getOrDefault(key, new ArrayList<>());
+		if (sites.isEmpty() || !visiting.add(key)) {
+			// entry point, or recursion counted once
+			return 1;
+		}
+		double total = 0;
+		for (CtInvocation<?> site : sites) {
+			CtExecutable<?> caller = JdbcPatterns.enclosingExecutable(site);
+			double callerFrequency = caller == null ? 1 : frequency(caller, callSites, memo, visiting);
+			total += callerFrequency * Math.pow(loopCardinality, JdbcPatterns.loopDepth(site));
+		}
+		visiting.remove(key);
+		memo.put(key, total);
+		return total;
+	}
+
+	/**
+	 * @param sql folded SQL, '?' for parameters and non constant parts.
+	 * @return the tables of the statement with their predicates, unqualified columns go to the closest table before them.
+	 */
+	static List<TableUse> parse(String sql) {
+		List<TableUse> uses = new ArrayList<>();
+		String text = literals(sql);
+		String start = text.trim().toLowerCase(Locale.ROOT);
+		if (start.startsWith("insert") && !start.contains("select")) {
+			return uses;
+		}
+		if (start.startsWith("update")) {
+			// assignments are not predicates
+			Matcher set = SET_CLAUSE.matcher(text);
+			if (set.find()) {
+				text = text.substring(0, set.start()) + " " + set.group(1) + text.substring(set.end());
+			}
+		}
+		Matcher table = TABLE.matcher(text);
+		int from = 0;
+		while (from < text.length() && table.find(from)) {
+			addUse(uses, table.group(1), table.group(2), table.start());
+			from = tableEnd(table);
+			Matcher next = NEXT_TABLE.matcher(text);
+			Matcher on = ON_CLAUSE.matcher(text);
+			// FROM a x, b y and JOIN a x ON (...), b y
+			while (next.find(on.find(from) ? on.end() : from)) {
+				addUse(uses, next.group(1), next.group(2), next.start());
+				from = tableEnd(next);
+			}
+		}
+		if (uses.isEmpty()) {
+			return uses;
+		}
+		Matcher predicate = PREDICATE.matcher(text);
+		while (predicate.find()) {
+			String column = predicate.group(1);
+			String operator = predicate.group(2).trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+			String value = predicate.group(3);
+			if (KEYWORDS.contains(unqualified(column).toLowerCase(Locale.ROOT))) {
+				continue;
+			}
+			boolean join = value.matches(IDENTIFIER + "(\\." + IDENTIFIER + ")?")
+					&& !KEYWORDS.contains(value.toLowerCase(Locale.ROOT));
+			// a side may be a derived table, the other one still counts
+			TableUse use = resolve(uses, column, predicate.start());
+			if ("=".equals(operator) || "in".equals(operator)) {
+				if (use != null) {
+					use.equality.add(unqualified(column));
+				}
+				TableUse other = join ? resolve(uses, value, predicate.start()) : null;
+				if (other != null) {
+					other.equality.add(unqualified(value));
+				}
+			} else if (use == null) {
+				continue;
+			} else if (operator.startsWith("<") && !"<>".equals(operator) || operator.startsWith(">")
+					|| "between".equals(operator) || "like".equals(operator) && !"'%'".equals(value)) {
+				use.range.add(unqualified(column));
+			}
+		}
+		return uses;
+	}
+
+	/**
+	 * @return the SQL with literals replaced by '?', and by '%' for those starting with a wildcard.
+	 */
+	private static String literals(String sql) {
+		Matcher literal = LITERAL.matcher(sql);
+		StringBuffer text = new StringBuffer();
+		while (literal.find()) {
+			literal.appendReplacement(text, literal.group(1).startsWith("%") ? "'%'" : "?");
+		}
+		literal.appendTail(text);
+		return text.toString();
+	}
+
+	/**
+	 * @return the end of the table and its alias, a keyword read as the alias ({@code FROM a JOIN b}) is not part of it.
+	 */
+	private static int tableEnd(Matcher table) {
+		String alias = table.group(2);
+		return alias != null && KEYWORDS.contains(alias.toLowerCase(Locale.ROOT)) ? table.end(1) : table.end();
+	}
+
+	private static void addUse(List<TableUse> uses, String table, String alias, int position) {
+		if (KEYWORDS.contains(table.toLowerCase(Locale.ROOT))) {
+			return;
+		}
+		TableUse use = new TableUse();
+		use.table = table;
+		use.alias = alias == null || KEYWORDS.contains(alias.toLowerCase(Locale.ROOT)) ? table : alias;
+		use.position = position;
+		uses.add(use);
+	}
+
+	private static TableUse resolve(List<TableUse> uses, String column, int position) {
+		int dot = column.lastIndexOf('.');
+		if (dot > 0) {
+			String qualifier = column.substring(0, dot);
+			for (TableUse use : uses) {
+				if (use.alias.equalsIgnoreCase(qualifier) || use.table.equalsIgnoreCase(qualifier)) {
+					return use;
+				}
+			}
+			return null;
+		}
+		TableUse closest = uses.get(0);
+		for (TableUse use : uses) {
+			if (use.position < position) {
+				closest = use;
+			}
+		}
+		return closest;
+	}
+
+	private static String unqualified(String column) {
+		return column.substring(column.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * @param uses table uses of the query sites, weighed.
+	 * @return one index per table use, prefixes merged, heaviest first.
+	 */
+	static List<Recommendation> recommend(List<TableUse> uses) {
+		Map<String, Double> equalityWeights = new HashMap<>();
+		Map<String, Double> rangeWeights = new HashMap<>();
+		for (TableUse use : uses) {
+			use.equality.forEach(c -> equalityWeights.merge(columnKey(use.table, c), use.weight, Double::sum));
+			use.range.forEach(c -> rangeWeights.merge(columnKey(use.table, c), use.weight, Double::sum));
+		}
+		Map<String, Recommendation> candidates = new LinkedHashMap<>();
+		for (TableUse use : uses) {
+			List<String> columns = new ArrayList<>(use.equality);
+			columns.sort(Comparator.comparing((String c) -> -equalityWeights.get(columnKey(use.table, c)))
+					.thenComparing(c -> c.toLowerCase(Locale.ROOT)));
+			use.range.stream().filter(c -> !use.equality.contains(c))
+					.max(Comparator.comparing(c -> rangeWeights.get(columnKey(use.table, c)))).ifPresent(columns::add);
+			if (columns.size() > MAX_COLUMNS) {
+				columns = new ArrayList<>(columns.subList(0, MAX_COLUMNS));
+			}
+			if (columns.isEmpty() || isPrimaryKey(use.table, columns)) {
+				continue;
+			}
+			List<String> indexed = columns;
+			Recommendation recommendation = candidates.computeIfAbsent(columnKey(use.table, String.join(",", columns)),
+					k -> new Recommendation(use.table, indexed, use.sql));
+			recommendation.weight += use.weight;
+			recommendation.sites.add(use.site);
+		}
+		// an index also serves the queries using a prefix of its columns
+		List<Recommendation> ranked = new ArrayList<>(candidates.values());
+		ranked.sort(Comparator.comparing((Recommendation r) -> -r.columns.size()));
+		List<Recommendation> merged = new ArrayList<>();
+		for (Recommendation candidate : ranked) {
+			Recommendation wider = null;
+			for (Recommendation kept : merged) {
+				if (kept.table.equalsIgnoreCase(candidate.table) && kept.columns.size() > candidate.columns.size()
+						&& kept.columns.subList(0, candidate.columns.size()).equals(candidate.columns)) {
+					wider = kept;
+					break;
+				}
+			}
+			if (wider == null) {
+				merged.add(candidate);
+			} else {
+				wider.weight += candidate.weight;
+				wider.sites.addAll(candidate.sites);
+			}
+		}
+		merged.sort(Comparator.comparing((Recommendation r) -> -r.weight));
+		return merged;
+	}
+
+	private static String columnKey(String table, String column) {
+		return (table + "." + column).toLowerCase(Locale.ROOT);
+	}
+
+	private static boolean isPrimaryKey(String table, List<String> columns) {
+		if (columns.size() != 1) {
+			return false;
+		}
+		String column = columns.get(0).toLowerCase(Locale.ROOT);
+		return "id".equals(column) || column.equals(unqualified(table).toLowerCase(Locale.ROOT) + "_id");
+	}
+
+	/**
+	 * Compares the plans of the recommendation's query before and after
+	 * creating its index, dropped afterwards. Parameters are bound to NULL.
+	 *
+	 * @param connection to a database holding the tables, e.g. an embedded one.
+	 * @param recommendation to validate.
+	 * @return the two plans.
+	 * @throws SQLException if the query cannot be explained or the index cannot be created.
+	 */
+	public PlanComparison validate(Connection connection, Recommendation recommendation) throws SQLException {
+		String before = plan(connection, recommendation.getSql());
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(recommendation.toDdl());
+			try {
+				return new PlanComparison(recommendation, before, plan(connection, recommendation.getSql()));
+			} finally {
+				statement.execute("DROP INDEX " + recommendation.getIndexName());
+			}
+		}
+	}
+
+	private static String plan(Connection connection, String sql) throws SQLException {
+		StringBuilder plan = new StringBuilder();
+		try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+			int parameters = explain.getParameterMetaData().getParameterCount();
+			for (int i = 1; i <= parameters; i++) {
+				explain.setNull(i, Types.VARCHAR);
+			}
+			try (ResultSet rows = explain.executeQuery()) {
+				while (rows.next()) {
+					plan.append(rows.getString(1)).append('\n');
+				}
+			}
+		}
+		return plan.toString();
+	}
+
+	/**
+	 * One table of a statement with the columns of its predicates.
+	 */
+	static class TableUse {
+		private String table;
+		private String alias;
+		private int position;
+		private final Set<String> equality = new LinkedHashSet<>();
+		private final Set<String> range = new LinkedHashSet<>();
+		private double weight;
+		private String site;
+		private String sql;
+
+		String getTable() {
+			return table;
+		}
+
+		/**
+		 * @return the alias, the table name without one.
+		 */
+		String getAlias() {
+			return alias;
+		}
+
+		Set<String> getEquality() {
+			return equality;
+		}
+
+		Set<String> getRange() {
+			return range;
+		}
+	}
+
+	/**
+	 * Composite index for one table.
+	 */
+	public static class Recommendation {
+		private final String table;
+		private final List<String> columns;
+		private final String sql;
+		private final List<String> sites = new ArrayList<>();
+		private double weight;
+
+		Recommendation(String table, List<String> columns, String sql) {
+			this.table = table;
+			this.columns = columns;
+			this.sql = sql;
+		}
+
+		public String getTable() {
+			return table;
+		}
+
+		public List<String> getColumns() {
+			return columns;
+		}
+
+		/**
+		 * @return the SQL of the first query using the index, to validate it.
+		 */
+		public String getSql() {
+			return sql;
+		}
+
+		public List<String> getSites() {
+			return sites;
+		}
+
+		/**
+		 * @return estimated executions of the queries using the index.
+		 */
+		public double getWeight() {
+			return weight;
+		}
+
+		public String getIndexName() {
+			String name = (unqualified(table) + "_" + String.join("_", columns) + "_idx").toLowerCase(Locale.ROOT);
+			return name.length() > 63 ? name.substring(0, 63) : name;
+		}
+
+		public String toDdl() {
+			return "CREATE INDEX " + getIndexName() + " ON " + table + " (" + String.join(", ", columns) + ")";
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-12.0f %s -- %d site(s): %s", weight, toDdl(), sites.size(), sites);
+		}
+	}
+
+	/**
+	 * Plans of a query without and with the recommended index.
+	 */
+	public static class PlanComparison {
+		private final Recommendation recommendation;
+		private final String before;
+		private final String after;
+
+		PlanComparison(Recommendation recommendation, String before, String after) {
+			this.recommendation = recommendation;
+			this.before = before;
+			this.after = after;
+		}
+
+		public String getBefore() {
+			return before;
+		}
+
+		public String getAfter() {
+			return after;
+		}
+
+		/**
+		 * @return true if the plan with the index names it.
+		 */
+		public boolean isIndexUsed() {
+			String name = recommendation.getIndexName();
+			return after.toLowerCase(Locale.ROOT).contains(name) && !before.toLowerCase(Locale.ROOT).contains(name);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import spoon.Launcher;
+import spoon.MavenLauncher;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+/*
+    query 호출 위치의 SQL 에서 index 추천 (IndexAdvisor)
+        (1) 모든 query 실행 / prepareStatement 의 SQL 을 모아서 table, alias, 조건 (=, IN, join, 범위, LIKE 'x%') 추출
+        (2) loop 깊이 + 호출하는 method 횟수로 실행 횟수 추정 (loop 하나에 100 번)
+        (3) table 별 복합 index 추천 출력 (CREATE INDEX ...), 실행 횟수 많은 순
+        (4) -Dindex.jdbc 있으면 그 DB (embedded DB 등) 에서 index 만들기 전 / 후 EXPLAIN 비교, index 는 다시 지움
+    옵션 : -Dindex.corpus=../modeling (maven 프로젝트 아닌 소스 디렉터리 분석, 패키지 필터 없음)
+          -Dindex.loop=100 -Dindex.jdbc=jdbc:h2:mem:advisor -Dindex.schema=schema.sql (';' 로 나눈 DDL) -Dindex.validate=10
+*/
+
+
+public class IndexAdvisorTest {
+    @Test
+    public void parse() {
+        // DeliveryAccuracy.createMeasures: correlated NOT EXISTS on PA_SLA_Measure, MInOut.Table_ID folded to ?
+        List<IndexAdvisor.TableUse> measures = IndexAdvisor.parse("SELECT M_InOut_ID, io.MovementDate-o.DatePromised,"
+                + " io.MovementDate, o.DatePromised, o.DocumentNo FROM M_InOut io"
+                + " INNER JOIN C_Order o ON (io.C_Order_ID=o.C_Order_ID) WHERE io.C_BPartner_ID=?"
+                + " AND NOT EXISTS (SELECT * FROM PA_SLA_Measure m WHERE m.PA_SLA_Goal_ID=? AND m.AD_Table_ID=?"
+                + " AND m.Record_ID=io.M_InOut_ID)");
+        assertUses(measures, "M_InOut io", "C_Order o", "PA_SLA_Measure m");
+        assertColumns(measures.get(0), "C_Order_ID", "C_BPartner_ID", "M_InOut_ID");
+        assertColumns(measures.get(1), "C_Order_ID");
+        assertColumns(measures.get(2), "PA_SLA_Goal_ID", "AD_Table_ID", "Record_ID");
+        // C_Order (C_Order_ID) is its primary key
+        assertDdl(measures,
+                "CREATE INDEX m_inout_c_bpartner_id_c_order_id_m_inout_id_idx ON M_InOut (C_BPartner_ID, C_Order_ID, M_InOut_ID)",
+                "CREATE INDEX pa_sla_measure_ad_table_id_pa_sla_goal_id_record_id_idx ON PA_SLA_Measure (AD_Table_ID, PA_SLA_Goal_ID, Record_ID)");
+
+        // AbstractSqlDialect: COP_WAIT in a derived table, its alias w is not a table
+        List<IndexAdvisor.TableUse> waits = IndexAdvisor.parse("select w.WORKFLOW_INSTANCE_ID, w.correlation_id,"
+                + " w.timeout_ts, r.response from (select WORKFLOW_INSTANCE_ID, correlation_id, timeout_ts from COP_WAIT"
+                + " where WORKFLOW_INSTANCE_ID = ?) w LEFT OUTER JOIN COP_RESPONSE r ON w.correlation_id = r.correlation_id");
+        assertUses(waits, "COP_WAIT COP_WAIT", "COP_RESPONSE r");
+        assertColumns(waits.get(0), "WORKFLOW_INSTANCE_ID");
+        assertColumns(waits.get(1), "correlation_id");
+        assertDdl(waits, "CREATE INDEX cop_wait_workflow_instance_id_idx ON COP_WAIT (WORKFLOW_INSTANCE_ID)",
+                "CREATE INDEX cop_response_correlation_id_idx ON COP_RESPONSE (correlation_id)");
+
+        // ModEncodeMetaDataProcessor.getDAG: a table listed after the ON clause of a join
+        List<IndexAdvisor.TableUse> dag = IndexAdvisor.parse("SELECT eap.experiment_id, ap.protocol_id,"
+                + " apd.applied_protocol_id , apd.data_id, apd.applied_protocol_data_id, apd.direction"
+                + " FROM applied_protocol ap LEFT JOIN experiment_applied_protocol eap"
+                + " ON (eap.first_applied_protocol_id = ap.applied_protocol_id ) , applied_protocol_data apd"
+                + " WHERE apd.applied_protocol_id = ap.applied_protocol_id ORDER By 3,5,6");
+        assertUses(dag, "applied_protocol ap", "experiment_applied_protocol eap", "applied_protocol_data apd");
+        assertColumns(dag.get(0), "applied_protocol_id");
+        assertColumns(dag.get(1), "first_applied_protocol_id");
+        assertColumns(dag.get(2), "applied_protocol_id");
+        assertDdl(dag, "CREATE INDEX experiment_applied_protocol_first_applied_protocol_id_idx"
+                        + " ON experiment_applied_protocol (first_applied_protocol_id)",
+                "CREATE INDEX applied_protocol_data_applied_protocol_id_idx ON applied_protocol_data (applied_protocol_id)");
+    }
+
+    private static void assertUses(List<IndexAdvisor.TableUse> uses, String... tables) {
+        assertEquals(Arrays.asList(tables), uses.stream().map(u -> u.getTable() + " " + u.getAlias())
+                .collect(Collectors.toList()));
+    }
+
+    /** equality columns, none of these queries has a range predicate */
+    private static void assertColumns(IndexAdvisor.TableUse use, String... equality) {
+        assertEquals(new HashSet<>(Arrays.asList(equality)), use.getEquality());
+        assertEquals(Collections.emptySet(), use.getRange());
+    }
+
+    private static void assertDdl(List<IndexAdvisor.TableUse> uses, String... ddl) {
+        assertEquals(Arrays.asList(ddl), IndexAdvisor.recommend(uses).stream().map(IndexAdvisor.Recommendation::toDdl)
+                .collect(Collectors.toList()));
+    }
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() throws Exception {
+        String corpus = System.getProperty("index.corpus");
+        Launcher launcher;
+        if (corpus == null) {
+            launcher = new MavenLauncher(
+                    "./src/test/resources/project/",
+                    MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        } else {
+            launcher = new Launcher();
+            launcher.addInputResource(corpus);
+            launcher.getEnvironment().setNoClasspath(true);
+        }
+        CtModel model = launcher.buildModel();
+
+        IndexAdvisor advisor = new IndexAdvisor();
+        advisor.setLoopCardinality(Integer.getInteger("index.loop", 100));
+        Iterable<? extends CtElement> roots = corpus == null
+                ? model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))
+                : model.getAllModules();
+        List<IndexAdvisor.Recommendation> recommendations = new ArrayList<>();
+        for (CtElement root : roots) {
+            recommendations.addAll(advisor.advise(root));
+        }
+        recommendations.sort((a, b) -> Double.compare(b.getWeight(), a.getWeight()));
+
+        Map<String, List<IndexAdvisor.Recommendation>> byTable = new LinkedHashMap<>();
+        recommendations.forEach(r -> byTable.computeIfAbsent(r.getTable().toLowerCase(), t -> new ArrayList<>()).add(r));
+        System.out.println("@ recommendations (estimated executions, index, sites):");
+        byTable.forEach((table, list) -> {
+            System.out.println(table);
+            list.forEach(r -> System.out.println("\t" + r));
+        });
+
+        String url = System.getProperty("index.jdbc");
+        if (url == null) {
+            System.out.println("@ no -Dindex.jdbc, plans not validated");
+            return;
+        }
+        try (Connection connection = DriverManager.getConnection(url)) {
+            String schema = System.getProperty("index.schema");
+            if (schema != null) {
+                try (Statement statement = connection.createStatement()) {
+                    for (String ddl : new String(Files.readAllBytes(Paths.get(schema)), StandardCharsets.UTF_8).split(";")) {
+                        if (!ddl.trim().isEmpty()) {
+                            statement.execute(ddl);
+                        }
+                    }
+                }
+            }
+            int validate = Integer.getInteger("index.validate", 10);
+            for (IndexAdvisor.Recommendation recommendation : recommendations.subList(0, Math.min(validate, recommendations.size()))) {
+                try {
+                    IndexAdvisor.PlanComparison plans = advisor.validate(connection, recommendation);
+                    System.out.println("@ " + recommendation.toDdl() + (plans.isIndexUsed() ? " : used" : " : not used"));
+                    System.out.println("before:\n" + plans.getBefore() + "after:\n" + plans.getAfter());
+                } catch (SQLException e) {
+                    System.out.println("@ " + recommendation.toDdl() + " : not validated, " + e.getMessage());
+                }
+            }
+        }
+    }
+}
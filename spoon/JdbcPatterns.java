@@ -0,0 +1,250 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFor;
+import spoon.reflect.code.CtForEach;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLambda;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLoop;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.CtVariable;
+import spoon.reflect.reference.CtTypeReference;
+
+/**
+ * Recognizes JDBC (and JDBC helper) calls in a Spoon model. The checks are
+ * name based because the analysed sources are usually built without their
+ * classpath, so most of the receiver types cannot be resolved. A bare
+ * {@code execute}, also the method of {@code Executor} and many other types,
+ * is only a query on a statement or on an unresolved receiver given SQL.
+ */
+public final class JdbcPatterns {
+	private static final Set<String> EXECUTIONS = new HashSet<>(Arrays.asList(
+			"executeQuery", "executeUpdate", "executeBatch", "executeLargeUpdate"));
+	private static final Set<String> TEMPLATE_EXECUTIONS = new HashSet<>(Arrays.asList(
+			"query", "queryForList", "queryForObject", "queryForMap", "queryForRowSet", "update", "batchUpdate"));
+	private static final Set<String> STATEMENT_CREATIONS = new HashSet<>(Arrays.asList(
+			"prepareStatement", "createStatement", "prepareCall"));
+	private static final String STATEMENT_TYPE = "java.sql.Statement";
+	private static final String[] SQL_KEYWORDS = {"select", "insert", "update", "delete", "with", "merge"};
+
+	private JdbcPatterns() {
+	}
+
+	/**
+	 * @param invocation any invocation.
+	 * @return true if the invocation sends a statement to the database.
+	 */
+	public static boolean isQueryExecution(CtInvocation<?> invocation) {
+		String name = invocation.getExecutable().getSimpleName();
+		if (EXECUTIONS.contains(name) || name.startsWith("getSQLValue")) {
+			return true;
+		}
+		if ("execute".equals(name)) {
+			return isStatementExecute(invocation);
+		}
+		return TEMPLATE_EXECUTIONS.contains(name) && receiverTypeName(invocation).endsWith("Template");
+	}
+
+	/**
+	 * @param invocation an {@code execute} invocation.
+	 * @return true if the receiver is a {@code java.sql.Statement}, or cannot be
+	 *         resolved and an argument folds to SQL.
+	 */
+	private static boolean isStatementExecute(CtInvocation<?> invocation) {
+		CtExpression<?> target = invocation.getTarget();
+		CtTypeReference<?> type = target == null ? null : target.getType();
+		if (type != null && type.getTypeDeclaration() != null) {
+			return type.isSubtypeOf(invocation.getFactory().Type().createReference(STATEMENT_TYPE));
+		}
+		return sqlArgument(invocation) != null;
+	}
+
+	/**
+	 * @param invocation any invocation.
+	 * @return true if the invocation creates a (prepared) statement.
+	 */
+	public static boolean isStatementCreation(CtInvocation<?> invocation) {
+		return STATEMENT_CREATIONS.contains(invocation.getExecutable().getSimpleName());
+	}
+
+	/**
+	 * @param element an invocation or constructor call.
+	 * @return true if the element opens or borrows a connection.
+	 */
+	public static boolean isConnectionAcquisition(CtElement element) {
+		if (element instanceof CtInvocation) {
+			return "getConnection".equals(((CtInvocation<?>) element).getExecutable().getSimpleName());
+		}
+		if (element instanceof CtConstructorCall) {
+			CtTypeReference<?> type = ((CtConstructorCall<?>) element).getType();
+			return type != null && "Connection".equals(type.getSimpleName());
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the innermost loop of the enclosing executable in which the
+	 * element is evaluated once per iteration. The iterable of a for-each and
+	 * the init part of a for are evaluated once, they are not in the loop.
+	 *
+	 * @param element any code element.
+	 * @return the loop, or null if the element runs once per call.
+	 */
+	public static CtLoop enclosingLoop(CtElement element) {
+		CtElement child = element;
+		CtElement parent = element.isParentInitialized() ? element.getParent() : null;
+		while (parent != null && !(parent instanceof CtExecutable) && !(parent instanceof CtType)) {
+			boolean evaluatedOnce = parent instanceof CtForEach && child == ((CtForEach) parent).getExpression()
+					|| parent instanceof CtFor && isForInit((CtFor) parent, child);
+			if (parent instanceof CtLoop && !evaluatedOnce) {
+				return (CtLoop) parent;
+			}
+			child = parent;
+			parent = parent.isParentInitialized() ? parent.getParent() : null;
+		}
+		return null;
+	}
+
+	private static boolean isForInit(CtFor loop, CtElement child) {
+		// Spoon's equals is structural, compare instances
+		return loop.getForInit().stream().anyMatch(init -> init == child);
+	}
+
+	/**
+	 * @param element any code element.
+	 * @return the number of loops around the element in its executable.
+	 */
+	public static int loopDepth(CtElement element) {
+		int depth = 0;
+		CtLoop loop = enclosingLoop(element);
+		while (loop != null) {
+			depth++;
+			loop = enclosingLoop(loop);
+		}
+		return depth;
+	}
+
+	/**
+	 * @param element any code element.
+	 * @return the executable the element belongs to, lambdas are skipped.
+	 */
+	public static CtExecutable<?> enclosingExecutable(CtElement element) {
+		CtExecutable<?> executable = element.getParent(CtExecutable.class);
+		while (executable instanceof CtLambda) {
+			executable = executable.getParent(CtExecutable.class);
+		}
+		return executable;
+	}
+
+	/**
+	 * Returns the SQL text passed to the invocation: the first argument that
+	 * folds to a string starting with an SQL keyword.
+	 *
+	 * @param invocation a query execution or statement creation.
+	 * @return the folded SQL text, non constant parts are replaced by '?', or null.
+	 */
+	public static String sqlArgument(CtInvocation<?> invocation) {
+		for (CtExpression<?> argument : invocation.getArguments()) {
+			String text = fold(argument);
+			if (text != null && isSql(text)) {
+				return text;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param text any string.
+	 * @return true if the string starts with an SQL statement keyword.
+	 */
+	public static boolean isSql(String text) {
+		String start = text.trim().toLowerCase(Locale.ROOT);
+		for (String keyword : SQL_KEYWORDS) {
+			if (start.startsWith(keyword)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Folds string concatenations of literals, constant fields and local
+	 * variables with an initializer.
+	 *
+	 * @param expression any expression.
+	 * @return the folded text with '?' for non constant parts, null if nothing is constant.
+	 */
+	public static String fold(CtExpression<?> expression) {
+		String folded = fold(expression, 0);
+		return folded == null || "?".equals(folded) ? null : folded;
+	}
+
+	/**
+	 * @param expression any expression.
+	 * @return true if the expression only concatenates literals and final variables initialized with constants.
+	 */
+	public static boolean isConstant(CtExpression<?> expression) {
+		return isConstant(expression, 0);
+	}
+
+	private static boolean isConstant(CtExpression<?> expression, int depth) {
+		if (expression == null || depth > 8) {
+			return false;
+		}
+		if (expression instanceof CtLiteral) {
+			return ((CtLiteral<?>) expression).getValue() != null;
+		}
+		if (expression instanceof CtBinaryOperator
+				&& ((CtBinaryOperator<?>) expression).getKind() == BinaryOperatorKind.PLUS) {
+			CtBinaryOperator<?> plus = (CtBinaryOperator<?>) expression;
+			return isConstant(plus.getLeftHandOperand(), depth + 1) && isConstant(plus.getRightHandOperand(), depth + 1);
+		}
+		if (expression instanceof CtVariableRead) {
+			CtVariable<?> variable = ((CtVariableRead<?>) expression).getVariable().getDeclaration();
+			return variable != null && variable.isFinal() && isConstant(variable.getDefaultExpression(), depth + 1);
+		}
+		return false;
+	}
+
+	private static String fold(CtExpression<?> expression, int depth) {
+		if (expression == null || depth > 8) {
+			return "?";
+		}
+		if (expression instanceof CtLiteral) {
+			Object value = ((CtLiteral<?>) expression).getValue();
+			return value == null ? "?" : value.toString();
+		}
+		if (expression instanceof CtBinaryOperator
+				&& ((CtBinaryOperator<?>) expression).getKind() == BinaryOperatorKind.PLUS) {
+			CtBinaryOperator<?> plus = (CtBinaryOperator<?>) expression;
+			return fold(plus.getLeftHandOperand(), depth + 1) + fold(plus.getRightHandOperand(), depth + 1);
+		}
+		if (expression instanceof CtVariableRead) {
+			// fields reads included, the initializer is used even if the variable is reassigned later
+			CtVariable<?> variable = ((CtVariableRead<?>) expression).getVariable().getDeclaration();
+			if (variable != null && variable.getDefaultExpression() != null) {
+				return fold(variable.getDefaultExpression(), depth + 1);
+			}
+		}
+		return "?";
+	}
+
+	private static String receiverTypeName(CtInvocation<?> invocation) {
+		if (invocation.getTarget() == null || invocation.getTarget().getType() == null) {
+			return "";
+		}
+		return invocation.getTarget().getType().getSimpleName();
+	}
+}
@@ -0,0 +1,215 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In memory stand-in for a forward only JDBC result set, for benchmarks
+ * without a database. Rows are "fetched" in batches, each batch costs a
+ * simulated round trip. {@code isLast()} has to know whether another row
+ * exists: at the end of a batch it fetches the next one early, and every
+ * call costs the driver bookkeeping given to {@link #resultSet}. Costs are
+ * spent busy waiting so they show in the timings. Only the methods used by
+ * the benchmarks are implemented, the others throw.
+ *
+ * <p>{@link #connection} gives statements and result sets counted by a
+ * {@link Tracker} while open, closing a statement closes its result sets.
+ */
+public final class JdbcStandIn {
+	private JdbcStandIn() {
+	}
+
+	/**
+	 * @param rows number of rows.
+	 * @param columns number of int columns, labelled c1, c2, ...
+	 * @param fetchSize rows per round trip.
+	 * @param roundTripNanos cost of a round trip.
+	 * @param isLastNanos cost of each isLast/isFirst/getRow call.
+	 * @return a result set positioned before its first row.
+	 */
+	public static ResultSet resultSet(int rows, int columns, int fetchSize, long roundTripNanos, long isLastNanos) {
+		Cursor cursor = new Cursor(rows, columns, fetchSize, roundTripNanos, isLastNanos);
+		return (ResultSet) Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+				(proxy, method, args) -> cursor.invoke(method.getName(), args));
+	}
+
+	/**
+	 * @param rows rows of every query, without round trip costs.
+	 * @param columns int columns of every query.
+	 * @param tracker counting the open statements and result sets.
+	 * @return a connection whose statements answer any query.
+	 */
+	public static Connection connection(int rows, int columns, Tracker tracker) {
+		return (Connection) Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(), new Class<?>[] {Connection.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "createStatement":
+					case "prepareStatement":
+						return statement(rows, columns, tracker);
+					case "close":
+					case "setAutoCommit":
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static Statement statement(int rows, int columns, Tracker tracker) {
+		List<Cursor> results = new ArrayList<>();
+		boolean[] closed = new boolean[1];
+		tracker.opened();
+		return (Statement) Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(),
+				new Class<?>[] {java.sql.PreparedStatement.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "executeQuery":
+						Cursor cursor = new Cursor(rows, columns, rows + 1, 0, 0);
+						cursor.tracker = tracker;
+						tracker.opened();
+						results.add(cursor);
+						return Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+								(resultSet, call, callArgs) -> cursor.invoke(call.getName(), callArgs));
+					case "setInt":
+					case "setString":
+					case "setObject":
+						return null;
+					case "close":
+						if (!closed[0]) {
+							closed[0] = true;
+							for (Cursor result : results) {
+								result.invoke("close", null);
+							}
+							tracker.closed();
+						}
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+			// busy
+		}
+	}
+
+	/**
+	 * Counts the open statements and result sets, and the most open at once.
+	 */
+	public static final class Tracker {
+		private int open;
+		private int peak;
+
+		void opened() {
+			open++;
+			peak = Math.max(peak, open);
+		}
+
+		void closed() {
+			open--;
+		}
+
+		public int getOpen() {
+			return open;
+		}
+
+		public int getPeak() {
+			return peak;
+		}
+	}
+
+	private static class Cursor {
+		private final int rows;
+		private final int columns;
+		private final int fetchSize;
+		private final long roundTripNanos;
+		private final long isLastNanos;
+		private int row;
+		private int fetched;
+		private boolean wasNull;
+		private Tracker tracker;
+		private boolean closed;
+
+		Cursor(int rows, int columns, int fetchSize, long roundTripNanos, long isLastNanos) {
+			this.rows = rows;
+			this.columns = columns;
+			this.fetchSize = fetchSize;
+			this.roundTripNanos = roundTripNanos;
+			this.isLastNanos = isLastNanos;
+		}
+
+		private void fetchUpTo(int needed) {
+			while (fetched < Math.min(needed, rows)) {
+				spin(roundTripNanos);
+				fetched += fetchSize;
+			}
+		}
+
+		Object invoke(String name, Object[] args) throws SQLException {
+			switch (name) {
+			case "next":
+				row++;
+				fetchUpTo(row);
+				return row <= rows;
+			case "isLast":
+				spin(isLastNanos);
+				fetchUpTo(row + 1);
+				return row == rows;
+			case "isFirst":
+				spin(isLastNanos);
+				return row == 1;
+			case "getRow":
+				spin(isLastNanos);
+				return row <= rows ? row : 0;
+			case "getInt":
+			case "getObject":
+			case "getString":
+				int column = args[0] instanceof Integer ? (Integer) args[0]
+						: Integer.parseInt(((String) args[0]).substring(1));
+				if (row < 1 || row > rows || column < 1 || column > columns) {
+					throw new SQLException("no row " + row + " column " + args[0]);
+				}
+				wasNull = false;
+				int value = row * columns + column;
+				return "getString".equals(name) ? (Object) String.valueOf(value) : (Object) value;
+			case "wasNull":
+				return wasNull;
+			case "getType":
+				return ResultSet.TYPE_FORWARD_ONLY;
+			case "getMetaData":
+				return metaData();
+			case "close":
+				if (tracker != null && !closed) {
+					tracker.closed();
+				}
+				closed = true;
+				return null;
+			default:
+				throw new UnsupportedOperationException(name);
+			}
+		}
+
+		private ResultSetMetaData metaData() {
+			return (ResultSetMetaData) Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(),
+					new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> {
+						switch (method.getName()) {
+						case "getColumnCount":
+							return columns;
+						case "getColumnLabel":
+						case "getColumnName":
+							return "c" + args[0];
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+	}
+}
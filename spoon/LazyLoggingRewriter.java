@@ -0,0 +1,335 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtCase;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFieldRead;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLoop;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds log calls at levels disabled by default (trace, debug, and fine,
+ * finer, finest, config of {@code java.util.logging}) whose arguments are
+ * built on each call: string concatenations, method calls, object creations.
+ * The work and its garbage happen even when the level is off.
+ *
+ * <p>slf4j and log4j 2 messages concatenating at most two plain object
+ * variables become parameterized ({@code "x: {}"}), the others are wrapped in
+ * a level check ({@code isDebugEnabled()}, {@code isLoggable(Level.FINE)}).
+ * The report estimates the objects allocated per call of each site, times
+ * {@link #setLoopCardinality(int)} iterations for each enclosing loop.
+ */
+public class LazyLoggingRewriter {
+	/** Log message built although its level is disabled. */
+	public static final String KIND = "eager-log-argument";
+	private static final Set<String> DISABLED_LEVELS = new HashSet<>(Arrays.asList(
+			"trace", "debug", "fine", "finer", "finest", "config"));
+	private static final Set<String> JUL_LEVELS = new HashSet<>(Arrays.asList("fine", "finer", "finest", "config"));
+	private static final Set<String> PRIMITIVES = new HashSet<>(Arrays.asList(
+			"int", "long", "short", "byte", "char", "boolean", "float", "double"));
+
+	private int loopCardinality = 100;
+
+	/**
+	 * @param loopCardinality iterations assumed per loop for the estimates, 100 by default.
+	 */
+	public void setLoopCardinality(int loopCardinality) {
+		this.loopCardinality = loopCardinality;
+	}
+
+	/**
+	 * @param root element to search.
+	 * @return the eager log calls, not rewritten.
+	 */
+	public Report detect(CtElement root) {
+		return analyse(root, false);
+	}
+
+	/**
+	 * @param root element to search and rewrite.
+	 * @return the rewritten log calls.
+	 */
+	public Report rewrite(CtElement root) {
+		return analyse(root, true);
+	}
+
+	private Report analyse(CtElement root, boolean rewrite) {
+		Report report = new Report();
+		for (CtInvocation<?> log : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (!isDisabledByDefault(log) || !isStatement(log) || isGuarded(log) || !isEager(log)) {
+				continue;
+			}
+			int objects = allocationsPerCall(log);
+			double calls = Math.pow(loopCardinality, JdbcPatterns.loopDepth(log));
+			boolean parameterize = isParameterizable(log);
+			report.add(Finding.at(KIND, log, level(log), "~" + objects + " objects per call"
+					+ (calls > 1 ? ", ~" + (long) calls + " calls per method call" : "")
+					+ (parameterize ? ", parameterized message" : ", level check")), (long) (objects * calls));
+			if (rewrite) {
+				if (parameterize) {
+					parameterize(log);
+				} else {
+					guard(log);
+				}
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * @return true for trace/debug calls and java.util.logging fine/finer/finest/config, by method or Level argument.
+	 */
+	static boolean isDisabledByDefault(CtInvocation<?> invocation) {
+		return level(invocation) != null && invocation.getTarget() != null && isLogger(invocation.getTarget().getType(),
+				invocation.getTarget().toString());
+	}
+
+	private static boolean isLogger(CtTypeReference<?> type, String target) {
+		String name = type == null ? target : type.getSimpleName();
+		return name.endsWith("Logger") || name.endsWith("Log") || name.equalsIgnoreCase("log");
+	}
+
+	/**
+	 * @return the disabled level of the call in lower case, null for other calls.
+	 */
+	private static String level(CtInvocation<?> invocation) {
+		String name = invocation.getExecutable().getSimpleName();
+		if (DISABLED_LEVELS.contains(name)) {
+			return name;
+		}
+		if ("log".equals(name) && invocation.getArguments().size() >= 2 && invocation.getArguments().get(0) instanceof CtFieldRead) {
+			String level = ((CtFieldRead<?>) invocation.getArguments().get(0)).getVariable().getSimpleName().toLowerCase(Locale.ROOT);
+			return JUL_LEVELS.contains(level) ? level : null;
+		}
+		return null;
+	}
+
+	private static boolean isJul(CtInvocation<?> log) {
+		CtTypeReference<?> type = log.getTarget().getType();
+		String qualified = type == null ? "" : type.getQualifiedName();
+		return qualified.startsWith("java.util.logging") || JUL_LEVELS.contains(level(log))
+				|| "log".equals(log.getExecutable().getSimpleName());
+	}
+
+	private static boolean isParameterizedApi(CtInvocation<?> log) {
+		CtTypeReference<?> type = log.getTarget().getType();
+		String qualified = type == null ? "" : type.getQualifiedName();
+		return qualified.startsWith("org.slf4j") || qualified.startsWith("org.apache.logging.log4j");
+	}
+
+	private static boolean isStatement(CtInvocation<?> log) {
+		CtElement parent = log.getParent();
+		return parent instanceof CtBlock || parent instanceof CtIf || parent instanceof CtLoop || parent instanceof CtCase;
+	}
+
+	/**
+	 * @return true if the log call is in the then branch of a check of its level.
+	 */
+	static boolean isGuarded(CtInvocation<?> log) {
+		Set<String> checks = new HashSet<>(Arrays.asList("isLoggable", "isEnabled", "isEnabledFor",
+				"is" + capitalize(level(log)) + "Enabled"));
+		CtIf guard = log.getParent(CtIf.class);
+		while (guard != null) {
+			boolean checked = guard.getCondition().getElements(new TypeFilter<>(CtInvocation.class)).stream()
+					.anyMatch(i -> checks.contains(i.getExecutable().getSimpleName()));
+			if (checked && guard.getThenStatement() != null && log.hasParent(guard.getThenStatement())) {
+				return true;
+			}
+			guard = guard.getParent(CtIf.class);
+		}
+		return false;
+	}
+
+	private static boolean isEager(CtInvocation<?> log) {
+		for (CtExpression<?> argument : messageArguments(log)) {
+			if (!JdbcPatterns.isConstant(argument) && (isConcatenation(argument)
+					|| !argument.getElements(new TypeFilter<>(CtInvocation.class)).isEmpty()
+					|| !argument.getElements(new TypeFilter<>(CtConstructorCall.class)).isEmpty())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<CtExpression<?>> messageArguments(CtInvocation<?> log) {
+		List<CtExpression<?>> arguments = new ArrayList<>(log.getArguments());
+		if ("log".equals(log.getExecutable().getSimpleName()) && !arguments.isEmpty()) {
+			arguments.remove(0);
+		}
+		return arguments;
+	}
+
+	private static boolean isConcatenation(CtExpression<?> expression) {
+		return expression instanceof CtBinaryOperator
+				&& ((CtBinaryOperator<?>) expression).getKind() == BinaryOperatorKind.PLUS;
+	}
+
+	/**
+	 * @return a builder, its array, one growth, the string and its array, one string per converted operand and per call.
+	 */
+	private static int allocationsPerCall(CtInvocation<?> log) {
+		int objects = 0;
+		for (CtExpression<?> argument : messageArguments(log)) {
+			if (JdbcPatterns.isConstant(argument)) {
+				continue;
+			}
+			if (isConcatenation(argument)) {
+				objects += 5;
+				for (CtExpression<?> operand : operands(argument)) {
+					if (!(operand instanceof CtLiteral) && (operand.getType() == null
+							|| !"java.lang.String".equals(operand.getType().getQualifiedName()))) {
+						objects++;
+					}
+				}
+			}
+			objects += argument.getElements(new TypeFilter<>(CtInvocation.class)).size();
+			objects += argument.getElements(new TypeFilter<>(CtConstructorCall.class)).size();
+		}
+		return objects;
+	}
+
+	/**
+	 * @return the operands of a left to right concatenation, the expression alone otherwise.
+	 */
+	private static List<CtExpression<?>> operands(CtExpression<?> expression) {
+		List<CtExpression<?>> operands = new ArrayList<>();
+		if (isConcatenation(expression)) {
+			CtBinaryOperator<?> plus = (CtBinaryOperator<?>) expression;
+			operands.addAll(operands(plus.getLeftHandOperand()));
+			operands.add(plus.getRightHandOperand());
+		} else {
+			operands.add(expression);
+		}
+		return operands;
+	}
+
+	/**
+	 * @return true for one concatenation of literals and at most two non primitive, non throwable variables.
+	 */
+	private static boolean isParameterizable(CtInvocation<?> log) {
+		if (!isParameterizedApi(log) || log.getArguments().size() != 1 || !isConcatenation(log.getArguments().get(0))) {
+			return false;
+		}
+		List<CtExpression<?>> operands = operands(log.getArguments().get(0));
+		// string concatenation from the first operator on, not an addition
+		if (!isString(operands.get(0)) && !isString(operands.get(1))) {
+			return false;
+		}
+		int variables = 0;
+		for (CtExpression<?> operand : operands) {
+			if (operand instanceof CtLiteral) {
+				String text = String.valueOf(((CtLiteral<?>) operand).getValue());
+				if (text.contains("{") || text.contains("\\")) {
+					return false;
+				}
+				continue;
+			}
+			CtTypeReference<?> type = operand.getType();
+			if (!(operand instanceof CtVariableRead) || type == null || PRIMITIVES.contains(type.getSimpleName())
+					|| type.getSimpleName().endsWith("Exception") || type.getSimpleName().endsWith("Error")
+					|| "Throwable".equals(type.getSimpleName())) {
+				return false;
+			}
+			variables++;
+		}
+		return variables <= 2;
+	}
+
+	private static boolean isString(CtExpression<?> expression) {
+		return expression instanceof CtLiteral && ((CtLiteral<?>) expression).getValue() instanceof String
+				|| expression.getType() != null && "java.lang.String".equals(expression.getType().getQualifiedName());
+	}
+
+	private static void parameterize(CtInvocation<?> log) {
+		Factory factory = log.getFactory();
+		StringBuilder format = new StringBuilder();
+		List<CtExpression<?>> arguments = new ArrayList<>();
+		for (CtExpression<?> operand : operands(log.getArguments().get(0))) {
+			if (operand instanceof CtLiteral) {
+				format.append(((CtLiteral<?>) operand).getValue());
+			} else {
+				format.append("{}");
+				arguments.add(operand.clone());
+			}
+		}
+		arguments.add(0, factory.Code().createLiteral(format.toString()));
+		log.setArguments(arguments);
+	}
+
+	/**
+	 * Wraps the log statement in a check of its level.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static void guard(CtInvocation<?> log) {
+		Factory factory = log.getFactory();
+		String level = level(log);
+		CtTypeReference<?> loggerType = log.getTarget().getType() != null ? log.getTarget().getType()
+				: factory.Type().objectType();
+		CtInvocation enabled;
+		if (isJul(log)) {
+			CtExpression<?> argument = "log".equals(log.getExecutable().getSimpleName()) ? log.getArguments().get(0).clone()
+					: factory.Code().createCodeSnippetExpression("java.util.logging.Level." + level.toUpperCase(Locale.ROOT));
+			enabled = factory.Code().createInvocation(log.getTarget().clone(), factory.Executable().createReference(
+					loggerType, factory.Type().booleanPrimitiveType(), "isLoggable",
+					factory.Type().createReference("java.util.logging.Level")), argument);
+		} else {
+			enabled = factory.Code().createInvocation(log.getTarget().clone(), factory.Executable().createReference(
+					loggerType, factory.Type().booleanPrimitiveType(), "is" + capitalize(level) + "Enabled"));
+		}
+		CtIf check = factory.Core().createIf();
+		check.setCondition(enabled);
+		log.replace(check);
+		check.setThenStatement(factory.Code().createCtBlock(log));
+	}
+
+	private static String capitalize(String text) {
+		return text == null || text.isEmpty() ? "" : text.substring(0, 1).toUpperCase(Locale.ROOT) + text.substring(1);
+	}
+
+	/**
+	 * Findings and estimated objects avoided.
+	 */
+	public static class Report {
+		private final List<Finding> findings = new ArrayList<>();
+		private final Map<String, Long> avoidedPerExecutable = new LinkedHashMap<>();
+
+		void add(Finding finding, long objects) {
+			findings.add(finding);
+			avoidedPerExecutable.merge(finding.getExecutable(), objects, Long::sum);
+		}
+
+		public List<Finding> getFindings() {
+			return findings;
+		}
+
+		/**
+		 * @return objects no longer allocated per call of each executable with the levels disabled.
+		 */
+		public Map<String, Long> getAvoidedPerExecutable() {
+			return avoidedPerExecutable;
+		}
+
+		public long getAvoided() {
+			return avoidedPerExecutable.values().stream().mapToLong(Long::longValue).sum();
+		}
+	}
+}
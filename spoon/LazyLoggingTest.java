@@ -0,0 +1,108 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import spoon.Launcher;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.lang.management.ManagementFactory;
+
+
+/*
+    꺼진 level (trace / debug / fine ...) 로그 인자를 매번 만드는 곳 찾기 (LazyLoggingRewriter)
+        (1) 문자열 더하기, method 호출, new 가 들어간 log.debug(...) 등, 이미 isDebugEnabled() 안이면 제외
+        (2) slf4j / log4j2 는 "x: {}" 형태로, 나머지는 isDebugEnabled() / isLoggable(Level.FINE) 로 감싸기
+        (3) method 한 번 호출 당 안 만들게 되는 객체 수 추정 (loop 하나에 100 번), 바뀐 파일만 출력
+        (4) "DEL: " + submissionId + " ->" + isADeletedSub 를 매번 만들 때 vs 감쌀 때 byte 측정
+    옵션 : -Dlogging.corpus=../modeling (maven 프로젝트 아닌 소스 디렉터리 분석, 패키지 필터 없음)
+          -Dlogging.loop=100 -Dlogging.calls=1000000
+*/
+
+
+public class LazyLoggingTest {
+    // not a constant, the compiler must not drop the eager messages
+    private static volatile boolean debug;
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        String corpus = System.getProperty("logging.corpus");
+        Launcher launcher;
+        if (corpus == null) {
+            launcher = new MavenLauncher(
+                    "./src/test/resources/project/",
+                    MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        } else {
+            launcher = new Launcher();
+            launcher.addInputResource(corpus);
+            launcher.getEnvironment().setNoClasspath(true);
+        }
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        LazyLoggingRewriter rewriter = new LazyLoggingRewriter();
+        rewriter.setLoopCardinality(Integer.getInteger("logging.loop", 100));
+        Iterable<? extends CtElement> roots = corpus == null
+                ? model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))
+                : model.getAllModules();
+        for (CtElement root : roots) {
+            System.out.println("@ found:");
+            LazyLoggingRewriter.Report found = rewriter.detect(root);
+            found.getFindings().forEach(f -> System.out.println("\t" + f));
+            System.out.println("@ objects avoided per call:");
+            found.getAvoidedPerExecutable().forEach((executable, objects) -> System.out.println("\t" + objects + "\t" + executable));
+            LazyLoggingRewriter.Report rewritten = rewriter.rewrite(root);
+            System.out.println("@ total ~" + found.getAvoided() + " objects, rewritten " + rewritten.getFindings().size());
+
+            // every reported message is made lazy
+            assertEquals(found.getFindings(), rewritten.getFindings());
+            assertTrue(rewritten.getFindings().isEmpty() || !printer.getModifiedTypes(model).isEmpty());
+        }
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+
+        int calls = Integer.getInteger("logging.calls", 1000000);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            long eager = allocatedBytes(calls, false);
+            long guarded = allocatedBytes(calls, true);
+            if (round == 1) {
+                System.out.println(String.format("eager: %d bytes/call, guarded: %d bytes/call",
+                        eager / calls, guarded / calls));
+            }
+        }
+    }
+
+    private long allocatedBytes(int calls, boolean guarded) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < calls; i++) {
+            Integer submissionId = i;
+            boolean isADeletedSub = (i & 7) == 0;
+            if (guarded) {
+                if (debug) {
+                    debug("DEL: " + submissionId + " ->" + isADeletedSub);
+                }
+            } else {
+                debug("DEL: " + submissionId + " ->" + isADeletedSub);
+            }
+        }
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private static void debug(String message) {
+        if (debug) {
+            System.out.println(message);
+        }
+    }
+}
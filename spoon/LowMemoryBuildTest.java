@@ -0,0 +1,68 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import spoon.Launcher;
+import spoon.reflect.CtModel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+
+/*
+    모델 빌드 메모리 / 시간 비교
+        (1) default : 기본 설정
+        (2) analysis : AnalysisBuildProfile (주석 X, compact position, identifier 공유)
+        (3) analysis + body scope : "jg" 밖 타입의 method body 버림 (필요하면 loadBody로 다시 읽음)
+    compact 는 빌드 후에 하므로 peak heap 은 (주석 빼고) 그대로, retained heap 만 줄어듦
+    타겟 디렉터리를 COPIES 번 복사해서 크게 만든 다음 빌드함
+*/
+
+
+public class LowMemoryBuildTest {
+    private static final int COPIES = 20;
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        Path corpus = CorpusScaler.scale(Paths.get("./src/test/resources/project/src/main/java/"), COPIES);
+
+        measure("default", corpus, null);
+        measure("analysis", corpus, new AnalysisBuildProfile());
+
+        AnalysisBuildProfile scoped = new AnalysisBuildProfile();
+        scoped.setBodyScope(type -> type.getQualifiedName().startsWith("jg."));
+        measure("analysis + body scope", corpus, scoped);
+    }
+
+    private void measure(String name, Path corpus, AnalysisBuildProfile profile) {
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long start = System.currentTimeMillis();
+        Launcher launcher = new Launcher();
+        launcher.addInputResource(corpus.toString());
+        launcher.getEnvironment().setNoClasspath(true);
+        if (profile != null) {
+            profile.configure(launcher);
+        }
+        CtModel model = launcher.buildModel();
+        if (profile != null) {
+            profile.compact(model);
+        }
+        long time = System.currentTimeMillis() - start;
+
+        // peak of each heap pool, the sum is an upper bound of the real peak
+        long peak = pools.stream().filter(p -> p.getType() == MemoryType.HEAP)
+                .mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+        System.gc();
+        long retained = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        System.out.println(name + ": " + model.getAllTypes().size() + " types, build " + time + " ms, peak heap "
+                + (peak >> 20) + " MB, retained heap " + (retained >> 20) + " MB");
+    }
+}
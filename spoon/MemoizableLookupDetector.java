@@ -0,0 +1,437 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtAssignment;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFieldRead;
+import spoon.reflect.code.CtFieldWrite;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLambda;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtReturn;
+import spoon.reflect.code.CtUnaryOperator;
+import spoon.reflect.code.CtVariableAccess;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtField;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.ModifierKind;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtFieldReference;
+import spoon.reflect.reference.CtLocalVariableReference;
+import spoon.reflect.reference.CtParameterReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.reference.CtVariableReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds read only single row lookups whose result only depends on their bind
+ * parameters, and memoizes them with a {@link QueryMemoizer} held in a static
+ * field of the declaring type. Three shapes are recognized:
+ * <ul>
+ * <li>value lookups, {@code DB.getSQLValue*(null, "select ...", keys...)}: the
+ * call is wrapped, keyed by its bind arguments;</li>
+ * <li>lookup methods preparing one constant select, binding only parameters
+ * and reading at most one row ({@code if (rs.next())}): the method body moves
+ * to a private {@code ...Uncached} method and the method returns the memoized
+ * result, keyed by the parameters that are not connections or contexts;</li>
+ * <li>entities reloaded when their id changes,
+ * {@code if (f == null || f.getId() != id) f = new MEntity(ctx, id, trxName)}:
+ * only reported, the entity is mutable and bound to its context, one cached
+ * instance would be shared and changed by every caller.</li>
+ * </ul>
+ * Candidates that cannot be rewritten safely (a transaction is passed, a key
+ * is reassigned so a lambda cannot capture it, or a key of a value lookup has
+ * side effects, as it is evaluated again on a cache miss) are only reported.
+ */
+public class MemoizableLookupDetector {
+	/** Lookup that can be memoized. */
+	public static final String KIND = "memoizable-lookup";
+	private static final String MEMOIZER_TYPE = "fr.inria.gforge.spoon.transformation.QueryMemoizer";
+	private static final Set<String> CONTEXT_TYPES = new HashSet<>(Arrays.asList(
+			"Connection", "CommandContext", "DataSource", "Properties", "JdbcTemplate", "Statement"));
+
+	/**
+	 * Shape of a memoizable lookup.
+	 */
+	public enum Shape {
+		VALUE_LOOKUP, LOOKUP_METHOD, ENTITY_RELOAD
+	}
+
+	private int maxSize = 1000;
+	private long ttlMillis = 10 * 60 * 1000;
+
+	/**
+	 * @param maxSize entries per generated cache, 1000 by default.
+	 * @param ttlMillis time to live of the entries, 10 minutes by default.
+	 */
+	public void setBounds(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @param root element to search.
+	 * @return the memoizable lookups.
+	 */
+	public List<Candidate> find(CtElement root) {
+		List<Candidate> candidates = new ArrayList<>();
+		for (CtMethod<?> method : root.getElements(new TypeFilter<>(CtMethod.class))) {
+			Candidate candidate = lookupMethod(method);
+			if (candidate != null) {
+				candidates.add(candidate);
+			}
+		}
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			Candidate candidate = valueLookup(invocation);
+			if (candidate != null) {
+				candidates.add(candidate);
+			}
+		}
+		for (CtAssignment<?, ?> assignment : root.getElements(new TypeFilter<>(CtAssignment.class))) {
+			Candidate candidate = entityReload(assignment);
+			if (candidate != null) {
+				candidates.add(candidate);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * @param root element to search.
+	 * @return one finding per memoizable lookup.
+	 */
+	public List<Finding> detect(CtElement root) {
+		return find(root).stream().map(Candidate::toFinding).collect(Collectors.toList());
+	}
+
+	/**
+	 * Rewrites the rewritable candidates.
+	 *
+	 * @param root element to search and rewrite.
+	 * @return one finding per memoized lookup.
+	 */
+	public List<Finding> memoize(CtElement root) {
+		List<Finding> memoized = new ArrayList<>();
+		for (Candidate candidate : find(root)) {
+			if (candidate.isRewritable()) {
+				// the finding is computed first, the rewrite moves the element
+				memoized.add(candidate.toFinding());
+				rewrite(candidate);
+			}
+		}
+		return memoized;
+	}
+
+	private Candidate valueLookup(CtInvocation<?> invocation) {
+		if (!invocation.getExecutable().getSimpleName().startsWith("getSQLValue")) {
+			return null;
+		}
+		List<CtExpression<?>> arguments = invocation.getArguments();
+		for (int i = 0; i < arguments.size(); i++) {
+			if (JdbcPatterns.isConstant(arguments.get(i)) && isReadOnly(JdbcPatterns.fold(arguments.get(i)))) {
+				List<CtExpression<?>> keys = new ArrayList<>(arguments.subList(i + 1, arguments.size()));
+				boolean noTransaction = i > 0 && isNullLiteral(arguments.get(0));
+				// the keys are evaluated for the cache and again in the lambda on a miss
+				boolean simpleKeys = keys.stream().allMatch(k -> isCapturable(k) && RedundantLookupDetector.isSideEffectFree(k));
+				return new Candidate(Shape.VALUE_LOOKUP, invocation, JdbcPatterns.fold(arguments.get(i)), keys,
+						noTransaction && simpleKeys,
+						!noTransaction ? "runs in a transaction" : simpleKeys ? null : "key not capturable or with side effects");
+			}
+		}
+		return null;
+	}
+
+	private Candidate lookupMethod(CtMethod<?> method) {
+		if (method.getBody() == null || method.getType() == null || "void".equals(method.getType().getSimpleName())) {
+			return null;
+		}
+		List<CtInvocation<?>> invocations = method.getElements(new TypeFilter<>(CtInvocation.class));
+		List<CtInvocation<?>> executions = invocations.stream().filter(JdbcPatterns::isQueryExecution)
+				.collect(Collectors.toList());
+		List<CtInvocation<?>> creations = invocations.stream().filter(JdbcPatterns::isStatementCreation)
+				.collect(Collectors.toList());
+		if (executions.size() != 1 || creations.size() != 1 || JdbcPatterns.enclosingLoop(executions.get(0)) != null) {
+			return null;
+		}
+		CtExpression<?> sql = creations.get(0).getArguments().isEmpty() ? null : creations.get(0).getArguments().get(0);
+		if (!JdbcPatterns.isConstant(sql) || !isReadOnly(JdbcPatterns.fold(sql))) {
+			return null;
+		}
+		for (CtInvocation<?> invocation : invocations) {
+			String name = invocation.getExecutable().getSimpleName();
+			// at most one row: next() only as an if condition
+			if ("next".equals(name) && invocation.getArguments().isEmpty()
+					&& (JdbcPatterns.enclosingLoop(invocation) != null || !isIfCondition(invocation))) {
+				return null;
+			}
+			// bind values are parameters or literals
+			if (name.startsWith("set") && invocation.getArguments().size() == 2 && isStatement(invocation.getTarget())
+					&& !isParameterOrLiteral(invocation.getArguments().get(1))) {
+				return null;
+			}
+		}
+		// the result must not depend on the state of the object or of other static fields
+		for (CtFieldRead<?> read : method.getElements(new TypeFilter<>(CtFieldRead.class))) {
+			CtField<?> field = read.getVariable().getFieldDeclaration();
+			if (field == null || !field.isFinal() || !field.isStatic()) {
+				return null;
+			}
+		}
+		if (!method.getElements(new TypeFilter<>(CtFieldWrite.class)).isEmpty()) {
+			return null;
+		}
+		List<CtExpression<?>> keys = new ArrayList<>();
+		for (CtParameter<?> parameter : method.getParameters()) {
+			if (!isContext(parameter)) {
+				keys.add(method.getFactory().Code().createVariableRead(parameter.getReference(), false));
+			}
+		}
+		return new Candidate(Shape.LOOKUP_METHOD, method, JdbcPatterns.fold(sql), keys, true, null);
+	}
+
+	private Candidate entityReload(CtAssignment<?, ?> assignment) {
+		if (!(assignment.getAssigned() instanceof CtFieldWrite) || !(assignment.getAssignment() instanceof CtConstructorCall)) {
+			return null;
+		}
+		CtConstructorCall<?> creation = (CtConstructorCall<?>) assignment.getAssignment();
+		List<CtExpression<?>> arguments = creation.getArguments();
+		if (arguments.size() < 2 || !isTransactionName(arguments.get(arguments.size() - 1))) {
+			return null;
+		}
+		CtIf guard = assignment.getParent(CtIf.class);
+		CtFieldReference<?> field = ((CtFieldWrite<?>) assignment.getAssigned()).getVariable();
+		if (guard == null || !isNullCheckOf(guard.getCondition(), field)) {
+			return null;
+		}
+		List<CtExpression<?>> keys = new ArrayList<>(arguments.subList(1, arguments.size()));
+		return new Candidate(Shape.ENTITY_RELOAD, creation, null, keys, false, "mutable entity");
+	}
+
+	private void rewrite(Candidate candidate) {
+		CtElement element = candidate.getElement();
+		Factory factory = element.getFactory();
+		CtExecutable<?> executable = element instanceof CtMethod ? (CtMethod<?>) element
+				: JdbcPatterns.enclosingExecutable(element);
+		CtField<Object> cache = createCache(executable);
+
+		List<CtExpression<?>> keys = candidate.getKeys().stream().map(CtExpression::clone).collect(Collectors.toList());
+		if (element instanceof CtMethod) {
+			CtMethod<?> method = (CtMethod<?>) element;
+			CtMethod<?> uncached = method.clone();
+			uncached.setSimpleName(method.getSimpleName() + "Uncached");
+			uncached.setVisibility(ModifierKind.PRIVATE);
+			uncached.setAnnotations(new ArrayList<>());
+			uncached.setComments(new ArrayList<>());
+			method.getDeclaringType().addMethod(uncached);
+
+			List<CtExpression<?>> arguments = new ArrayList<>();
+			method.getParameters().forEach(p -> arguments.add(factory.Code().createVariableRead(p.getReference(), false)));
+			CtInvocation<?> load = factory.Code().createInvocation(null, uncached.getReference(), arguments);
+			CtReturn<Object> result = factory.Core().createReturn();
+			result.setReturnedExpression(cachedCall(cache, load, keys));
+			method.setBody(factory.Code().createCtBlock(result));
+		} else {
+			CtExpression<?> original = (CtExpression<?>) element;
+			original.replace(cachedCall(cache, original.clone(), keys));
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private CtInvocation<Object> cachedCall(CtField<Object> cache, CtExpression<?> load, List<CtExpression<?>> keys) {
+		Factory factory = cache.getFactory();
+		CtLambda lambda = factory.Core().createLambda();
+		lambda.setExpression(load);
+		List<CtExpression<?>> arguments = new ArrayList<>();
+		arguments.add(lambda);
+		arguments.addAll(keys);
+		CtExecutableReference<Object> get = factory.Executable().createReference(cache.getType(),
+				factory.Type().objectType(), "get");
+		return factory.Code().createInvocation(factory.Code().createVariableRead(cache.getReference(), true), get,
+				arguments);
+	}
+
+	private CtField<Object> createCache(CtExecutable<?> executable) {
+		Factory factory = executable.getFactory();
+		CtType<?> owner = executable.getParent(CtType.class);
+		// inner classes cannot declare static fields
+		while (owner.isParentInitialized() && owner.getParent(CtType.class) != null && !owner.isStatic()) {
+			owner = owner.getParent(CtType.class);
+		}
+		String base = executable.getSimpleName().replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT)
+				+ "_LOOKUP";
+		String name = base;
+		for (int i = 2; owner.getField(name) != null; i++) {
+			name = base + "_" + i;
+		}
+		CtTypeReference<Object> type = factory.Type().createReference(MEMOIZER_TYPE);
+		CtConstructorCall<Object> creation = factory.Code().createConstructorCall(type,
+				factory.Code().createLiteral(owner.getSimpleName() + "." + executable.getSimpleName()),
+				factory.Code().createLiteral(maxSize), factory.Code().createLiteral(ttlMillis));
+		return factory.Field().create(owner, EnumSet.of(ModifierKind.PRIVATE, ModifierKind.STATIC, ModifierKind.FINAL),
+				type, name, creation);
+	}
+
+	private static boolean isReadOnly(String sql) {
+		String text = sql == null ? "" : sql.trim().toLowerCase(Locale.ROOT);
+		return text.startsWith("select") && !text.contains(" for update");
+	}
+
+	private static boolean isNullLiteral(CtExpression<?> expression) {
+		return expression instanceof CtLiteral && ((CtLiteral<?>) expression).getValue() == null;
+	}
+
+	private static boolean isIfCondition(CtElement element) {
+		CtElement child = element;
+		while (child.isParentInitialized() && child.getParent() instanceof CtExpression) {
+			child = child.getParent();
+		}
+		return child.isParentInitialized() && child.getParent() instanceof CtIf
+				&& ((CtIf) child.getParent()).getCondition() == child;
+	}
+
+	private static boolean isStatement(CtExpression<?> target) {
+		return target != null && target.getType() != null
+				&& target.getType().getSimpleName().endsWith("Statement");
+	}
+
+	private static boolean isParameterOrLiteral(CtExpression<?> expression) {
+		return expression instanceof CtLiteral || expression instanceof CtVariableRead
+				&& ((CtVariableRead<?>) expression).getVariable() instanceof CtParameterReference;
+	}
+
+	private static boolean isContext(CtParameter<?> parameter) {
+		return parameter.getType() != null && CONTEXT_TYPES.contains(parameter.getType().getSimpleName())
+				|| "trxName".equals(parameter.getSimpleName()) || "ctx".equals(parameter.getSimpleName());
+	}
+
+	private static boolean isTransactionName(CtExpression<?> expression) {
+		if (expression instanceof CtInvocation) {
+			return "get_TrxName".equals(((CtInvocation<?>) expression).getExecutable().getSimpleName());
+		}
+		return expression instanceof CtVariableRead
+				&& "trxName".equals(((CtVariableRead<?>) expression).getVariable().getSimpleName());
+	}
+
+	private static boolean isNullCheckOf(CtExpression<?> condition, CtFieldReference<?> field) {
+		for (CtBinaryOperator<?> operator : condition.getElements(new TypeFilter<>(CtBinaryOperator.class))) {
+			if (operator.getKind() == BinaryOperatorKind.EQ
+					&& (isNullLiteral(operator.getLeftHandOperand()) || isNullLiteral(operator.getRightHandOperand()))
+					&& (isReadOf(operator.getLeftHandOperand(), field) || isReadOf(operator.getRightHandOperand(), field))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isReadOf(CtExpression<?> expression, CtFieldReference<?> field) {
+		return expression instanceof CtFieldRead && field.equals(((CtFieldRead<?>) expression).getVariable());
+	}
+
+	/**
+	 * @param expression expression moved into a lambda.
+	 * @return true if every local or parameter it reads is never reassigned,
+	 *         so the lambda can capture it.
+	 */
+	public static boolean isCapturable(CtExpression<?> expression) {
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(expression);
+		for (CtVariableRead<?> read : expression.getElements(new TypeFilter<>(CtVariableRead.class))) {
+			CtVariableReference<?> variable = read.getVariable();
+			if (variable instanceof CtFieldReference) {
+				continue;
+			}
+			if (executable == null || variable instanceof CtLocalVariableReference
+					&& ((CtLocalVariableReference<?>) variable).getDeclaration() != null
+					&& ((CtLocalVariableReference<?>) variable).getDeclaration().getDefaultExpression() == null) {
+				return false;
+			}
+			for (CtVariableAccess<?> access : executable.getElements(new TypeFilter<>(CtVariableAccess.class))) {
+				boolean write = access instanceof CtVariableWrite
+						|| access.isParentInitialized() && access.getParent() instanceof CtUnaryOperator;
+				if (write && variable.equals(access.getVariable())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A memoizable lookup.
+	 */
+	public static class Candidate {
+		private final Shape shape;
+		private final CtElement element;
+		private final String sql;
+		private final List<CtExpression<?>> keys;
+		private final boolean rewritable;
+		private final String reason;
+
+		Candidate(Shape shape, CtElement element, String sql, List<CtExpression<?>> keys, boolean rewritable,
+				String reason) {
+			this.shape = shape;
+			this.element = element;
+			this.sql = sql;
+			this.keys = keys;
+			this.rewritable = rewritable;
+			this.reason = reason;
+		}
+
+		public Shape getShape() {
+			return shape;
+		}
+
+		/**
+		 * @return the lookup call, the lookup method or the entity construction.
+		 */
+		public CtElement getElement() {
+			return element;
+		}
+
+		/**
+		 * @return the folded SQL text, null for entity reloads.
+		 */
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * @return the expressions the memoized result is keyed by.
+		 */
+		public List<CtExpression<?>> getKeys() {
+			return keys;
+		}
+
+		public boolean isRewritable() {
+			return rewritable;
+		}
+
+		public Finding toFinding() {
+			String keyText = keys.stream().map(Object::toString).collect(Collectors.joining(", "));
+			String message = shape + " keyed by (" + keyText + ")" + (sql == null ? "" : ": " + sql)
+					+ (rewritable ? "" : ", not rewritten" + (reason == null ? "" : ": " + reason));
+			if (element instanceof CtMethod) {
+				return new Finding(KIND, CallGraphSummary.key((CtMethod<?>) element), null, Finding.location(element),
+						message);
+			}
+			return Finding.at(KIND, element, null, message);
+		}
+	}
+}
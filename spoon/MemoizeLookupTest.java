@@ -0,0 +1,60 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.util.List;
+
+
+/*
+    같은 query 반복 조회 -> 캐시 (MemoizableLookupDetector)
+        (1) bind parameter 만으로 결과가 정해지는 한 줄 조회 찾기
+            DB.getSQLValue*, select 하나만 하는 method, id 바뀔 때마다 new MXxx(ctx, id, trxName) (찾기만 함)
+        (2) QueryMemoizer (크기 + TTL 제한, hit / miss 개수) static field 로 감싸기
+        (3) 바뀐 파일만 출력, QueryMemoizer.java 도 같이 출력함
+    실행 중 hit / miss 는 QueryMemoizer.registered() 로 확인
+*/
+
+
+public class MemoizeLookupTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        // the generated caches need the memoizer next to the rewritten sources
+        launcher.addInputResource("./src/main/java/fr/inria/gforge/spoon/transformation/QueryMemoizer.java");
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        MemoizableLookupDetector detector = new MemoizableLookupDetector();
+        for (CtElement root : model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))) {
+            System.out.println("@ found:");
+            List<Finding> found = detector.detect(root);
+            found.forEach(f -> System.out.println("\t" + f));
+            List<Finding> memoized = detector.memoize(root);
+            System.out.println("@ memoized " + memoized.size());
+            for (Finding finding : memoized) {
+                assertTrue(finding.toString(), found.contains(finding));
+                // entities are mutable, never shared through a cache
+                assertFalse(finding.toString(),
+                        finding.getMessage().startsWith(MemoizableLookupDetector.Shape.ENTITY_RELOAD.name()));
+            }
+            assertTrue(memoized.isEmpty() || !printer.getModifiedTypes(model).isEmpty());
+        }
+
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+    }
+}
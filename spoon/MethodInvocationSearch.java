@@ -17,56 +17,129 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExecutableReferenceExpression;
 import spoon.reflect.code.CtInvocation;
-import spoon.reflect.code.CtLambda;
+import spoon.reflect.code.CtSuperAccess;
 import spoon.reflect.declaration.CtExecutable;
 import spoon.reflect.declaration.CtField;
 import spoon.reflect.declaration.CtMethod;
 import spoon.reflect.declaration.CtType;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtTypeReference;
 import spoon.reflect.visitor.CtScanner;
 import spoon.reflect.visitor.filter.TypeFilter;
-import spoon.support.reflect.code.CtLambdaImpl;
 
 /**
  * Class for creating a mapping from CtExecutable to all known calls from fields
- * and methods.
+ * and methods. Virtual calls are bound to their static declaration by default,
+ * {@link ResolutionMode#CHA} and {@link ResolutionMode#RTA} also bind them to
+ * the overriding methods of the subtypes. Calls in lambdas and method
+ * references are attributed to the enclosing method.
  */
 public class MethodInvocationSearch extends CtScanner {
+	/**
+	 * How a call is bound to the executables it may run.
+	 */
+	public enum ResolutionMode {
+		/** the static declaration only */
+		STATIC,
+		/** the static declaration and its overrides in all subtypes */
+		CHA,
+		/** like CHA, restricted to types instantiated in the model (or having an instantiated subtype) */
+		RTA
+	}
+
 	private Map<CtExecutable<?>, Collection<CtExecutable<?>>> invocationsOfMethod = new HashMap<>();
 	private Map<CtExecutable<?>, Collection<CtType<?>>> invocationsOfField = new HashMap<>();
+	private final ResolutionMode mode;
+	private final SubtypeIndex index;
+
+	/**
+	 * Binds calls to their static declaration.
+	 */
+	public MethodInvocationSearch() {
+		this(ResolutionMode.STATIC, null);
+	}
+
+	/**
+	 * @param mode how virtual calls are bound.
+	 * @param index subtypes of the scanned model, see {@link SubtypeIndex#of(spoon.reflect.CtModel)},
+	 *        only used by CHA and RTA.
+	 */
+	public MethodInvocationSearch(ResolutionMode mode, SubtypeIndex index) {
+		if (mode != ResolutionMode.STATIC && index == null) {
+			throw new IllegalArgumentException(mode + " needs a subtype index");
+		}
+		this.mode = mode;
+		this.index = index;
+	}
 
 	@Override
 	public <T> void visitCtMethod(CtMethod<T> method) {
 		if (!method.getPosition().isValidPosition()) {
 			return;
 		}
-		final CtExecutable<?> transformedMethod;
-		if (method instanceof CtLambda) {
-			// because lambdas are difficult we transform them
-			// in a method public void foo(){ List.of("a").stream().forEach($method)}
-			// we need the ref to foo() and not the ref to the lambda expression
-			transformedMethod = method.getParent(CtExecutable.class);
-		} else {
-			transformedMethod = method;
-		}
+		// lambda bodies are part of the method elements, their calls are made by the method
 		List<CtInvocation<?>> invocations = method.getElements(new TypeFilter<>(CtInvocation.class));
+		List<CtExecutableReferenceExpression<?, ?>> references = method
+				.getElements(new TypeFilter<>(CtExecutableReferenceExpression.class));
 
 		List<CtConstructorCall<?>> constructors = method.getElements(new TypeFilter<>(CtConstructorCall.class));
-		if (!invocationsOfMethod.containsKey(method) && !method.isImplicit() && !(method instanceof CtLambdaImpl)) {
+		if (!invocationsOfMethod.containsKey(method) && !method.isImplicit()) {
 			// now every method should be key
 			invocationsOfMethod.put(method, Collections.emptyList());
 		}
-		invocations.stream().filter(v -> !v.isImplicit()).map(v -> v.getExecutable().getExecutableDeclaration())
-				.filter(Objects::nonNull).filter(v -> v.getPosition().isValidPosition())
-				.forEach(v -> invocationsOfMethod.merge(v, new HashSet<>(Arrays.asList(transformedMethod)),
+		invocations.stream().filter(v -> !v.isImplicit())
+				.flatMap(v -> resolve(v.getExecutable(), v.getTarget() instanceof CtSuperAccess).stream())
+				.filter(v -> v.getPosition().isValidPosition())
+				.forEach(v -> invocationsOfMethod.merge(v, new HashSet<>(Arrays.asList(method)),
+						(o1, o2) -> Stream.concat(o1.stream(), o2.stream()).collect(Collectors.toCollection(HashSet::new))));
+		references.stream().flatMap(v -> resolve(v.getExecutable(), false).stream())
+				.filter(v -> v.getPosition().isValidPosition())
+				.forEach(v -> invocationsOfMethod.merge(v, new HashSet<>(Arrays.asList(method)),
 						(o1, o2) -> Stream.concat(o1.stream(), o2.stream()).collect(Collectors.toCollection(HashSet::new))));
 		constructors.stream().filter(v -> !v.isImplicit()).map(v -> v.getExecutable().getExecutableDeclaration())
 				.filter(Objects::nonNull)
-				.forEach(v -> invocationsOfMethod.merge(v, new HashSet<>(Arrays.asList(transformedMethod)),
+				.forEach(v -> invocationsOfMethod.merge(v, new HashSet<>(Arrays.asList(method)),
 						(o1, o2) -> Stream.concat(o1.stream(), o2.stream()).collect(Collectors.toCollection(HashSet::new))));
 		super.visitCtMethod(method);
 	}
 
+	/**
+	 * @param reference called executable.
+	 * @param superCall true for {@code super.m()}, which is never dispatched.
+	 * @return the executables the call may run, empty if none is in the model.
+	 */
+	private Collection<CtExecutable<?>> resolve(CtExecutableReference<?> reference, boolean superCall) {
+		CtExecutable<?> declaration = reference.getExecutableDeclaration();
+		CtTypeReference<?> declaringType = reference.getDeclaringType();
+		if (mode == ResolutionMode.STATIC || superCall || reference.isStatic() || reference.isConstructor()
+				|| declaringType == null || declaration instanceof CtMethod
+				&& (((CtMethod<?>) declaration).isFinal() || ((CtMethod<?>) declaration).isPrivate())) {
+			return declaration == null ? Collections.emptyList() : Collections.singletonList(declaration);
+		}
+		String typeName = declaringType.getQualifiedName();
+		Collection<CtExecutable<?>> targets = new HashSet<>();
+		if (declaration != null && (mode == ResolutionMode.CHA || index.isReachable(typeName))) {
+			targets.add(declaration);
+		}
+		// a method declared out of the model, e.g. in the JDK, can only be matched by signature
+		CtMethod<?> overridden = declaration instanceof CtMethod ? (CtMethod<?>) declaration : null;
+		String signature = reference.getSignature();
+		for (CtType<?> subtype : index.getSubtypes(typeName)) {
+			if (mode == ResolutionMode.RTA && !index.isReachable(subtype.getQualifiedName())) {
+				continue;
+			}
+			for (CtMethod<?> override : subtype.getMethodsByName(reference.getSimpleName())) {
+				if (override.getBody() != null && (overridden != null ? override.isOverriding(overridden)
+						: signature.equals(override.getSignature()))) {
+					targets.add(override);
+				}
+			}
+		}
+		return targets;
+	}
+
 	public Collection<MethodCallState> getInvocationsOfMethod() {
 		Collection<MethodCallState> transformedResult = new HashSet<>();
 		Stream.concat(invocationsOfMethod.keySet().stream(), invocationsOfField.keySet().stream()).map(MethodCallState::new)
@@ -83,7 +156,7 @@ public class MethodInvocationSearch extends CtScanner {
 	@Override
 	public <T> void visitCtField(CtField<T> field) {
 		field.getElements(new TypeFilter<>(CtInvocation.class)).stream()
-				.map(call -> call.getExecutable().getExecutableDeclaration())
+				.flatMap(call -> resolve(call.getExecutable(), false).stream())
 				.forEach(method -> invocationsOfField.merge(method, new HashSet<>(Arrays.asList(field.getDeclaringType())),
 						(o1, o2) -> Stream.concat(o1.stream(), o2.stream()).collect(Collectors.toCollection(HashSet::new))));
 		field.getElements(new TypeFilter<>(CtConstructorCall.class)).stream()
@@ -0,0 +1,321 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import spoon.MavenLauncher;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+/**
+ * Runs the call graph and N+1 analyses on many Maven modules. Modules are
+ * built concurrently by a fixed number of threads; before building, a module
+ * reserves an estimate of its model size from a memory budget and waits while
+ * the budget is used up, so at most {@code parallelism} models are built at a
+ * time and their estimates stay within the budget. Models are dropped after
+ * their analysis, only the string based results are kept and stitched
+ * together at the end.
+ */
+public class MultiModuleRunner {
+	private static final long MB = 1024 * 1024;
+
+	private final int parallelism;
+	private final int memoryBudgetMb;
+	private long heapPerSourceByte = 60;
+	private String packageFilter;
+
+	/**
+	 * @param parallelism number of modules analysed at the same time at most.
+	 * @param memoryBudgetMb heap the models being analysed may use together.
+	 * @throws IllegalArgumentException if a value is not positive.
+	 */
+	public MultiModuleRunner(int parallelism, int memoryBudgetMb) {
+		if (parallelism <= 0 || memoryBudgetMb <= 0) {
+			throw new IllegalArgumentException("parallelism " + parallelism + " and memory budget " + memoryBudgetMb
+					+ " MB must be positive");
+		}
+		this.parallelism = parallelism;
+		this.memoryBudgetMb = memoryBudgetMb;
+	}
+
+	/**
+	 * @param heapPerSourceByte estimated model heap per byte of java source, 60 by default.
+	 */
+	public void setHeapPerSourceByte(long heapPerSourceByte) {
+		this.heapPerSourceByte = heapPerSourceByte;
+	}
+
+	/**
+	 * @param packageFilter simple name of the packages to analyse, null for the whole module.
+	 */
+	public void setPackageFilter(String packageFilter) {
+		this.packageFilter = packageFilter;
+	}
+
+	/**
+	 * @param root directory containing the modules, at any depth.
+	 * @return the directories with a pom.xml and a src/main/java directory.
+	 */
+	public static List<Path> discoverModules(Path root) {
+		try (Stream<Path> walk = Files.walk(root)) {
+			return walk.filter(p -> p.getFileName().toString().equals("pom.xml"))
+					.map(Path::getParent)
+					.filter(module -> Files.isDirectory(module.resolve("src/main/java")))
+					.sorted()
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param modules module directories, see {@link #discoverModules(Path)}.
+	 * @return per module results, cross module edges and findings and the throughput.
+	 */
+	public RunReport run(List<Path> modules) {
+		long start = System.currentTimeMillis();
+		// fair, a big module waiting for its permits is not overtaken by the smaller ones forever
+		Semaphore budget = new Semaphore(memoryBudgetMb, true);
+		Map<Path, Long> sizes = new HashMap<>();
+		modules.forEach(m -> sizes.put(m, sourceBytes(m)));
+		// biggest first, so that a big module does not start last and stretch the run
+		List<Path> ordered = new ArrayList<>(modules);
+		ordered.sort(Comparator.comparing(sizes::get).reversed());
+
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		List<Future<ModuleResult>> tasks = new ArrayList<>();
+		try {
+			for (Path module : ordered) {
+				int permits = (int) Math.max(1, Math.min(memoryBudgetMb, sizes.get(module) * heapPerSourceByte / MB));
+				tasks.add(pool.submit(() -> {
+					budget.acquire(permits);
+					try {
+						return analyse(module);
+					} finally {
+						budget.release(permits);
+					}
+				}));
+			}
+			List<ModuleResult> results = new ArrayList<>();
+			for (Future<ModuleResult> task : tasks) {
+				results.add(task.get());
+			}
+			return stitch(results, System.currentTimeMillis() - start);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while analysing the modules", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Cannot analyse a module", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private ModuleResult analyse(Path module) {
+		long start = System.currentTimeMillis();
+		try {
+			MavenLauncher launcher = new MavenLauncher(module.toString(), MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+			AnalysisBuildProfile profile = new AnalysisBuildProfile();
+			profile.configure(launcher);
+			CtModel model = launcher.buildModel();
+			profile.compact(model);
+
+			List<CtElement> roots = new ArrayList<>();
+			if (packageFilter == null) {
+				roots.add(model.getRootPackage());
+			} else {
+				roots.addAll(model.getElements(new NamedElementFilter<>(CtPackage.class, packageFilter)));
+			}
+			CallGraphSummary graph = new CallGraphSummary();
+			QueryInLoopDetector detector = new QueryInLoopDetector();
+			Set<String> querying = new HashSet<>();
+			for (CtElement root : roots) {
+				graph.scan(root);
+				querying.addAll(detector.findQueryingExecutables(root));
+			}
+			Set<String> reaching = graph.callersOf(querying);
+			List<Finding> findings = new ArrayList<>();
+			List<Finding> loopCalls = new ArrayList<>();
+			for (CtElement root : roots) {
+				findings.addAll(detector.detect(root, reaching));
+				loopCalls.addAll(detector.loopCalls(root));
+			}
+			return new ModuleResult(module, graph, querying, findings, loopCalls,
+					System.currentTimeMillis() - start, null);
+		} catch (RuntimeException e) {
+			return new ModuleResult(module, new CallGraphSummary(), Collections.emptySet(), Collections.emptyList(),
+					Collections.emptyList(), System.currentTimeMillis() - start, e.toString());
+		}
+	}
+
+	private RunReport stitch(List<ModuleResult> results, long elapsedMillis) {
+		Map<String, ModuleResult> owners = new HashMap<>();
+		CallGraphSummary whole = new CallGraphSummary();
+		Set<String> querying = new HashSet<>();
+		for (ModuleResult result : results) {
+			result.graph.getDeclared().forEach(key -> owners.putIfAbsent(key, result));
+			whole.merge(result.graph);
+			querying.addAll(result.querying);
+		}
+		Set<String> reaching = whole.callersOf(querying);
+
+		List<String> crossEdges = new ArrayList<>();
+		for (ModuleResult result : results) {
+			result.graph.getEdges().forEach((caller, calls) -> calls.stream()
+					.filter(callee -> owners.containsKey(callee) && owners.get(callee) != result)
+					.forEach(callee -> crossEdges.add(caller + " -> " + callee)));
+		}
+		// loop calls only become N+1 findings when the querying callee is in another module
+		List<Finding> crossFindings = new ArrayList<>();
+		for (ModuleResult result : results) {
+			for (Finding call : result.loopCalls) {
+				ModuleResult owner = owners.get(call.getTarget());
+				if (owner != null && owner != result && reaching.contains(call.getTarget())) {
+					crossFindings.add(call);
+				}
+			}
+		}
+		return new RunReport(results, whole, crossEdges, crossFindings, elapsedMillis);
+	}
+
+	private static long sourceBytes(Path module) {
+		try (Stream<Path> walk = Files.walk(module.resolve("src/main/java"))) {
+			return walk.filter(p -> p.toString().endsWith(".java")).mapToLong(p -> p.toFile().length()).sum();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Analysis results of one module.
+	 */
+	public static class ModuleResult {
+		private final Path module;
+		private final CallGraphSummary graph;
+		private final Set<String> querying;
+		private final List<Finding> findings;
+		private final List<Finding> loopCalls;
+		private final long elapsedMillis;
+		private final String error;
+
+		ModuleResult(Path module, CallGraphSummary graph, Set<String> querying, List<Finding> findings,
+				List<Finding> loopCalls, long elapsedMillis, String error) {
+			this.module = module;
+			this.graph = graph;
+			this.querying = querying;
+			this.findings = findings;
+			this.loopCalls = loopCalls;
+			this.elapsedMillis = elapsedMillis;
+			this.error = error;
+		}
+
+		public Path getModule() {
+			return module;
+		}
+
+		public CallGraphSummary getGraph() {
+			return graph;
+		}
+
+		/**
+		 * @return N+1 findings inside the module.
+		 */
+		public List<Finding> getFindings() {
+			return findings;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return the failure of the build or analysis, null if the module was analysed.
+		 */
+		public String getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Results of a whole run.
+	 */
+	public static class RunReport {
+		private final List<ModuleResult> modules;
+		private final CallGraphSummary graph;
+		private final List<String> crossModuleEdges;
+		private final List<Finding> crossModuleFindings;
+		private final long elapsedMillis;
+
+		RunReport(List<ModuleResult> modules, CallGraphSummary graph, List<String> crossModuleEdges,
+				List<Finding> crossModuleFindings, long elapsedMillis) {
+			this.modules = modules;
+			this.graph = graph;
+			this.crossModuleEdges = crossModuleEdges;
+			this.crossModuleFindings = crossModuleFindings;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public List<ModuleResult> getModules() {
+			return modules;
+		}
+
+		/**
+		 * @return call graph of all modules merged.
+		 */
+		public CallGraphSummary getGraph() {
+			return graph;
+		}
+
+		/**
+		 * @return "caller -> callee" for each call from one module to another.
+		 */
+		public List<String> getCrossModuleEdges() {
+			return crossModuleEdges;
+		}
+
+		/**
+		 * @return calls in loops to querying executables of another module.
+		 */
+		public List<Finding> getCrossModuleFindings() {
+			return crossModuleFindings;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return analysed executables, summed over the modules.
+		 */
+		public int getMethodCount() {
+			return modules.stream().mapToInt(m -> m.graph.getDeclared().size()).sum();
+		}
+
+		public double getModulesPerMinute() {
+			return modules.size() * 60000.0 / Math.max(1, elapsedMillis);
+		}
+
+		public double getMethodsPerSecond() {
+			return getMethodCount() * 1000.0 / Math.max(1, elapsedMillis);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+
+/*
+    여러 maven 모듈 병렬 분석
+        (1) modules.root 아래 pom.xml + src/main/java 있는 디렉터리 = 모듈
+        (2) 모듈마다 call graph, N+1 (loop 안 query) 분석
+        (3) 모듈 간 호출 edge 연결, 처리량 출력 (modules/min, methods/s)
+    옵션 : -Dmodules.root=... -Dmodules.threads=8 -Dmodules.budgetMb=4096 -Dmodules.package=jg
+*/
+
+
+public class MultiModuleRunnerTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        Path root = Paths.get(System.getProperty("modules.root", "./src/test/resources/"));
+        int threads = Integer.getInteger("modules.threads", Runtime.getRuntime().availableProcessors());
+        int budgetMb = Integer.getInteger("modules.budgetMb", (int) (Runtime.getRuntime().maxMemory() >> 20) * 3 / 4);
+
+        List<Path> modules = MultiModuleRunner.discoverModules(root);
+        MultiModuleRunner runner = new MultiModuleRunner(threads, budgetMb);
+        runner.setPackageFilter(System.getProperty("modules.package"));
+        MultiModuleRunner.RunReport report = runner.run(modules);
+
+        for (MultiModuleRunner.ModuleResult module : report.getModules()) {
+            System.out.println("@ " + module.getModule() + " (" + module.getElapsedMillis() + " ms)"
+                    + (module.getError() == null ? "" : " FAILED: " + module.getError()));
+            module.getFindings().forEach(f -> System.out.println("\t" + f));
+        }
+        System.out.println("@ cross module edges: " + report.getCrossModuleEdges().size());
+        report.getCrossModuleEdges().forEach(e -> System.out.println("\t" + e));
+        System.out.println("@ cross module N+1:");
+        report.getCrossModuleFindings().forEach(f -> System.out.println("\t" + f));
+
+        System.out.println(String.format("%d modules, %d methods in %d ms: %.1f modules/min, %.1f methods/s",
+                report.getModules().size(), report.getMethodCount(), report.getElapsedMillis(),
+                report.getModulesPerMinute(), report.getMethodsPerSecond()));
+    }
+}
@@ -0,0 +1,410 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtAssignment;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtCase;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtLoop;
+import spoon.reflect.code.CtReturn;
+import spoon.reflect.code.CtStatement;
+import spoon.reflect.code.CtSwitch;
+import spoon.reflect.code.CtTry;
+import spoon.reflect.code.CtTryWithResource;
+import spoon.reflect.code.CtVariableAccess;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.declaration.CtConstructor;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Counts the {@code ResultSet} and {@code Statement} objects open at once
+ * along the paths of each method, following the calls into the methods of
+ * the model. A call returning one of them opens it, {@code close()} on its
+ * variable closes it, closing a statement closes the result sets it
+ * executed, a returned resource is open in the caller. Branches keep the
+ * worst path, except a close guarded by a null check, which always counts.
+ * Exceptional paths (catch blocks) are not followed.
+ *
+ * <p>Each method gets a summary: its peak of open resources above the
+ * count at its call and the resources it leaves open on exit. A loop whose
+ * iteration leaves resources open, directly or through the methods it
+ * calls, grows without bound with its number of rows: it is reported with
+ * the growth per iteration and the resources already held by the
+ * enclosing code, like an outer cursor. Peaks count
+ * {@link #setLoopCardinality(int)} iterations for such loops.
+ */
+public class OpenCursorAnalysis {
+	/** Open cursors and statements growing with each iteration of a loop. */
+	public static final String KIND = "open-cursor-growth";
+
+	private int loopCardinality = 100;
+	private final Map<String, Summary> summaries = new HashMap<>();
+	private final Set<String> visiting = new HashSet<>();
+	private final List<Finding> findings = new ArrayList<>();
+
+	/**
+	 * @param loopCardinality iterations assumed for the peaks of growing loops, 100 by default.
+	 */
+	public void setLoopCardinality(int loopCardinality) {
+		this.loopCardinality = loopCardinality;
+	}
+
+	/**
+	 * @param root element whose methods and constructors are analysed.
+	 * @return the summaries by executable key, {@link #getFindings()} holds the growing loops.
+	 */
+	public Map<String, Summary> analyse(CtElement root) {
+		Map<String, Summary> result = new LinkedHashMap<>();
+		for (CtExecutable<?> executable : root.getElements(new TypeFilter<>(CtExecutable.class))) {
+			if ((executable instanceof CtMethod || executable instanceof CtConstructor) && executable.getBody() != null) {
+				result.put(CallGraphSummary.key(executable), summary(executable));
+			}
+		}
+		return result;
+	}
+
+	public List<Finding> getFindings() {
+		return findings;
+	}
+
+	private Summary summary(CtExecutable<?> executable) {
+		String key = CallGraphSummary.key(executable);
+		Summary summary = summaries.get(key);
+		if (summary != null) {
+			return summary;
+		}
+		if (!visiting.add(key) || executable.getBody() == null) {
+			// recursion counted once
+			return new Summary();
+		}
+		State state = new State();
+		scan(executable.getBody(), state);
+		summary = new Summary();
+		summary.peak = state.peak;
+		summary.leaked = state.size();
+		summary.growing.addAll(state.growing);
+		visiting.remove(key);
+		summaries.put(key, summary);
+		return summary;
+	}
+
+	private void scan(CtStatement statement, State state) {
+		if (statement == null) {
+			return;
+		}
+		if (statement instanceof CtBlock) {
+			for (CtStatement child : ((CtBlock<?>) statement).getStatements()) {
+				scan(child, state);
+			}
+		} else if (statement instanceof CtIf) {
+			CtIf branch = (CtIf) statement;
+			expressions(branch.getCondition(), state);
+			if (isNullCheck(branch.getCondition()) && branch.getElseStatement() == null) {
+				// if (rs != null) rs.close();
+				scan(branch.getThenStatement(), state);
+			} else {
+				State otherwise = state.copy();
+				scan(branch.getThenStatement(), state);
+				scan(branch.getElseStatement(), otherwise);
+				state.join(otherwise);
+			}
+		} else if (statement instanceof CtSwitch) {
+			CtSwitch<?> choice = (CtSwitch<?>) statement;
+			expressions(choice.getSelector(), state);
+			State entry = state.copy();
+			for (CtCase<?> branch : choice.getCases()) {
+				State path = entry.copy();
+				branch.getStatements().forEach(s -> scan(s, path));
+				state.join(path);
+			}
+		} else if (statement instanceof CtLoop) {
+			loop((CtLoop) statement, state);
+		} else if (statement instanceof CtTry) {
+			CtTry attempt = (CtTry) statement;
+			Set<Resource> declared = new HashSet<>();
+			if (attempt instanceof CtTryWithResource) {
+				for (CtLocalVariable<?> resource : ((CtTryWithResource) attempt).getResources()) {
+					scan(resource, state);
+					Resource open = state.bound.get(resource.getSimpleName());
+					if (open != null) {
+						declared.add(open);
+					}
+				}
+			}
+			scan(attempt.getBody(), state);
+			declared.forEach(state::close);
+			scan(attempt.getFinalizer(), state);
+		} else if (statement instanceof CtReturn) {
+			CtExpression<?> returned = ((CtReturn<?>) statement).getReturnedExpression();
+			if (returned instanceof CtVariableRead) {
+				Resource open = state.bound.get(((CtVariableRead<?>) returned).getVariable().getSimpleName());
+				if (open != null) {
+					// open in the caller
+					state.release(open);
+				}
+			}
+			if (returned != null && !(returned instanceof CtInvocation && isAcquisition((CtInvocation<?>) returned))) {
+				expressions(returned, state);
+			} else if (returned != null) {
+				((CtInvocation<?>) returned).getArguments().forEach(a -> expressions(a, state));
+			}
+		} else {
+			expressions(statement, state);
+			bind(statement, state);
+		}
+	}
+
+	private void loop(CtLoop loop, State state) {
+		State iteration = state.copy();
+		iteration.growing.clear();
+		int before = state.size();
+		loop.getElements(new TypeFilter<>(CtExpression.class)).stream()
+				.filter(e -> e.getParent() == loop).forEach(e -> expressions(e, iteration));
+		scan(loop.getBody(), iteration);
+		// locals of the body are out of scope at the end of the iteration
+		for (String name : new ArrayList<>(iteration.bound.keySet())) {
+			if (!state.bound.containsKey(name)) {
+				iteration.unbind(name);
+			}
+		}
+		int growth = iteration.size() - before;
+		state.peak = Math.max(state.peak, iteration.peak);
+		state.growing.addAll(iteration.growing);
+		if (growth > 0) {
+			state.growing.add(Finding.location(loop));
+			List<String> sites = new ArrayList<>();
+			iteration.anonymous.stream().filter(r -> !state.anonymous.contains(r)).forEach(r -> sites.add(r.site));
+			findings.add(Finding.at(KIND, loop, null, "+" + growth + " open per iteration, " + before
+					+ " already open (outer cursors, statements), opened at " + sites));
+			state.peak = Math.max(state.peak, before + growth * loopCardinality);
+			// counted once more for the code after the loop
+			iteration.anonymous.stream().filter(r -> !state.anonymous.contains(r)).forEach(state.anonymous::add);
+			state.update();
+		}
+	}
+
+	/**
+	 * Opens, closes and calls in the element, in source order.
+	 */
+	private void expressions(CtElement element, State state) {
+		if (element == null) {
+			return;
+		}
+		for (CtInvocation<?> invocation : element.getElements(new TypeFilter<>(CtInvocation.class))) {
+			String name = invocation.getExecutable().getSimpleName();
+			CtExecutable<?> callee = invocation.getExecutable().getExecutableDeclaration();
+			if ("close".equals(name) && invocation.getTarget() instanceof CtVariableRead) {
+				Resource open = state.bound.get(((CtVariableRead<?>) invocation.getTarget()).getVariable().getSimpleName());
+				if (open != null) {
+					state.close(open);
+				}
+			} else if (callee != null && callee.getBody() != null) {
+				Summary summary = summary(callee);
+				state.peak = Math.max(state.peak, state.size() + summary.peak);
+				for (int i = 0; i < summary.leaked; i++) {
+					state.open(new Resource("leaked by " + callee.getSimpleName() + " at " + Finding.location(invocation), null));
+				}
+				state.growing.addAll(summary.growing);
+			}
+			if (isAcquisition(invocation)) {
+				Resource parent = null;
+				if (invocation.getTarget() instanceof CtVariableRead) {
+					parent = state.bound.get(((CtVariableRead<?>) invocation.getTarget()).getVariable().getSimpleName());
+				}
+				Resource resource = new Resource(name + " at " + Finding.location(invocation), parent);
+				state.open(resource);
+				state.pending.put(invocation, resource);
+			}
+		}
+	}
+
+	/**
+	 * Binds the resource opened by {@code x = open()} or {@code T x = open()} to x.
+	 */
+	private static void bind(CtStatement statement, State state) {
+		CtExpression<?> value = null;
+		String variable = null;
+		if (statement instanceof CtLocalVariable) {
+			value = ((CtLocalVariable<?>) statement).getDefaultExpression();
+			variable = ((CtLocalVariable<?>) statement).getSimpleName();
+		} else if (statement instanceof CtAssignment && ((CtAssignment<?, ?>) statement).getAssigned() instanceof CtVariableWrite) {
+			value = ((CtAssignment<?, ?>) statement).getAssignment();
+			variable = ((CtVariableAccess<?>) ((CtAssignment<?, ?>) statement).getAssigned()).getVariable().getSimpleName();
+		}
+		if (variable == null) {
+			state.pending.clear();
+			return;
+		}
+		// the previous resource of the variable stays open, unreachable
+		state.unbind(variable);
+		Resource resource = state.pending.get(value);
+		if (resource != null) {
+			state.bound.put(variable, resource);
+			state.anonymous.remove(resource);
+		}
+		state.pending.clear();
+	}
+
+	/**
+	 * @return true for calls creating a statement or returning a result set or statement.
+	 */
+	static boolean isAcquisition(CtInvocation<?> invocation) {
+		String name = invocation.getExecutable().getSimpleName();
+		if (JdbcPatterns.isStatementCreation(invocation) || "executeQuery".equals(name)) {
+			return true;
+		}
+		if ("getStatement".equals(name) || "getResultSet".equals(name) || "close".equals(name)) {
+			return false;
+		}
+		if (ResourceLeakDetector.isResource(invocation.getType())) {
+			return true;
+		}
+		// unresolved calls, e.g. inherited doQuery, typed by the local they initialize
+		return invocation.getParent() instanceof CtLocalVariable
+				&& ((CtLocalVariable<?>) invocation.getParent()).getDefaultExpression() == invocation
+				&& ResourceLeakDetector.isResource(((CtLocalVariable<?>) invocation.getParent()).getType());
+	}
+
+	private static boolean isNullCheck(CtExpression<?> condition) {
+		if (!(condition instanceof CtBinaryOperator) || ((CtBinaryOperator<?>) condition).getKind() != BinaryOperatorKind.NE) {
+			return false;
+		}
+		CtBinaryOperator<?> check = (CtBinaryOperator<?>) condition;
+		return check.getRightHandOperand() instanceof CtLiteral && ((CtLiteral<?>) check.getRightHandOperand()).getValue() == null
+				|| check.getLeftHandOperand() instanceof CtLiteral && ((CtLiteral<?>) check.getLeftHandOperand()).getValue() == null;
+	}
+
+	private static class Resource {
+		private final String site;
+		private final Resource parent;
+
+		Resource(String site, Resource parent) {
+			this.site = site;
+			this.parent = parent;
+		}
+	}
+
+	/**
+	 * Open resources along one path.
+	 */
+	private static class State {
+		private final Map<String, Resource> bound = new HashMap<>();
+		private final List<Resource> anonymous = new ArrayList<>();
+		private final Map<CtInvocation<?>, Resource> pending = new IdentityHashMap<>();
+		private final Set<String> growing = new HashSet<>();
+		private int peak;
+
+		State copy() {
+			State copy = new State();
+			copy.bound.putAll(bound);
+			copy.anonymous.addAll(anonymous);
+			copy.growing.addAll(growing);
+			copy.peak = peak;
+			return copy;
+		}
+
+		/**
+		 * Keeps the worst of both paths.
+		 */
+		void join(State other) {
+			other.bound.forEach((variable, resource) -> {
+				Resource mine = bound.putIfAbsent(variable, resource);
+				if (mine != null && mine != resource && !anonymous.contains(resource)) {
+					anonymous.add(resource);
+				}
+			});
+			other.anonymous.stream().filter(r -> !anonymous.contains(r) && !bound.containsValue(r)).forEach(anonymous::add);
+			growing.addAll(other.growing);
+			peak = Math.max(peak, other.peak);
+		}
+
+		int size() {
+			return bound.size() + anonymous.size();
+		}
+
+		void update() {
+			peak = Math.max(peak, size());
+		}
+
+		void open(Resource resource) {
+			anonymous.add(resource);
+			update();
+		}
+
+		void close(Resource resource) {
+			release(resource);
+			// closing a statement closes its result sets
+			bound.values().removeIf(r -> r.parent == resource);
+			anonymous.removeIf(r -> r.parent == resource);
+		}
+
+		void release(Resource resource) {
+			bound.values().remove(resource);
+			anonymous.remove(resource);
+		}
+
+		/**
+		 * The resource of the variable, if any, stays open without a variable.
+		 */
+		void unbind(String variable) {
+			Resource resource = bound.remove(variable);
+			if (resource != null) {
+				anonymous.add(resource);
+			}
+		}
+	}
+
+	/**
+	 * Open resources of one call of an executable.
+	 */
+	public static class Summary {
+		private int peak;
+		private int leaked;
+		private final Set<String> growing = new HashSet<>();
+
+		/**
+		 * @return most resources open at once during a call, above those open at the call.
+		 */
+		public int getPeak() {
+			return peak;
+		}
+
+		/**
+		 * @return resources left open by each call, not returned.
+		 */
+		public int getLeaked() {
+			return leaked;
+		}
+
+		/**
+		 * @return locations of the loops growing during a call, in the executable or the ones it calls.
+		 */
+		public Set<String> getGrowing() {
+			return growing;
+		}
+
+		@Override
+		public String toString() {
+			return "peak " + peak + (growing.isEmpty() ? "" : " (unbounded)") + ", leaked per call " + leaked
+					+ (growing.isEmpty() ? "" : ", growing loops " + growing);
+		}
+	}
+}
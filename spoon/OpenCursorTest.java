@@ -0,0 +1,93 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import spoon.Launcher;
+import spoon.MavenLauncher;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+
+/*
+    동시에 열려 있는 ResultSet / Statement 수 분석 (OpenCursorAnalysis)
+        (1) method 마다 경로별 최대 동시 open 수, 호출 한 번에 안 닫고 남기는 수 (호출하는 method 까지 따라감)
+        (2) 한 바퀴마다 open 이 늘어나는 loop 출력 (바깥 cursor 열린 채로 안쪽 ResultSet 안 닫는 경우 등)
+        (3) 재현 : JdbcStandIn 가짜 connection 으로 processAppliedData 모양 실행, 실제 최대 open 수 (안 닫을 때 vs 닫을 때)
+    옵션 : -Dcursor.corpus=../modeling (maven 프로젝트 아닌 소스 디렉터리 분석, 패키지 필터 없음)
+          -Dcursor.loop=100 -Dcursor.rows=1000
+*/
+
+
+public class OpenCursorTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() throws SQLException {
+        String corpus = System.getProperty("cursor.corpus");
+        Launcher launcher;
+        if (corpus == null) {
+            launcher = new MavenLauncher(
+                    "./src/test/resources/project/",
+                    MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        } else {
+            launcher = new Launcher();
+            launcher.addInputResource(corpus);
+            launcher.getEnvironment().setNoClasspath(true);
+        }
+        CtModel model = launcher.buildModel();
+
+        OpenCursorAnalysis analysis = new OpenCursorAnalysis();
+        analysis.setLoopCardinality(Integer.getInteger("cursor.loop", 100));
+        Iterable<? extends CtElement> roots = corpus == null
+                ? model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))
+                : model.getAllModules();
+        System.out.println("@ open at once per call:");
+        for (CtElement root : roots) {
+            for (Map.Entry<String, OpenCursorAnalysis.Summary> summary : analysis.analyse(root).entrySet()) {
+                if (summary.getValue().getPeak() > 1 || summary.getValue().getLeaked() > 0) {
+                    System.out.println("\t" + summary.getValue() + "\t" + summary.getKey());
+                }
+            }
+        }
+        System.out.println("@ growing loops:");
+        analysis.getFindings().forEach(f -> System.out.println("\t" + f));
+
+        int rows = Integer.getInteger("cursor.rows", 1000);
+        JdbcStandIn.Tracker leaking = new JdbcStandIn.Tracker();
+        processAppliedData(JdbcStandIn.connection(rows, 1, leaking), false);
+        JdbcStandIn.Tracker closing = new JdbcStandIn.Tracker();
+        processAppliedData(JdbcStandIn.connection(rows, 1, closing), true);
+        System.out.println(String.format("reproducer, %d rows: peak open %d, left open %d; closing the inner cursor: peak open %d, left open %d",
+                rows, leaking.getPeak(), leaking.getOpen(), closing.getPeak(), closing.getOpen()));
+    }
+
+    /**
+     * Shape of ModEncodeMetaDataProcessor.processAppliedData: outer cursor, one official name query per row.
+     */
+    private static void processAppliedData(Connection connection, boolean closeInner) throws SQLException {
+        Statement outer = connection.createStatement();
+        ResultSet res = outer.executeQuery("SELECT d.data_id FROM data d");
+        while (res.next()) {
+            int dataId = res.getInt(1);
+            // getOfficialName: doQuery on a new statement
+            Statement stmt = connection.createStatement();
+            ResultSet oName = stmt.executeQuery("SELECT a.value from attribute a, data_attribute da"
+                    + " where a.attribute_id=da.attribute_id and da.data_id=" + dataId);
+            String officialName = null;
+            while (oName.next()) {
+                officialName = oName.getString(1);
+            }
+            if (closeInner) {
+                stmt.close();
+            }
+        }
+        res.close();
+        outer.close();
+    }
+}
@@ -0,0 +1,85 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * N+1 detection: statements executed once per loop iteration, either
+ * directly or through a call to an executable that (transitively) executes a
+ * statement.
+ */
+public class QueryInLoopDetector {
+	/** Statement executed in a loop. */
+	public static final String KIND = "query-in-loop";
+	/** Call in a loop to an executable executing statements. */
+	public static final String CALL_KIND = "querying-call-in-loop";
+
+	/**
+	 * @param root element to search, e.g. the root package of a model.
+	 * @return keys of the executables containing a query execution.
+	 */
+	public Set<String> findQueryingExecutables(CtElement root) {
+		Set<String> querying = new HashSet<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(invocation);
+			if (executable != null && JdbcPatterns.isQueryExecution(invocation)) {
+				querying.add(CallGraphSummary.key(executable));
+			}
+		}
+		return querying;
+	}
+
+	/**
+	 * @param root element to search.
+	 * @param queryingExecutables keys of executables executing statements, see
+	 *        {@link CallGraphSummary#callersOf(Set)} to include indirect ones.
+	 * @return one finding per statement execution or querying call in a loop.
+	 */
+	public List<Finding> detect(CtElement root, Set<String> queryingExecutables) {
+		List<Finding> findings = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (invocation.isImplicit() || JdbcPatterns.enclosingLoop(invocation) == null) {
+				continue;
+			}
+			if (JdbcPatterns.isQueryExecution(invocation)) {
+				String sql = JdbcPatterns.sqlArgument(invocation);
+				findings.add(Finding.at(KIND, invocation, null, invocation.getExecutable().getSimpleName()
+						+ " once per iteration" + (sql == null ? "" : ": " + sql)));
+			} else {
+				String callee = CallGraphSummary.key(invocation.getExecutable());
+				if (queryingExecutables.contains(callee)) {
+					findings.add(Finding.at(CALL_KIND, invocation, callee, "calls " + callee
+							+ " once per iteration, it executes statements"));
+				}
+			}
+		}
+		return findings;
+	}
+
+	/**
+	 * Calls in loops to any executable, kept to find querying calls to other
+	 * modules once all modules are analysed.
+	 *
+	 * @param root element to search.
+	 * @return one finding per call in a loop, the target is the callee key.
+	 */
+	public List<Finding> loopCalls(CtElement root) {
+		List<Finding> calls = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (!invocation.isImplicit() && !JdbcPatterns.isQueryExecution(invocation)
+					&& JdbcPatterns.enclosingLoop(invocation) != null) {
+				String callee = CallGraphSummary.key(invocation.getExecutable());
+				calls.add(Finding.at(CALL_KIND, invocation, callee, "calls " + callee
+						+ " once per iteration, it executes statements"));
+			}
+		}
+		return calls;
+	}
+}
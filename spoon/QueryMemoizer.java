@@ -0,0 +1,170 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread safe cache of lookup results, generated around read only
+ * single row queries by {@link MemoizableLookupDetector}. Entries are keyed
+ * by the bind parameters of the query, evicted least recently used first
+ * when the cache is full and reloaded after their time to live. Null results
+ * are cached too. Loads run outside of the lock, two threads missing the same
+ * key at the same time both query the database.
+ *
+ * <p>This class is copied with the rewritten sources, it only depends on the JDK.
+ */
+public class QueryMemoizer {
+	private static final List<QueryMemoizer> REGISTERED = new CopyOnWriteArrayList<>();
+
+	private final String name;
+	private final int maxSize;
+	private final long ttlMillis;
+	private final Map<List<Object>, Entry> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Loads a value on a miss, usually a lambda running the original query.
+	 *
+	 * @param <V> type of the value.
+	 * @param <E> exception thrown by the query.
+	 */
+	public interface Loader<V, E extends Exception> {
+		V load() throws E;
+	}
+
+	/**
+	 * @param name shown in {@link #toString()}, e.g. the memoized method.
+	 * @param maxSize maximum number of entries.
+	 * @param ttlMillis time an entry stays valid, 0 or less for no expiry.
+	 */
+	public QueryMemoizer(String name, int maxSize, long ttlMillis) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+				boolean full = size() > QueryMemoizer.this.maxSize;
+				if (full) {
+					evictions.incrementAndGet();
+				}
+				return full;
+			}
+		};
+		REGISTERED.add(this);
+	}
+
+	/**
+	 * @param loader runs the query on a miss.
+	 * @param key bind parameters of the query.
+	 * @param <V> type of the value, each memoizer is used for one query.
+	 * @param <E> exception thrown by the query.
+	 * @return the cached value, or the loaded one.
+	 * @throws E if the query fails, failures are not cached.
+	 */
+	@SuppressWarnings("unchecked")
+	public <V, E extends Exception> V get(Loader<V, E> loader, Object... key) throws E {
+		List<Object> entryKey = Arrays.asList(key);
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			Entry entry = entries.get(entryKey);
+			if (entry != null && (ttlMillis <= 0 || now - entry.loaded < ttlMillis)) {
+				hits.incrementAndGet();
+				return (V) entry.value;
+			}
+		}
+		misses.incrementAndGet();
+		V value = loader.load();
+		synchronized (entries) {
+			entries.put(entryKey, new Entry(value, now));
+		}
+		return value;
+	}
+
+	/**
+	 * Drops expired entries, they are otherwise only replaced when requested again.
+	 */
+	public void purge() {
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+				if (ttlMillis > 0 && now - it.next().loaded >= ttlMillis) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return lookups answered from the cache, each one a saved round trip.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return lookups sent to the database.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRatio() {
+		long total = hits.get() + misses.get();
+		return total == 0 ? 0 : (double) hits.get() / total;
+	}
+
+	/**
+	 * @return all memoizers created so far, to report their counters.
+	 */
+	public static List<QueryMemoizer> registered() {
+		return Collections.unmodifiableList(new ArrayList<>(REGISTERED));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d hits, %d misses (%.1f%% saved), %d evictions, %d/%d entries",
+				name, getHits(), getMisses(), getHitRatio() * 100, getEvictions(), size(), maxSize);
+	}
+
+	private static class Entry {
+		final Object value;
+		final long loaded;
+
+		Entry(Object value, long loaded) {
+			this.value = value;
+			this.loaded = loaded;
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtAbstractInvocation;
+import spoon.reflect.code.CtAssignment;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtCase;
+import spoon.reflect.code.CtCatch;
+import spoon.reflect.code.CtConditional;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFieldAccess;
+import spoon.reflect.code.CtFieldRead;
+import spoon.reflect.code.CtFieldWrite;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtLoop;
+import spoon.reflect.code.CtStatement;
+import spoon.reflect.code.CtUnaryOperator;
+import spoon.reflect.code.CtVariableAccess;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.code.UnaryOperatorKind;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtVariableReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds pure lookups repeated with identical arguments in the same block,
+ * loop iteration included: {@code get}/{@code containsKey}/{@code contains}
+ * on maps and sets, and calls to read through cache methods (a method that
+ * gets its parameter from a field map and puts it there on a miss, like
+ * {@code getCvterm}). A repetition is redundant if nothing in between writes
+ * a variable of the lookup or mutates the map (mutating calls on it, passing
+ * it to a call, calling a method of the model mutating that field).
+ *
+ * <p>Redundant lookups are replaced by a local initialized with the first one,
+ * declared in the outermost block where this is valid. Lookups are only
+ * hoisted if the first one runs unconditionally in that block, so no lookup
+ * runs before its guard and no query runs that did not before. Lookups whose
+ * target or arguments contain calls or assignments are never shared, the same
+ * source text may give different keys ({@code m.get(it.next())}).
+ * {@code if (m.containsKey(k)) m.remove(k);}
+ * directly followed by {@code m.put(k, v)} is removed, the put replaces the
+ * entry anyway. The report counts the lookups saved per loop iteration.
+ */
+public class RedundantLookupDetector {
+	/** Lookup repeated with identical arguments. */
+	public static final String KIND = "redundant-lookup";
+	private static final Set<String> COLLECTION_LOOKUPS = new HashSet<>(Arrays.asList(
+			"get", "containsKey", "getOrDefault", "contains", "containsValue"));
+	private static final Set<String> MUTATORS = new HashSet<>(Arrays.asList(
+			"put", "remove", "clear", "putAll", "add", "addAll", "removeAll", "removeIf", "retainAll", "compute",
+			"computeIfAbsent", "computeIfPresent", "merge", "replace", "replaceAll", "set", "putIfAbsent"));
+
+	private final Set<String> pureMethods = new HashSet<>();
+
+	/**
+	 * @param simpleName method without side effects whose calls may be shared, e.g. a cache getter.
+	 */
+	public void addPureMethod(String simpleName) {
+		pureMethods.add(simpleName);
+	}
+
+	/**
+	 * @param root element to search.
+	 * @return the redundant lookups, not rewritten.
+	 */
+	public Report detect(CtElement root) {
+		return analyse(root, false);
+	}
+
+	/**
+	 * @param root element to search and rewrite.
+	 * @return the rewritten lookups.
+	 */
+	public Report rewrite(CtElement root) {
+		return analyse(root, true);
+	}
+
+	private Report analyse(CtElement root, boolean rewrite) {
+		Report report = new Report();
+		Map<CtExecutable<?>, Set<String>> mutations = new HashMap<>();
+		// blocks come outermost first, inner blocks must not report the same lookups again
+		Set<CtInvocation<?>> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (CtIf check : root.getElements(new TypeFilter<>(CtIf.class))) {
+			CtStatement put = redundantContainsRemove(check);
+			if (put != null) {
+				report.add(Finding.at(KIND, check, null, "containsKey and remove before put, put replaces the entry"), check, 2);
+				if (rewrite) {
+					check.delete();
+				}
+			}
+		}
+		for (CtBlock<?> block : root.getElements(new TypeFilter<>(CtBlock.class))) {
+			if (!block.isParentInitialized() || block.getParent(CtExecutable.class) == null) {
+				continue;
+			}
+			Map<String, List<CtInvocation<?>>> groups = new LinkedHashMap<>();
+			for (CtInvocation<?> invocation : block.getElements(new TypeFilter<>(CtInvocation.class))) {
+				if (!shared.contains(invocation) && isLookup(invocation)) {
+					groups.computeIfAbsent(lookupKey(invocation), k -> new ArrayList<>()).add(invocation);
+				}
+			}
+			for (List<CtInvocation<?>> group : groups.values()) {
+				if (group.size() < 2 || !isShareable(block, group, mutations)) {
+					continue;
+				}
+				shared.addAll(group);
+				CtInvocation<?> first = group.get(0);
+				report.add(Finding.at(KIND, first, null, first + " evaluated " + group.size() + " times, "
+						+ (group.size() - 1) + " saved"), block, group.size() - 1);
+				if (rewrite) {
+					share(block, group);
+				}
+			}
+		}
+		return report;
+	}
+
+	private boolean isLookup(CtInvocation<?> invocation) {
+		String name = invocation.getExecutable().getSimpleName();
+		if (COLLECTION_LOOKUPS.contains(name) && invocation.getTarget() != null) {
+			String type = invocation.getTarget().getType() == null ? invocation.getTarget().toString()
+					: invocation.getTarget().getType().getSimpleName();
+			return type.endsWith("Map") || type.endsWith("Set") || type.endsWith("List") || type.endsWith("Collection")
+					|| type.endsWith("Cache");
+		}
+		if (pureMethods.contains(name)) {
+			return true;
+		}
+		CtExecutable<?> declaration = invocation.getExecutable().getExecutableDeclaration();
+		return declaration instanceof CtMethod && isReadThroughCache((CtMethod<?>) declaration);
+	}
+
+	/**
+	 * @return true for {@code v = field.get(p); ... field.put(p, ...)} with p a parameter.
+	 */
+	private static boolean isReadThroughCache(CtMethod<?> method) {
+		Set<String> gets = new HashSet<>();
+		Set<String> puts = new HashSet<>();
+		for (CtInvocation<?> invocation : method.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (!(invocation.getTarget() instanceof CtFieldRead) || invocation.getArguments().isEmpty()
+					|| !isParameterOf(invocation.getArguments().get(0), method)) {
+				continue;
+			}
+			String key = invocation.getTarget() + "[" + invocation.getArguments().get(0) + "]";
+			String name = invocation.getExecutable().getSimpleName();
+			if ("get".equals(name) || "containsKey".equals(name)) {
+				gets.add(key);
+			} else if ("put".equals(name)) {
+				puts.add(key);
+			}
+		}
+		gets.retainAll(puts);
+		return !gets.isEmpty();
+	}
+
+	private static boolean isParameterOf(CtExpression<?> expression, CtMethod<?> method) {
+		if (!(expression instanceof CtVariableAccess)) {
+			return false;
+		}
+		CtVariableReference<?> variable = ((CtVariableAccess<?>) expression).getVariable();
+		for (CtParameter<?> parameter : method.getParameters()) {
+			if (parameter.getReference().equals(variable)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String lookupKey(CtInvocation<?> invocation) {
+		return invocation.getTarget() + "." + invocation.getExecutable().getSimpleName() + invocation.getArguments();
+	}
+
+	private boolean isShareable(CtBlock<?> block, List<CtInvocation<?>> group, Map<CtExecutable<?>, Set<String>> mutations) {
+		CtInvocation<?> first = group.get(0);
+		boolean collection = COLLECTION_LOOKUPS.contains(first.getExecutable().getSimpleName());
+		if (first.getType() == null || "void".equals(first.getType().getSimpleName())
+				|| !isUnconditional(first, block) || !isSideEffectFree(first.getTarget())
+				|| !first.getArguments().stream().allMatch(RedundantLookupDetector::isSideEffectFree)) {
+			return false;
+		}
+		int from = statementIndex(block, first);
+		int to = statementIndex(block, group.get(group.size() - 1));
+		Set<CtVariableReference<?>> variables = new HashSet<>();
+		first.getElements(new TypeFilter<>(CtVariableAccess.class)).forEach(a -> variables.add(a.getVariable()));
+		String target = first.getTarget() == null ? null : first.getTarget().toString();
+		String field = first.getTarget() instanceof CtFieldRead
+				? ((CtFieldRead<?>) first.getTarget()).getVariable().getSimpleName() : null;
+		for (int i = from; i <= to; i++) {
+			CtStatement statement = block.getStatements().get(i);
+			// a variable of the lookup declared in the block after the first statement is out of scope
+			for (CtLocalVariable<?> local : statement.getElements(new TypeFilter<>(CtLocalVariable.class))) {
+				if (variables.contains(local.getReference())) {
+					return false;
+				}
+			}
+			for (CtVariableAccess<?> access : statement.getElements(new TypeFilter<>(CtVariableAccess.class))) {
+				boolean write = access instanceof CtVariableWrite
+						|| access.isParentInitialized() && access.getParent() instanceof CtUnaryOperator;
+				if (write && variables.contains(access.getVariable())) {
+					return false;
+				}
+			}
+			if (collection && target != null) {
+				for (CtInvocation<?> invocation : statement.getElements(new TypeFilter<>(CtInvocation.class))) {
+					boolean onTarget = invocation.getTarget() != null && target.equals(invocation.getTarget().toString());
+					if (onTarget && MUTATORS.contains(invocation.getExecutable().getSimpleName())
+							|| invocation.getArguments().stream().anyMatch(a -> target.equals(a.toString()))
+							|| field != null && mutatesField(invocation, field, mutations)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if evaluating the expression twice gives the same value as long as no variable changes.
+	 */
+	static boolean isSideEffectFree(CtExpression<?> expression) {
+		return expression == null || expression.getElements(new TypeFilter<>(CtAbstractInvocation.class)).isEmpty()
+				&& expression.getElements(new TypeFilter<>(CtAssignment.class)).isEmpty()
+				&& expression.getElements(new TypeFilter<>(CtUnaryOperator.class)).stream().noneMatch(u ->
+						u.getKind() == UnaryOperatorKind.PREINC || u.getKind() == UnaryOperatorKind.PREDEC
+						|| u.getKind() == UnaryOperatorKind.POSTINC || u.getKind() == UnaryOperatorKind.POSTDEC);
+	}
+
+	private static boolean mutatesField(CtInvocation<?> invocation, String field, Map<CtExecutable<?>, Set<String>> mutations) {
+		CtExecutable<?> declaration = invocation.getExecutable().getExecutableDeclaration();
+		return declaration != null && mutatedFields(declaration, mutations).contains(field);
+	}
+
+	/**
+	 * @return simple names of the fields the executable mutates, directly or through the model methods it calls.
+	 */
+	private static Set<String> mutatedFields(CtExecutable<?> executable, Map<CtExecutable<?>, Set<String>> mutations) {
+		Set<String> known = mutations.get(executable);
+		if (known != null) {
+			return known;
+		}
+		Set<String> mutated = new HashSet<>();
+		// recursion ends on the partial result
+		mutations.put(executable, mutated);
+		for (CtFieldWrite<?> write : executable.getElements(new TypeFilter<>(CtFieldWrite.class))) {
+			mutated.add(write.getVariable().getSimpleName());
+		}
+		for (CtInvocation<?> invocation : executable.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (invocation.getTarget() instanceof CtFieldAccess && MUTATORS.contains(invocation.getExecutable().getSimpleName())) {
+				mutated.add(((CtFieldAccess<?>) invocation.getTarget()).getVariable().getSimpleName());
+			}
+			for (CtExpression<?> argument : invocation.getArguments()) {
+				if (argument instanceof CtFieldAccess) {
+					mutated.add(((CtFieldAccess<?>) argument).getVariable().getSimpleName());
+				}
+			}
+			CtExecutable<?> callee = invocation.getExecutable().getExecutableDeclaration();
+			if (callee != null && callee != executable) {
+				mutated.addAll(mutatedFields(callee, mutations));
+			}
+		}
+		return mutated;
+	}
+
+	/**
+	 * @return true if the element runs whenever the statement of the block containing it runs,
+	 *         once and not later (not in a lambda or an anonymous class).
+	 */
+	private static boolean isUnconditional(CtElement element, CtBlock<?> block) {
+		CtElement child = element;
+		CtElement parent = element.getParent();
+		while (parent != block) {
+			boolean conditional = parent instanceof CtIf && ((CtIf) parent).getCondition() != child
+					|| parent instanceof CtConditional && ((CtConditional<?>) parent).getCondition() != child
+					|| parent instanceof CtLoop || parent instanceof CtCase || parent instanceof CtCatch
+					|| parent instanceof CtExecutable
+					|| parent instanceof CtBinaryOperator && ((CtBinaryOperator<?>) parent).getRightHandOperand() == child
+							&& (((CtBinaryOperator<?>) parent).getKind() == BinaryOperatorKind.AND
+									|| ((CtBinaryOperator<?>) parent).getKind() == BinaryOperatorKind.OR);
+			if (conditional) {
+				return false;
+			}
+			child = parent;
+			parent = parent.getParent();
+		}
+		return true;
+	}
+
+	private static int statementIndex(CtBlock<?> block, CtElement element) {
+		CtElement current = element;
+		while (current.getParent() != block) {
+			current = current.getParent();
+		}
+		List<CtStatement> statements = block.getStatements();
+		for (int i = 0; i < statements.size(); i++) {
+			if (statements.get(i) == current) {
+				return i;
+			}
+		}
+		throw new IllegalStateException(element + " is not in its block");
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static void share(CtBlock<?> block, List<CtInvocation<?>> group) {
+		CtInvocation<?> first = group.get(0);
+		Factory factory = first.getFactory();
+		CtStatement anchor = block.getStatements().get(statementIndex(block, first));
+		CtLocalVariable local = factory.Code().createLocalVariable(first.getType().clone(),
+				localName(first, JdbcPatterns.enclosingExecutable(block)), first.clone());
+		anchor.insertBefore(local);
+		for (CtInvocation<?> invocation : group) {
+			invocation.replace(factory.Code().createVariableRead(local.getReference(), false));
+		}
+	}
+
+	private static String localName(CtInvocation<?> lookup, CtExecutable<?> executable) {
+		String name = lookup.getExecutable().getSimpleName();
+		String base;
+		if (COLLECTION_LOOKUPS.contains(name) && lookup.getTarget() != null) {
+			base = lookup.getTarget().toString().replaceAll(".*\\.", "").replaceAll("(Map|Set|List|Cache)$", "");
+			base = name.startsWith("contains") ? "has" + capitalize(base) : base;
+		} else {
+			base = name.startsWith("get") && name.length() > 3 ? name.substring(3) : name;
+			base = base.substring(0, 1).toLowerCase(Locale.ROOT) + base.substring(1);
+		}
+		Set<String> used = new HashSet<>();
+		executable.getElements(new TypeFilter<>(CtLocalVariable.class)).forEach(v -> used.add(v.getSimpleName()));
+		executable.getParameters().forEach(p -> used.add(p.getSimpleName()));
+		String unique = base;
+		for (int i = 2; used.contains(unique); i++) {
+			unique = base + i;
+		}
+		return unique;
+	}
+
+	private static String capitalize(String text) {
+		return text.isEmpty() ? text : text.substring(0, 1).toUpperCase(Locale.ROOT) + text.substring(1);
+	}
+
+	/**
+	 * @return the put following {@code if (m.containsKey(k)) m.remove(k);}, null for other ifs.
+	 */
+	private static CtStatement redundantContainsRemove(CtIf check) {
+		if (!(check.getCondition() instanceof CtInvocation) || check.getElseStatement() != null
+				|| !(check.getParent() instanceof CtBlock)) {
+			return null;
+		}
+		CtInvocation<?> contains = (CtInvocation<?>) check.getCondition();
+		CtStatement then = check.getThenStatement();
+		if (then instanceof CtBlock && ((CtBlock<?>) then).getStatements().size() == 1) {
+			then = ((CtBlock<?>) then).getStatement(0);
+		}
+		if (!"containsKey".equals(contains.getExecutable().getSimpleName()) || !(then instanceof CtInvocation)) {
+			return null;
+		}
+		CtInvocation<?> remove = (CtInvocation<?>) then;
+		List<CtStatement> statements = ((CtBlock<?>) check.getParent()).getStatements();
+		int index = statements.indexOf(check);
+		if (!"remove".equals(remove.getExecutable().getSimpleName()) || index + 1 >= statements.size()
+				|| !(statements.get(index + 1) instanceof CtInvocation)) {
+			return null;
+		}
+		CtInvocation<?> put = (CtInvocation<?>) statements.get(index + 1);
+		String map = String.valueOf(contains.getTarget());
+		String key = contains.getArguments().toString();
+		boolean same = "put".equals(put.getExecutable().getSimpleName()) && put.getArguments().size() == 2
+				&& map.equals(String.valueOf(remove.getTarget())) && map.equals(String.valueOf(put.getTarget()))
+				&& key.equals(remove.getArguments().toString())
+				&& key.equals("[" + put.getArguments().get(0) + "]");
+		return same ? put : null;
+	}
+
+	/**
+	 * Findings and lookups saved per loop iteration.
+	 */
+	public static class Report {
+		private final List<Finding> findings = new ArrayList<>();
+		private final Map<String, Integer> savedPerLoop = new LinkedHashMap<>();
+
+		void add(Finding finding, CtElement scope, int saved) {
+			findings.add(finding);
+			CtLoop loop = scope instanceof CtLoop ? (CtLoop) scope : scope.getParent(CtLoop.class);
+			String key = loop == null ? finding.getExecutable() + " (once per call)"
+					: finding.getExecutable() + " loop at " + Finding.location(loop);
+			savedPerLoop.merge(key, saved, Integer::sum);
+		}
+
+		public List<Finding> getFindings() {
+			return findings;
+		}
+
+		/**
+		 * @return lookups saved per iteration of each loop, or per call outside of loops.
+		 */
+		public Map<String, Integer> getSavedPerLoop() {
+			return savedPerLoop;
+		}
+	}
+}
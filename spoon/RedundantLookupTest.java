@@ -0,0 +1,90 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/*
+    같은 인자로 반복되는 조회 찾기 (RedundantLookupDetector)
+        (1) 같은 block / loop 한 바퀴 안의 map.get / containsKey / contains, 캐시 getter (getCvterm 같은 것) 반복
+            사이에 인자 변수 변경, map 변경 (put / remove, 그 field 바꾸는 method 호출) 있으면 제외
+            첫 조회가 조건부 (if, &&, loop, lambda 안) 이거나 인자에 method 호출 (m.get(it.next())) 있으면 제외
+        (2) 첫 조회 결과를 지역 변수에 담고 나머지는 그 변수 읽기로 변경
+            if (m.containsKey(k)) m.remove(k); m.put(k, v); -> m.put(k, v);
+        (3) loop 한 바퀴 당 줄어든 조회 수 출력, 바뀐 파일만 출력
+    옵션 : -Dlookup.pure=getName,getValue (부작용 없는 method 이름 추가)
+*/
+
+
+public class RedundantLookupTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        RedundantLookupDetector detector = new RedundantLookupDetector();
+        String pure = System.getProperty("lookup.pure", "");
+        for (String name : pure.split(",")) {
+            if (!name.trim().isEmpty()) {
+                detector.addPureMethod(name.trim());
+            }
+        }
+        List<Finding> allFound = new ArrayList<>();
+        List<Finding> allRewritten = new ArrayList<>();
+        List<String> appliedData = new ArrayList<>();
+        for (CtElement root : model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))) {
+            System.out.println("@ found:");
+            RedundantLookupDetector.Report found = detector.detect(root);
+            found.getFindings().forEach(f -> System.out.println("\t" + f));
+            System.out.println("@ lookups saved per iteration:");
+            found.getSavedPerLoop().forEach((loop, saved) -> System.out.println("\t" + saved + "\t" + loop));
+            List<Finding> rewritten = detector.rewrite(root).getFindings();
+            System.out.println("@ rewritten " + rewritten.size());
+
+            // only reported lookups are shared
+            Set<String> locations = found.getFindings().stream().map(Finding::getLocation).collect(Collectors.toSet());
+            rewritten.forEach(f -> assertTrue(f.toString(), locations.contains(f.getLocation())));
+            assertTrue(rewritten.isEmpty() || !printer.getModifiedTypes(model).isEmpty());
+            allFound.addAll(found.getFindings());
+            allRewritten.addAll(rewritten);
+            root.getElements(new NamedElementFilter<>(CtMethod.class, "processAppliedData"))
+                    .forEach(m -> appliedData.add(m.getBody().toString()));
+        }
+
+        // processAppliedData: getCvterm(connection, typeId) three times per datum, the first one unconditional
+        List<Finding> cvterms = allFound.stream().filter(f -> f.getExecutable() != null
+                && f.getExecutable().contains("#processAppliedData(")
+                && "getCvterm(connection, typeId) evaluated 3 times, 2 saved".equals(f.getMessage()))
+                .collect(Collectors.toList());
+        assertEquals(1, cvterms.size());
+        assertTrue(allRewritten.stream().anyMatch(f -> f.getLocation().equals(cvterms.get(0).getLocation())));
+        assertEquals(1, appliedData.size());
+        String body = appliedData.get(0);
+        assertEquals(body, 1, body.split("getCvterm\\(connection, typeId\\)", -1).length - 1);
+        assertTrue(body, body.contains("String cvterm = getCvterm(connection, typeId);"));
+        assertTrue(body, body.contains("String datumType = cvterm;"));
+
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+    }
+}
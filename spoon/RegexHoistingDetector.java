@@ -0,0 +1,422 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.regex.Matcher;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFieldRead;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtTypeAccess;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.declaration.CtAnonymousExecutable;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtField;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.ModifierKind;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtFieldReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds regular expressions compiled again on each call: {@code replaceAll},
+ * {@code replaceFirst}, {@code matches} and {@code split} of {@code String},
+ * {@code Pattern.compile} in method bodies, and helper methods compiling a
+ * {@code String} parameter that their callers give as a constant (like
+ * {@code containsMatch(set, "hybridization")}). Only constant patterns are
+ * considered: literals, constants and locals initialized with a literal and
+ * never assigned. {@code split} of one plain character is skipped, the JDK
+ * does not compile it.
+ *
+ * <p>The rewrite compiles each pattern once in a {@code static final Pattern}
+ * field of the top level type and uses it in place:
+ * {@code s.replaceAll(R, x)} becomes {@code P.matcher(s).replaceAll(x)}, which
+ * is what {@code String} does, helpers get an overload taking the
+ * {@code Pattern}. Log calls at levels disabled by default whose message
+ * does regex work are wrapped in a level check.
+ */
+public class RegexHoistingDetector {
+	/** Constant regular expression compiled on each execution. */
+	public static final String KIND = "regex-recompilation";
+	/** Regex work only done to build a message of a disabled log level. */
+	public static final String GUARD_KIND = "unguarded-debug-regex";
+	private static final String PATTERN_TYPE = "java.util.regex.Pattern";
+	private static final Set<String> STRING_REGEX_METHODS = new HashSet<>(Arrays.asList(
+			"replaceAll", "replaceFirst", "matches", "split"));
+	private static final String REGEX_META = ".$|()[{^?*+\\";
+
+	/**
+	 * @param root element to search.
+	 * @return one finding per compiling site and per unguarded debug message doing regex work.
+	 */
+	public List<Finding> detect(CtElement root) {
+		List<Finding> findings = new ArrayList<>();
+		for (CtInvocation<?> log : unguardedDebugLogs(root)) {
+			findings.add(Finding.at(GUARD_KIND, log, null, "regex work for a debug message, done with debug disabled"));
+		}
+		for (CtInvocation<?> site : sites(root)) {
+			findings.add(Finding.at(KIND, site, regexOf(site), describe(site)));
+		}
+		for (Map.Entry<CtMethod<?>, Integer> helper : helpers(root).entrySet()) {
+			for (CtInvocation<?> call : constantCalls(root, helper.getKey(), helper.getValue())) {
+				findings.add(Finding.at(KIND, call, JdbcPatterns.fold(call.getArguments().get(helper.getValue())),
+						helper.getKey().getSimpleName() + " compiles its constant argument, " + hotness(call)));
+			}
+		}
+		return findings;
+	}
+
+	/**
+	 * Guards the debug messages, then moves the constant patterns to static fields.
+	 *
+	 * @param root element to search and rewrite.
+	 * @return the rewritten sites.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public List<Finding> rewrite(CtElement root) {
+		List<Finding> rewritten = new ArrayList<>();
+		for (CtInvocation<?> log : unguardedDebugLogs(root)) {
+			rewritten.add(Finding.at(GUARD_KIND, log, null, "guarded by a level check"));
+			LazyLoggingRewriter.guard(log);
+		}
+		Map<String, CtField<?>> fields = new HashMap<>();
+		Set<CtLocalVariable<?>> sources = new HashSet<>();
+		for (CtInvocation<?> site : sites(root)) {
+			if (!isHoistable(site)) {
+				continue;
+			}
+			rewritten.add(Finding.at(KIND, site, regexOf(site), "compiled once in a static field"));
+			CtExpression<?> regex = site.getArguments().get(0);
+			if (regex instanceof CtVariableRead
+					&& ((CtVariableRead<?>) regex).getVariable().getDeclaration() instanceof CtLocalVariable) {
+				sources.add((CtLocalVariable<?>) ((CtVariableRead<?>) regex).getVariable().getDeclaration());
+			}
+			hoist(site, fields);
+		}
+		for (Map.Entry<CtMethod<?>, Integer> helper : helpers(root).entrySet()) {
+			List<CtInvocation<?>> calls = constantCalls(root, helper.getKey(), helper.getValue()).stream()
+					.filter(RegexHoistingDetector::isHoistable).collect(Collectors.toList());
+			if (calls.isEmpty()) {
+				continue;
+			}
+			CtMethod<?> overload = patternOverload(helper.getKey(), helper.getValue());
+			for (CtInvocation<?> call : calls) {
+				rewritten.add(Finding.at(KIND, call, JdbcPatterns.fold(call.getArguments().get(helper.getValue())),
+						"compiled once in a static field"));
+				CtExpression<?> argument = call.getArguments().get(helper.getValue());
+				argument.replace(patternRead(call, JdbcPatterns.fold(argument), null, fields));
+				call.setExecutable((CtExecutableReference) overload.getReference());
+			}
+		}
+		// the locals holding the regex are not read anymore
+		for (CtLocalVariable<?> local : sources) {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(local);
+			boolean read = executable.getElements(new TypeFilter<>(CtVariableRead.class)).stream()
+					.anyMatch(r -> local.getReference().equals(r.getVariable()));
+			if (!read) {
+				local.delete();
+			}
+		}
+		return rewritten;
+	}
+
+	private static List<CtInvocation<?>> sites(CtElement root) {
+		List<CtInvocation<?>> sites = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(invocation);
+			if (executable == null || executable instanceof CtAnonymousExecutable || invocation.getParent(CtField.class) != null) {
+				// initializers run once
+				continue;
+			}
+			if (isStringRegexCall(invocation) || isCompile(invocation)) {
+				sites.add(invocation);
+			}
+		}
+		return sites;
+	}
+
+	private static boolean isStringRegexCall(CtInvocation<?> invocation) {
+		String name = invocation.getExecutable().getSimpleName();
+		CtTypeReference<?> declaring = invocation.getExecutable().getDeclaringType();
+		if (!STRING_REGEX_METHODS.contains(name) || invocation.getTarget() == null || invocation.getArguments().isEmpty()
+				|| declaring != null && !"java.lang.String".equals(declaring.getQualifiedName())) {
+			return false;
+		}
+		CtExpression<?> regex = invocation.getArguments().get(0);
+		if (!isConstantString(regex)) {
+			return false;
+		}
+		return !"split".equals(name) || !isFastSplit(JdbcPatterns.fold(regex));
+	}
+
+	private static boolean isCompile(CtInvocation<?> invocation) {
+		return "compile".equals(invocation.getExecutable().getSimpleName())
+				&& invocation.getTarget() instanceof CtTypeAccess
+				&& PATTERN_TYPE.equals(((CtTypeAccess<?>) invocation.getTarget()).getAccessedType().getQualifiedName())
+				&& !invocation.getArguments().isEmpty() && isConstantString(invocation.getArguments().get(0))
+				&& (invocation.getArguments().size() == 1 || isConstantFlags(invocation.getArguments().get(1)));
+	}
+
+	/**
+	 * @return true for the patterns {@code String.split} matches without compiling them.
+	 */
+	private static boolean isFastSplit(String regex) {
+		return regex.length() == 1 && REGEX_META.indexOf(regex.charAt(0)) < 0
+				|| regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1));
+	}
+
+	private static boolean isConstantString(CtExpression<?> expression) {
+		if (JdbcPatterns.isConstant(expression)) {
+			return true;
+		}
+		// locals given a literal and never assigned are constants without the final
+		if (!(expression instanceof CtVariableRead)
+				|| !(((CtVariableRead<?>) expression).getVariable().getDeclaration() instanceof CtLocalVariable)) {
+			return false;
+		}
+		CtLocalVariable<?> local = (CtLocalVariable<?>) ((CtVariableRead<?>) expression).getVariable().getDeclaration();
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(local);
+		return JdbcPatterns.isConstant(local.getDefaultExpression()) && executable != null
+				&& executable.getElements(new TypeFilter<>(CtVariableWrite.class)).stream()
+						.noneMatch(w -> local.getReference().equals(w.getVariable()));
+	}
+
+	private static boolean isConstantFlags(CtExpression<?> flags) {
+		if (flags instanceof CtLiteral) {
+			return ((CtLiteral<?>) flags).getValue() instanceof Integer;
+		}
+		if (flags instanceof CtFieldRead) {
+			CtTypeReference<?> declaring = ((CtFieldRead<?>) flags).getVariable().getDeclaringType();
+			return declaring != null && PATTERN_TYPE.equals(declaring.getQualifiedName());
+		}
+		return flags instanceof CtBinaryOperator && ((CtBinaryOperator<?>) flags).getKind() == BinaryOperatorKind.BITOR
+				&& isConstantFlags(((CtBinaryOperator<?>) flags).getLeftHandOperand())
+				&& isConstantFlags(((CtBinaryOperator<?>) flags).getRightHandOperand());
+	}
+
+	/**
+	 * @return methods compiling one of their String parameters and using it for nothing else, with its index.
+	 */
+	private static Map<CtMethod<?>, Integer> helpers(CtElement root) {
+		Map<CtMethod<?>, Integer> helpers = new HashMap<>();
+		for (CtMethod<?> method : root.getElements(new TypeFilter<>(CtMethod.class))) {
+			List<CtParameter<?>> parameters = method.getParameters();
+			for (int i = 0; i < parameters.size(); i++) {
+				CtParameter<?> parameter = parameters.get(i);
+				if (!"String".equals(parameter.getType().getSimpleName())) {
+					continue;
+				}
+				List<CtVariableRead<?>> reads = new ArrayList<>();
+				method.getElements(new TypeFilter<>(CtVariableRead.class)).stream()
+						.filter(r -> parameter.getReference().equals(r.getVariable())).forEach(reads::add);
+				boolean written = method.getElements(new TypeFilter<>(CtVariableWrite.class)).stream()
+						.anyMatch(w -> parameter.getReference().equals(w.getVariable()));
+				if (reads.size() == 1 && !written && reads.get(0).getParent() instanceof CtInvocation
+						&& isCompileOf((CtInvocation<?>) reads.get(0).getParent(), reads.get(0))) {
+					helpers.put(method, i);
+				}
+			}
+		}
+		return helpers;
+	}
+
+	private static boolean isCompileOf(CtInvocation<?> invocation, CtVariableRead<?> parameter) {
+		return "compile".equals(invocation.getExecutable().getSimpleName()) && invocation.getArguments().size() == 1
+				&& invocation.getArguments().get(0) == parameter && invocation.getTarget() instanceof CtTypeAccess
+				&& PATTERN_TYPE.equals(((CtTypeAccess<?>) invocation.getTarget()).getAccessedType().getQualifiedName());
+	}
+
+	private static List<CtInvocation<?>> constantCalls(CtElement root, CtMethod<?> helper, int index) {
+		List<CtInvocation<?>> calls = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (invocation.getExecutable().getExecutableDeclaration() == helper && invocation.getArguments().size() > index
+					&& JdbcPatterns.isConstant(invocation.getArguments().get(index))) {
+				calls.add(invocation);
+			}
+		}
+		return calls;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static CtMethod<?> patternOverload(CtMethod<?> helper, int index) {
+		Factory factory = helper.getFactory();
+		CtTypeReference pattern = factory.Type().createReference(PATTERN_TYPE);
+		List<CtTypeReference<?>> types = new ArrayList<>();
+		helper.getParameters().forEach(p -> types.add(p.getType()));
+		types.set(index, pattern);
+		CtMethod<?> existing = helper.getDeclaringType().getMethod(helper.getSimpleName(),
+				types.toArray(new CtTypeReference<?>[0]));
+		if (existing != null) {
+			return existing;
+		}
+		CtMethod<?> overload = helper.clone();
+		overload.setAnnotations(new ArrayList<>());
+		CtParameter parameter = overload.getParameters().get(index);
+		parameter.setType(pattern);
+		for (CtInvocation<?> compile : overload.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (compile.getArguments().size() == 1 && compile.getArguments().get(0) instanceof CtVariableRead
+					&& parameter.getReference().equals(((CtVariableRead<?>) compile.getArguments().get(0)).getVariable())) {
+				compile.replace(factory.Code().createVariableRead(parameter.getReference(), false));
+			}
+		}
+		helper.getDeclaringType().addMethod(overload);
+		return overload;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static void hoist(CtInvocation<?> site, Map<String, CtField<?>> fields) {
+		Factory factory = site.getFactory();
+		String regex = regexOf(site);
+		if (isCompile(site)) {
+			CtExpression<?> flags = site.getArguments().size() > 1 ? site.getArguments().get(1) : null;
+			site.replace(patternRead(site, regex, flags, fields));
+			return;
+		}
+		CtExpression pattern = patternRead(site, regex, null, fields);
+		CtTypeReference patternType = factory.Type().createReference(PATTERN_TYPE);
+		CtTypeReference matcherType = factory.Type().createReference(Matcher.class);
+		CtTypeReference text = factory.Type().createReference(CharSequence.class);
+		CtTypeReference string = factory.Type().stringType();
+		String name = site.getExecutable().getSimpleName();
+		CtExpression<?> target = site.getTarget().clone();
+		CtExpression replacement;
+		if ("split".equals(name)) {
+			List<CtExpression<?>> arguments = new ArrayList<>();
+			arguments.add(target);
+			if (site.getArguments().size() > 1) {
+				arguments.add(site.getArguments().get(1).clone());
+			}
+			replacement = factory.Code().createInvocation(pattern, factory.Executable().createReference(patternType,
+					factory.Type().createArrayReference(string), "split", text), arguments);
+		} else {
+			CtInvocation matcher = factory.Code().createInvocation(pattern,
+					factory.Executable().createReference(patternType, matcherType, "matcher", text), target);
+			replacement = "matches".equals(name)
+					? factory.Code().createInvocation(matcher,
+							factory.Executable().createReference(matcherType, factory.Type().booleanPrimitiveType(), "matches"))
+					: factory.Code().createInvocation(matcher,
+							factory.Executable().createReference(matcherType, string, name, string),
+							site.getArguments().get(1).clone());
+		}
+		site.replace(replacement);
+	}
+
+	/**
+	 * @return false in an interface, its fields cannot be private.
+	 */
+	private static boolean isHoistable(CtElement site) {
+		return !site.getParent(CtType.class).getTopLevelType().isInterface();
+	}
+
+	/**
+	 * @return a read of the static field compiling the pattern, created on first use in the top level type.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static CtExpression<?> patternRead(CtElement site, String regex, CtExpression<?> flags,
+			Map<String, CtField<?>> fields) {
+		Factory factory = site.getFactory();
+		CtType<?> owner = site.getParent(CtType.class).getTopLevelType();
+		String key = owner.getQualifiedName() + "/" + regex + "/" + flags;
+		CtField<?> field = fields.get(key);
+		if (field == null) {
+			CtTypeReference pattern = factory.Type().createReference(PATTERN_TYPE);
+			List<CtExpression<?>> arguments = new ArrayList<>();
+			arguments.add(factory.Code().createLiteral(regex));
+			if (flags != null) {
+				arguments.add(flags.clone());
+			}
+			CtInvocation compile = factory.Code().createInvocation(factory.Code().createTypeAccess(pattern),
+					factory.Executable().createReference(pattern, pattern, "compile", factory.Type().stringType()),
+					arguments);
+			String base = fieldName(site, regex);
+			String name = base;
+			for (int i = 2; owner.getField(name) != null; i++) {
+				name = base + "_" + i;
+			}
+			field = factory.Core().createField();
+			field.setModifiers(EnumSet.of(ModifierKind.PRIVATE, ModifierKind.STATIC, ModifierKind.FINAL));
+			field.setType(pattern);
+			field.setSimpleName(name);
+			((CtField) field).setDefaultExpression(compile);
+			// declared before the fields reading it in their initializers
+			owner.addFieldAtTop(field);
+			fields.put(key, field);
+		}
+		return factory.Code().createVariableRead((CtFieldReference) field.getReference(), true);
+	}
+
+	/**
+	 * @return VERSION_PATTERN for a local versionRegex, the words of the regex, or the method name.
+	 */
+	private static String fieldName(CtElement site, String regex) {
+		if (site instanceof CtInvocation && !((CtInvocation<?>) site).getArguments().isEmpty()
+				&& ((CtInvocation<?>) site).getArguments().get(0) instanceof CtVariableRead) {
+			String variable = ((CtVariableRead<?>) ((CtInvocation<?>) site).getArguments().get(0)).getVariable().getSimpleName();
+			return constantCase(variable.replaceAll("(?i)(regex|pattern)$", "")) + "_PATTERN";
+		}
+		String words = regex.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_+|_+$", "");
+		if (words.length() >= 3 && words.length() <= 40 && Character.isLetter(words.charAt(0))) {
+			return constantCase(words) + "_PATTERN";
+		}
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(site);
+		return constantCase(executable == null ? "REGEX" : executable.getSimpleName()) + "_PATTERN";
+	}
+
+	private static String constantCase(String name) {
+		String words = name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+		return words.isEmpty() ? "REGEX" : words;
+	}
+
+	private static String regexOf(CtInvocation<?> site) {
+		return JdbcPatterns.fold(site.getArguments().get(0));
+	}
+
+	private static String describe(CtInvocation<?> site) {
+		String call = isCompile(site) ? "Pattern.compile" : "String." + site.getExecutable().getSimpleName();
+		return call + " compiles a constant pattern, " + hotness(site);
+	}
+
+	private static String hotness(CtElement element) {
+		int depth = JdbcPatterns.loopDepth(element);
+		return depth == 0 ? "once per call" : "in " + depth + " nested loop(s)";
+	}
+
+	/**
+	 * @return log calls at disabled levels doing regex work in their arguments, outside of a level check.
+	 */
+	private static List<CtInvocation<?>> unguardedDebugLogs(CtElement root) {
+		List<CtInvocation<?>> logs = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (!LazyLoggingRewriter.isDisabledByDefault(invocation) || !(invocation.getParent() instanceof CtBlock)
+					|| LazyLoggingRewriter.isGuarded(invocation)) {
+				continue;
+			}
+			boolean regexWork = invocation.getArguments().stream()
+					.flatMap(a -> a.getElements(new TypeFilter<>(CtInvocation.class)).stream())
+					.anyMatch(i -> STRING_REGEX_METHODS.contains(i.getExecutable().getSimpleName()) || isCompile(i));
+			if (regexWork) {
+				logs.add(invocation);
+			}
+		}
+		return logs;
+	}
+}
@@ -0,0 +1,161 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+
+/*
+    상수 정규식 반복 compile 찾기 (RegexHoistingDetector)
+        (1) String.replaceAll / replaceFirst / matches / split, Pattern.compile, 상수 regex 받아서 compile 하는 method (containsMatch 같은 것)
+        (2) static final Pattern field 로 옮기기, debug 로그 만들면서 하는 regex 는 isDebugEnabled() 로 감싸기
+        (3) 바뀐 파일만 출력
+        (4) unversionName / containsMatch 와 같은 코드로 호출 당 시간 비교 (변경 전 vs 후, debug 꺼짐)
+    옵션 : -Dregex.calls=200000
+*/
+
+
+public class RegexHoistingTest {
+    private static final String VERSION_REGEX = "\\.*_*[Ww][Ss]+\\d\\d\\d+";
+    private static final Pattern VERSION_PATTERN = Pattern.compile(VERSION_REGEX);
+    private static final String[] PROTOCOL_REGEXES = {"nucleic_acid_extraction|RNA extraction", "sequencing(_protocol)?",
+            "chromatin_immunoprecipitation", "reverse_transcription", "PCR(_amplification)?", "(.*)?immunoprecipitation",
+            "hybridization", "annotation", "grow"};
+    private static final Pattern[] PROTOCOL_PATTERNS = new Pattern[PROTOCOL_REGEXES.length];
+    private static final Set<String> PROTOCOL_TYPES = new HashSet<>(Arrays.asList("grow", "extraction",
+            "chromatin_immunoprecipitation", "hybridization", "labeling", "scanning", "normalization", "raw_data"));
+    private static final boolean DEBUG = false;
+
+    static {
+        for (int i = 0; i < PROTOCOL_REGEXES.length; i++) {
+            PROTOCOL_PATTERNS[i] = Pattern.compile(PROTOCOL_REGEXES[i]);
+        }
+    }
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        RegexHoistingDetector detector = new RegexHoistingDetector();
+        List<Finding> allFound = new ArrayList<>();
+        List<String> unversions = new ArrayList<>();
+        for (CtElement root : model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))) {
+            System.out.println("@ found:");
+            List<Finding> found = detector.detect(root);
+            found.forEach(f -> System.out.println("\t" + f));
+            List<Finding> rewritten = detector.rewrite(root);
+            System.out.println("@ rewritten " + rewritten.size());
+
+            // only reported sites are hoisted or guarded
+            Set<String> locations = found.stream().map(Finding::getLocation).collect(Collectors.toSet());
+            rewritten.forEach(f -> assertTrue(f.toString(), locations.contains(f.getLocation())));
+            assertTrue(rewritten.isEmpty() || !printer.getModifiedTypes(model).isEmpty());
+            allFound.addAll(found);
+            root.getElements(new NamedElementFilter<>(CtMethod.class, "unversionName"))
+                    .forEach(m -> unversions.add(m.getBody().toString()));
+        }
+
+        // unversionName: fileName.replaceAll(versionRegex, "") twice, once for a debug message
+        List<Finding> unversion = allFound.stream().filter(f -> f.getExecutable() != null
+                && f.getExecutable().contains("#unversionName(")).collect(Collectors.toList());
+        assertEquals(2, unversion.stream().filter(f -> RegexHoistingDetector.KIND.equals(f.getKind())
+                && VERSION_REGEX.equals(f.getTarget())).count());
+        assertEquals(1, unversion.stream().filter(f -> RegexHoistingDetector.GUARD_KIND.equals(f.getKind())).count());
+        assertEquals(1, unversions.size());
+        String body = unversions.get(0);
+        assertTrue(body, body.contains("isDebugEnabled()"));
+        assertTrue(body, body.contains("VERSION_PATTERN.matcher(fileName).replaceAll(\"\")"));
+        assertFalse(body, body.contains("fileName.replaceAll("));
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+
+        int calls = Integer.getInteger("regex.calls", 200000);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            long unversionBefore = timeUnversion(calls, false);
+            long unversionAfter = timeUnversion(calls, true);
+            long containsBefore = timeContainsMatch(calls, false);
+            long containsAfter = timeContainsMatch(calls, true);
+            if (round == 1) {
+                System.out.println(String.format("unversionName: %d ns/call -> %d ns/call",
+                        unversionBefore / calls, unversionAfter / calls));
+                System.out.println(String.format("containsMatch x%d: %d ns/call -> %d ns/call", PROTOCOL_REGEXES.length,
+                        containsBefore / calls, containsAfter / calls));
+            }
+        }
+    }
+
+    private long timeUnversion(int calls, boolean hoisted) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            String fileName = "signal_" + (i & 1023) + "_WS220.wig";
+            String name;
+            if (hoisted) {
+                if (DEBUG) {
+                    debug("FFFF: " + fileName + "--->>" + "====>" + VERSION_PATTERN.matcher(fileName).replaceAll(""));
+                }
+                name = VERSION_PATTERN.matcher(fileName).replaceAll("");
+            } else {
+                debug("FFFF: " + fileName + "--->>" + "====>" + fileName.replaceAll(VERSION_REGEX, ""));
+                name = fileName.replaceAll(VERSION_REGEX, "");
+            }
+            sum += name.length();
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+    private long timeContainsMatch(int calls, boolean hoisted) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            for (int r = 0; r < PROTOCOL_REGEXES.length; r++) {
+                Pattern p = hoisted ? PROTOCOL_PATTERNS[r] : Pattern.compile(PROTOCOL_REGEXES[r]);
+                for (String test : PROTOCOL_TYPES) {
+                    if (p.matcher(test).matches()) {
+                        sum++;
+                    }
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+    private static void debug(String message) {
+        if (DEBUG) {
+            System.out.println(message);
+        }
+    }
+}
@@ -37,13 +37,25 @@ public class RemoveTryTest {
                 MavenLauncher.SOURCE_TYPE.APP_SOURCE);
 
         CtModel model = launcher.buildModel();
+        // (2) track changes from here on, only units with a removed try get printed
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        removeTries(model);
+
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        environment.setShouldCompile(true);
+        printer.print(model);
+    }
+
+    @SuppressWarnings("all")
+    static void removeTries(CtModel model) {
         List<CtTry> tryList = model.
                 filterChildren(new NamedElementFilter<CtPackage>(CtPackage.class, "jg")).
                 filterChildren(new TypeFilter<CtMethod>(CtMethod.class)).
                 filterChildren(new TypeFilter<CtTry>(CtTry.class)).list();
 
-		Factory factory = launcher.getFactory();
-
 		for (CtTry t : tryList) {
             CtBlock tryBody = t.getBody();
             CtBlock finalizer = t.getFinalizer();
@@ -69,12 +81,5 @@ public class RemoveTryTest {
             }
             methodBody.removeStatement(t);
         }
-
-        Environment environment = launcher.getEnvironment();
-        environment.setCommentEnabled(true);
-        environment.setAutoImports(true);
-        environment.setShouldCompile(true);
-        launcher.prettyprint();
-	
     }
 }
@@ -0,0 +1,111 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spoon.reflect.code.CtAssignment;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFieldWrite;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtReturn;
+import spoon.reflect.code.CtTryWithResource;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.reference.CtLocalVariableReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds statements and result sets held in local variables that are never
+ * closed by the executable declaring them. A variable counts as closed if
+ * {@code close()} is called on it, if it is passed to a method with "close"
+ * in its name (e.g. {@code DB.close(rs, pstmt)}), or if it is a
+ * try-with-resources resource. Variables that escape (returned, stored in a
+ * field or passed to a constructor) are not reported, and a result set is
+ * considered closed with its statement.
+ */
+public class ResourceLeakDetector {
+	/** Statement or result set never closed. */
+	public static final String KIND = "leaked-statement";
+	private static final Set<String> RESOURCE_TYPES = new HashSet<>(Arrays.asList(
+			"ResultSet", "Statement", "PreparedStatement", "CallableStatement"));
+
+	/**
+	 * @param root element to search.
+	 * @return one finding per unclosed resource variable.
+	 */
+	public List<Finding> detect(CtElement root) {
+		List<Finding> findings = new ArrayList<>();
+		for (CtLocalVariable<?> variable : root.getElements(new TypeFilter<>(CtLocalVariable.class))) {
+			if (!isResource(variable.getType()) || variable.getParent() instanceof CtTryWithResource) {
+				continue;
+			}
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(variable);
+			if (executable == null || isReleased(executable, variable.getReference())
+					|| isClosedWithStatement(executable, variable)) {
+				continue;
+			}
+			findings.add(Finding.at(KIND, variable, null, variable.getType().getSimpleName() + " "
+					+ variable.getSimpleName() + " is never closed"
+					+ (JdbcPatterns.enclosingLoop(variable) == null ? "" : ", one more per loop iteration")));
+		}
+		return findings;
+	}
+
+	/**
+	 * @param type any type reference, may be null.
+	 * @return true for JDBC statements and result sets.
+	 */
+	public static boolean isResource(CtTypeReference<?> type) {
+		return type != null && RESOURCE_TYPES.contains(type.getSimpleName());
+	}
+
+	/**
+	 * @param executable declaring the variable.
+	 * @param variable a local resource variable.
+	 * @return true if the variable is closed, escapes or is handed to a close helper.
+	 */
+	public static boolean isReleased(CtExecutable<?> executable, CtLocalVariableReference<?> variable) {
+		for (CtVariableRead<?> read : executable.getElements(new TypeFilter<>(CtVariableRead.class))) {
+			if (!variable.equals(read.getVariable()) || !read.isParentInitialized()) {
+				continue;
+			}
+			CtElement parent = read.getParent();
+			if (parent instanceof CtReturn) {
+				return true;
+			}
+			if (parent instanceof CtInvocation) {
+				CtInvocation<?> invocation = (CtInvocation<?>) parent;
+				String name = invocation.getExecutable().getSimpleName();
+				boolean isTarget = invocation.getTarget() == read;
+				if (isTarget && "close".equals(name)
+						|| !isTarget && name.toLowerCase().contains("close")) {
+					return true;
+				}
+			} else if (parent instanceof CtConstructorCall
+					|| parent instanceof CtAssignment && ((CtAssignment<?, ?>) parent).getAssigned() instanceof CtFieldWrite) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isClosedWithStatement(CtExecutable<?> executable, CtLocalVariable<?> resultSet) {
+		CtExpression<?> value = resultSet.getDefaultExpression();
+		if (!(value instanceof CtInvocation) || !"ResultSet".equals(resultSet.getType().getSimpleName())) {
+			return false;
+		}
+		CtExpression<?> statement = ((CtInvocation<?>) value).getTarget();
+		if (statement instanceof CtVariableRead
+				&& ((CtVariableRead<?>) statement).getVariable() instanceof CtLocalVariableReference) {
+			return isReleased(executable, (CtLocalVariableReference<?>) ((CtVariableRead<?>) statement).getVariable());
+		}
+		return false;
+	}
+}
@@ -0,0 +1,137 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/*
+    while (res.next()) 안의 isLast / isFirst / last / absolute / getRow 찾기 (ResultSetNavigationDetector)
+        (1) 찾은 곳 출력
+        (2) 가능하면 RowLookahead (한 줄 미리 읽기) 로 변경, 바뀐 파일 + RowLookahead.java 출력
+        (3) JdbcStandIn (DB 없는 가짜 ResultSet) 으로 row 당 시간 비교 : isLast 두 번 vs RowLookahead
+    옵션 : -Dlookahead.rows=200000
+*/
+
+
+public class ResultSetLookaheadTest {
+    private static final int COLUMNS = 5;
+    private static final int FETCH_SIZE = 1000;
+    private static final long ROUND_TRIP_NANOS = 200000;
+    private static final long IS_LAST_NANOS = 500;
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() throws SQLException {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        launcher.addInputResource("./src/main/java/fr/inria/gforge/spoon/transformation/RowLookahead.java");
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        ResultSetNavigationDetector detector = new ResultSetNavigationDetector();
+        List<Finding> allFound = new ArrayList<>();
+        List<Finding> allRewritten = new ArrayList<>();
+        List<String> dags = new ArrayList<>();
+        for (CtElement root : model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))) {
+            System.out.println("@ found:");
+            List<Finding> found = detector.detect(root);
+            found.forEach(f -> System.out.println("\t" + f));
+            System.out.println("@ rewritten:");
+            List<Finding> rewritten = detector.rewrite(root);
+            rewritten.forEach(f -> System.out.println("\t" + f));
+
+            // only reported navigations are answered by the lookahead
+            Set<String> locations = found.stream().map(Finding::getLocation).collect(Collectors.toSet());
+            rewritten.forEach(f -> assertTrue(f.toString(), locations.contains(f.getLocation())));
+            assertTrue(rewritten.isEmpty() || !printer.getModifiedTypes(model).isEmpty());
+            allFound.addAll(found);
+            allRewritten.addAll(rewritten);
+            root.getElements(new NamedElementFilter<>(CtMethod.class, "processDag"))
+                    .forEach(m -> dags.add(m.getBody().toString()));
+        }
+
+        // processDag: res.isLast() twice per row, the loop only reads literal columns and res is only closed after it
+        List<Finding> isLasts = allFound.stream().filter(f -> f.getExecutable() != null
+                && f.getExecutable().contains("#processDag(") && "res.isLast() once per row".equals(f.getMessage()))
+                .collect(Collectors.toList());
+        assertEquals(2, isLasts.size());
+        Set<String> rewrittenLocations = allRewritten.stream().map(Finding::getLocation).collect(Collectors.toSet());
+        isLasts.forEach(f -> assertTrue(f.toString(), rewrittenLocations.contains(f.getLocation())));
+        assertEquals(1, dags.size());
+        String dag = dags.get(0);
+        assertTrue(dag, dag.contains("new String[] {\"getInt\", \"getInt\", \"getInt\", \"getInt\", \"getString\"}"));
+        assertTrue(dag, dag.contains("new Object[] {\"experiment_id\", \"protocol_id\", \"applied_protocol_id\", "
+                + "\"data_id\", \"direction\"}"));
+        assertTrue(dag, dag.contains("resRows.isLast()"));
+        assertFalse(dag, dag.contains("res.isLast()"));
+        assertTrue(dag, dag.contains("res.close()"));
+
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+
+        int rows = Integer.getInteger("lookahead.rows", 200000);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            long isLast = time(rows, false);
+            long lookahead = time(rows, true);
+            if (round == 1) {
+                System.out.println(String.format("isLast x2: %d ns/row, lookahead: %d ns/row",
+                        isLast / rows, lookahead / rows));
+            }
+        }
+    }
+
+    private long time(int rows, boolean lookahead) throws SQLException {
+        ResultSet res = JdbcStandIn.resultSet(rows, COLUMNS, FETCH_SIZE, ROUND_TRIP_NANOS, IS_LAST_NANOS);
+        long sum = 0;
+        long start = System.nanoTime();
+        if (lookahead) {
+            RowLookahead resRows = new RowLookahead(res, new String[] {"getInt", "getInt"}, new Object[] {"c1", "c2"});
+            while (resRows.next()) {
+                sum += resRows.getInt("c1") + resRows.getInt("c2");
+                if (sum < 0 || resRows.isLast()) {
+                    sum++;
+                }
+                if (resRows.isLast()) {
+                    sum++;
+                }
+            }
+        } else {
+            while (res.next()) {
+                sum += res.getInt("c1") + res.getInt("c2");
+                if (sum < 0 || res.isLast()) {
+                    sum++;
+                }
+                if (res.isLast()) {
+                    sum++;
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+        res.close();
+        if (sum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+}
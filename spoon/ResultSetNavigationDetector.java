@@ -0,0 +1,211 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFieldRead;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.code.CtWhile;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtFieldReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.reference.CtVariableReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds cursor navigation calls ({@code isLast}, {@code isFirst}, {@code last},
+ * {@code absolute}, {@code getRow}) inside {@code while (res.next())} loops.
+ * Depending on the driver and the cursor type they fetch rows ahead, need a
+ * scrollable cursor or make the driver buffer the result on the client.
+ *
+ * <p>A loop only reading columns and asking {@code isLast}, {@code isFirst}
+ * or {@code getRow} is rewritten to read through a {@link RowLookahead}, which
+ * keeps one row ahead and answers them from memory. Loops moving the cursor
+ * ({@code last}, {@code absolute}) are only reported, as are loops whose
+ * result set is used after the loop for anything but {@code close()}: the
+ * lookahead leaves the cursor one row further. The lookahead reads each
+ * column with the getter the loop uses, so the column of every getter must be
+ * a literal or a constant.
+ */
+public class ResultSetNavigationDetector {
+	/** Cursor navigation once per row. */
+	public static final String KIND = "expensive-navigation";
+	private static final String LOOKAHEAD_TYPE = "fr.inria.gforge.spoon.transformation.RowLookahead";
+	private static final Set<String> NAVIGATIONS = new HashSet<>(Arrays.asList(
+			"isLast", "isFirst", "last", "absolute", "getRow"));
+	private static final Set<String> MOVES = new HashSet<>(Arrays.asList(
+			"last", "absolute", "first", "previous", "relative", "beforeFirst", "afterLast"));
+	/** getters {@link RowLookahead} reads ahead */
+	private static final Set<String> GETTERS = new HashSet<>(Arrays.asList(
+			"getObject", "getString", "getInt", "getLong", "getDouble", "getBoolean", "getBigDecimal", "getTimestamp",
+			"getDate"));
+	/** what {@link RowLookahead} supports besides the getters */
+	private static final Set<String> LOOKAHEAD_METHODS = new HashSet<>(Arrays.asList(
+			"next", "isLast", "isFirst", "getRow", "wasNull", "findColumn"));
+
+	/**
+	 * @param root element to search.
+	 * @return one finding per navigation call in a next() loop.
+	 */
+	public List<Finding> detect(CtElement root) {
+		List<Finding> findings = new ArrayList<>();
+		for (CtWhile loop : root.getElements(new TypeFilter<>(CtWhile.class))) {
+			CtVariableReference<?> resultSet = cursorOf(loop);
+			if (resultSet == null) {
+				continue;
+			}
+			for (CtInvocation<?> navigation : navigations(loop, resultSet)) {
+				findings.add(Finding.at(KIND, navigation, null, resultSet.getSimpleName() + "."
+						+ navigation.getExecutable().getSimpleName() + "() once per row"));
+			}
+		}
+		return findings;
+	}
+
+	/**
+	 * Rewrites the loops that can read through a {@link RowLookahead}.
+	 *
+	 * @param root element to search and rewrite.
+	 * @return the findings of the rewritten loops.
+	 */
+	public List<Finding> rewrite(CtElement root) {
+		List<Finding> rewritten = new ArrayList<>();
+		for (CtWhile loop : root.getElements(new TypeFilter<>(CtWhile.class))) {
+			CtVariableReference<?> resultSet = cursorOf(loop);
+			if (resultSet == null || navigations(loop, resultSet).isEmpty() || !isRewritable(loop, resultSet)) {
+				continue;
+			}
+			for (CtInvocation<?> navigation : navigations(loop, resultSet)) {
+				rewritten.add(Finding.at(KIND, navigation, null, "answered by a one row lookahead"));
+			}
+			useLookahead(loop, resultSet);
+		}
+		return rewritten;
+	}
+
+	/**
+	 * @return the result set of a {@code while (res.next())} loop, null for other loops.
+	 */
+	private static CtVariableReference<?> cursorOf(CtWhile loop) {
+		CtExpression<Boolean> condition = loop.getLoopingExpression();
+		if (!(condition instanceof CtInvocation)) {
+			return null;
+		}
+		CtInvocation<?> next = (CtInvocation<?>) condition;
+		if (!"next".equals(next.getExecutable().getSimpleName()) || !next.getArguments().isEmpty()
+				|| !(next.getTarget() instanceof CtVariableRead)) {
+			return null;
+		}
+		CtVariableReference<?> variable = ((CtVariableRead<?>) next.getTarget()).getVariable();
+		CtTypeReference<?> type = variable.getType();
+		return type != null && "ResultSet".equals(type.getSimpleName()) ? variable : null;
+	}
+
+	private static List<CtInvocation<?>> navigations(CtWhile loop, CtVariableReference<?> resultSet) {
+		List<CtInvocation<?>> navigations = new ArrayList<>();
+		for (CtInvocation<?> invocation : loop.getBody().getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (NAVIGATIONS.contains(invocation.getExecutable().getSimpleName()) && isOn(invocation, resultSet)) {
+				navigations.add(invocation);
+			}
+		}
+		return navigations;
+	}
+
+	private static boolean isRewritable(CtWhile loop, CtVariableReference<?> resultSet) {
+		for (CtVariableRead<?> read : loop.getElements(new TypeFilter<>(CtVariableRead.class))) {
+			if (!resultSet.equals(read.getVariable())) {
+				continue;
+			}
+			// only method calls of the lookahead, no cursor moves, no escape to other methods
+			if (!(read.getParent() instanceof CtInvocation) || ((CtInvocation<?>) read.getParent()).getTarget() != read) {
+				return false;
+			}
+			CtInvocation<?> invocation = (CtInvocation<?>) read.getParent();
+			String name = invocation.getExecutable().getSimpleName();
+			if (GETTERS.contains(name)) {
+				// the column must be known before the loop to be read ahead
+				if (invocation.getArguments().size() != 1 || !isConstant(invocation.getArguments().get(0))) {
+					return false;
+				}
+			} else if (MOVES.contains(name) || !LOOKAHEAD_METHODS.contains(name)) {
+				return false;
+			}
+		}
+		for (CtVariableWrite<?> write : loop.getElements(new TypeFilter<>(CtVariableWrite.class))) {
+			if (resultSet.equals(write.getVariable())) {
+				return false;
+			}
+		}
+		// after the loop the cursor is one row further, only close() does not care
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(loop);
+		for (CtVariableRead<?> read : executable.getElements(new TypeFilter<>(CtVariableRead.class))) {
+			if (resultSet.equals(read.getVariable()) && !read.hasParent(loop) && isAfter(read, loop)
+					&& !(read.getParent() instanceof CtInvocation
+							&& "close".equals(((CtInvocation<?>) read.getParent()).getExecutable().getSimpleName()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAfter(CtElement element, CtElement loop) {
+		return element.getPosition().isValidPosition() && loop.getPosition().isValidPosition()
+				? element.getPosition().getSourceStart() > loop.getPosition().getSourceEnd() : true;
+	}
+
+	private static boolean isConstant(CtExpression<?> column) {
+		if (column instanceof CtLiteral) {
+			return ((CtLiteral<?>) column).getValue() instanceof Integer || ((CtLiteral<?>) column).getValue() instanceof String;
+		}
+		if (column instanceof CtFieldRead) {
+			CtFieldReference<?> field = ((CtFieldRead<?>) column).getVariable();
+			return field.isStatic() && field.isFinal();
+		}
+		return false;
+	}
+
+	private static boolean isOn(CtInvocation<?> invocation, CtVariableReference<?> resultSet) {
+		return invocation.getTarget() instanceof CtVariableRead
+				&& resultSet.equals(((CtVariableRead<?>) invocation.getTarget()).getVariable());
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static void useLookahead(CtWhile loop, CtVariableReference<?> resultSet) {
+		Factory factory = loop.getFactory();
+		CtTypeReference type = factory.Type().createReference(LOOKAHEAD_TYPE);
+		// each column read ahead once per getter, e.g. new String[] {"getString"}, new Object[] {COLUMN_ID}
+		Set<String> reads = new LinkedHashSet<>();
+		StringJoiner getters = new StringJoiner(", ", "new String[] {", "}");
+		StringJoiner columns = new StringJoiner(", ", "new Object[] {", "}");
+		for (CtInvocation<?> getter : loop.getElements(new TypeFilter<>(CtInvocation.class))) {
+			String name = getter.getExecutable().getSimpleName();
+			if (GETTERS.contains(name) && isOn(getter, resultSet)
+					&& reads.add(name + " " + getter.getArguments().get(0))) {
+				getters.add("\"" + name + "\"");
+				columns.add(getter.getArguments().get(0).toString());
+			}
+		}
+		CtLocalVariable rows = factory.Code().createLocalVariable(type, resultSet.getSimpleName() + "Rows",
+				factory.Code().createConstructorCall(type, factory.Code().createVariableRead(resultSet.clone(), false),
+						factory.Code().createCodeSnippetExpression(getters.toString()),
+						factory.Code().createCodeSnippetExpression(columns.toString())));
+		for (CtVariableRead<?> read : loop.getElements(new TypeFilter<>(CtVariableRead.class))) {
+			if (resultSet.equals(read.getVariable())) {
+				read.replace(factory.Code().createVariableRead(rows.getReference(), false));
+			}
+		}
+		loop.insertBefore(rows);
+	}
+}
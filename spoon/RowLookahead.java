@@ -0,0 +1,234 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads a result set one row ahead, so that {@link #isLast()},
+ * {@link #isFirst()} and {@link #getRow()} are answered without asking the
+ * driver, which may have to fetch more rows or buffer the result on the
+ * client to answer them. The columns the loop reads are copied from the
+ * result set with the getters it uses, so the values are the ones the driver
+ * gives for these getters, then the cursor moves to the next row.
+ * Generated by {@link ResultSetNavigationDetector} in place of
+ * {@code while (res.next())} loops.
+ *
+ * <p>This class is copied with the rewritten sources, it only depends on the JDK.
+ */
+public class RowLookahead {
+	private final ResultSet resultSet;
+	private final Map<String, Integer> columns = new HashMap<>();
+	/** getter and column of each value, e.g. "getString 2" */
+	private final Map<String, Integer> slots = new HashMap<>();
+	private final String[] getters;
+	private final int[] indexes;
+	private Row current;
+	private Row pending;
+	private boolean started;
+	private boolean wasNull;
+	private int row;
+
+	/**
+	 * @param resultSet positioned before its first row.
+	 * @param getters getter used by the loop for each column, e.g. "getString".
+	 * @param columns the columns, an index (Integer) or a label (String).
+	 * @throws SQLException if the metadata cannot be read or a column is unknown.
+	 */
+	public RowLookahead(ResultSet resultSet, String[] getters, Object[] columns) throws SQLException {
+		this.resultSet = resultSet;
+		ResultSetMetaData metaData = resultSet.getMetaData();
+		for (int i = metaData.getColumnCount(); i >= 1; i--) {
+			// the first column wins on duplicate labels, as in the drivers
+			this.columns.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+		}
+		this.getters = getters;
+		this.indexes = new int[getters.length];
+		for (int i = 0; i < getters.length; i++) {
+			indexes[i] = columns[i] instanceof Number ? ((Number) columns[i]).intValue() : findColumn((String) columns[i]);
+			slots.put(getters[i] + " " + indexes[i], i);
+		}
+	}
+
+	/**
+	 * @return true if there is a current row, like {@link ResultSet#next()}.
+	 * @throws SQLException if the next row cannot be fetched.
+	 */
+	public boolean next() throws SQLException {
+		if (!started) {
+			started = true;
+			pending = fetch();
+		}
+		current = pending;
+		if (current == null) {
+			return false;
+		}
+		row++;
+		pending = fetch();
+		return true;
+	}
+
+	private Row fetch() throws SQLException {
+		if (!resultSet.next()) {
+			return null;
+		}
+		Row fetched = new Row(getters.length);
+		for (int i = 0; i < getters.length; i++) {
+			fetched.values[i] = read(getters[i], indexes[i]);
+			fetched.nulls[i] = resultSet.wasNull();
+		}
+		return fetched;
+	}
+
+	private Object read(String getter, int column) throws SQLException {
+		switch (getter) {
+		case "getObject":
+			return resultSet.getObject(column);
+		case "getString":
+			return resultSet.getString(column);
+		case "getInt":
+			return resultSet.getInt(column);
+		case "getLong":
+			return resultSet.getLong(column);
+		case "getDouble":
+			return resultSet.getDouble(column);
+		case "getBoolean":
+			return resultSet.getBoolean(column);
+		case "getBigDecimal":
+			return resultSet.getBigDecimal(column);
+		case "getTimestamp":
+			return resultSet.getTimestamp(column);
+		case "getDate":
+			return resultSet.getDate(column);
+		default:
+			throw new SQLException("no lookahead for " + getter);
+		}
+	}
+
+	private Object value(String getter, int column) throws SQLException {
+		if (current == null) {
+			throw new SQLException("no current row");
+		}
+		Integer slot = slots.get(getter + " " + column);
+		if (slot == null) {
+			throw new SQLException("column " + column + " is not read ahead with " + getter);
+		}
+		wasNull = current.nulls[slot];
+		return current.values[slot];
+	}
+
+	public boolean isLast() {
+		return current != null && pending == null;
+	}
+
+	public boolean isFirst() {
+		return current != null && row == 1;
+	}
+
+	public int getRow() {
+		return current == null ? 0 : row;
+	}
+
+	public boolean wasNull() {
+		return wasNull;
+	}
+
+	public int findColumn(String label) throws SQLException {
+		Integer column = columns.get(label.toLowerCase(Locale.ROOT));
+		if (column == null) {
+			throw new SQLException("no column " + label);
+		}
+		return column;
+	}
+
+	public Object getObject(int column) throws SQLException {
+		return value("getObject", column);
+	}
+
+	public Object getObject(String label) throws SQLException {
+		return getObject(findColumn(label));
+	}
+
+	public String getString(int column) throws SQLException {
+		return (String) value("getString", column);
+	}
+
+	public String getString(String label) throws SQLException {
+		return getString(findColumn(label));
+	}
+
+	public int getInt(int column) throws SQLException {
+		return (Integer) value("getInt", column);
+	}
+
+	public int getInt(String label) throws SQLException {
+		return getInt(findColumn(label));
+	}
+
+	public long getLong(int column) throws SQLException {
+		return (Long) value("getLong", column);
+	}
+
+	public long getLong(String label) throws SQLException {
+		return getLong(findColumn(label));
+	}
+
+	public double getDouble(int column) throws SQLException {
+		return (Double) value("getDouble", column);
+	}
+
+	public double getDouble(String label) throws SQLException {
+		return getDouble(findColumn(label));
+	}
+
+	public boolean getBoolean(int column) throws SQLException {
+		return (Boolean) value("getBoolean", column);
+	}
+
+	public boolean getBoolean(String label) throws SQLException {
+		return getBoolean(findColumn(label));
+	}
+
+	public BigDecimal getBigDecimal(int column) throws SQLException {
+		return (BigDecimal) value("getBigDecimal", column);
+	}
+
+	public BigDecimal getBigDecimal(String label) throws SQLException {
+		return getBigDecimal(findColumn(label));
+	}
+
+	public Timestamp getTimestamp(int column) throws SQLException {
+		return (Timestamp) value("getTimestamp", column);
+	}
+
+	public Timestamp getTimestamp(String label) throws SQLException {
+		return getTimestamp(findColumn(label));
+	}
+
+	public Date getDate(int column) throws SQLException {
+		return (Date) value("getDate", column);
+	}
+
+	public Date getDate(String label) throws SQLException {
+		return getDate(findColumn(label));
+	}
+
+	/**
+	 * The values of one row, in the order of the getters.
+	 */
+	private static final class Row {
+		private final Object[] values;
+		private final boolean[] nulls;
+
+		private Row(int size) {
+			values = new Object[size];
+			nulls = new boolean[size];
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import spoon.SpoonException;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.cu.CompilationUnit;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.visitor.PrettyPrinter;
+import spoon.support.modelobs.ChangeCollector;
+
+/**
+ * Pretty-prints only the compilation units containing a type that was modified
+ * after this printer was created. Compilation units without changes are hard
+ * linked (or copied if linking is not possible) from their original source
+ * file, so the output directory is complete without regenerating every file.
+ * Create the printer after the model is built and before the first processor
+ * runs, otherwise earlier changes are not seen.
+ */
+public class SelectivePrettyPrinter {
+	private final Environment environment;
+	private final ChangeCollector changeCollector;
+	private final int threads;
+	private boolean linkUnmodified = true;
+
+	/**
+	 * @param environment of the launcher whose model is going to be changed.
+	 * @param threads number of threads linking or copying unmodified compilation units.
+	 */
+	public SelectivePrettyPrinter(Environment environment, int threads) {
+		this.environment = environment;
+		this.changeCollector = new ChangeCollector().attachTo(environment);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param environment of the launcher whose model is going to be changed.
+	 */
+	public SelectivePrettyPrinter(Environment environment) {
+		this(environment, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * By default unmodified files are hard linked. A linked output file shares
+	 * its content with the source file, so disable linking if the output is
+	 * edited afterwards.
+	 *
+	 * @param linkUnmodified false to always copy unmodified files.
+	 */
+	public void setLinkUnmodified(boolean linkUnmodified) {
+		this.linkUnmodified = linkUnmodified;
+	}
+
+	/**
+	 * @param type a top level type of the model.
+	 * @return true if the type or one of its children changed since the printer was created.
+	 */
+	public boolean isModified(CtType<?> type) {
+		return !changeCollector.getChanges(type).isEmpty();
+	}
+
+	/**
+	 * @param model the transformed model.
+	 * @return all top level types changed since the printer was created.
+	 */
+	public Set<CtType<?>> getModifiedTypes(CtModel model) {
+		return model.getAllTypes().stream().filter(this::isModified).collect(Collectors.toSet());
+	}
+
+	/**
+	 * Writes every compilation unit of the model to the source output directory
+	 * of the environment. Modified units are printed one after the other on the
+	 * calling thread: the preprocessors of the pretty-printer (import cleanup)
+	 * change the model, which notifies the shared change collector, so they must
+	 * not run concurrently. The others are linked or copied in parallel.
+	 *
+	 * @param model the transformed model.
+	 * @return counts and wall time of the run.
+	 */
+	public PrintReport print(CtModel model) {
+		long start = System.currentTimeMillis();
+		Map<CompilationUnit, List<CtType<?>>> units = groupByCompilationUnit(model.getAllTypes());
+		Map<CompilationUnit, List<CtType<?>>> modified = new LinkedHashMap<>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> tasks = new ArrayList<>();
+		try {
+			for (Map.Entry<CompilationUnit, List<CtType<?>>> unit : units.entrySet()) {
+				CompilationUnit cu = unit.getKey();
+				List<CtType<?>> types = unit.getValue();
+				// decided before printing, printing itself changes the model
+				if (types.stream().anyMatch(this::isModified) || cu.getFile() == null) {
+					modified.put(cu, types);
+				} else {
+					tasks.add(pool.submit(() -> linkUnit(cu, types)));
+				}
+			}
+			for (Map.Entry<CompilationUnit, List<CtType<?>>> unit : modified.entrySet()) {
+				printUnit(unit.getKey(), unit.getValue());
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (IOException e) {
+			throw new SpoonException("Cannot write compilation unit", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SpoonException("Interrupted while printing", e);
+		} catch (ExecutionException e) {
+			throw new SpoonException("Cannot write compilation unit", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return new PrintReport(modified.size(), tasks.size(), System.currentTimeMillis() - start);
+	}
+
+	private Map<CompilationUnit, List<CtType<?>>> groupByCompilationUnit(Collection<CtType<?>> types) {
+		Map<CompilationUnit, List<CtType<?>>> units = new LinkedHashMap<>();
+		for (CtType<?> type : types) {
+			CompilationUnit cu = type.getFactory().CompilationUnit().getOrCreate(type);
+			units.computeIfAbsent(cu, k -> new ArrayList<>()).add(type);
+		}
+		return units;
+	}
+
+	private void printUnit(CompilationUnit cu, List<CtType<?>> types) throws IOException {
+		// one printer per unit, printers keep state while printing
+		PrettyPrinter printer = environment.createPrettyPrinter();
+		String content = printer.calculate(cu, types);
+		Path target = outputFile(cu, types);
+		Files.createDirectories(target.getParent());
+		Files.write(target, content.getBytes(encoding()));
+	}
+
+	private Void linkUnit(CompilationUnit cu, List<CtType<?>> types) throws IOException {
+		Path source = cu.getFile().toPath();
+		Path target = outputFile(cu, types);
+		Files.createDirectories(target.getParent());
+		Files.deleteIfExists(target);
+		if (linkUnmodified) {
+			try {
+				Files.createLink(target, source);
+				return null;
+			} catch (UnsupportedOperationException | IOException e) {
+				// other file store or no hard link support, fall back to a copy
+			}
+		}
+		Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		return null;
+	}
+
+	/**
+	 * Same file name as the source file, so a unit declaring several top level
+	 * types is not written under the name of whichever comes first. Units
+	 * without a source file are named after their public type.
+	 */
+	private Path outputFile(CompilationUnit cu, List<CtType<?>> types) {
+		CtType<?> main = types.stream().filter(CtType::isPublic).findFirst().orElse(types.get(0));
+		String fileName = cu.getFile() == null ? main.getSimpleName() + ".java" : cu.getFile().getName();
+		File directory = environment.getSourceOutputDirectory();
+		String packagePath = main.getPackage() == null ? ""
+				: main.getPackage().getQualifiedName().replace('.', File.separatorChar);
+		return directory.toPath().resolve(packagePath).resolve(fileName);
+	}
+
+	private Charset encoding() {
+		return environment.getEncoding() == null ? Charset.defaultCharset() : environment.getEncoding();
+	}
+
+	/**
+	 * Result of one {@link SelectivePrettyPrinter#print(CtModel)} run.
+	 */
+	public static class PrintReport {
+		private final int printed;
+		private final int linked;
+		private final long elapsedMillis;
+
+		PrintReport(int printed, int linked, long elapsedMillis) {
+			this.printed = printed;
+			this.linked = linked;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		/**
+		 * @return number of compilation units regenerated by the pretty-printer.
+		 */
+		public int getPrinted() {
+			return printed;
+		}
+
+		/**
+		 * @return number of compilation units linked or copied unchanged.
+		 */
+		public int getLinked() {
+			return linked;
+		}
+
+		/**
+		 * @return wall time of the whole output step in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return "printed=" + printed + ", linked=" + linked + ", " + elapsedMillis + " ms";
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+
+import java.io.File;
+
+
+/*
+    RemoveTryTest 변환 후 출력 시간 비교
+        (1) launcher.prettyprint() : 전체 compilation unit 출력
+        (2) SelectivePrettyPrinter : 바뀐 unit만 출력, 나머지는 hard link / copy
+    결과 : spooned-full/, spooned-selective/
+*/
+
+
+public class SelectivePrintBenchTest {
+    private static final int RUNS = 5;
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        long full = 0;
+        long selective = 0;
+        SelectivePrettyPrinter.PrintReport report = null;
+
+        for (int i = 0; i < RUNS; i++) {
+            // (1) full
+            MavenLauncher launcher = newLauncher("spooned-full");
+            CtModel model = launcher.buildModel();
+            RemoveTryTest.removeTries(model);
+            long start = System.currentTimeMillis();
+            launcher.prettyprint();
+            full += System.currentTimeMillis() - start;
+
+            // (2) selective
+            launcher = newLauncher("spooned-selective");
+            model = launcher.buildModel();
+            SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+            RemoveTryTest.removeTries(model);
+            report = printer.print(model);
+            selective += report.getElapsedMillis();
+        }
+
+        System.out.println("full prettyprint      : " + (full / RUNS) + " ms (avg of " + RUNS + ")");
+        System.out.println("selective prettyprint : " + (selective / RUNS) + " ms (avg of " + RUNS + ")");
+        System.out.println("last selective run    : " + report);
+    }
+
+    private MavenLauncher newLauncher(String output) {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        environment.setSourceOutputDirectory(new File(output));
+        return launcher;
+    }
+}
@@ -0,0 +1,564 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import spoon.reflect.code.BinaryOperatorKind;
+import spoon.reflect.code.CtAssignment;
+import spoon.reflect.code.CtBinaryOperator;
+import spoon.reflect.code.CtBlock;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtExpression;
+import spoon.reflect.code.CtFor;
+import spoon.reflect.code.CtIf;
+import spoon.reflect.code.CtInvocation;
+import spoon.reflect.code.CtLiteral;
+import spoon.reflect.code.CtLocalVariable;
+import spoon.reflect.code.CtLoop;
+import spoon.reflect.code.CtOperatorAssignment;
+import spoon.reflect.code.CtStatement;
+import spoon.reflect.code.CtTryWithResource;
+import spoon.reflect.code.CtVariableRead;
+import spoon.reflect.code.CtVariableWrite;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtField;
+import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.declaration.CtVariable;
+import spoon.reflect.factory.Factory;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.reference.CtVariableReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Finds strings growing across the iterations of a loop without bound: a
+ * {@code StringBuilder}/{@code StringBuffer} declared before the loop and
+ * appended to in it, or a {@code String} concatenated to itself
+ * ({@code s = s + x}, {@code s += x}), never reset in the loop. Also reports
+ * lines built with {@code +} and written once per iteration.
+ *
+ * <p>The peak memory is estimated from the loop cardinality (the bound of a
+ * {@code for (...; i < N; ...)}, a hint for the executable, or a default) and
+ * the characters appended per iteration (literal lengths, an average length
+ * for the other values). A builder holding n chars may need 2 bytes per char
+ * and, while growing, its old array and the doubled new one: about 6n bytes.
+ * A string concatenated to itself keeps the old and the new string, 4n bytes,
+ * and copies n²/2 chars over the whole loop.
+ *
+ * <p>Rewrites:
+ * <ul>
+ * <li>a builder written to a stream after the loop
+ * ({@code out.write(sb.toString())}, {@code out.append(sb)}) is pre-sized to
+ * the chunk size and flushed to the stream whenever it reaches it;</li>
+ * <li>another builder read after the loop is pre-sized to its estimate;</li>
+ * <li>a string concatenated to itself is accumulated in a pre-sized builder;</li>
+ * <li>{@code out.write(a + b + ...)} on a {@code Writer} or another
+ * {@code Appendable} becomes {@code out.append(a).append(b)...}.</li>
+ * </ul>
+ * The estimates only size a builder when the loop bound or a hint gives the
+ * iterations, the chunk size caps it otherwise.
+ */
+public class StringAccumulationDetector {
+	/** String growing across loop iterations without bound. */
+	public static final String KIND = "unbounded-accumulation";
+	/** Line concatenated and written once per iteration. */
+	public static final String LINE_KIND = "per-row-concatenation";
+	private static final Set<String> BUILDERS = new HashSet<>(Arrays.asList("StringBuilder", "StringBuffer"));
+	private static final Set<String> STREAM_METHODS = new HashSet<>(Arrays.asList("write", "append", "print"));
+	private static final int MAX_PRESIZE = 16 * 1024 * 1024;
+
+	private long defaultCardinality = 1000000;
+	private final Map<String, Long> cardinalityHints = new HashMap<>();
+	private int averageValueLength = 16;
+	private int chunkSize = 64 * 1024;
+
+	/**
+	 * @param rows iterations assumed for loops without bound or hint, 1000000 by default.
+	 */
+	public void setDefaultCardinality(long rows) {
+		this.defaultCardinality = rows;
+	}
+
+	/**
+	 * @param executableKey key of the executable, see {@link CallGraphSummary#key(CtExecutable)}.
+	 * @param rows iterations of its loops, e.g. the rows of the table it reads.
+	 */
+	public void setCardinalityHint(String executableKey, long rows) {
+		cardinalityHints.put(executableKey, rows);
+	}
+
+	/**
+	 * @param length chars assumed for an appended value that is not a literal, 16 by default.
+	 */
+	public void setAverageValueLength(int length) {
+		this.averageValueLength = length;
+	}
+
+	/**
+	 * @param chars size of the flushed chunks, 64K by default.
+	 */
+	public void setChunkSize(int chars) {
+		this.chunkSize = chars;
+	}
+
+	/**
+	 * @param root element to search.
+	 * @return the accumulations, outermost loop first.
+	 */
+	public List<Accumulation> find(CtElement root) {
+		List<Accumulation> found = new ArrayList<>();
+		Set<CtVariable<?>> seen = new HashSet<>();
+		for (CtLoop loop : root.getElements(new TypeFilter<>(CtLoop.class))) {
+			Map<CtVariable<?>, List<CtElement>> growing = new HashMap<>();
+			for (CtInvocation<?> append : loop.getElements(new TypeFilter<>(CtInvocation.class))) {
+				CtVariable<?> builder = outerVariable(append.getTarget(), loop);
+				if (builder != null && BUILDERS.contains(builder.getType().getSimpleName())
+						&& ("append".equals(append.getExecutable().getSimpleName())
+								|| "insert".equals(append.getExecutable().getSimpleName()))) {
+					growing.computeIfAbsent(builder, k -> new ArrayList<>()).add(append);
+				}
+			}
+			for (CtAssignment<?, ?> assignment : loop.getElements(new TypeFilter<>(CtAssignment.class))) {
+				CtVariable<?> string = assignment.getAssigned() instanceof CtVariableWrite
+						? outerVariable(assignment.getAssigned(), loop) : null;
+				if (string != null && "String".equals(string.getType().getSimpleName()) && isSelfConcatenation(assignment, string)) {
+					growing.computeIfAbsent(string, k -> new ArrayList<>()).add(assignment);
+				}
+			}
+			growing.forEach((variable, growths) -> {
+				if (seen.add(variable) && !isReset(variable, loop)) {
+					found.add(new Accumulation(variable, loop, growths));
+				}
+			});
+		}
+		return found;
+	}
+
+	/**
+	 * @param root element to search.
+	 * @return one finding per accumulation and per line concatenated in a loop.
+	 */
+	public List<Finding> detect(CtElement root) {
+		List<Finding> findings = new ArrayList<>();
+		find(root).forEach(a -> findings.add(a.toFinding()));
+		for (CtInvocation<?> write : lineWrites(root)) {
+			findings.add(Finding.at(LINE_KIND, write, null, "concatenates " + operands(write.getArguments().get(0)).size()
+					+ " values into a temporary string once per iteration"));
+		}
+		return findings;
+	}
+
+	/**
+	 * Rewrites accumulations and written lines.
+	 *
+	 * @param root element to search and rewrite.
+	 * @return the findings of the rewritten elements.
+	 */
+	public List<Finding> rewrite(CtElement root) {
+		List<Finding> rewritten = new ArrayList<>();
+		for (Accumulation accumulation : find(root)) {
+			Finding finding = accumulation.toFinding();
+			if (accumulation.isBuilder() ? rewriteBuilder(accumulation) : rewriteString(accumulation)) {
+				rewritten.add(finding);
+			}
+		}
+		for (CtInvocation<?> write : lineWrites(root)) {
+			Finding finding = Finding.at(LINE_KIND, write, null, "written value by value");
+			if (rewriteLine(write)) {
+				rewritten.add(finding);
+			}
+		}
+		return rewritten;
+	}
+
+	private boolean rewriteBuilder(Accumulation accumulation) {
+		CtVariable<?> builder = accumulation.getVariable();
+		CtInvocation<?> consumer = accumulation.getConsumer();
+		if (!accumulation.isReadAfter() || !(builder instanceof CtLocalVariable)) {
+			return false;
+		}
+		Factory factory = builder.getFactory();
+		String name = builder.getSimpleName();
+		if (consumer == null) {
+			presize(builder, accumulation.getCapacity());
+			return true;
+		}
+		presize(builder, chunkSize + 2 * accumulation.getCharsPerIteration());
+		// flush at the end of each iteration, the original consumer writes the rest after the loop
+		CtIf flush = factory.Core().createIf();
+		flush.setCondition(factory.Code().createCodeSnippetExpression(name + ".length() >= " + chunkSize));
+		CtBlock<?> then = factory.Code().createCtBlock(consumer.clone());
+		then.addStatement(factory.Code().createCodeSnippetStatement(name + ".setLength(0)"));
+		flush.setThenStatement(then);
+		CtStatement body = accumulation.getLoop().getBody();
+		if (body instanceof CtBlock) {
+			((CtBlock<?>) body).addStatement(flush);
+		} else {
+			CtBlock<?> block = factory.Code().createCtBlock(body.clone());
+			block.addStatement(flush);
+			accumulation.getLoop().setBody(block);
+		}
+		return true;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void presize(CtVariable<?> builder, int capacity) {
+		CtExpression<?> creation = builder.getDefaultExpression();
+		if (creation instanceof CtConstructorCall && ((CtConstructorCall<?>) creation).getArguments().isEmpty()) {
+			((CtConstructorCall) creation).addArgument(builder.getFactory().Code().createLiteral(capacity));
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private boolean rewriteString(Accumulation accumulation) {
+		CtVariable<?> string = accumulation.getVariable();
+		CtLoop loop = accumulation.getLoop();
+		if (!(string instanceof CtLocalVariable) || !(loop.getParent() instanceof CtBlock)) {
+			return false;
+		}
+		// the string may only be read by its own concatenations in the loop
+		for (CtVariableRead<?> read : loop.getElements(new TypeFilter<>(CtVariableRead.class))) {
+			if (string.getReference().equals(read.getVariable()) && accumulation.getGrowths().stream()
+					.noneMatch(g -> g instanceof CtAssignment && leftmost(((CtAssignment<?, ?>) g).getAssignment()) == read)) {
+				return false;
+			}
+		}
+		Factory factory = string.getFactory();
+		String name = string.getSimpleName();
+		String builderName = name + "Builder";
+		int capacity = accumulation.getCapacity();
+		CtLocalVariable builder = factory.Code().createLocalVariable(factory.Type().createReference(StringBuilder.class),
+				builderName, factory.Code().createCodeSnippetExpression("new StringBuilder(" + capacity + ").append(" + name + ")"));
+		loop.insertBefore(builder);
+		loop.insertAfter(factory.Code().createCodeSnippetStatement(name + " = " + builderName + ".toString()"));
+		for (CtElement growth : accumulation.getGrowths()) {
+			CtAssignment<?, ?> assignment = (CtAssignment<?, ?>) growth;
+			List<CtExpression<?>> parts = operands(assignment.getAssignment());
+			if (!(assignment instanceof CtOperatorAssignment)) {
+				// s = s + a + b: s is the first operand
+				parts = parts.subList(1, parts.size());
+			}
+			StringBuilder appends = new StringBuilder(builderName);
+			for (CtExpression<?> part : parts) {
+				appends.append(".append(").append(part).append(")");
+			}
+			assignment.replace(factory.Code().createCodeSnippetStatement(appends.toString()));
+		}
+		return true;
+	}
+
+	private boolean rewriteLine(CtInvocation<?> write) {
+		if (!"write".equals(write.getExecutable().getSimpleName()) || write.getTarget() == null) {
+			return false;
+		}
+		// append is the Writer (Appendable) one, an OutputStream or a Channel has none
+		CtTypeReference<?> stream = write.getTarget().getType();
+		if (stream == null || !stream.isSubtypeOf(write.getFactory().Type().createReference(Appendable.class))) {
+			return false;
+		}
+		List<CtExpression<?>> parts = operands(write.getArguments().get(0));
+		if (!isString(parts.get(0)) && !isString(parts.get(1))) {
+			// a + b with two numbers is an addition
+			return false;
+		}
+		StringBuilder chain = new StringBuilder(write.getTarget().toString());
+		for (CtExpression<?> part : parts) {
+			chain.append(".append(").append(isString(part) ? part.toString() : "String.valueOf(" + part + ")").append(")");
+		}
+		write.replace(write.getFactory().Code().createCodeSnippetStatement(chain.toString()));
+		return true;
+	}
+
+	private List<CtInvocation<?>> lineWrites(CtElement root) {
+		List<CtInvocation<?>> writes = new ArrayList<>();
+		for (CtInvocation<?> invocation : root.getElements(new TypeFilter<>(CtInvocation.class))) {
+			if (STREAM_METHODS.contains(invocation.getExecutable().getSimpleName()) && invocation.getArguments().size() == 1
+					&& operands(invocation.getArguments().get(0)).size() >= 3 && JdbcPatterns.enclosingLoop(invocation) != null) {
+				writes.add(invocation);
+			}
+		}
+		return writes;
+	}
+
+	/**
+	 * @return the local variable read or written by the expression, if it is declared outside of the loop.
+	 */
+	private static CtVariable<?> outerVariable(CtExpression<?> expression, CtLoop loop) {
+		CtVariable<?> variable = null;
+		if (expression instanceof CtVariableRead) {
+			variable = ((CtVariableRead<?>) expression).getVariable().getDeclaration();
+		} else if (expression instanceof CtVariableWrite) {
+			variable = ((CtVariableWrite<?>) expression).getVariable().getDeclaration();
+		}
+		if (!(variable instanceof CtLocalVariable) || variable.getType() == null || variable.hasParent(loop)) {
+			return null;
+		}
+		return variable;
+	}
+
+	private static boolean isSelfConcatenation(CtAssignment<?, ?> assignment, CtVariable<?> string) {
+		if (assignment instanceof CtOperatorAssignment) {
+			return ((CtOperatorAssignment<?, ?>) assignment).getKind() == BinaryOperatorKind.PLUS;
+		}
+		CtExpression<?> first = leftmost(assignment.getAssignment());
+		return first instanceof CtVariableRead && string.getReference().equals(((CtVariableRead<?>) first).getVariable());
+	}
+
+	/**
+	 * A builder is reset by setLength, delete or a new assignment, a string by
+	 * an assignment not starting with itself.
+	 */
+	private static boolean isReset(CtVariable<?> variable, CtLoop loop) {
+		for (CtInvocation<?> invocation : loop.getElements(new TypeFilter<>(CtInvocation.class))) {
+			String name = invocation.getExecutable().getSimpleName();
+			if (("setLength".equals(name) || "delete".equals(name)) && invocation.getTarget() instanceof CtVariableRead
+					&& variable.getReference().equals(((CtVariableRead<?>) invocation.getTarget()).getVariable())) {
+				return true;
+			}
+		}
+		for (CtAssignment<?, ?> assignment : loop.getElements(new TypeFilter<>(CtAssignment.class))) {
+			if (assignment.getAssigned() instanceof CtVariableWrite
+					&& variable.getReference().equals(((CtVariableWrite<?>) assignment.getAssigned()).getVariable())
+					&& !isSelfConcatenation(assignment, variable)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the stream the expression reads can be written to in each iteration of the loop.
+	 */
+	private static boolean isOpenIn(CtExpression<?> stream, CtLoop loop) {
+		if (!(stream instanceof CtVariableRead)) {
+			return false;
+		}
+		CtVariableReference<?> reference = ((CtVariableRead<?>) stream).getVariable();
+		CtVariable<?> declaration = reference.getDeclaration();
+		if (declaration instanceof CtField) {
+			return declaration.isFinal();
+		}
+		boolean declaredBefore = declaration instanceof CtParameter
+				|| declaration instanceof CtLocalVariable && (isBefore(declaration, loop)
+						|| declaration.getParent() instanceof CtTryWithResource
+						&& loop.hasParent(((CtTryWithResource) declaration.getParent()).getBody()));
+		CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(loop);
+		return declaredBefore && executable.getElements(new TypeFilter<>(CtVariableWrite.class)).stream()
+				.noneMatch(w -> reference.equals(w.getVariable()));
+	}
+
+	/**
+	 * @return true if the element is in a statement running before the loop, in a block enclosing the loop.
+	 */
+	private static boolean isBefore(CtElement element, CtLoop loop) {
+		CtElement child = loop;
+		while (child.isParentInitialized() && !(child instanceof CtExecutable)) {
+			CtElement parent = child.getParent();
+			if (parent instanceof CtBlock && element.hasParent(parent)) {
+				for (CtStatement statement : ((CtBlock<?>) parent).getStatements()) {
+					if (statement == child) {
+						return false;
+					}
+					if (statement == element || element.hasParent(statement)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			child = parent;
+		}
+		return false;
+	}
+
+	private static CtExpression<?> leftmost(CtExpression<?> expression) {
+		CtExpression<?> current = expression;
+		while (current instanceof CtBinaryOperator && ((CtBinaryOperator<?>) current).getKind() == BinaryOperatorKind.PLUS) {
+			current = ((CtBinaryOperator<?>) current).getLeftHandOperand();
+		}
+		return current;
+	}
+
+	/**
+	 * Only string concatenations are split: in {@code s + (i + 1)} or
+	 * {@code (i + 1) + s}, {@code i + 1} is an addition and stays one operand.
+	 *
+	 * @return the operands of a chain of +, left to right.
+	 */
+	private static List<CtExpression<?>> operands(CtExpression<?> expression) {
+		List<CtExpression<?>> operands = new ArrayList<>();
+		if (expression instanceof CtBinaryOperator && ((CtBinaryOperator<?>) expression).getKind() == BinaryOperatorKind.PLUS
+				&& isString(expression)) {
+			operands.addAll(operands(((CtBinaryOperator<?>) expression).getLeftHandOperand()));
+			operands.addAll(operands(((CtBinaryOperator<?>) expression).getRightHandOperand()));
+		} else {
+			operands.add(expression);
+		}
+		return operands;
+	}
+
+	private static boolean isString(CtExpression<?> expression) {
+		CtTypeReference<?> type = expression.getType();
+		return type != null && "String".equals(type.getSimpleName());
+	}
+
+	/**
+	 * A string growing in a loop.
+	 */
+	public class Accumulation {
+		private final CtVariable<?> variable;
+		private final CtLoop loop;
+		private final List<CtElement> growths;
+
+		Accumulation(CtVariable<?> variable, CtLoop loop, List<CtElement> growths) {
+			this.variable = variable;
+			this.loop = loop;
+			this.growths = growths;
+		}
+
+		public CtVariable<?> getVariable() {
+			return variable;
+		}
+
+		/**
+		 * @return the outermost loop the variable grows in.
+		 */
+		public CtLoop getLoop() {
+			return loop;
+		}
+
+		/**
+		 * @return the appends or self concatenations in the loop.
+		 */
+		public List<CtElement> getGrowths() {
+			return growths;
+		}
+
+		public boolean isBuilder() {
+			return BUILDERS.contains(variable.getType().getSimpleName());
+		}
+
+		/**
+		 * @return true if the variable is read after the loop, an unread builder can simply be dropped.
+		 */
+		public boolean isReadAfter() {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(loop);
+			return executable != null && executable.getElements(new TypeFilter<>(CtVariableRead.class)).stream()
+					.anyMatch(r -> variable.getReference().equals(r.getVariable()) && !r.hasParent(loop));
+		}
+
+		/**
+		 * The consumer is cloned into the loop, so its stream must already be
+		 * open there: a parameter, a final field, or a local declared before
+		 * the loop (or as a resource of a try around it), never reassigned.
+		 * Uses of the builder before the loop, such as a header appended to
+		 * it, are allowed.
+		 *
+		 * @return the only use of the builder after the loop if it writes it to a stream, null otherwise.
+		 */
+		public CtInvocation<?> getConsumer() {
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(loop);
+			CtInvocation<?> consumer = null;
+			for (CtVariableRead<?> read : executable.getElements(new TypeFilter<>(CtVariableRead.class))) {
+				if (!variable.getReference().equals(read.getVariable()) || read.hasParent(loop) || isBefore(read, loop)) {
+					continue;
+				}
+				CtElement use = read.getParent();
+				if (use instanceof CtInvocation && "toString".equals(((CtInvocation<?>) use).getExecutable().getSimpleName())) {
+					use = use.getParent();
+				}
+				if (consumer != null || !(use instanceof CtInvocation)
+						|| !STREAM_METHODS.contains(((CtInvocation<?>) use).getExecutable().getSimpleName())
+						|| ((CtInvocation<?>) use).getArguments().size() != 1
+						|| !isOpenIn(((CtInvocation<?>) use).getTarget(), loop) || !(use.getParent() instanceof CtBlock)) {
+					return null;
+				}
+				consumer = (CtInvocation<?>) use;
+			}
+			return consumer;
+		}
+
+		/**
+		 * @return chars appended per iteration, literals counted exactly.
+		 */
+		public int getCharsPerIteration() {
+			int chars = 0;
+			for (CtElement growth : growths) {
+				List<CtExpression<?>> parts = new ArrayList<>();
+				if (growth instanceof CtInvocation) {
+					((CtInvocation<?>) growth).getArguments().stream().skip(
+							"insert".equals(((CtInvocation<?>) growth).getExecutable().getSimpleName()) ? 1 : 0)
+							.forEach(a -> parts.addAll(operands(a)));
+				} else {
+					parts.addAll(operands(((CtAssignment<?, ?>) growth).getAssignment()));
+					if (!(growth instanceof CtOperatorAssignment)) {
+						parts.remove(0);
+					}
+				}
+				for (CtExpression<?> part : parts) {
+					chars += part instanceof CtLiteral && ((CtLiteral<?>) part).getValue() != null
+							? String.valueOf(((CtLiteral<?>) part).getValue()).length() : averageValueLength;
+				}
+			}
+			return chars;
+		}
+
+		/**
+		 * @return iterations of the loop, see {@link StringAccumulationDetector}.
+		 */
+		public long getCardinality() {
+			Long known = getKnownCardinality();
+			return known == null ? defaultCardinality : known;
+		}
+
+		/**
+		 * @return iterations given by the loop bound or a hint, null if only the default applies.
+		 */
+		private Long getKnownCardinality() {
+			if (loop instanceof CtFor && ((CtFor) loop).getExpression() instanceof CtBinaryOperator) {
+				CtBinaryOperator<?> condition = (CtBinaryOperator<?>) ((CtFor) loop).getExpression();
+				if ((condition.getKind() == BinaryOperatorKind.LT || condition.getKind() == BinaryOperatorKind.LE)
+						&& condition.getRightHandOperand() instanceof CtLiteral
+						&& ((CtLiteral<?>) condition.getRightHandOperand()).getValue() instanceof Number) {
+					return ((Number) ((CtLiteral<?>) condition.getRightHandOperand()).getValue()).longValue();
+				}
+			}
+			CtExecutable<?> executable = JdbcPatterns.enclosingExecutable(loop);
+			return executable == null ? null : cardinalityHints.get(CallGraphSummary.key(executable));
+		}
+
+		/**
+		 * @return initial capacity of the builder: the estimate when the iterations are known, at most the chunk size otherwise.
+		 */
+		public int getCapacity() {
+			return (int) Math.min(getKnownCardinality() != null ? MAX_PRESIZE : chunkSize, getEstimatedChars());
+		}
+
+		public long getEstimatedChars() {
+			return getCharsPerIteration() * getCardinality();
+		}
+
+		/**
+		 * @return estimated peak bytes of the accumulated string.
+		 */
+		public long getEstimatedPeakBytes() {
+			return getEstimatedChars() * (isBuilder() ? 6 : 4);
+		}
+
+		public Finding toFinding() {
+			String message = variable.getType().getSimpleName() + " " + variable.getSimpleName() + " grows by ~"
+					+ getCharsPerIteration() + " chars for each of ~" + getCardinality() + " iterations, peak ~"
+					+ (getEstimatedPeakBytes() >> 20) + " MiB";
+			if (!isBuilder()) {
+				message += ", copies ~" + ((getEstimatedChars() / 2 * getCardinality()) >> 20) + " M chars";
+			} else if (!isReadAfter()) {
+				message += ", never read after the loop";
+			}
+			return Finding.at(KIND, growths.get(0), null, message);
+		}
+	}
+}
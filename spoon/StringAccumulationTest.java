@@ -0,0 +1,82 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import spoon.MavenLauncher;
+import spoon.compiler.Environment;
+import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.visitor.filter.NamedElementFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/*
+    loop 돌면서 계속 커지는 문자열 찾기 (StringAccumulationDetector)
+        (1) loop 밖 StringBuilder 에 append, String 에 s = s + ..., 초기화 없음
+        (2) loop 횟수 (for 상한, hint, 기본 1,000,000) 로 최대 메모리 추정
+        (3) 변경 : 미리 크기 잡은 builder + chunk 단위로 stream 에 flush, String -> StringBuilder,
+            writer.write(a + b + ...) -> writer.append(a).append(b)...
+    옵션 : -Daccumulation.rows=1000000
+*/
+
+
+public class StringAccumulationTest {
+    @SuppressWarnings("all")
+    @Test
+    public void main() {
+        MavenLauncher launcher = new MavenLauncher(
+                "./src/test/resources/project/",
+                MavenLauncher.SOURCE_TYPE.APP_SOURCE);
+
+        CtModel model = launcher.buildModel();
+        SelectivePrettyPrinter printer = new SelectivePrettyPrinter(launcher.getEnvironment());
+
+        StringAccumulationDetector detector = new StringAccumulationDetector();
+        detector.setDefaultCardinality(Long.getLong("accumulation.rows", 1000000L));
+        List<Finding> allFound = new ArrayList<>();
+        List<Finding> allRewritten = new ArrayList<>();
+        List<String> upgrades = new ArrayList<>();
+        for (CtElement root : model.getElements(new NamedElementFilter<>(CtPackage.class, "jg"))) {
+            System.out.println("@ found:");
+            List<Finding> found = detector.detect(root);
+            found.forEach(f -> System.out.println("\t" + f));
+            System.out.println("@ rewritten:");
+            List<Finding> rewritten = detector.rewrite(root);
+            rewritten.forEach(f -> System.out.println("\t" + f));
+
+            // only reported sites are rewritten
+            Set<String> locations = found.stream().map(Finding::getLocation).collect(Collectors.toSet());
+            rewritten.forEach(f -> assertTrue(f.toString(), locations.contains(f.getLocation())));
+            assertTrue(rewritten.isEmpty() || !printer.getModifiedTypes(model).isEmpty());
+            allFound.addAll(found);
+            allRewritten.addAll(rewritten);
+            root.getElements(new NamedElementFilter<>(CtMethod.class, "processUpgrade"))
+                    .forEach(m -> upgrades.add(m.getBody().toString()));
+        }
+
+        // processUpgrade: temp.append(rs.getString(COLUMN_ID)) per row, temp is never read, so not rewritten
+        List<Finding> temps = allFound.stream().filter(f -> StringAccumulationDetector.KIND.equals(f.getKind())
+                && f.getMessage().startsWith("StringBuilder temp grows by ~16 chars")).collect(Collectors.toList());
+        assertFalse(temps.isEmpty());
+        temps.forEach(f -> assertTrue(f.getMessage(), f.getMessage().endsWith("never read after the loop")));
+        Set<String> rewrittenLocations = allRewritten.stream().map(Finding::getLocation).collect(Collectors.toSet());
+        temps.forEach(f -> assertFalse(f.toString(), rewrittenLocations.contains(f.getLocation())));
+        assertFalse(upgrades.isEmpty());
+        for (String body : upgrades) {
+            assertTrue(body, body.contains("temp.append(rs.getString(COLUMN_ID))"));
+            assertTrue(body, body.contains("new StringBuilder()"));
+        }
+
+        Environment environment = launcher.getEnvironment();
+        environment.setCommentEnabled(true);
+        environment.setAutoImports(true);
+        printer.print(model);
+    }
+}
@@ -0,0 +1,143 @@
+package fr.inria.gforge.spoon.transformation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import spoon.reflect.CtModel;
+import spoon.reflect.code.CtConstructorCall;
+import spoon.reflect.code.CtNewClass;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.filter.TypeFilter;
+
+/**
+ * Subtypes and instantiated types of a model, computed in one pass over the
+ * model, for class hierarchy (CHA) and rapid type analysis (RTA) call
+ * resolution. Types are keyed by qualified name, so supertypes missing from
+ * the model (e.g. library interfaces in noclasspath mode) still index their
+ * subtypes. Indexes are cached per model, see {@link #of(CtModel)}; a model
+ * changed afterwards needs {@link #invalidate(CtModel)}.
+ */
+public class SubtypeIndex {
+	private static final Map<CtModel, SubtypeIndex> CACHE = new WeakHashMap<>();
+
+	private final Map<String, CtType<?>> types = new HashMap<>();
+	private final Map<String, Set<String>> directSubtypes = new HashMap<>();
+	private final Map<String, Set<String>> directSupertypes = new HashMap<>();
+	private final Set<String> instantiated = new HashSet<>();
+	private final Map<String, List<CtType<?>>> subtypes = new HashMap<>();
+	private Set<String> reachable;
+
+	/**
+	 * @param model any model.
+	 * @return the cached index of the model, built on first use.
+	 */
+	public static SubtypeIndex of(CtModel model) {
+		synchronized (CACHE) {
+			return CACHE.computeIfAbsent(model, SubtypeIndex::new);
+		}
+	}
+
+	/**
+	 * @param model a model whose types or instantiations changed.
+	 */
+	public static void invalidate(CtModel model) {
+		synchronized (CACHE) {
+			CACHE.remove(model);
+		}
+	}
+
+	/**
+	 * @param model indexed model, use {@link #of(CtModel)} to share the index.
+	 */
+	public SubtypeIndex(CtModel model) {
+		for (CtType<?> type : model.getRootPackage().getElements(new TypeFilter<>(CtType.class))) {
+			String name = type.getQualifiedName();
+			types.put(name, type);
+			if (type.getSuperclass() != null) {
+				addSupertype(name, type.getSuperclass());
+			}
+			for (CtTypeReference<?> supertype : type.getSuperInterfaces()) {
+				addSupertype(name, supertype);
+			}
+		}
+		for (CtConstructorCall<?> call : model.getRootPackage().getElements(new TypeFilter<>(CtConstructorCall.class))) {
+			if (call instanceof CtNewClass) {
+				instantiated.add(((CtNewClass<?>) call).getAnonymousClass().getQualifiedName());
+			} else if (call.getType() != null) {
+				instantiated.add(call.getType().getQualifiedName());
+			}
+		}
+	}
+
+	private void addSupertype(String type, CtTypeReference<?> supertype) {
+		String name = supertype.getQualifiedName();
+		directSubtypes.computeIfAbsent(name, k -> new HashSet<>()).add(type);
+		directSupertypes.computeIfAbsent(type, k -> new HashSet<>()).add(name);
+	}
+
+	/**
+	 * @param qualifiedName name of a class or interface, it may be missing from the model.
+	 * @return declarations of all direct and indirect subtypes in the model.
+	 */
+	public synchronized List<CtType<?>> getSubtypes(String qualifiedName) {
+		return subtypes.computeIfAbsent(qualifiedName, name -> {
+			List<CtType<?>> found = new ArrayList<>();
+			Set<String> seen = new HashSet<>();
+			Deque<String> work = new ArrayDeque<>(Collections.singleton(name));
+			while (!work.isEmpty()) {
+				for (String subtype : directSubtypes.getOrDefault(work.pop(), Collections.emptySet())) {
+					if (seen.add(subtype)) {
+						found.add(types.get(subtype));
+						work.push(subtype);
+					}
+				}
+			}
+			return Collections.unmodifiableList(found);
+		});
+	}
+
+	/**
+	 * @param qualifiedName name of a type.
+	 * @return true if the type is instantiated with new in the model.
+	 */
+	public boolean isInstantiated(String qualifiedName) {
+		return instantiated.contains(qualifiedName);
+	}
+
+	/**
+	 * RTA liveness: methods of a type can only run on instances of the type or
+	 * of one of its subtypes.
+	 *
+	 * @param qualifiedName name of a type.
+	 * @return true if the type or one of its subtypes is instantiated.
+	 */
+	public synchronized boolean isReachable(String qualifiedName) {
+		if (reachable == null) {
+			reachable = new HashSet<>();
+			Deque<String> work = new ArrayDeque<>(instantiated);
+			while (!work.isEmpty()) {
+				String type = work.pop();
+				if (reachable.add(type)) {
+					work.addAll(directSupertypes.getOrDefault(type, Collections.emptySet()));
+				}
+			}
+		}
+		return reachable.contains(qualifiedName);
+	}
+
+	/**
+	 * @return number of indexed types.
+	 */
+	public int size() {
+		return types.size();
+	}
+}
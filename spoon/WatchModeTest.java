@@ -0,0 +1,79 @@
+package fr.inria.gforge.spoon.transformation;
+
+import org.junit.Test;
+import spoon.Launcher;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/*
+    watch 모드 (IncrementalAnalysisDaemon)
+        (1) 모델 한 번 빌드, 소스 디렉터리 WatchService로 감시
+        (2) 파일 바뀌면 그 파일만 다시 빌드, N+1 / 닫지 않은 statement 결과 갱신
+        (3) 추가 / 제거된 결과만 출력, update latency 중간값 출력 (목표 500 ms 이하)
+    타겟 디렉터리 복사본에서 파일 하나를 EDITS 번 고쳐봄
+    옵션 : -Dwatch.seconds=600 이면 고치지 않고 그 시간 동안 감시만 함 (직접 편집해서 확인)
+*/
+
+
+public class WatchModeTest {
+    private static final int EDITS = 10;
+
+    @SuppressWarnings("all")
+    @Test
+    public void main() throws Exception {
+        Path root = CorpusScaler.scale(Paths.get("./src/test/resources/project/src/main/java/"), 1);
+        Launcher launcher = new Launcher();
+        launcher.addInputResource(root.toString());
+        launcher.getEnvironment().setNoClasspath(true);
+        launcher.getEnvironment().setCommentEnabled(false);
+
+        BlockingQueue<IncrementalAnalysisDaemon.Delta> deltas = new LinkedBlockingQueue<>();
+        try (IncrementalAnalysisDaemon daemon = new IncrementalAnalysisDaemon(launcher, root)) {
+            daemon.addListener(delta -> {
+                System.out.println("@ " + delta);
+                delta.getAdded().forEach(f -> System.out.println("\t+ " + f));
+                delta.getRemoved().forEach(f -> System.out.println("\t- " + f));
+                delta.getFailures().forEach((file, error) -> System.out.println("\t! " + file + ": " + error));
+                deltas.add(delta);
+            });
+            daemon.addErrorListener(e -> System.out.println("@ update failed: " + e));
+            daemon.start().forEach(f -> System.out.println(f));
+
+            long seconds = Long.getLong("watch.seconds", 0);
+            if (seconds > 0) {
+                System.out.println("watching " + root + " for " + seconds + " s");
+                Thread.sleep(seconds * 1000);
+            } else {
+                Path file = firstJavaFile(root);
+                String original = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                for (int i = 0; i < EDITS; i++) {
+                    // a blank line on top moves every finding of the file one line down, then back
+                    String content = i % 2 == 0 ? "\n" + original : original;
+                    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+                    if (deltas.poll(10, TimeUnit.SECONDS) == null) {
+                        System.out.println("no update for " + file);
+                    }
+                }
+            }
+            System.out.println(String.format("%d updates, median latency %d ms",
+                    daemon.getUpdateCount(), daemon.getMedianLatencyMillis()));
+        }
+    }
+
+    private Path firstJavaFile(Path root) throws Exception {
+        try (Stream<Path> walk = Files.walk(root)) {
+            List<Path> files = walk.filter(p -> p.toString().endsWith(".java")).sorted().collect(Collectors.toList());
+            return files.get(0);
+        }
+    }
+}